@@ -134,24 +134,28 @@ public class GrpcAudioTestHarnessClient extends AudioTestHarnessClient {
             return this;
         }
 
-        @VisibleForTesting
-        Builder setManagedChannel(ManagedChannel managedChannel) {
+        /**
+         * Sets the {@link ManagedChannel} used to communicate with the server in place of one built
+         * from the address, for example an in-process channel when benchmarking the server.
+         */
+        public Builder setManagedChannel(ManagedChannel managedChannel) {
+            Preconditions.checkNotNull(managedChannel, "managedChannel cannot be null");
             mManagedChannel = managedChannel;
             return this;
         }
 
         public GrpcAudioTestHarnessClient build() {
-            if (mManagedChannel == null) {
-                Preconditions.checkState(mHostname != null, "Address must be set.");
+            if (mExecutor == null
+                    && (mGrpcAudioCaptureStreamFactory == null || mManagedChannel == null)) {
+                mExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+            }
 
-                if (mExecutor == null) {
-                    mExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
-                }
+            if (mGrpcAudioCaptureStreamFactory == null) {
+                mGrpcAudioCaptureStreamFactory = GrpcAudioCaptureStreamFactory.create(mExecutor);
+            }
 
-                if (mGrpcAudioCaptureStreamFactory == null) {
-                    mGrpcAudioCaptureStreamFactory =
-                            GrpcAudioCaptureStreamFactory.create(mExecutor);
-                }
+            if (mManagedChannel == null) {
+                Preconditions.checkState(mHostname != null, "Address must be set.");
 
                 mManagedChannel =
                         ManagedChannelBuilder.forAddress(mHostname, mPort)
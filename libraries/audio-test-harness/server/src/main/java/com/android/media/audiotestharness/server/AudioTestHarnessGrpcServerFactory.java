@@ -27,6 +27,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Module;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -105,6 +106,21 @@ public class AudioTestHarnessGrpcServerFactory implements AutoCloseable {
                 executorService, AudioTestHarnessServerModule.create(executorService));
     }
 
+    /**
+     * Creates a new {@link AudioTestHarnessGrpcServerFactory} with the provided ExecutorService
+     * whose servers use the provided module to bind the {@link
+     * com.android.media.audiotestharness.server.core.AudioSystemService} instead of Java Sound.
+     *
+     * <p>As with {@link #createFactoryWithExecutorService(ExecutorService)}, the {@link
+     * ExecutorService} will be shutdown whenever the {@link #close()} method is invoked.
+     */
+    public static AudioTestHarnessGrpcServerFactory createFactoryWithAudioSystemModule(
+            ExecutorService executorService, Module audioSystemModule) {
+        return createInternal(
+                executorService,
+                AudioTestHarnessServerModule.create(executorService, audioSystemModule));
+    }
+
     @VisibleForTesting
     static AudioTestHarnessGrpcServerFactory createInternal(
             ExecutorService executorService, AbstractModule baseModule) {
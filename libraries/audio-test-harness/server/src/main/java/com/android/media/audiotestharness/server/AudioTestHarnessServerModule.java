@@ -18,6 +18,7 @@ package com.android.media.audiotestharness.server;
 
 import com.android.media.audiotestharness.proto.AudioTestHarnessGrpc;
 import com.android.media.audiotestharness.server.config.SharedHostConfiguration;
+import com.android.media.audiotestharness.server.core.AudioSystemService;
 import com.android.media.audiotestharness.server.javasound.JavaSoundModule;
 import com.android.media.audiotestharness.server.service.AudioCaptureSessionFactory;
 import com.android.media.audiotestharness.server.service.AudioCaptureSessionFactoryImpl;
@@ -26,6 +27,7 @@ import com.android.media.audiotestharness.server.service.StreamObserverOutputStr
 
 import com.google.common.base.Preconditions;
 import com.google.inject.AbstractModule;
+import com.google.inject.Module;
 import com.google.inject.multibindings.OptionalBinder;
 
 import java.util.concurrent.Executor;
@@ -42,8 +44,12 @@ public final class AudioTestHarnessServerModule extends AbstractModule {
 
     private final Executor mExecutor;
 
-    private AudioTestHarnessServerModule(Executor executor) {
+    /** {@link Module} providing the {@link AudioSystemService} used for capture. */
+    private final Module mAudioSystemModule;
+
+    private AudioTestHarnessServerModule(Executor executor, Module audioSystemModule) {
         this.mExecutor = executor;
+        this.mAudioSystemModule = audioSystemModule;
     }
 
     /**
@@ -54,16 +60,31 @@ public final class AudioTestHarnessServerModule extends AbstractModule {
      *     are properly stopped or cancelled.
      */
     public static AudioTestHarnessServerModule create(Executor executor) {
+        return create(executor, JavaSoundModule.create());
+    }
+
+    /**
+     * Creates a new {@link AudioTestHarnessServerModule} that uses the provided module in place of
+     * the {@link JavaSoundModule}.
+     *
+     * @param executor the {@link Executor} used for all background tasks executed throughout the
+     *     system.
+     * @param audioSystemModule the {@link Module} that binds the {@link AudioSystemService}, for
+     *     example the {@code SyntheticSoundModule} on hosts without audio hardware.
+     */
+    public static AudioTestHarnessServerModule create(
+            Executor executor, Module audioSystemModule) {
         Preconditions.checkNotNull(executor, "Executor cannot be null.");
-        return new AudioTestHarnessServerModule(executor);
+        Preconditions.checkNotNull(audioSystemModule, "Audio System Module cannot be null.");
+        return new AudioTestHarnessServerModule(executor, audioSystemModule);
     }
 
     @Override
     protected void configure() {
         bind(Executor.class).toInstance(mExecutor);
 
-        // Tie the gRPC Server to the JavaSound implementation.
-        install(JavaSoundModule.create());
+        // Tie the gRPC Server to the audio system implementation, JavaSound by default.
+        install(mAudioSystemModule);
 
         // Audio Test Harness gRPC Service Implementation
         bind(AudioTestHarnessGrpc.AudioTestHarnessImplBase.class).to(AudioTestHarnessImpl.class);
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.benchmark;
+
+import com.android.media.audiotestharness.client.core.AudioCaptureStream;
+import com.android.media.audiotestharness.client.grpc.GrpcAudioTestHarnessClient;
+import com.android.media.audiotestharness.common.Defaults;
+import com.android.media.audiotestharness.proto.AudioTestHarnessGrpc;
+import com.android.media.audiotestharness.server.AudioTestHarnessGrpcServer;
+import com.android.media.audiotestharness.server.AudioTestHarnessGrpcServerFactory;
+import com.android.media.audiotestharness.server.AudioTestHarnessServerModule;
+import com.android.media.audiotestharness.server.synthetic.SyntheticAudioCapturer;
+import com.android.media.audiotestharness.server.synthetic.SyntheticCaptureConfiguration;
+import com.android.media.audiotestharness.server.synthetic.SyntheticSoundModule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Guice;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load benchmark for the Audio Test Harness server that runs without any audio hardware.
+ *
+ * <p>The server is backed by a {@link SyntheticSoundModule} publishing timestamped chunks faster
+ * than real time, and is driven by a number of concurrent {@link GrpcAudioTestHarnessClient}s over
+ * either an in-process or a loopback TCP transport. For every run the end-to-end chunk latency
+ * percentiles, the per-session throughput and the allocation rate of the server threads are
+ * reported, then the session count is doubled until the server can no longer keep up in order to
+ * find the maximum sustainable number of sessions.
+ *
+ * <p>Arguments are provided as {@code key=value} pairs, see {@link #DEFAULT_ARGS} for the
+ * supported keys and their default values.
+ */
+public final class AudioTestHarnessLoadBenchmark {
+    private static final Logger LOGGER =
+            Logger.getLogger(AudioTestHarnessLoadBenchmark.class.getName());
+
+    /** Prefix for the names of server threads, used to attribute allocations to the server. */
+    private static final String SERVER_THREAD_PREFIX = "atk-benchmark-server-";
+
+    private static final String CLIENT_THREAD_PREFIX = "atk-benchmark-client-";
+
+    private static final Map<String, String> DEFAULT_ARGS = new HashMap<>();
+
+    static {
+        // Transports to benchmark, any of "inprocess" and "loopback".
+        DEFAULT_ARGS.put("transports", "inprocess,loopback");
+        // Number of concurrent sessions for the first run of each transport.
+        DEFAULT_ARGS.put("sessions", "1");
+        // Upper bound on the number of sessions tried when searching for the maximum.
+        DEFAULT_ARGS.put("max-sessions", "64");
+        // Duration of each run in seconds.
+        DEFAULT_ARGS.put("duration-seconds", "10");
+        // Multiple of real time at which the synthetic capturers publish audio. Must be positive
+        // since the server does not apply flow control to captured chunks.
+        DEFAULT_ARGS.put("real-time-factor", "8");
+        // Size of the server thread pool, defaulting to that of AudioTestHarnessGrpcServerFactory.
+        DEFAULT_ARGS.put("server-threads", "16");
+        // A run is sustainable while its p99 latency stays below this bound.
+        DEFAULT_ARGS.put("max-p99-latency-millis", "100");
+        // ...and every session receives at least this fraction of the published audio.
+        DEFAULT_ARGS.put("min-throughput-ratio", "0.95");
+    }
+
+    /** Transports over which the clients can communicate with the server. */
+    enum Transport {
+        IN_PROCESS("inprocess"),
+        LOOPBACK("loopback");
+
+        private final String mArgName;
+
+        Transport(String argName) {
+            mArgName = argName;
+        }
+
+        /** Returns the transport with the given argument name, rejecting unknown names. */
+        static Transport fromArgName(String argName) {
+            for (Transport transport : values()) {
+                if (transport.mArgName.equals(argName)) {
+                    return transport;
+                }
+            }
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Unknown transport %s, expected \"inprocess\" or \"loopback\"",
+                            argName));
+        }
+    }
+
+    private final Map<String, String> mArgs;
+
+    private AudioTestHarnessLoadBenchmark(Map<String, String> args) {
+        mArgs = args;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsedArgs = new HashMap<>(DEFAULT_ARGS);
+        for (String arg : args) {
+            String[] keyValue = arg.replaceFirst("^--", "").split("=", 2);
+            if (keyValue.length != 2 || !DEFAULT_ARGS.containsKey(keyValue[0])) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Unknown argument %s, expected one of %s", arg, DEFAULT_ARGS));
+            }
+            parsedArgs.put(keyValue[0], keyValue[1]);
+        }
+
+        if (Double.parseDouble(parsedArgs.get("real-time-factor")) <= 0) {
+            throw new IllegalArgumentException("real-time-factor must be positive");
+        }
+
+        new AudioTestHarnessLoadBenchmark(parsedArgs).run();
+    }
+
+    private void run() throws Exception {
+        List<Transport> transports = new ArrayList<>();
+        for (String transportName : mArgs.get("transports").split(",")) {
+            transports.add(Transport.fromArgName(transportName.trim()));
+        }
+
+        for (Transport transport : transports) {
+            int maxSustainable = 0;
+            int maxSessions = Integer.parseInt(mArgs.get("max-sessions"));
+            for (int sessions = Integer.parseInt(mArgs.get("sessions"));
+                    sessions <= maxSessions;
+                    sessions *= 2) {
+                RunResult result = runOnce(transport, sessions);
+                System.out.println(result);
+                if (!result.isSustainable()) {
+                    break;
+                }
+                maxSustainable = sessions;
+            }
+
+            System.out.println(
+                    String.format(
+                            "%s: max sustainable sessions at %sx real time = %d",
+                            transport, mArgs.get("real-time-factor"), maxSustainable));
+        }
+    }
+
+    /** Runs the configured load with the given number of sessions and returns its statistics. */
+    private RunResult runOnce(Transport transport, int sessions) throws Exception {
+        double realTimeFactor = Double.parseDouble(mArgs.get("real-time-factor"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(mArgs.get("duration-seconds")));
+
+        SyntheticCaptureConfiguration configuration =
+                SyntheticCaptureConfiguration.builder()
+                        .setRealTimeFactor(realTimeFactor)
+                        .setTimestampChunks(true)
+                        .build();
+
+        ExecutorService serverExecutor =
+                Executors.newFixedThreadPool(
+                        Integer.parseInt(mArgs.get("server-threads")),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat(SERVER_THREAD_PREFIX + "%d")
+                                .setDaemon(true)
+                                .build());
+        ScheduledExecutorService clientExecutor =
+                Executors.newScheduledThreadPool(
+                        Math.max(4, sessions),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat(CLIENT_THREAD_PREFIX + "%d")
+                                .setDaemon(true)
+                                .build());
+
+        List<SessionReader> readers = new ArrayList<>();
+        List<Thread> readerThreads = new ArrayList<>();
+        List<GrpcAudioTestHarnessClient> clients = new ArrayList<>();
+        AutoCloseable server = null;
+        // Only the capture window is measured, from the start of the last session to the end of
+        // the run, excluding the server and client setup and teardown.
+        int[] startChunkCounts = new int[sessions];
+        int[] endChunkCounts = new int[sessions];
+        long startAllocatedBytes;
+        long startNanos;
+        long elapsedNanos;
+        long allocatedBytes;
+        try {
+            String inProcessName = null;
+            int port = 0;
+            if (transport == Transport.IN_PROCESS) {
+                inProcessName = InProcessServerBuilder.generateName();
+                AudioTestHarnessGrpc.AudioTestHarnessImplBase service =
+                        Guice.createInjector(
+                                        AudioTestHarnessServerModule.create(
+                                                serverExecutor,
+                                                SyntheticSoundModule.create(configuration)))
+                                .getInstance(AudioTestHarnessGrpc.AudioTestHarnessImplBase.class);
+                Server inProcessServer =
+                        InProcessServerBuilder.forName(inProcessName)
+                                .executor(serverExecutor)
+                                .addService(service)
+                                .build()
+                                .start();
+                server = inProcessServer::shutdownNow;
+            } else {
+                AudioTestHarnessGrpcServerFactory factory =
+                        AudioTestHarnessGrpcServerFactory.createFactoryWithAudioSystemModule(
+                                serverExecutor, SyntheticSoundModule.create(configuration));
+                AudioTestHarnessGrpcServer grpcServer =
+                        factory.createOnNextAvailablePort(/* sharedHostConfiguration= */ null);
+                grpcServer.open();
+                server = grpcServer;
+                port = grpcServer.getPort();
+            }
+
+            for (int i = 0; i < sessions; i++) {
+                GrpcAudioTestHarnessClient.Builder builder =
+                        GrpcAudioTestHarnessClient.builder().setExecutor(clientExecutor);
+                if (transport == Transport.IN_PROCESS) {
+                    ManagedChannel channel =
+                            InProcessChannelBuilder.forName(inProcessName)
+                                    .executor(clientExecutor)
+                                    .build();
+                    builder.setManagedChannel(channel);
+                } else {
+                    builder.setAddress("localhost", port);
+                }
+                GrpcAudioTestHarnessClient client = builder.build();
+                clients.add(client);
+
+                SessionReader reader = new SessionReader(client.startCapture());
+                readers.add(reader);
+                Thread readerThread = new Thread(reader, "atk-benchmark-reader-" + i);
+                readerThread.setDaemon(true);
+                readerThreads.add(readerThread);
+                readerThread.start();
+            }
+
+            startAllocatedBytes = serverAllocatedBytes();
+            startNanos = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                startChunkCounts[i] = readers.get(i).mChunkCount;
+            }
+            Thread.sleep(duration.toMillis());
+            for (int i = 0; i < sessions; i++) {
+                endChunkCounts[i] = readers.get(i).mChunkCount;
+            }
+            elapsedNanos = System.nanoTime() - startNanos;
+            allocatedBytes =
+                    startAllocatedBytes < 0 ? -1 : serverAllocatedBytes() - startAllocatedBytes;
+        } finally {
+            clients.forEach(GrpcAudioTestHarnessClient::close);
+            for (Thread readerThread : readerThreads) {
+                readerThread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            if (server != null) {
+                server.close();
+            }
+            serverExecutor.shutdownNow();
+            clientExecutor.shutdownNow();
+        }
+
+        return new RunResult(
+                transport,
+                sessions,
+                readers,
+                startChunkCounts,
+                endChunkCounts,
+                elapsedNanos,
+                allocatedBytes,
+                Defaults.AUDIO_FORMAT.getSampleRate()
+                        * (Defaults.AUDIO_FORMAT.getSampleSizeBits() / 8)
+                        * Defaults.AUDIO_FORMAT.getChannels()
+                        * realTimeFactor,
+                Double.parseDouble(mArgs.get("max-p99-latency-millis")),
+                Double.parseDouble(mArgs.get("min-throughput-ratio")));
+    }
+
+    /**
+     * Returns the total number of bytes allocated by server threads so far, or -1 if the JVM does
+     * not support allocation accounting.
+     *
+     * <p>With the in-process transport the gRPC server callbacks run on the server executor, with
+     * the loopback transport the Netty event loop threads are not included.
+     */
+    private static long serverAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(SERVER_THREAD_PREFIX)) {
+                total += Math.max(0, threadMXBean.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reads whole chunks from an {@link AudioCaptureStream} and records the latency between their
+     * publishing and their receipt using the timestamp embedded by the synthetic capturer.
+     */
+    private static final class SessionReader implements Runnable {
+        private final AudioCaptureStream mStream;
+        private final byte[] mChunk = new byte[SyntheticAudioCapturer.BUFFER_SIZE];
+        private long[] mLatenciesNanos = new long[1024];
+        // Read while the reader is running to measure the capture window.
+        private volatile int mChunkCount;
+
+        private SessionReader(AudioCaptureStream stream) {
+            mStream = stream;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (readChunk()) {
+                    long latency =
+                            System.nanoTime()
+                                    - SyntheticAudioCapturer.readTimestamp(mChunk, /* offset= */ 0);
+                    if (mChunkCount == mLatenciesNanos.length) {
+                        mLatenciesNanos = Arrays.copyOf(mLatenciesNanos, mChunkCount * 2);
+                    }
+                    mLatenciesNanos[mChunkCount] = latency;
+                    mChunkCount++;
+                }
+            } catch (IOException ioe) {
+                // Expected once the client is closed at the end of the run.
+                LOGGER.log(Level.FINE, "Session reader stopped", ioe);
+            }
+        }
+
+        /** Reads exactly one chunk, returning false once the stream has ended. */
+        private boolean readChunk() throws IOException {
+            int offset = 0;
+            while (offset < mChunk.length) {
+                int read = mStream.read(mChunk, offset, mChunk.length - offset);
+                if (read < 0) {
+                    return false;
+                }
+                offset += read;
+            }
+            return true;
+        }
+    }
+
+    /** Statistics for a single benchmark run. */
+    private static final class RunResult {
+        private final Transport mTransport;
+        private final int mSessions;
+        private final long[] mSortedLatenciesNanos;
+        private final double mMinSessionBytesPerSecond;
+        private final double mPublishedBytesPerSecond;
+        private final double mServerAllocatedBytesPerSecond;
+        private final double mMaxP99LatencyMillis;
+        private final double mMinThroughputRatio;
+
+        private RunResult(
+                Transport transport,
+                int sessions,
+                List<SessionReader> readers,
+                int[] startChunkCounts,
+                int[] endChunkCounts,
+                long elapsedNanos,
+                long allocatedBytes,
+                double publishedBytesPerSecond,
+                double maxP99LatencyMillis,
+                double minThroughputRatio) {
+            mTransport = transport;
+            mSessions = sessions;
+            mPublishedBytesPerSecond = publishedBytesPerSecond;
+            mMaxP99LatencyMillis = maxP99LatencyMillis;
+            mMinThroughputRatio = minThroughputRatio;
+
+            double elapsedSeconds = elapsedNanos / 1e9;
+            int totalChunks = 0;
+            double minSessionBytesPerSecond = Double.MAX_VALUE;
+            for (int i = 0; i < readers.size(); i++) {
+                int windowChunks = endChunkCounts[i] - startChunkCounts[i];
+                totalChunks += windowChunks;
+                minSessionBytesPerSecond =
+                        Math.min(
+                                minSessionBytesPerSecond,
+                                windowChunks * (double) readers.get(i).mChunk.length
+                                        / elapsedSeconds);
+            }
+            mMinSessionBytesPerSecond = readers.isEmpty() ? 0 : minSessionBytesPerSecond;
+
+            mSortedLatenciesNanos = new long[totalChunks];
+            int offset = 0;
+            for (int i = 0; i < readers.size(); i++) {
+                int windowChunks = endChunkCounts[i] - startChunkCounts[i];
+                System.arraycopy(
+                        readers.get(i).mLatenciesNanos,
+                        startChunkCounts[i],
+                        mSortedLatenciesNanos,
+                        offset,
+                        windowChunks);
+                offset += windowChunks;
+            }
+            Arrays.sort(mSortedLatenciesNanos);
+
+            mServerAllocatedBytesPerSecond =
+                    allocatedBytes < 0 ? -1 : allocatedBytes / elapsedSeconds;
+        }
+
+        /** Returns the latency at the given percentile in milliseconds, by nearest rank. */
+        private double latencyMillis(double percentile) {
+            if (mSortedLatenciesNanos.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * mSortedLatenciesNanos.length);
+            return mSortedLatenciesNanos[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        private boolean isSustainable() {
+            return mSortedLatenciesNanos.length > 0
+                    && latencyMillis(99) <= mMaxP99LatencyMillis
+                    && mMinSessionBytesPerSecond >= mMinThroughputRatio * mPublishedBytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s sessions=%d chunks=%d latency_ms[p50=%.3f p90=%.3f p99=%.3f max=%.3f]"
+                            + " min_session_throughput=%.1f%% server_alloc_mb_per_s=%.2f"
+                            + " sustainable=%b",
+                    mTransport,
+                    mSessions,
+                    mSortedLatenciesNanos.length,
+                    latencyMillis(50),
+                    latencyMillis(90),
+                    latencyMillis(99),
+                    latencyMillis(100),
+                    100 * mMinSessionBytesPerSecond / mPublishedBytesPerSecond,
+                    mServerAllocatedBytesPerSecond / (1024 * 1024),
+                    isSustainable());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import com.android.media.audiotestharness.proto.AudioDeviceOuterClass.AudioDevice;
+import com.android.media.audiotestharness.proto.AudioFormatOuterClass.AudioFormat;
+import com.android.media.audiotestharness.server.core.AudioCapturer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link AudioCapturer} that publishes a deterministic generated signal instead of capturing from
+ * an audio device.
+ *
+ * <p>Allows the Audio Test Harness server to be exercised on hosts without any audio hardware, and
+ * at rates faster than real time as configured by the {@link SyntheticCaptureConfiguration}.
+ */
+public final class SyntheticAudioCapturer implements AudioCapturer {
+    private static final Logger LOGGER = Logger.getLogger(SyntheticAudioCapturer.class.getName());
+
+    /** Size of the byte buffer published to outputs, matching the Java Sound implementation. */
+    public static final int BUFFER_SIZE = 2048;
+
+    /** Number of bytes used by the timestamp written into chunks when enabled. */
+    public static final int TIMESTAMP_SIZE_BYTES = Long.BYTES;
+
+    /** Set containing all of the currently registered outputs. */
+    private final Set<OutputStream> mOutputs;
+
+    private final AudioDevice mAudioDevice;
+
+    private final AudioFormat mAudioFormat;
+
+    private final Executor mExecutor;
+
+    private final SignalPublisher mPublisher;
+
+    /**
+     * Flag variable that determines whether the {@link #close()} method has been called and thus
+     * this Capturer cannot be reused.
+     */
+    private boolean mDisposed = false;
+
+    private boolean mOpened = false;
+
+    private SyntheticAudioCapturer(
+            AudioDevice audioDevice,
+            AudioFormat audioFormat,
+            SyntheticCaptureConfiguration configuration,
+            Executor executor) {
+        LOGGER.finest("new SyntheticAudioCapturer()");
+        mAudioDevice = audioDevice;
+        mAudioFormat = audioFormat;
+        mExecutor = executor;
+
+        // Outputs may be attached after the publisher is already running, see JavaAudioCapturer.
+        mOutputs = new CopyOnWriteArraySet<>();
+        mPublisher =
+                new SignalPublisher(
+                        SyntheticSignalGenerator.create(configuration, audioFormat),
+                        audioFormat,
+                        configuration,
+                        mOutputs);
+    }
+
+    public static SyntheticAudioCapturer create(
+            AudioDevice audioDevice,
+            AudioFormat audioFormat,
+            SyntheticCaptureConfiguration configuration,
+            Executor executor) {
+        Preconditions.checkNotNull(audioDevice, "audioDevice cannot be null.");
+        Preconditions.checkNotNull(audioFormat, "audioFormat cannot be null.");
+        Preconditions.checkNotNull(configuration, "configuration cannot be null.");
+        Preconditions.checkNotNull(executor, "executor cannot be null.");
+        return new SyntheticAudioCapturer(audioDevice, audioFormat, configuration, executor);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Schedules the publishing of the generated signal on the provided {@link Executor}.
+     */
+    @Override
+    public void open() {
+        Preconditions.checkState(
+                !mDisposed,
+                "Cannot reopen a disposed AudioCapturer, a new one should be requested instead.");
+        Preconditions.checkState(!mOpened, "The AudioCapturer is already open.");
+
+        mOpened = true;
+        mExecutor.execute(mPublisher);
+
+        LOGGER.info("AudioCapturer Opened");
+    }
+
+    @Override
+    public void attachOutput(File file) {
+        try {
+            attachOutput(new FileOutputStream(file));
+        } catch (FileNotFoundException fnfe) {
+            LOGGER.warning(
+                    String.format(
+                            "Failed to attach file %s as output to SyntheticAudioCapturer", file));
+        }
+    }
+
+    @Override
+    public void attachOutput(OutputStream outputStream) {
+        Preconditions.checkNotNull(outputStream, "Cannot attach a null output");
+        mOutputs.add(outputStream);
+        LOGGER.fine(String.format("Attached new Output - %s", outputStream));
+    }
+
+    @Override
+    public AudioFormat getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    @Override
+    public AudioDevice getAudioDevice() {
+        return mAudioDevice;
+    }
+
+    @Override
+    public void close() {
+        mPublisher.stop();
+        mDisposed = true;
+        LOGGER.info("AudioCapturer Closed");
+    }
+
+    /**
+     * {@link Runnable} that generates the configured signal and publishes it to any of the attached
+     * outputs, pacing itself to the configured multiple of real time.
+     */
+    @VisibleForTesting
+    static class SignalPublisher implements Runnable {
+        private static final Logger LOGGER = Logger.getLogger(SignalPublisher.class.getName());
+
+        private final SyntheticSignalGenerator mGenerator;
+        private final Set<OutputStream> mOutputs;
+        private final boolean mTimestampChunks;
+        private final int mFramesPerBuffer;
+        private final byte[] mAudioBuffer;
+
+        /** Nanoseconds of wall time per published frame, or zero when unthrottled. */
+        private final double mNanosPerFrame;
+
+        private volatile boolean mRunning;
+
+        private SignalPublisher(
+                SyntheticSignalGenerator generator,
+                AudioFormat audioFormat,
+                SyntheticCaptureConfiguration configuration,
+                Set<OutputStream> outputs) {
+            mGenerator = generator;
+            mOutputs = outputs;
+            mTimestampChunks = configuration.timestampChunks();
+            mFramesPerBuffer = BUFFER_SIZE / generator.getFrameSizeBytes();
+            mAudioBuffer = new byte[mFramesPerBuffer * generator.getFrameSizeBytes()];
+            mNanosPerFrame =
+                    configuration.realTimeFactor() == 0
+                            ? 0
+                            : TimeUnit.SECONDS.toNanos(1)
+                                    / (audioFormat.getSampleRate()
+                                            * configuration.realTimeFactor());
+            mRunning = true;
+        }
+
+        @Override
+        public void run() {
+            LOGGER.info("Publisher running");
+
+            long startNanos = System.nanoTime();
+            long framesPublished = 0;
+            while (mRunning) {
+                mGenerator.fill(mAudioBuffer, framesPublished, mFramesPerBuffer);
+                framesPublished += mFramesPerBuffer;
+
+                // Pace publishing so that a buffer is not released before the time at which its
+                // last frame would have been captured by a real device.
+                if (mNanosPerFrame > 0) {
+                    long deadline = startNanos + (long) (framesPublished * mNanosPerFrame);
+                    long remaining;
+                    while (mRunning && (remaining = deadline - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(remaining);
+                    }
+                }
+
+                if (mTimestampChunks) {
+                    writeTimestamp(mAudioBuffer, System.nanoTime());
+                }
+
+                for (OutputStream output : mOutputs) {
+                    try {
+                        // Verify that we are still running since the publisher may have been
+                        // stopped while pacing.
+                        if (mRunning) {
+                            output.write(mAudioBuffer, 0, mAudioBuffer.length);
+                        }
+                    } catch (IOException ioe) {
+                        LOGGER.log(
+                                Level.WARNING,
+                                String.format(
+                                        "Failed to write synthetic audio data to output. Data may"
+                                                + " have been lost (Buffer Size: %d, Output: %s)",
+                                        mAudioBuffer.length, output),
+                                ioe);
+                    }
+                }
+            }
+        }
+
+        public void stop() {
+            mRunning = false;
+            LOGGER.info("Publisher stopped");
+        }
+
+        public boolean isRunning() {
+            return mRunning;
+        }
+    }
+
+    /** Writes the provided timestamp into the first bytes of the buffer, little-endian. */
+    @VisibleForTesting
+    static void writeTimestamp(byte[] buffer, long timestampNanos) {
+        for (int i = 0; i < TIMESTAMP_SIZE_BYTES; i++) {
+            buffer[i] = (byte) (timestampNanos >>> (8 * i));
+        }
+    }
+
+    /** Reads a timestamp written by a publisher with chunk timestamps enabled. */
+    public static long readTimestamp(byte[] buffer, int offset) {
+        long timestampNanos = 0;
+        for (int i = 0; i < TIMESTAMP_SIZE_BYTES; i++) {
+            timestampNanos |= (buffer[offset + i] & 0xFFL) << (8 * i);
+        }
+        return timestampNanos;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import com.android.media.audiotestharness.proto.AudioDeviceOuterClass.AudioDevice;
+import com.android.media.audiotestharness.proto.AudioFormatOuterClass.AudioFormat;
+import com.android.media.audiotestharness.server.core.AudioCapturer;
+import com.android.media.audiotestharness.server.core.AudioSystemService;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+/**
+ * {@link AudioSystemService} backed by {@link SyntheticAudioCapturer}s, for use on hosts without
+ * audio hardware such as benchmarks and continuous integration.
+ */
+public class SyntheticAudioSystemService implements AudioSystemService {
+
+    private static final Logger LOGGER =
+            Logger.getLogger(SyntheticAudioSystemService.class.getName());
+
+    /** The single {@link AudioDevice} exposed by this service. */
+    public static final AudioDevice SYNTHETIC_DEVICE =
+            AudioDevice.newBuilder()
+                    .setName("Synthetic")
+                    .addCapabilities(AudioDevice.Capability.CAPTURE)
+                    .build();
+
+    private final Executor mExecutor;
+
+    private final SyntheticCaptureConfiguration mConfiguration;
+
+    @Inject
+    public SyntheticAudioSystemService(
+            Executor executor, SyntheticCaptureConfiguration configuration) {
+        LOGGER.finest("new SyntheticAudioSystemService");
+        mExecutor = executor;
+        mConfiguration = configuration;
+    }
+
+    @Override
+    public ImmutableSet<AudioDevice> getDevices() {
+        return ImmutableSet.of(SYNTHETIC_DEVICE);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Any requested {@link AudioDevice} is served by a synthetic capturer so that existing
+     * {@link com.android.media.audiotestharness.server.config.SharedHostConfiguration}s can be used
+     * unchanged, the returned capturer reports the requested device.
+     *
+     * @throws IOException if the provided {@link AudioFormat} is not a signed 16-bit format.
+     */
+    @Override
+    public AudioCapturer createCapturerFor(AudioDevice device, AudioFormat audioFormat)
+            throws IOException {
+        LOGGER.info(
+                String.format(
+                        "Creating new Synthetic Capturer for Device (%s) using Format (%s)",
+                        device, audioFormat));
+
+        if (!SyntheticSignalGenerator.isSupported(audioFormat)) {
+            throw new IOException(
+                    String.format("Unsupported format for synthetic capture (%s)", audioFormat));
+        }
+
+        return SyntheticAudioCapturer.create(device, audioFormat, mConfiguration, mExecutor);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+
+/**
+ * Configuration for the signal produced by a {@link SyntheticAudioCapturer} and the rate at which
+ * it is published.
+ */
+@AutoValue
+public abstract class SyntheticCaptureConfiguration {
+
+    /** The shape of the generated signal. */
+    public enum SignalType {
+        SILENCE,
+        SINE,
+        SQUARE,
+
+        /** Uniform white noise, deterministic for a given {@link #seed()}. */
+        WHITE_NOISE,
+    }
+
+    public static Builder builder() {
+        return new AutoValue_SyntheticCaptureConfiguration.Builder()
+                .setSignalType(SignalType.SINE)
+                .setFrequencyHz(1000.0)
+                .setAmplitude(0.5)
+                .setSeed(0L)
+                .setRealTimeFactor(1.0)
+                .setTimestampChunks(false);
+    }
+
+    /** Returns a configuration that publishes a 1kHz half-scale sine wave in real time. */
+    public static SyntheticCaptureConfiguration getDefault() {
+        return builder().build();
+    }
+
+    public abstract SignalType signalType();
+
+    /** Frequency of the {@link SignalType#SINE} and {@link SignalType#SQUARE} signals. */
+    public abstract double frequencyHz();
+
+    /** Peak amplitude of the signal as a fraction of full scale, in the range [0, 1]. */
+    public abstract double amplitude();
+
+    /** Seed used by the {@link SignalType#WHITE_NOISE} signal. */
+    public abstract long seed();
+
+    /**
+     * Multiple of real time at which audio is published, for example 10.0 publishes ten seconds of
+     * audio every second. A value of zero publishes as fast as the outputs accept data.
+     */
+    public abstract double realTimeFactor();
+
+    /**
+     * Whether the first eight bytes of every published chunk are overwritten with the {@link
+     * System#nanoTime()} at which the chunk was published, little-endian.
+     *
+     * <p>This is only meaningful when the consumer runs in the same process, and is used to measure
+     * end-to-end chunk latency.
+     */
+    public abstract boolean timestampChunks();
+
+    /** Builder for {@link SyntheticCaptureConfiguration}s. */
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder setSignalType(SignalType signalType);
+
+        public abstract Builder setFrequencyHz(double frequencyHz);
+
+        public abstract Builder setAmplitude(double amplitude);
+
+        public abstract Builder setSeed(long seed);
+
+        public abstract Builder setRealTimeFactor(double realTimeFactor);
+
+        public abstract Builder setTimestampChunks(boolean timestampChunks);
+
+        abstract SyntheticCaptureConfiguration autoBuild();
+
+        public SyntheticCaptureConfiguration build() {
+            SyntheticCaptureConfiguration configuration = autoBuild();
+            Preconditions.checkArgument(
+                    configuration.frequencyHz() > 0, "frequencyHz must be positive");
+            Preconditions.checkArgument(
+                    configuration.amplitude() >= 0 && configuration.amplitude() <= 1,
+                    "amplitude must be in the range [0, 1]");
+            Preconditions.checkArgument(
+                    configuration.realTimeFactor() >= 0, "realTimeFactor cannot be negative");
+            return configuration;
+        }
+    }
+}
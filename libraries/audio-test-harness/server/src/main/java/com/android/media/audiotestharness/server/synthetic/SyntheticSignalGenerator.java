@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import com.android.media.audiotestharness.proto.AudioFormatOuterClass.AudioFormat;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Generates the raw PCM bytes of a {@link SyntheticCaptureConfiguration}'s signal.
+ *
+ * <p>Every sample is computed from its absolute frame index alone, so the produced data is
+ * identical regardless of how it is split into buffers and can be verified by consumers.
+ */
+final class SyntheticSignalGenerator {
+
+    private static final int SUPPORTED_SAMPLE_SIZE_BITS = 16;
+    private static final int BYTES_PER_SAMPLE = SUPPORTED_SAMPLE_SIZE_BITS / 8;
+
+    private final SyntheticCaptureConfiguration mConfiguration;
+    private final AudioFormat mAudioFormat;
+    private final int mFrameSizeBytes;
+    private final double mPeak;
+    private final long mSeedHash;
+
+    private SyntheticSignalGenerator(
+            SyntheticCaptureConfiguration configuration, AudioFormat audioFormat) {
+        mConfiguration = configuration;
+        mAudioFormat = audioFormat;
+        mFrameSizeBytes = BYTES_PER_SAMPLE * audioFormat.getChannels();
+        mPeak = configuration.amplitude() * Short.MAX_VALUE;
+        mSeedHash = mix(configuration.seed());
+    }
+
+    static SyntheticSignalGenerator create(
+            SyntheticCaptureConfiguration configuration, AudioFormat audioFormat) {
+        Preconditions.checkNotNull(configuration, "configuration cannot be null.");
+        Preconditions.checkNotNull(audioFormat, "audioFormat cannot be null.");
+        Preconditions.checkArgument(
+                isSupported(audioFormat),
+                "Only signed 16-bit formats with at least one channel are supported.");
+        return new SyntheticSignalGenerator(configuration, audioFormat);
+    }
+
+    /** Returns whether samples can be generated in the provided {@link AudioFormat}. */
+    static boolean isSupported(AudioFormat audioFormat) {
+        return audioFormat.getSampleSizeBits() == SUPPORTED_SAMPLE_SIZE_BITS
+                && audioFormat.getSigned()
+                && audioFormat.getChannels() > 0
+                && audioFormat.getSampleRate() > 0;
+    }
+
+    /** Size in bytes of a single frame, that is one sample for every channel. */
+    int getFrameSizeBytes() {
+        return mFrameSizeBytes;
+    }
+
+    /**
+     * Writes {@code frameCount} frames starting at the absolute frame index {@code firstFrame}
+     * into {@code buffer} beginning at offset zero.
+     */
+    void fill(byte[] buffer, long firstFrame, int frameCount) {
+        Preconditions.checkArgument(
+                buffer.length >= frameCount * mFrameSizeBytes, "buffer is too small.");
+
+        int offset = 0;
+        for (int i = 0; i < frameCount; i++) {
+            short sample = sampleAt(firstFrame + i);
+            byte high = (byte) (sample >> 8);
+            byte low = (byte) sample;
+            for (int channel = 0; channel < mAudioFormat.getChannels(); channel++) {
+                if (mAudioFormat.getBigEndian()) {
+                    buffer[offset++] = high;
+                    buffer[offset++] = low;
+                } else {
+                    buffer[offset++] = low;
+                    buffer[offset++] = high;
+                }
+            }
+        }
+    }
+
+    /** Returns the sample value of the signal at the provided absolute frame index. */
+    short sampleAt(long frame) {
+        switch (mConfiguration.signalType()) {
+            case SINE:
+                return (short) Math.round(mPeak * Math.sin(phaseAt(frame)));
+            case SQUARE:
+                return (short) Math.round(Math.sin(phaseAt(frame)) >= 0 ? mPeak : -mPeak);
+            case WHITE_NOISE:
+                // Map the top 53 bits of the mixed value onto [-1, 1).
+                double uniform = (mix(mSeedHash + frame) >>> 11) * 0x1.0p-52 - 1.0;
+                return (short) Math.round(mPeak * uniform);
+            case SILENCE:
+            default:
+                return 0;
+        }
+    }
+
+    private double phaseAt(long frame) {
+        double cycles = frame * mConfiguration.frequencyHz() / mAudioFormat.getSampleRate();
+        return 2 * Math.PI * (cycles - Math.floor(cycles));
+    }
+
+    /** SplitMix64 finalizer, used so that noise samples can be computed by index. */
+    private static long mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
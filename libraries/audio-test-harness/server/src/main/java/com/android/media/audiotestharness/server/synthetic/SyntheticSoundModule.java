@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import com.android.media.audiotestharness.server.core.AudioSystemService;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.AbstractModule;
+
+/**
+ * {@link AbstractModule} for the synthetic implementation of the Audio Test Harness, which
+ * publishes generated signals instead of capturing from audio devices.
+ */
+public final class SyntheticSoundModule extends AbstractModule {
+
+    private final SyntheticCaptureConfiguration mConfiguration;
+
+    private SyntheticSoundModule(SyntheticCaptureConfiguration configuration) {
+        mConfiguration = configuration;
+    }
+
+    public static SyntheticSoundModule create() {
+        return create(SyntheticCaptureConfiguration.getDefault());
+    }
+
+    public static SyntheticSoundModule create(SyntheticCaptureConfiguration configuration) {
+        Preconditions.checkNotNull(configuration, "configuration cannot be null.");
+        return new SyntheticSoundModule(configuration);
+    }
+
+    @Override
+    protected void configure() {
+        bind(AudioSystemService.class).to(SyntheticAudioSystemService.class);
+        bind(SyntheticCaptureConfiguration.class).toInstance(mConfiguration);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.android.media.audiotestharness.common.Defaults;
+import com.android.media.audiotestharness.proto.AudioDeviceOuterClass.AudioDevice;
+import com.android.media.audiotestharness.proto.AudioFormatOuterClass.AudioFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class SyntheticAudioCapturerTests {
+
+    @Rule public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    /** Timeout to catch breakages where the SignalPublisher infinite loops. */
+    @Rule public Timeout mTimeout = Timeout.millis(1000);
+
+    @Mock Executor mExecutor;
+
+    private static final AudioDevice TEST_DEVICE = Defaults.AUDIO_DEVICE;
+    private static final AudioFormat TEST_FORMAT = Defaults.AUDIO_FORMAT;
+
+    private static final SyntheticCaptureConfiguration UNTHROTTLED_SINE =
+            SyntheticCaptureConfiguration.builder().setRealTimeFactor(0).build();
+
+    @Test
+    public void open_schedulesPublisherTask() throws Exception {
+        SyntheticAudioCapturer.create(TEST_DEVICE, TEST_FORMAT, UNTHROTTLED_SINE, mExecutor)
+                .open();
+
+        verify(mExecutor).execute(any(SyntheticAudioCapturer.SignalPublisher.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void open_throwsIllegalStateException_alreadyOpen() throws Exception {
+        SyntheticAudioCapturer capturer =
+                SyntheticAudioCapturer.create(
+                        TEST_DEVICE, TEST_FORMAT, UNTHROTTLED_SINE, mExecutor);
+
+        capturer.open();
+        capturer.open();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void open_throwsIllegalStateException_afterCloseCalled() throws Exception {
+        SyntheticAudioCapturer capturer =
+                SyntheticAudioCapturer.create(
+                        TEST_DEVICE, TEST_FORMAT, UNTHROTTLED_SINE, mExecutor);
+
+        capturer.close();
+
+        capturer.open();
+    }
+
+    @Test
+    public void run_publishesDeterministicSignal() throws Exception {
+        byte[] first = publishBuffers(UNTHROTTLED_SINE, /* buffers= */ 3);
+        byte[] second = publishBuffers(UNTHROTTLED_SINE, /* buffers= */ 3);
+
+        assertEquals(3 * SyntheticAudioCapturer.BUFFER_SIZE, first.length);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void run_publishesSilence() throws Exception {
+        byte[] published =
+                publishBuffers(
+                        SyntheticCaptureConfiguration.builder()
+                                .setSignalType(SyntheticCaptureConfiguration.SignalType.SILENCE)
+                                .setRealTimeFactor(0)
+                                .build(),
+                        /* buffers= */ 1);
+
+        assertArrayEquals(new byte[SyntheticAudioCapturer.BUFFER_SIZE], published);
+    }
+
+    @Test
+    public void run_writesTimestamps_timestampChunksEnabled() throws Exception {
+        long before = System.nanoTime();
+        byte[] published =
+                publishBuffers(
+                        SyntheticCaptureConfiguration.builder()
+                                .setRealTimeFactor(0)
+                                .setTimestampChunks(true)
+                                .build(),
+                        /* buffers= */ 1);
+        long after = System.nanoTime();
+
+        long timestamp = SyntheticAudioCapturer.readTimestamp(published, /* offset= */ 0);
+        assertTrue(timestamp >= before && timestamp <= after);
+    }
+
+    @Test
+    public void close_stopsPublisherAsExpected() throws Exception {
+        ArgumentCaptor<Runnable> runnableArgCaptor = ArgumentCaptor.forClass(Runnable.class);
+        SyntheticAudioCapturer capturer =
+                SyntheticAudioCapturer.create(
+                        TEST_DEVICE, TEST_FORMAT, UNTHROTTLED_SINE, mExecutor);
+        capturer.open();
+
+        verify(mExecutor).execute(runnableArgCaptor.capture());
+        SyntheticAudioCapturer.SignalPublisher publisher =
+                (SyntheticAudioCapturer.SignalPublisher) runnableArgCaptor.getValue();
+
+        assertTrue(publisher.isRunning());
+        capturer.close();
+        assertFalse(publisher.isRunning());
+    }
+
+    @Test
+    public void readTimestamp_returnsWrittenTimestamp() throws Exception {
+        byte[] buffer = new byte[SyntheticAudioCapturer.TIMESTAMP_SIZE_BYTES];
+        SyntheticAudioCapturer.writeTimestamp(buffer, 0x0123456789ABCDEFL);
+
+        assertEquals(0x0123456789ABCDEFL, SyntheticAudioCapturer.readTimestamp(buffer, 0));
+    }
+
+    /** Runs a publisher for the given configuration on this thread for a number of buffers. */
+    private byte[] publishBuffers(SyntheticCaptureConfiguration configuration, int buffers)
+            throws Exception {
+        ArgumentCaptor<Runnable> runnableArgCaptor = ArgumentCaptor.forClass(Runnable.class);
+        Executor executor = mock(Executor.class);
+        SyntheticAudioCapturer capturer =
+                SyntheticAudioCapturer.create(TEST_DEVICE, TEST_FORMAT, configuration, executor);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        capturer.attachOutput(output);
+        capturer.open();
+
+        verify(executor).execute(runnableArgCaptor.capture());
+        SyntheticAudioCapturer.SignalPublisher publisher =
+                (SyntheticAudioCapturer.SignalPublisher) runnableArgCaptor.getValue();
+        capturer.attachOutput(new StoppingOutputStream(publisher, buffers));
+        publisher.run();
+
+        return output.toByteArray();
+    }
+
+    /** {@link OutputStream} that stops a publisher after a number of buffers are written. */
+    private static class StoppingOutputStream extends OutputStream {
+        private final SyntheticAudioCapturer.SignalPublisher mPublisher;
+        private int mRemainingBuffers;
+
+        private StoppingOutputStream(
+                SyntheticAudioCapturer.SignalPublisher publisher, int buffers) {
+            mPublisher = publisher;
+            mRemainingBuffers = buffers;
+        }
+
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (--mRemainingBuffers == 0) {
+                mPublisher.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.audiotestharness.server.synthetic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.android.media.audiotestharness.common.Defaults;
+import com.android.media.audiotestharness.proto.AudioFormatOuterClass.AudioFormat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class SyntheticSignalGeneratorTests {
+
+    private static final AudioFormat TEST_FORMAT = Defaults.AUDIO_FORMAT;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_throwsIllegalArgumentException_unsupportedSampleSize() throws Exception {
+        SyntheticSignalGenerator.create(
+                SyntheticCaptureConfiguration.getDefault(),
+                TEST_FORMAT.toBuilder().setSampleSizeBits(24).build());
+    }
+
+    @Test
+    public void sampleAt_returnsExpectedSineSamples() throws Exception {
+        // A quarter of the sample rate places peaks every four samples.
+        SyntheticSignalGenerator generator =
+                SyntheticSignalGenerator.create(
+                        SyntheticCaptureConfiguration.builder()
+                                .setFrequencyHz(TEST_FORMAT.getSampleRate() / 4)
+                                .setAmplitude(1.0)
+                                .build(),
+                        TEST_FORMAT);
+
+        assertEquals(0, generator.sampleAt(0));
+        assertEquals(Short.MAX_VALUE, generator.sampleAt(1));
+        assertEquals(0, generator.sampleAt(2));
+        assertEquals(-Short.MAX_VALUE, generator.sampleAt(3));
+    }
+
+    @Test
+    public void fill_isIndependentOfBufferBoundaries() throws Exception {
+        SyntheticSignalGenerator generator =
+                SyntheticSignalGenerator.create(
+                        SyntheticCaptureConfiguration.builder()
+                                .setSignalType(SyntheticCaptureConfiguration.SignalType.WHITE_NOISE)
+                                .build(),
+                        TEST_FORMAT);
+        int frameSize = generator.getFrameSizeBytes();
+
+        byte[] whole = new byte[64 * frameSize];
+        generator.fill(whole, /* firstFrame= */ 0, /* frameCount= */ 64);
+
+        byte[] firstHalf = new byte[32 * frameSize];
+        byte[] secondHalf = new byte[32 * frameSize];
+        generator.fill(firstHalf, /* firstFrame= */ 0, /* frameCount= */ 32);
+        generator.fill(secondHalf, /* firstFrame= */ 32, /* frameCount= */ 32);
+
+        assertArrayEquals(Arrays.copyOfRange(whole, 0, firstHalf.length), firstHalf);
+        assertArrayEquals(
+                Arrays.copyOfRange(whole, firstHalf.length, whole.length), secondHalf);
+    }
+
+    @Test
+    public void fill_producesDifferentNoise_differentSeeds() throws Exception {
+        byte[] first = new byte[SyntheticAudioCapturer.BUFFER_SIZE];
+        byte[] second = new byte[SyntheticAudioCapturer.BUFFER_SIZE];
+        int frames = first.length / 2;
+
+        noiseGenerator(/* seed= */ 1).fill(first, 0, frames);
+        noiseGenerator(/* seed= */ 2).fill(second, 0, frames);
+
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void fill_writesLittleEndianSamples() throws Exception {
+        SyntheticSignalGenerator generator =
+                SyntheticSignalGenerator.create(
+                        SyntheticCaptureConfiguration.builder()
+                                .setFrequencyHz(TEST_FORMAT.getSampleRate() / 4)
+                                .setAmplitude(1.0)
+                                .build(),
+                        TEST_FORMAT);
+        byte[] buffer = new byte[2 * generator.getFrameSizeBytes()];
+
+        generator.fill(buffer, /* firstFrame= */ 0, /* frameCount= */ 2);
+
+        assertArrayEquals(new byte[] {0x00, 0x00, (byte) 0xFF, 0x7F}, buffer);
+    }
+
+    private static SyntheticSignalGenerator noiseGenerator(long seed) {
+        return SyntheticSignalGenerator.create(
+                SyntheticCaptureConfiguration.builder()
+                        .setSignalType(SyntheticCaptureConfiguration.SignalType.WHITE_NOISE)
+                        .setSeed(seed)
+                        .build(),
+                TEST_FORMAT);
+    }
+}
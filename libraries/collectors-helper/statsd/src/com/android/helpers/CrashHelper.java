@@ -18,8 +18,9 @@ package com.android.helpers;
 
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.os.nano.AtomsProto;
-import com.android.os.nano.StatsLog;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -58,55 +59,55 @@ public class CrashHelper implements ICollectorHelper<Integer> {
      */
     @Override
     public Map<String, Integer> getMetrics() {
-        List<StatsLog.EventMetricData> eventMetricData = mStatsdHelper.getEventMetrics();
         Map<String, Integer> appCrashResultMap = new HashMap<>();
         // We need this because even if there are no crashes we need to report 0 count
         // in the dashboard for the total crash, native crash and ANR.
         appCrashResultMap.put(TOTAL_PREFIX + EVENT_JAVA_CRASH, 0);
         appCrashResultMap.put(TOTAL_PREFIX + EVENT_NATIVE_CRASH, 0);
         appCrashResultMap.put(TOTAL_PREFIX + EVENT_ANR, 0);
-        for (StatsLog.EventMetricData dataItem : eventMetricData) {
-            AtomsProto.Atom atom = dataItem.atom;
-            if (atom == null) {
-                atom = dataItem.aggregatedAtomInfo.atom;
-            }
-            if (atom.hasAppCrashOccurred()) {
-                AtomsProto.AppCrashOccurred appCrashAtom = atom.getAppCrashOccurred();
-                String eventType = appCrashAtom.eventType;
-                String pkgName = appCrashAtom.packageName;
-                int foregroundState = appCrashAtom.foregroundState;
-                Log.i(
-                        LOG_TAG,
-                        String.format(
-                                "Event Type:%s Pkg Name: %s " + " ForegroundState: %s",
-                                eventType, pkgName, foregroundState));
+        Map<Integer, StatsdHelper.AtomConsumer> consumers = new HashMap<>();
+        consumers.put(
+                AtomsProto.Atom.APP_CRASH_OCCURRED_FIELD_NUMBER,
+                (atom, elapsedTimestampNanos) -> {
+                    AtomsProto.AppCrashOccurred appCrashAtom = atom.getAppCrashOccurred();
+                    String eventType = appCrashAtom.eventType;
+                    String pkgName = appCrashAtom.packageName;
+                    int foregroundState = appCrashAtom.foregroundState;
+                    Log.i(
+                            LOG_TAG,
+                            String.format(
+                                    "Event Type:%s Pkg Name: %s " + " ForegroundState: %s",
+                                    eventType, pkgName, foregroundState));
 
-                // Track the total crash and native crash count.
-                MetricUtility.addMetric(TOTAL_PREFIX + eventType, appCrashResultMap);
-                // Add more detailed crash count key metrics.
-                String detailKey =
-                        MetricUtility.constructKey(
-                                eventType, pkgName, String.valueOf(foregroundState));
-                MetricUtility.addMetric(detailKey, appCrashResultMap);
-            } else if (atom.hasAnrOccurred()) {
-                AtomsProto.ANROccurred anrAtom = atom.getAnrOccurred();
-                String processName = anrAtom.processName;
-                String reason = anrAtom.reason;
-                int foregoundState = anrAtom.foregroundState;
-                Log.i(
-                        LOG_TAG,
-                        String.format(
-                                "ANR occurred in process %s due to %s; foregound state is %s",
-                                processName, reason, foregoundState));
+                    // Track the total crash and native crash count.
+                    MetricUtility.addMetric(TOTAL_PREFIX + eventType, appCrashResultMap);
+                    // Add more detailed crash count key metrics.
+                    String detailKey =
+                            MetricUtility.constructKey(
+                                    eventType, pkgName, String.valueOf(foregroundState));
+                    MetricUtility.addMetric(detailKey, appCrashResultMap);
+                });
+        consumers.put(
+                AtomsProto.Atom.ANR_OCCURRED_FIELD_NUMBER,
+                (atom, elapsedTimestampNanos) -> {
+                    AtomsProto.ANROccurred anrAtom = atom.getAnrOccurred();
+                    String processName = anrAtom.processName;
+                    String reason = anrAtom.reason;
+                    int foregoundState = anrAtom.foregroundState;
+                    Log.i(
+                            LOG_TAG,
+                            String.format(
+                                    "ANR occurred in process %s due to %s; foregound state is %s",
+                                    processName, reason, foregoundState));
 
-                // Track the total ANR count.
-                MetricUtility.addMetric(TOTAL_PREFIX + EVENT_ANR, appCrashResultMap);
-                String detailKey =
-                        MetricUtility.constructKey(
-                                EVENT_ANR, processName, String.valueOf(foregoundState));
-                MetricUtility.addMetric(detailKey, appCrashResultMap);
-            }
-        }
+                    // Track the total ANR count.
+                    MetricUtility.addMetric(TOTAL_PREFIX + EVENT_ANR, appCrashResultMap);
+                    String detailKey =
+                            MetricUtility.constructKey(
+                                    EVENT_ANR, processName, String.valueOf(foregoundState));
+                    MetricUtility.addMetric(detailKey, appCrashResultMap);
+                });
+        mStatsdHelper.dispatchEventMetrics(consumers);
         return appCrashResultMap;
     }
 
@@ -117,4 +118,9 @@ public class CrashHelper implements ICollectorHelper<Integer> {
     public boolean stopCollecting() {
         return mStatsdHelper.removeStatsConfig();
     }
+
+    @VisibleForTesting
+    void setStatsdHelper(StatsdHelper helper) {
+        mStatsdHelper = helper;
+    }
 }
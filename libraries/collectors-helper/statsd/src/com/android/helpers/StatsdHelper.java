@@ -24,6 +24,7 @@ import android.util.Log;
 import android.util.Pair;
 import android.util.StatsLog;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.test.InstrumentationRegistry;
 
 import com.android.internal.os.nano.StatsdConfigProto;
@@ -36,7 +37,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -49,6 +52,20 @@ public class StatsdHelper {
     private static final long METRIC_DELAY_MS = 3000;
     private long mConfigId = -1;
     private StatsManager mStatsManager;
+    // Atom id tracked by each metric of the current config, used to dispatch report data.
+    private final Map<Long, Integer> mMetricAtomIds = new HashMap<>();
+
+    /**
+     * Receives the atoms extracted by {@link #dispatchEventMetrics} and {@link
+     * #dispatchGaugeMetrics}.
+     */
+    public interface AtomConsumer {
+        /**
+         * Called once for every occurrence of an atom. Aggregated atoms share the same {@code
+         * atom} instance across their occurrences and must not be modified.
+         */
+        void onAtom(AtomsProto.Atom atom, long elapsedTimestampNanos);
+    }
 
     /**
      * Add simple event configurations using a list of atom ids.
@@ -61,12 +78,14 @@ public class StatsdHelper {
         StatsdConfigProto.StatsdConfig config = getSimpleSources(configId);
         List<StatsdConfigProto.EventMetric> metrics = new ArrayList<>(atomIdList.size());
         List<StatsdConfigProto.AtomMatcher> atomMatchers = new ArrayList<>(atomIdList.size());
+        Map<Long, Integer> metricAtomIds = new HashMap<>();
         for (Integer atomId : atomIdList) {
             int atomUniqueId = getUniqueId();
             StatsdConfigProto.EventMetric metric = new StatsdConfigProto.EventMetric();
             metric.id = getUniqueId();
             metric.what = atomUniqueId;
             metrics.add(metric);
+            metricAtomIds.put(metric.id, atomId);
             atomMatchers.add(getSimpleAtomMatcher(atomUniqueId, atomId));
         }
         config.eventMetric = metrics.toArray(new StatsdConfigProto.EventMetric[0]);
@@ -81,6 +100,7 @@ public class StatsdHelper {
         }
         Log.i(LOG_TAG, "Successfully added config with config-id:" + configId);
         setConfigId(configId);
+        setMetricAtomIds(metricAtomIds);
         return true;
     }
 
@@ -102,6 +122,7 @@ public class StatsdHelper {
                 new int[] {AtomsProto.Atom.APP_BREADCRUMB_REPORTED_FIELD_NUMBER};
         List<StatsdConfigProto.AtomMatcher> matchers = new ArrayList<>(atomIdList.size());
         List<StatsdConfigProto.GaugeMetric> gaugeMetrics = new ArrayList<>();
+        Map<Long, Integer> metricAtomIds = new HashMap<>();
         // Needed for collecting gauge metric based on trigger events.
         matchers.add(
                 getSimpleAtomMatcher(
@@ -122,6 +143,7 @@ public class StatsdHelper {
             gaugeMetric.bucket = StatsdConfigProto.CTS;
             matchers.add(getSimpleAtomMatcher(atomUniqueId, atomId));
             gaugeMetrics.add(gaugeMetric);
+            metricAtomIds.put(gaugeMetric.id, atomId);
         }
         config.atomMatcher = matchers.toArray(new StatsdConfigProto.AtomMatcher[0]);
         config.gaugeMetric = gaugeMetrics.toArray(new StatsdConfigProto.GaugeMetric[0]);
@@ -139,6 +161,7 @@ public class StatsdHelper {
 
         Log.i(LOG_TAG, "Successfully added config with config-id:" + configId);
         setConfigId(configId);
+        setMetricAtomIds(metricAtomIds);
         return true;
     }
 
@@ -273,6 +296,148 @@ public class StatsdHelper {
         return gaugeData;
     }
 
+    /**
+     * Pulls the event metrics tracked under the config and passes every atom to the consumer
+     * registered for its atom id, without collecting them into intermediate lists.
+     *
+     * <p>The whole report is still decoded once, including the data of metrics without a consumer;
+     * only their dispatch is skipped. statsd erases the data on every pull, so repeated calls only
+     * dispatch the atoms logged since the previous pull. Unlike {@link #getEventMetrics},
+     * aggregated atoms are not sorted by timestamp.
+     *
+     * @param consumers the consumer of each atom id, keyed by the atom's field number.
+     * @return the number of atoms dispatched.
+     */
+    public int dispatchEventMetrics(Map<Integer, AtomConsumer> consumers) {
+        com.android.os.nano.StatsLog.ConfigMetricsReportList reportList = null;
+        try {
+            if (getConfigId() != -1) {
+                adoptShellIdentity();
+                reportList =
+                        com.android.os.nano.StatsLog.ConfigMetricsReportList.parseFrom(
+                                getStatsManager().getReports(getConfigId()));
+                dropShellIdentity();
+            }
+        } catch (InvalidProtocolBufferNanoException | StatsUnavailableException se) {
+            Log.e(LOG_TAG, "Retrieving event metrics failed.", se);
+            return 0;
+        }
+        return dispatchEventMetrics(reportList, consumers);
+    }
+
+    /** Passes every event atom of the report to the consumer registered for its atom id. */
+    @VisibleForTesting
+    int dispatchEventMetrics(
+            com.android.os.nano.StatsLog.ConfigMetricsReportList reportList,
+            Map<Integer, AtomConsumer> consumers) {
+        int count = 0;
+        if (reportList != null) {
+            for (com.android.os.nano.StatsLog.ConfigMetricsReport configReport :
+                    reportList.reports) {
+                for (com.android.os.nano.StatsLog.StatsLogReport metric : configReport.metrics) {
+                    AtomConsumer consumer = getConsumer(metric, consumers);
+                    if (consumer == null || metric.getEventMetrics() == null) {
+                        continue;
+                    }
+                    for (com.android.os.nano.StatsLog.EventMetricData eventMetricData :
+                            metric.getEventMetrics().data) {
+                        if (eventMetricData.aggregatedAtomInfo == null) {
+                            consumer.onAtom(
+                                    eventMetricData.atom, eventMetricData.elapsedTimestampNanos);
+                            count++;
+                        } else {
+                            count +=
+                                    dispatchAggregatedAtom(
+                                            eventMetricData.aggregatedAtomInfo, consumer);
+                        }
+                    }
+                }
+            }
+        }
+        Log.i(LOG_TAG, "Number of dispatched events: " + count);
+        return count;
+    }
+
+    /**
+     * Triggers and pulls the gauge metrics tracked under the config, passing every gauge atom to
+     * the consumer registered for its atom id in bucket order. See {@link #dispatchEventMetrics}.
+     *
+     * @param consumers the consumer of each atom id, keyed by the atom's field number.
+     * @return the number of atoms dispatched.
+     */
+    public int dispatchGaugeMetrics(Map<Integer, AtomConsumer> consumers) {
+        com.android.os.nano.StatsLog.ConfigMetricsReportList reportList = null;
+        try {
+            if (getConfigId() != -1) {
+                adoptShellIdentity();
+                StatsLog.logEvent(0);
+                // Dump the counters after the test completed.
+                SystemClock.sleep(METRIC_DELAY_MS);
+                reportList =
+                        com.android.os.nano.StatsLog.ConfigMetricsReportList.parseFrom(
+                                getStatsManager().getReports(getConfigId()));
+                dropShellIdentity();
+            }
+        } catch (InvalidProtocolBufferNanoException | StatsUnavailableException se) {
+            Log.e(LOG_TAG, "Retrieving gauge metrics failed.", se);
+            return 0;
+        }
+        return dispatchGaugeMetrics(reportList, consumers);
+    }
+
+    /** Passes every gauge atom of the report to the consumer registered for its atom id. */
+    @VisibleForTesting
+    int dispatchGaugeMetrics(
+            com.android.os.nano.StatsLog.ConfigMetricsReportList reportList,
+            Map<Integer, AtomConsumer> consumers) {
+        int count = 0;
+        if (reportList != null) {
+            for (com.android.os.nano.StatsLog.ConfigMetricsReport configReport :
+                    reportList.reports) {
+                for (com.android.os.nano.StatsLog.StatsLogReport metric : configReport.metrics) {
+                    AtomConsumer consumer = getConsumer(metric, consumers);
+                    if (consumer == null || metric.getGaugeMetrics() == null) {
+                        continue;
+                    }
+                    for (com.android.os.nano.StatsLog.GaugeMetricData gaugeMetricData :
+                            metric.getGaugeMetrics().data) {
+                        for (com.android.os.nano.StatsLog.GaugeBucketInfo bucketInfo :
+                                gaugeMetricData.bucketInfo) {
+                            for (int i = 0; i < bucketInfo.atom.length; i++) {
+                                consumer.onAtom(
+                                        bucketInfo.atom[i], bucketInfo.elapsedTimestampNanos[i]);
+                                count++;
+                            }
+                            for (com.android.os.nano.StatsLog.AggregatedAtomInfo atomInfo :
+                                    bucketInfo.aggregatedAtomInfo) {
+                                count += dispatchAggregatedAtom(atomInfo, consumer);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Log.i(LOG_TAG, "Number of dispatched gauge atoms: " + count);
+        return count;
+    }
+
+    /** Returns the consumer of the atom tracked by the metric, or null if there is none. */
+    private AtomConsumer getConsumer(
+            com.android.os.nano.StatsLog.StatsLogReport metric,
+            Map<Integer, AtomConsumer> consumers) {
+        Integer atomId = mMetricAtomIds.get(metric.metricId);
+        return atomId == null ? null : consumers.get(atomId);
+    }
+
+    /** Passes every occurrence of an aggregated atom to the consumer. */
+    private static int dispatchAggregatedAtom(
+            com.android.os.nano.StatsLog.AggregatedAtomInfo atomInfo, AtomConsumer consumer) {
+        for (long timestampNs : atomInfo.elapsedTimestampNanos) {
+            consumer.onAtom(atomInfo.atom, timestampNs);
+        }
+        return atomInfo.elapsedTimestampNanos.length;
+    }
+
     /**
      * Remove the existing config tracked in the statsd.
      *
@@ -383,6 +548,13 @@ public class StatsdHelper {
         mConfigId = configId;
     }
 
+    /** Sets the atom id tracked by each metric of the current config. */
+    @VisibleForTesting
+    void setMetricAtomIds(Map<Long, Integer> metricAtomIds) {
+        mMetricAtomIds.clear();
+        mMetricAtomIds.putAll(metricAtomIds);
+    }
+
     /** Returns the statsd config id currently tracked by this class. */
     private long getConfigId() {
         return mConfigId;
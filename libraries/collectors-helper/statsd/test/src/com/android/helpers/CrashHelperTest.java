@@ -17,6 +17,8 @@ package com.android.helpers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
 
 import android.os.SystemClock;
 
@@ -24,11 +26,16 @@ import androidx.test.runner.AndroidJUnit4;
 import androidx.test.uiautomator.By;
 import androidx.test.uiautomator.UiObject2;
 
+import com.android.os.nano.AtomsProto;
+import com.android.os.nano.StatsLog;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -194,6 +201,78 @@ public class CrashHelperTest {
         assertTrue(mCrashHelper.stopCollecting());
     }
 
+    /**
+     * Test that crash and ANR atoms are counted from the metrics tracking them, and that atoms of
+     * other metrics are ignored.
+     */
+    @Test
+    public void testAtomRouting() throws Exception {
+        StatsdHelper statsdHelper = Mockito.spy(new StatsdHelper());
+        Map<Long, Integer> metricAtomIds = new HashMap<>();
+        metricAtomIds.put(1L, AtomsProto.Atom.APP_CRASH_OCCURRED_FIELD_NUMBER);
+        metricAtomIds.put(2L, AtomsProto.Atom.ANR_OCCURRED_FIELD_NUMBER);
+        statsdHelper.setMetricAtomIds(metricAtomIds);
+        StatsLog.ConfigMetricsReport report = new StatsLog.ConfigMetricsReport();
+        report.metrics =
+                new StatsLog.StatsLogReport[] {
+                    getEventMetric(1, getCrashAtom("crash"), getCrashAtom("native_crash")),
+                    getEventMetric(2, getAnrAtom()),
+                    // An ANR atom reported by a metric that isn't tracked by the helper.
+                    getEventMetric(3, getAnrAtom())
+                };
+        StatsLog.ConfigMetricsReportList reportList = new StatsLog.ConfigMetricsReportList();
+        reportList.reports = new StatsLog.ConfigMetricsReport[] {report};
+        doAnswer(
+                        invocation ->
+                                statsdHelper.dispatchEventMetrics(
+                                        reportList, invocation.getArgument(0)))
+                .when(statsdHelper)
+                .dispatchEventMetrics(anyMap());
+        mCrashHelper.setStatsdHelper(statsdHelper);
+
+        Map<String, Integer> crashMap = mCrashHelper.getMetrics();
+        assertEquals(6, crashMap.size());
+        assertEquals(1, crashMap.get(TOTAL_CRASHES_KEY).intValue());
+        assertEquals(1, crashMap.get(CRASH_PKG_KEY).intValue());
+        assertEquals(1, crashMap.get(TOTAL_NATIVE_CRASHES_KEY).intValue());
+        assertEquals(1, crashMap.get(NATIVE_CRASH_PKG_KEY).intValue());
+        assertEquals(1, crashMap.get(TOTAL_ANRS_KEY).intValue());
+        assertEquals(1, crashMap.get(ANR_DETAIL_KEY).intValue());
+    }
+
+    private static StatsLog.StatsLogReport getEventMetric(long metricId, AtomsProto.Atom... atoms) {
+        StatsLog.StatsLogReport.EventMetricDataWrapper dataWrapper =
+                new StatsLog.StatsLogReport.EventMetricDataWrapper();
+        dataWrapper.data = new StatsLog.EventMetricData[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            dataWrapper.data[i] = new StatsLog.EventMetricData();
+            dataWrapper.data[i].atom = atoms[i];
+        }
+        StatsLog.StatsLogReport metric = new StatsLog.StatsLogReport();
+        metric.metricId = metricId;
+        metric.setEventMetrics(dataWrapper);
+        return metric;
+    }
+
+    private static AtomsProto.Atom getCrashAtom(String eventType) {
+        AtomsProto.AppCrashOccurred crash = new AtomsProto.AppCrashOccurred();
+        crash.eventType = eventType;
+        crash.packageName = PKG_NAME;
+        crash.foregroundState = 2;
+        AtomsProto.Atom atom = new AtomsProto.Atom();
+        atom.setAppCrashOccurred(crash);
+        return atom;
+    }
+
+    private static AtomsProto.Atom getAnrAtom() {
+        AtomsProto.ANROccurred anr = new AtomsProto.ANROccurred();
+        anr.processName = PKG_NAME;
+        anr.foregroundState = 2;
+        AtomsProto.Atom atom = new AtomsProto.Atom();
+        atom.setAnrOccurred(anr);
+        return atom;
+    }
+
     /**
      * Cause the behavior by clicking on the button in bad behaviour activity.
      */
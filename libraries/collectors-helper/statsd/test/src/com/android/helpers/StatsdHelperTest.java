@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.os.nano.AtomsProto;
+import com.android.os.nano.StatsLog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Android Unit tests for the atom dispatch of {@link StatsdHelper}.
+ *
+ * <p>To run: atest CollectorsHelperTest:com.android.helpers.StatsdHelperTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatsdHelperTest {
+
+    private static final long CRASH_METRIC_ID = 1;
+    private static final long ANR_METRIC_ID = 2;
+    private static final long CPU_METRIC_ID = 3;
+    private static final long UNKNOWN_METRIC_ID = 4;
+
+    private StatsdHelper mStatsdHelper;
+    private RecordingConsumer mCrashConsumer;
+    private RecordingConsumer mAnrConsumer;
+    private RecordingConsumer mCpuConsumer;
+    private Map<Integer, StatsdHelper.AtomConsumer> mConsumers;
+
+    @Before
+    public void setUp() {
+        mStatsdHelper = new StatsdHelper();
+        Map<Long, Integer> metricAtomIds = new HashMap<>();
+        metricAtomIds.put(CRASH_METRIC_ID, AtomsProto.Atom.APP_CRASH_OCCURRED_FIELD_NUMBER);
+        metricAtomIds.put(ANR_METRIC_ID, AtomsProto.Atom.ANR_OCCURRED_FIELD_NUMBER);
+        metricAtomIds.put(CPU_METRIC_ID, AtomsProto.Atom.CPU_TIME_PER_UID_FIELD_NUMBER);
+        mStatsdHelper.setMetricAtomIds(metricAtomIds);
+
+        mCrashConsumer = new RecordingConsumer();
+        mAnrConsumer = new RecordingConsumer();
+        mCpuConsumer = new RecordingConsumer();
+        mConsumers = new HashMap<>();
+        mConsumers.put(AtomsProto.Atom.APP_CRASH_OCCURRED_FIELD_NUMBER, mCrashConsumer);
+        mConsumers.put(AtomsProto.Atom.ANR_OCCURRED_FIELD_NUMBER, mAnrConsumer);
+        mConsumers.put(AtomsProto.Atom.CPU_TIME_PER_UID_FIELD_NUMBER, mCpuConsumer);
+    }
+
+    /** Test that event atoms are passed to the consumer of the atom tracked by their metric. */
+    @Test
+    public void testDispatchEventMetrics_routesByAtomId() {
+        AtomsProto.Atom crash1 = getCrashAtom("pkg1");
+        AtomsProto.Atom crash2 = getCrashAtom("pkg2");
+        AtomsProto.Atom anr = getAnrAtom("process1");
+        StatsLog.ConfigMetricsReportList reportList =
+                getReportList(
+                        getEventMetric(
+                                CRASH_METRIC_ID,
+                                getEventMetricData(crash1, 10),
+                                getEventMetricData(crash2, 20)),
+                        getEventMetric(ANR_METRIC_ID, getEventMetricData(anr, 30)));
+
+        assertEquals(3, mStatsdHelper.dispatchEventMetrics(reportList, mConsumers));
+        assertEquals(Arrays.asList(crash1, crash2), mCrashConsumer.mAtoms);
+        assertEquals(Arrays.asList(10L, 20L), mCrashConsumer.mTimestamps);
+        assertEquals(Arrays.asList(anr), mAnrConsumer.mAtoms);
+        assertEquals(Arrays.asList(30L), mAnrConsumer.mTimestamps);
+        assertTrue(mCpuConsumer.mAtoms.isEmpty());
+    }
+
+    /** Test that atoms of unknown metrics or of atoms without a consumer are not dispatched. */
+    @Test
+    public void testDispatchEventMetrics_unknownAtoms() {
+        mConsumers.remove(AtomsProto.Atom.ANR_OCCURRED_FIELD_NUMBER);
+        StatsLog.ConfigMetricsReportList reportList =
+                getReportList(
+                        getEventMetric(
+                                UNKNOWN_METRIC_ID, getEventMetricData(getCrashAtom("pkg1"), 10)),
+                        getEventMetric(
+                                ANR_METRIC_ID, getEventMetricData(getAnrAtom("process1"), 20)));
+
+        assertEquals(0, mStatsdHelper.dispatchEventMetrics(reportList, mConsumers));
+        assertTrue(mCrashConsumer.mAtoms.isEmpty());
+        assertTrue(mAnrConsumer.mAtoms.isEmpty());
+    }
+
+    /** Test that an aggregated atom is dispatched once for each of its timestamps. */
+    @Test
+    public void testDispatchEventMetrics_aggregatedAtom() {
+        AtomsProto.Atom crash = getCrashAtom("pkg1");
+        StatsLog.EventMetricData aggregatedData = new StatsLog.EventMetricData();
+        aggregatedData.aggregatedAtomInfo = getAggregatedAtomInfo(crash, 10, 20, 30);
+        StatsLog.ConfigMetricsReportList reportList =
+                getReportList(getEventMetric(CRASH_METRIC_ID, aggregatedData));
+
+        assertEquals(3, mStatsdHelper.dispatchEventMetrics(reportList, mConsumers));
+        assertEquals(3, mCrashConsumer.mAtoms.size());
+        for (AtomsProto.Atom atom : mCrashConsumer.mAtoms) {
+            assertSame(crash, atom);
+        }
+        assertEquals(Arrays.asList(10L, 20L, 30L), mCrashConsumer.mTimestamps);
+    }
+
+    /** Test that no atom is dispatched without a report. */
+    @Test
+    public void testDispatchEventMetrics_noReport() {
+        assertEquals(0, mStatsdHelper.dispatchEventMetrics(null, mConsumers));
+        assertTrue(mCrashConsumer.mAtoms.isEmpty());
+    }
+
+    /** Test that gauge atoms are dispatched in bucket order, including aggregated atoms. */
+    @Test
+    public void testDispatchGaugeMetrics_bucketOrder() {
+        AtomsProto.Atom cpu1 = getCpuAtom(1);
+        AtomsProto.Atom cpu2 = getCpuAtom(2);
+        AtomsProto.Atom cpu3 = getCpuAtom(3);
+        AtomsProto.Atom cpu4 = getCpuAtom(4);
+        StatsLog.GaugeBucketInfo firstBucket = new StatsLog.GaugeBucketInfo();
+        firstBucket.atom = new AtomsProto.Atom[] {cpu1, cpu2};
+        firstBucket.elapsedTimestampNanos = new long[] {10, 20};
+        firstBucket.aggregatedAtomInfo =
+                new StatsLog.AggregatedAtomInfo[] {getAggregatedAtomInfo(cpu3, 30, 40)};
+        StatsLog.GaugeBucketInfo secondBucket = new StatsLog.GaugeBucketInfo();
+        secondBucket.atom = new AtomsProto.Atom[] {cpu4};
+        secondBucket.elapsedTimestampNanos = new long[] {50};
+        StatsLog.GaugeMetricData gaugeMetricData = new StatsLog.GaugeMetricData();
+        gaugeMetricData.bucketInfo = new StatsLog.GaugeBucketInfo[] {firstBucket, secondBucket};
+        StatsLog.StatsLogReport.GaugeMetricDataWrapper dataWrapper =
+                new StatsLog.StatsLogReport.GaugeMetricDataWrapper();
+        dataWrapper.data = new StatsLog.GaugeMetricData[] {gaugeMetricData};
+        StatsLog.StatsLogReport cpuMetric = new StatsLog.StatsLogReport();
+        cpuMetric.metricId = CPU_METRIC_ID;
+        cpuMetric.setGaugeMetrics(dataWrapper);
+        StatsLog.ConfigMetricsReportList reportList =
+                getReportList(
+                        cpuMetric,
+                        getEventMetric(
+                                CRASH_METRIC_ID, getEventMetricData(getCrashAtom("pkg1"), 60)));
+
+        assertEquals(5, mStatsdHelper.dispatchGaugeMetrics(reportList, mConsumers));
+        assertEquals(Arrays.asList(cpu1, cpu2, cpu3, cpu3, cpu4), mCpuConsumer.mAtoms);
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), mCpuConsumer.mTimestamps);
+        // Event metrics are not dispatched as gauge atoms.
+        assertTrue(mCrashConsumer.mAtoms.isEmpty());
+    }
+
+    private static StatsLog.ConfigMetricsReportList getReportList(
+            StatsLog.StatsLogReport... metrics) {
+        StatsLog.ConfigMetricsReport report = new StatsLog.ConfigMetricsReport();
+        report.metrics = metrics;
+        StatsLog.ConfigMetricsReportList reportList = new StatsLog.ConfigMetricsReportList();
+        reportList.reports = new StatsLog.ConfigMetricsReport[] {report};
+        return reportList;
+    }
+
+    private static StatsLog.StatsLogReport getEventMetric(
+            long metricId, StatsLog.EventMetricData... data) {
+        StatsLog.StatsLogReport.EventMetricDataWrapper dataWrapper =
+                new StatsLog.StatsLogReport.EventMetricDataWrapper();
+        dataWrapper.data = data;
+        StatsLog.StatsLogReport metric = new StatsLog.StatsLogReport();
+        metric.metricId = metricId;
+        metric.setEventMetrics(dataWrapper);
+        return metric;
+    }
+
+    private static StatsLog.EventMetricData getEventMetricData(
+            AtomsProto.Atom atom, long elapsedTimestampNanos) {
+        StatsLog.EventMetricData data = new StatsLog.EventMetricData();
+        data.atom = atom;
+        data.elapsedTimestampNanos = elapsedTimestampNanos;
+        return data;
+    }
+
+    private static StatsLog.AggregatedAtomInfo getAggregatedAtomInfo(
+            AtomsProto.Atom atom, long... elapsedTimestampNanos) {
+        StatsLog.AggregatedAtomInfo atomInfo = new StatsLog.AggregatedAtomInfo();
+        atomInfo.atom = atom;
+        atomInfo.elapsedTimestampNanos = elapsedTimestampNanos;
+        return atomInfo;
+    }
+
+    private static AtomsProto.Atom getCrashAtom(String packageName) {
+        AtomsProto.AppCrashOccurred crash = new AtomsProto.AppCrashOccurred();
+        crash.eventType = "crash";
+        crash.packageName = packageName;
+        AtomsProto.Atom atom = new AtomsProto.Atom();
+        atom.setAppCrashOccurred(crash);
+        return atom;
+    }
+
+    private static AtomsProto.Atom getAnrAtom(String processName) {
+        AtomsProto.ANROccurred anr = new AtomsProto.ANROccurred();
+        anr.processName = processName;
+        AtomsProto.Atom atom = new AtomsProto.Atom();
+        atom.setAnrOccurred(anr);
+        return atom;
+    }
+
+    private static AtomsProto.Atom getCpuAtom(int uid) {
+        AtomsProto.CpuTimePerUid cpuTime = new AtomsProto.CpuTimePerUid();
+        cpuTime.uid = uid;
+        AtomsProto.Atom atom = new AtomsProto.Atom();
+        atom.setCpuTimePerUid(cpuTime);
+        return atom;
+    }
+
+    /** Records the atoms passed to it with their timestamps. */
+    private static class RecordingConsumer implements StatsdHelper.AtomConsumer {
+        private final List<AtomsProto.Atom> mAtoms = new ArrayList<>();
+        private final List<Long> mTimestamps = new ArrayList<>();
+
+        @Override
+        public void onAtom(AtomsProto.Atom atom, long elapsedTimestampNanos) {
+            mAtoms.add(atom);
+            mTimestamps.add(elapsedTimestampNanos);
+        }
+    }
+}
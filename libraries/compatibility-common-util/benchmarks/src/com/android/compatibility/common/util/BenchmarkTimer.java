@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.testtype.junit4.DeviceJUnit4ClassRunner.TestMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Times the iterations of a benchmark task, after discarding warm-up iterations, and reports the
+ * statistics of the durations as test metrics named {@code <name>_time_ns_<statistic>}.
+ */
+final class BenchmarkTimer {
+
+    /** A benchmark task, or the preparation of its next iteration. */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private final int mWarmupIterations;
+    private final int mIterations;
+
+    BenchmarkTimer(int warmupIterations, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("At least one iteration must be timed.");
+        }
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+    }
+
+    /**
+     * Runs {@code task} for all iterations, running {@code setUp} untimed before each of them, and
+     * reports the durations of the timed iterations to {@code metrics}.
+     */
+    void time(TestMetrics metrics, String name, Task setUp, Task task) throws Exception {
+        long[] samples = new long[mIterations];
+        for (int i = -mWarmupIterations; i < mIterations; i++) {
+            setUp.run();
+            long start = System.nanoTime();
+            task.run();
+            long duration = System.nanoTime() - start;
+            if (i >= 0) {
+                samples[i] = duration;
+            }
+        }
+        Arrays.sort(samples);
+        long sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        metrics.addTestMetric(name + "_time_ns_min", Long.toString(samples[0]));
+        metrics.addTestMetric(
+                name + "_time_ns_median", Long.toString(samples[(mIterations - 1) / 2]));
+        metrics.addTestMetric(name + "_time_ns_mean", Long.toString(sum / mIterations));
+        metrics.addTestMetric(name + "_time_ns_max", Long.toString(samples[mIterations - 1]));
+    }
+
+    /** Runs {@code task} for all iterations and reports the durations of the timed ones. */
+    void time(TestMetrics metrics, String name, Task task) throws Exception {
+        time(metrics, name, () -> {}, task);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.testtype.junit4.DeviceJUnit4ClassRunner;
+import com.android.tradefed.testtype.junit4.DeviceJUnit4ClassRunner.TestMetrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares {@link StatAccumulator} with sorting the values, as {@link Stat#getStat}, its median
+ * and {@link Stat#get95PercentileValue} did before they used the accumulator.
+ *
+ * <p>Each iteration computes the statistics of a copy of the same values, made before it is timed,
+ * since sorting and selection reorder them. The times are reported as {@code <test>_time_ns_*}
+ * metrics.
+ */
+@RunWith(DeviceJUnit4ClassRunner.class)
+public class StatBenchmark {
+
+    private static final int VALUES = 1000000;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    /** Frame-time-like values, around 16 ms with a long tail. */
+    private static final double[] sValues = new double[VALUES];
+
+    static {
+        Random random = new Random(0);
+        for (int i = 0; i < VALUES; i++) {
+            sValues[i] = 16.0 + Math.abs(random.nextGaussian()) * 4.0;
+        }
+    }
+
+    @Rule public TestMetrics mMetrics = new TestMetrics();
+
+    private final BenchmarkTimer mTimer = new BenchmarkTimer(WARMUP_ITERATIONS, ITERATIONS);
+    private final double[] mValues = new double[VALUES];
+    private final StatAccumulator mAccumulator = new StatAccumulator(VALUES);
+    // Keeps the results used, so that computing them can't be optimized away.
+    private double mSink;
+
+    @Test
+    public void getStat_sorting() throws Exception {
+        time("getStat_sorting", () -> consume(getStatBySorting(mValues)));
+    }
+
+    @Test
+    public void getStat_accumulator() throws Exception {
+        time("getStat_accumulator", () -> consume(Stat.getStat(mValues)));
+    }
+
+    @Test
+    public void getStat_reusedAccumulator() throws Exception {
+        time("getStat_reusedAccumulator", () -> {
+            mAccumulator.reset();
+            mAccumulator.addAll(mValues);
+            consume(mAccumulator.getStat());
+        });
+    }
+
+    @Test
+    public void getMedian_sorting() throws Exception {
+        time("getMedian_sorting", () -> mSink += getMedianBySorting(mValues));
+    }
+
+    @Test
+    public void getMedian_accumulator() throws Exception {
+        time("getMedian_accumulator", () -> {
+            mAccumulator.reset();
+            mAccumulator.addAll(mValues);
+            mSink += mAccumulator.getMedian();
+        });
+    }
+
+    @Test
+    public void get95PercentileValue_sorting() throws Exception {
+        time("get95PercentileValue_sorting", () -> mSink += Stat.get95PercentileValue(mValues));
+    }
+
+    @Test
+    public void get95PercentileValue_accumulator() throws Exception {
+        time("get95PercentileValue_accumulator", () -> {
+            mAccumulator.reset();
+            mAccumulator.addAll(mValues);
+            mSink += mAccumulator.getPercentile(95);
+        });
+    }
+
+    private void time(String name, BenchmarkTimer.Task task) throws Exception {
+        mTimer.time(mMetrics, name,
+                () -> System.arraycopy(sValues, 0, mValues, 0, VALUES), task);
+        mMetrics.addTestMetric(name + "_sink", Double.toString(mSink));
+    }
+
+    private void consume(Stat.StatResult result) {
+        mSink += result.mAverage + result.mStddev + result.mMedian;
+    }
+
+    /** {@link Stat#getStat} before it used {@link StatAccumulator}. */
+    private static Stat.StatResult getStatBySorting(double[] data) {
+        double average = data[0];
+        double min = data[0];
+        double max = data[0];
+        for (int i = 1; i < data.length; i++) {
+            average += data[i];
+            if (data[i] > max) {
+                max = data[i];
+            }
+            if (data[i] < min) {
+                min = data[i];
+            }
+        }
+        average /= data.length;
+        double sumOfSquares = 0.0;
+        for (int i = 0; i < data.length; i++) {
+            double diff = average - data[i];
+            sumOfSquares += diff * diff;
+        }
+        double stddev = Math.sqrt(sumOfSquares / (data.length - 1));
+        double median = getMedianBySorting(data);
+        return new Stat.StatResult(average, min, max, stddev, median, data.length);
+    }
+
+    /** The median of {@link Stat} before it used {@link StatAccumulator}. */
+    private static double getMedianBySorting(double[] data) {
+        double[] dataCopied = Arrays.copyOf(data, data.length);
+        Arrays.sort(dataCopied);
+        int medianIndex = dataCopied.length / 2;
+        if (dataCopied.length % 2 == 1) {
+            return dataCopied[medianIndex];
+        }
+        return (dataCopied[medianIndex - 1] + dataCopied[medianIndex]) / 2.0;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.testtype.junit4.DeviceJUnit4ClassRunner;
+import com.android.tradefed.testtype.junit4.DeviceJUnit4ClassRunner.TestMetrics;
+import com.android.tradefed.util.FileUtil;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Compares the sequential {@link ZipUtil#createZip(File, File)} with the {@link
+ * ParallelZipWriter} of {@link ZipUtil#createZip(java.util.List, File, int, int)} on a synthetic
+ * result directory of about 55 MB, with compressible logs and incompressible screenshots.
+ *
+ * <p>The zip times are reported as {@code <test>_time_ns_*} metrics, and the zip sizes as {@code
+ * <test>_bytes}.
+ */
+@RunWith(DeviceJUnit4ClassRunner.class)
+public class ZipUtilBenchmark {
+
+    private static final int MODULES = 16;
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int ITERATIONS = 5;
+
+    private static File sTempDir;
+    private static File sResultDir;
+
+    @Rule public TestMetrics mMetrics = new TestMetrics();
+
+    private final BenchmarkTimer mTimer = new BenchmarkTimer(WARMUP_ITERATIONS, ITERATIONS);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        sTempDir = FileUtil.createTempDir("zip");
+        sResultDir = new File(sTempDir, "results");
+        File logs = new File(sResultDir, "logs");
+        if (!logs.mkdirs()) {
+            throw new IOException("Failed to create " + logs);
+        }
+        writeLog(new File(sResultDir, "test_result.xml"), 2000, -1);
+        for (int i = 0; i < MODULES; i++) {
+            writeLog(new File(logs, "module" + i + "-logcat.txt"), 40000, i);
+            writeRandom(new File(logs, "module" + i + "-screenshot.png"), 200000, i);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        FileUtil.recursiveDelete(sTempDir);
+    }
+
+    @Test
+    public void createZip_sequential() throws Exception {
+        File zip = new File(sTempDir, "sequential.zip");
+        mTimer.time(mMetrics, "createZip_sequential", zip::delete,
+                () -> ZipUtil.createZip(sResultDir, zip));
+        mMetrics.addTestMetric("createZip_sequential_bytes", Long.toString(zip.length()));
+    }
+
+    @Test
+    public void createZip_parallel() throws Exception {
+        File zip = new File(sTempDir, "parallel.zip");
+        int threads = Runtime.getRuntime().availableProcessors();
+        mTimer.time(mMetrics, "createZip_parallel", zip::delete,
+                () -> ZipUtil.createZip(Collections.singletonList(sResultDir), zip, 6, threads));
+        mMetrics.addTestMetric("createZip_parallel_bytes", Long.toString(zip.length()));
+        mMetrics.addTestMetric("createZip_parallel_threads", Integer.toString(threads));
+    }
+
+    /** Writes {@code lines} lines that look like a log, which compress like one. */
+    private static void writeLog(File file, int lines, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < lines; i++) {
+                writer.write(String.format("05-%02d 12:%02d:%02d.%03d %5d %5d I TestRunner: "
+                        + "run finished: %d tests, %d failed\n", random.nextInt(30),
+                        random.nextInt(60), random.nextInt(60), random.nextInt(1000),
+                        random.nextInt(30000), random.nextInt(30000), random.nextInt(100),
+                        random.nextInt(3)));
+            }
+        }
+    }
+
+    private static void writeRandom(File file, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(data);
+        }
+    }
+}
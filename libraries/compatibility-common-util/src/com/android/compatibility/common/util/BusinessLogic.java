@@ -28,6 +28,8 @@ import java.util.Set;
 
 import org.junit.AssumptionViolatedException;
 
+import com.android.compatibility.common.util.BusinessLogicExecutor.CompiledMethod;
+
 /**
  * Helper and constants accessible to host and device components that enable Business Logic
  * configuration
@@ -178,6 +180,37 @@ public class BusinessLogic {
         return AuthenticationStatusEnum.AUTHORIZED.equals(mAuthenticationStatus);
     }
 
+    /**
+     * Compiles the conditions and actions of all rules, sharing the compiled method between the
+     * identical conditions and actions of different rules, so that methods applied to many tests
+     * are only loaded and resolved once. Called by {@link BusinessLogicFactory} after loading the
+     * rules.
+     */
+    void compile() {
+        Map<List<String>, CompiledMethod> methods = new HashMap<>();
+        for (List<BusinessLogicRulesList> rulesLists : mRules.values()) {
+            for (BusinessLogicRulesList rulesList : rulesLists) {
+                for (BusinessLogicRule rule : rulesList.getRules()) {
+                    for (BusinessLogicRuleCondition condition : rule.mConditions) {
+                        condition.mCompiled = compile(
+                                methods, condition.mMethodName, condition.mMethodArgs);
+                    }
+                    for (BusinessLogicRuleAction action : rule.mActions) {
+                        action.mCompiled = compile(methods, action.mMethodName, action.mMethodArgs);
+                    }
+                }
+            }
+        }
+    }
+
+    private static CompiledMethod compile(Map<List<String>, CompiledMethod> methods,
+            String methodName, List<String> methodArgs) {
+        List<String> key = new ArrayList<>(methodArgs.size() + 1);
+        key.add(methodName);
+        key.addAll(methodArgs);
+        return methods.computeIfAbsent(key, k -> new CompiledMethod(methodName, methodArgs));
+    }
+
     public Date getTimestamp() {
         return mTimestamp;
     }
@@ -295,7 +328,8 @@ public class BusinessLogic {
         protected List<String> mMethodArgs;
         /* Whether or not the boolean result of this condition should be reversed */
         protected boolean mNegated;
-
+        /* The compiled method, when compiled by the BusinessLogic */
+        CompiledMethod mCompiled;
 
         public BusinessLogicRuleCondition(String methodName, List<String> methodArgs,
                 boolean negated) {
@@ -309,6 +343,9 @@ public class BusinessLogic {
          */
         public boolean invoke(BusinessLogicExecutor executor) {
             // XOR the negated boolean with the return value of the method
+            if (mCompiled != null) {
+                return (mNegated != executor.executeCondition(mCompiled));
+            }
             return (mNegated != executor.executeCondition(mMethodName,
                     mMethodArgs.toArray(new String[mMethodArgs.size()])));
         }
@@ -323,6 +360,8 @@ public class BusinessLogic {
         /* Stored method name and String args */
         protected String mMethodName;
         protected List<String> mMethodArgs;
+        /* The compiled method, when compiled by the BusinessLogic */
+        CompiledMethod mCompiled;
 
         public BusinessLogicRuleAction(String methodName, List<String> methodArgs) {
             mMethodName = methodName;
@@ -333,6 +372,10 @@ public class BusinessLogic {
          * Invoke this Business Logic action with an executor.
          */
         public void invoke(BusinessLogicExecutor executor) {
+            if (mCompiled != null) {
+                executor.executeAction(mCompiled);
+                return;
+            }
             executor.executeAction(mMethodName,
                     mMethodArgs.toArray(new String[mMethodArgs.size()]));
         }
@@ -16,12 +16,21 @@
 
 package com.android.compatibility.common.util;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.junit.AssumptionViolatedException;
@@ -38,8 +47,23 @@ public abstract class BusinessLogicExecutor {
     protected static final String STRING_ARRAY_CLASS = "[Ljava.lang.String;";
 
     private static final String REDACTED_PLACEHOLDER = "[redacted]";
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
     /* List of regexes indicating a method arg should be redacted in the logs */
     protected List<String> mRedactionRegexes = new ArrayList<>();
+    /* The regexes mRedactionPatterns were compiled from */
+    private List<String> mCompiledRedactionRegexes;
+    private Pattern[] mRedactionPatterns;
+
+    /**
+     * Marks a condition method whose result only depends on its arguments and the object it is
+     * invoked on. Rules loaded by {@link BusinessLogicFactory} evaluate such a condition once per
+     * test object when it is a member of the test class, once per device or context when the
+     * executor injects such arguments, and once for all the tests of the business logic
+     * otherwise.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface PureCondition {}
 
     /**
      * Execute a business logic condition.
@@ -50,9 +74,19 @@ public abstract class BusinessLogicExecutor {
      * @throws RuntimeException when failing to resolve or invoke the condition method
      */
     public boolean executeCondition(String method, String... args) {
+        return executeCondition(null, method, args);
+    }
+
+    /** Execute a business logic condition compiled by {@link BusinessLogic}. */
+    boolean executeCondition(CompiledMethod compiled) {
+        return executeCondition(compiled, compiled.mMethod, compiled.mArgs);
+    }
+
+    private boolean executeCondition(CompiledMethod compiled, String method, String[] args) {
         logDebug("Executing condition: %s", formatExecutionString(method, args));
         try {
-            return (Boolean) invokeMethod(method, args);
+            return (Boolean) (compiled == null
+                    ? invokeMethod(method, args) : invokeCompiled(compiled, true));
         } catch (ClassNotFoundException | IllegalAccessException | InstantiationException |
                 InvocationTargetException | NoSuchMethodException e) {
             throw new RuntimeException(String.format(
@@ -69,9 +103,22 @@ public abstract class BusinessLogicExecutor {
      * @throws RuntimeException when failing to resolve or invoke the action method
      */
     public void executeAction(String method, String... args) {
+        executeAction(null, method, args);
+    }
+
+    /** Execute a business logic action compiled by {@link BusinessLogic}. */
+    void executeAction(CompiledMethod compiled) {
+        executeAction(compiled, compiled.mMethod, compiled.mArgs);
+    }
+
+    private void executeAction(CompiledMethod compiled, String method, String[] args) {
         logDebug("Executing action: %s", formatExecutionString(method, args));
         try {
-            invokeMethod(method, args);
+            if (compiled == null) {
+                invokeMethod(method, args);
+            } else {
+                invokeCompiled(compiled, false);
+            }
         } catch (ClassNotFoundException | IllegalAccessException | InstantiationException |
                 NoSuchMethodException e) {
             throw new RuntimeException(String.format(
@@ -108,16 +155,44 @@ public abstract class BusinessLogicExecutor {
     }
 
     private String formatArg(String arg) {
-        for (String regex : mRedactionRegexes) {
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(arg);
-            if (matcher.find()) {
+        for (Pattern pattern : getRedactionPatterns()) {
+            if (pattern.matcher(arg).find()) {
                 return REDACTED_PLACEHOLDER;
             }
         }
         return arg;
     }
 
+    /**
+     * Returns the compiled redaction regexes, recompiling them only when mRedactionRegexes
+     * changed. The regexes are combined into a single alternation, unless one of them uses a
+     * back reference, whose group number would change in the alternation.
+     */
+    private Pattern[] getRedactionPatterns() {
+        if (mRedactionPatterns == null || !mRedactionRegexes.equals(mCompiledRedactionRegexes)) {
+            List<String> regexes = new ArrayList<>(mRedactionRegexes);
+            StringBuilder alternation = new StringBuilder();
+            boolean combine = true;
+            for (String regex : regexes) {
+                combine &= !BACK_REFERENCE.matcher(regex).find();
+                alternation.append(alternation.length() == 0 ? "" : "|")
+                        .append("(?:").append(regex).append(')');
+            }
+            if (regexes.isEmpty()) {
+                mRedactionPatterns = new Pattern[0];
+            } else if (combine) {
+                mRedactionPatterns = new Pattern[] {Pattern.compile(alternation.toString())};
+            } else {
+                mRedactionPatterns = new Pattern[regexes.size()];
+                for (int i = 0; i < regexes.size(); i++) {
+                    mRedactionPatterns[i] = Pattern.compile(regexes.get(i));
+                }
+            }
+            mCompiledRedactionRegexes = regexes;
+        }
+        return mRedactionPatterns;
+    }
+
     /**
      * Execute a business logic method.
      * @param method the name of the method to invoke. Must include fully qualified name of the
@@ -129,15 +204,7 @@ public abstract class BusinessLogicExecutor {
     protected Object invokeMethod(String method, String... args) throws ClassNotFoundException,
             IllegalAccessException, InstantiationException, InvocationTargetException,
             NoSuchMethodException {
-        // Method names served by the BusinessLogic service should assume format
-        // classname.methodName, but also handle format classname#methodName since test names use
-        // this format
-        int index = (method.indexOf('#') == -1) ? method.lastIndexOf('.') : method.indexOf('#');
-        if (index == -1) {
-            throw new RuntimeException(String.format("BusinessLogic: invalid method name "
-                    + "\"%s\". Method string must include fully qualified class name. "
-                    + "For example, \"com.android.packagename.ClassName.methodName\".", method));
-        }
+        int index = getClassNameEnd(method);
         String className = method.substring(0, index);
         Class cls = Class.forName(className);
         Object obj = null;
@@ -153,6 +220,66 @@ public abstract class BusinessLogicExecutor {
         return rm.invoke(obj);
     }
 
+    /**
+     * Invoke a compiled business logic method. The class, method and arguments are resolved on
+     * the first invocation by an executor class, and reused by the following invocations, binding
+     * the arguments injected by the invoking executor.
+     * @param condition whether the method is a condition, whose result may be memoized
+     * @return the return value of the method invoked (type Boolean if method is a condition)
+     */
+    private Object invokeCompiled(CompiledMethod compiled, boolean condition)
+            throws ClassNotFoundException, IllegalAccessException, InstantiationException,
+            InvocationTargetException, NoSuchMethodException {
+        CompiledMethod.Invocation invocation = compiled.resolve(this);
+        Object[] args = compiled.bind(invocation, this);
+        Object testObject = getTestObject();
+        boolean member = testObject != null && invocation.mClass.isInstance(testObject);
+        boolean memoize = condition && invocation.mPure;
+        Object memoKey = null;
+        if (memoize) {
+            // A result that doesn't depend on the test object or executor is kept for the module.
+            memoKey = member ? testObject
+                    : invocation.mInjected.length == 0 ? invocation
+                    : Arrays.asList(invocation, Arrays.asList(args));
+            Object result = compiled.getMemoizedResult(member, memoKey);
+            if (result != null) {
+                return result;
+            }
+        }
+        // Only instantiate a new object if the test object isn't an instance of the class.
+        MethodHandle constructor = member ? null : invocation.getConstructor();
+        try {
+            Object obj = member ? testObject : null;
+            if (constructor != null) {
+                obj = (Object) constructor.invokeExact();
+            }
+            Object result = invocation.mMethod.invokeExact(obj, args);
+            if (memoize) {
+                compiled.setMemoizedResult(member, memoKey, result);
+            }
+            return result;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Returns the end of the class name in a business logic method name.
+     * @throws RuntimeException if the method name doesn't include a class name
+     */
+    private static int getClassNameEnd(String method) {
+        // Method names served by the BusinessLogic service should assume format
+        // classname.methodName, but also handle format classname#methodName since test names use
+        // this format
+        int index = (method.indexOf('#') == -1) ? method.lastIndexOf('.') : method.indexOf('#');
+        if (index == -1) {
+            throw new RuntimeException(String.format("BusinessLogic: invalid method name "
+                    + "\"%s\". Method string must include fully qualified class name. "
+                    + "For example, \"com.android.packagename.ClassName.methodName\".", method));
+        }
+        return index;
+    }
+
     /**
      * Log information with whichever logging mechanism is available to the instance. This varies
      * from host-side to device-side, so implementations are left to subclasses.
@@ -188,6 +315,19 @@ public abstract class BusinessLogicExecutor {
     protected abstract ResolvedMethod getResolvedMethod(Class cls, String methodName,
             String... args) throws ClassNotFoundException;
 
+    /**
+     * Get the argument of the given type that {@link #getResolvedMethod} adds to the string
+     * arguments, such as the device or context of this executor. The methods of rules loaded by
+     * {@link BusinessLogicFactory} are resolved once per executor class, and only bind these
+     * arguments for each executor. The default implementation returns null, which resolves the
+     * methods with such arguments again for each invocation.
+     * @param type the parameter type of the argument
+     * @return the argument, or null if the executor doesn't provide it
+     */
+    protected Object getInjectedArg(Class<?> type) {
+        return null;
+    }
+
     /**
      * Retrieve all methods within a class that match a given name
      * @param cls the class
@@ -228,4 +368,167 @@ public abstract class BusinessLogicExecutor {
             return mMethod.invoke(instance, mArgs.toArray());
         }
     }
+
+    /**
+     * A business logic method with its class loaded and its arguments split once, shared by the
+     * identical conditions or actions of a {@link BusinessLogic}. The method is resolved once per
+     * executor class, since the arguments of {@link #getResolvedMethod} may include objects of the
+     * executor, such as its device or context. Only these arguments are bound for each executor,
+     * with {@link #getInjectedArg}.
+     */
+    static final class CompiledMethod {
+
+        /* The original method name and args */
+        final String mMethod;
+        final String[] mArgs;
+        /* The class of the method, or null if it failed to load when the method was compiled */
+        private final Class<?> mClass;
+        /* The invocation resolved for each executor class */
+        private final Map<Class<?>, Invocation> mInvocations = new HashMap<>();
+        /* The results of a pure condition, by invocation and injected args */
+        private final Map<Object, Object> mResults = new HashMap<>();
+        /* The test object of the member result */
+        private Object mTestObject;
+        private Object mTestObjectResult;
+
+        CompiledMethod(String method, List<String> args) {
+            mMethod = method;
+            mArgs = args.toArray(new String[args.size()]);
+            mClass = loadClass(method);
+        }
+
+        /**
+         * Loads the class of a method without initializing it, or returns null to report the
+         * error when the method is invoked.
+         */
+        private static Class<?> loadClass(String method) {
+            try {
+                return Class.forName(method.substring(0, getClassNameEnd(method)), false,
+                        CompiledMethod.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+                return null;
+            }
+        }
+
+        synchronized Invocation resolve(BusinessLogicExecutor executor)
+                throws ClassNotFoundException, IllegalAccessException, NoSuchMethodException {
+            Invocation invocation = mInvocations.get(executor.getClass());
+            if (invocation == null) {
+                int index = getClassNameEnd(mMethod);
+                Class<?> cls = mClass != null ? mClass : Class.forName(mMethod.substring(0, index));
+                ResolvedMethod rm = executor.getResolvedMethod(
+                        cls, mMethod.substring(index + 1), mArgs);
+                invocation = new Invocation(cls, rm);
+                mInvocations.put(executor.getClass(), invocation);
+            }
+            return invocation;
+        }
+
+        /**
+         * Returns the arguments of an invocation for an executor, with the arguments it injects.
+         * The method is resolved again if the executor doesn't provide one of them.
+         */
+        Object[] bind(Invocation invocation, BusinessLogicExecutor executor)
+                throws ClassNotFoundException {
+            if (invocation.mInjected.length == 0) {
+                return invocation.mArgs;
+            }
+            Object[] args = invocation.mArgs.clone();
+            for (int i : invocation.mInjected) {
+                Object arg = executor.getInjectedArg(invocation.mTypes[i]);
+                if (arg == null) {
+                    ResolvedMethod rm = executor.getResolvedMethod(invocation.mClass,
+                            mMethod.substring(getClassNameEnd(mMethod) + 1), mArgs);
+                    return rm.mArgs.toArray();
+                }
+                args[i] = arg;
+            }
+            return args;
+        }
+
+        /**
+         * Returns the memoized result of a pure condition, or null.
+         * @param member whether the key is the test object the condition is a member of
+         */
+        synchronized Object getMemoizedResult(boolean member, Object key) {
+            if (member) {
+                return key == mTestObject ? mTestObjectResult : null;
+            }
+            return mResults.get(key);
+        }
+
+        synchronized void setMemoizedResult(boolean member, Object key, Object result) {
+            if (member) {
+                // Only keep the result of the current test object.
+                mTestObject = key;
+                mTestObjectResult = result;
+            } else {
+                mResults.put(key, result);
+            }
+        }
+
+        /**
+         * A method resolved for an executor class, as a handle taking the instance and the array
+         * of arguments.
+         */
+        static final class Invocation {
+            final Class<?> mClass;
+            final MethodHandle mMethod;
+            /* The arguments, without the ones injected by the executor */
+            final Object[] mArgs;
+            final boolean mPure;
+            /* The positions of the arguments injected by the executor, and the parameter types */
+            final int[] mInjected;
+            final Class<?>[] mTypes;
+            private final boolean mStatic;
+            private MethodHandle mConstructor;
+
+            Invocation(Class<?> cls, ResolvedMethod rm) throws IllegalAccessException {
+                Method method = rm.mMethod;
+                mMethod = spread(method);
+                mClass = cls;
+                mStatic = Modifier.isStatic(method.getModifiers());
+                mArgs = rm.mArgs.toArray();
+                mPure = method.isAnnotationPresent(PureCondition.class);
+                mTypes = method.getParameterTypes();
+                int[] injected = new int[mArgs.length];
+                int count = 0;
+                for (int i = 0; i < mArgs.length; i++) {
+                    Object arg = mArgs[i];
+                    if (arg != null && !(arg instanceof String || arg instanceof String[])) {
+                        injected[count++] = i;
+                        // Don't keep the objects of the executor that resolved the method.
+                        mArgs[i] = null;
+                    }
+                }
+                mInjected = Arrays.copyOf(injected, count);
+            }
+
+            /** Returns the handle of a method, taking the instance and the array of arguments. */
+            static MethodHandle spread(Method method) throws IllegalAccessException {
+                MethodHandle handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+                if (Modifier.isStatic(method.getModifiers())) {
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+                }
+                int count = method.getParameterCount();
+                return handle.asType(MethodType.genericMethodType(count + 1))
+                        .asSpreader(Object[].class, count);
+            }
+
+            /**
+             * Returns the constructor of the instance to invoke the method on, or null if the
+             * method is static. The constructor is only looked up when needed, since the class may
+             * be an interface implemented by the test class.
+             */
+            synchronized MethodHandle getConstructor()
+                    throws IllegalAccessException, NoSuchMethodException {
+                if (mConstructor == null && !mStatic) {
+                    mConstructor = MethodHandles.lookup()
+                            .unreflectConstructor(mClass.getDeclaredConstructor())
+                            .asType(MethodType.genericMethodType(0));
+                }
+                return mConstructor;
+            }
+        }
+    }
 }
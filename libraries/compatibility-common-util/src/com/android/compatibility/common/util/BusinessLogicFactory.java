@@ -142,6 +142,7 @@ public class BusinessLogicFactory {
         }
         // Return business logic
         bl.mRules = rulesMap;
+        bl.compile();
         return bl;
     }
 
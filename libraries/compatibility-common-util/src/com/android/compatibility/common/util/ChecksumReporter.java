@@ -35,11 +35,20 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /***
  * Calculate and store checksum values for files and test results
@@ -48,6 +57,7 @@ public final class ChecksumReporter implements Serializable {
 
     public static final String NAME = "checksum.data";
     public static final String PREV_NAME = "checksum.previous.data";
+    public static final String CACHE_NAME = "checksum.cache";
 
     private static final double DEFAULT_FPP = 0.05;
     private static final String SEPARATOR = "/";
@@ -58,6 +68,10 @@ public final class ChecksumReporter implements Serializable {
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
 
+    // Files at least this large are hashed through memory mapped chunks of MMAP_CHUNK_SIZE bytes.
+    private static final long MMAP_THRESHOLD = 1 << 20;
+    private static final long MMAP_CHUNK_SIZE = 64 << 20;
+
     private final BloomFilter<CharSequence> mResultChecksum;
     private final HashMap<String, byte[]> mFileChecksum;
     private final short mVersion;
@@ -74,8 +88,10 @@ public final class ChecksumReporter implements Serializable {
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
             checksumReporter.addInvocation(result);
-            checksumReporter.addDirectory(dir);
+            Map<String, byte[]> cache = loadCache(dir, result.getRetryDirectory());
+            cache = checksumReporter.addDirectory(dir, cache);
             checksumReporter.saveToFile(dir);
+            saveCache(dir, cache);
         } catch (Exception e) {
             return false;
         }
@@ -158,14 +174,8 @@ public final class ChecksumReporter implements Serializable {
      * @param path part of the key to identify the files crc
      */
     public void addFile(File file, String path) {
-        byte[] crc;
-        try {
-            crc = calculateFileChecksum(file);
-        } catch (ChecksumValidationException e) {
-            crc = new byte[0];
-        }
         String key = path + SEPARATOR + file.getName();
-        mFileChecksum.put(key, crc);
+        mFileChecksum.put(key, getFileChecksum(file));
     }
 
     @VisibleForTesting
@@ -184,27 +194,159 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Adds all child files recursively through all sub directories
+     * Adds all child files recursively through all sub directories, hashing them in parallel
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
-        addDirectory(directory, directory.getName());
+        addDirectory(directory, Collections.emptyMap());
+    }
+
+    /***
+     * Adds all child files recursively through all sub directories, only hashing the files that
+     * aren't in the cache of a previous session
+     * @param directory target that is deeply searched for files
+     * @param cache checksums keyed by the path relative to the directory, size and modification
+     * time of the files, see {@link #CACHE_NAME}
+     * @return the cache of the checksums of the files of the directory
+     */
+    @VisibleForTesting
+    Map<String, byte[]> addDirectory(File directory, Map<String, byte[]> cache) {
+        List<File> files = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        String root = directory.getName();
+        listFiles(directory, root, files, paths);
+
+        List<String> cacheKeys = new ArrayList<>(files.size());
+        List<File> changedFiles = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String cacheKey = paths.get(i).substring(root.length()) + SEPARATOR + file.getName()
+                    + "|" + file.length() + "|" + file.lastModified();
+            cacheKeys.add(cacheKey);
+            if (!cache.containsKey(cacheKey)) {
+                changedFiles.add(file);
+            }
+        }
+        List<byte[]> changedChecksums = calculateFileChecksums(changedFiles);
+
+        Map<String, byte[]> newCache = new HashMap<>();
+        for (int i = 0, changed = 0; i < files.size(); i++) {
+            byte[] crc = cache.get(cacheKeys.get(i));
+            if (crc == null) {
+                crc = changedChecksums.get(changed++);
+            }
+            if (crc.length > 0) {
+                newCache.put(cacheKeys.get(i), crc);
+            }
+            mFileChecksum.put(paths.get(i) + SEPARATOR + files.get(i).getName(), crc);
+        }
+        return newCache;
+    }
+
+    /***
+     * Load the checksum caches of a result directory and of the session it retries, ignoring
+     * caches that can't be read
+     * @param retryDirectory the result directory of the retried session, or null
+     */
+    private static Map<String, byte[]> loadCache(File directory, File retryDirectory) {
+        Map<String, byte[]> cache = new HashMap<>();
+        for (File dir : new File[] {retryDirectory, directory}) {
+            File file = dir == null ? null : new File(dir, CACHE_NAME);
+            if (file == null || !file.isFile()) {
+                continue;
+            }
+            try (InputStream stream = new BufferedInputStream(new FileInputStream(file));
+                 ObjectInput objectInput = new ObjectInputStream(stream)) {
+                if (objectInput.readShort() == SERIALIZED_FORMAT_CODE) {
+                    cache.putAll((HashMap<String, byte[]>) objectInput.readObject());
+                }
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                // The files are hashed again.
+            }
+        }
+        return cache;
+    }
+
+    /***
+     * Write the checksum cache of a result directory, next to its checksum data. The cache isn't
+     * part of the checksum data, so that a retry doesn't need to trust it: a file that changed
+     * has a different size or modification time, and is hashed again.
+     */
+    @VisibleForTesting
+    static void saveCache(File directory, Map<String, byte[]> cache) throws IOException {
+        File file = new File(directory, CACHE_NAME);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+             ObjectOutput objectOutput = new ObjectOutputStream(stream)) {
+            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
+            objectOutput.writeObject(new HashMap<>(cache));
+        }
     }
 
     /***
      * @param path the relative path to the current directory from the base directory
      */
-    private void addDirectory(File directory, String path) {
+    private static void listFiles(
+            File directory, String path, List<File> files, List<String> paths) {
         for(String childName : directory.list()) {
+            if (childName.equals(CACHE_NAME)) {
+                continue;
+            }
             File child = new File(directory, childName);
             if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
+                listFiles(child, path + SEPARATOR + child.getName(), files, paths);
             } else {
-                addFile(child, path);
+                files.add(child);
+                paths.add(path);
             }
         }
     }
 
+    /***
+     * Calculate the checksums of files on a pool of worker threads
+     * @return the checksum of each file in order, empty for files that can't be read
+     */
+    private static List<byte[]> calculateFileChecksums(List<File> files) {
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        List<byte[]> checksums = new ArrayList<>(files.size());
+        if (threads <= 1) {
+            for (File file : files) {
+                checksums.add(getFileChecksum(file));
+            }
+            return checksums;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(() -> getFileChecksum(file)));
+            }
+            for (Future<byte[]> future : futures) {
+                checksums.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing files.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to hash files.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return checksums;
+    }
+
+    /***
+     * Return the checksum of the file
+     * @return the checksum, or an empty array if the file can't be read
+     */
+    private static byte[] getFileChecksum(File file) {
+        try {
+            return calculateFileChecksum(file);
+        } catch (ChecksumValidationException e) {
+            return new byte[0];
+        }
+    }
+
     /***
      * Calculate checksum of test result and store the value
      * @param testResult the target of the checksum
@@ -273,17 +415,12 @@ public final class ChecksumReporter implements Serializable {
     static String generateTestResultSignature(ITestResult testResult, IModuleResult module,
             String buildFingerprint) {
         StringBuilder sb = new StringBuilder();
-        String stacktrace = testResult.getStackTrace();
-
-        stacktrace = stacktrace == null ? "" : stacktrace.trim();
-        // Line endings for stacktraces are somewhat unpredictable and there is no need to
-        // actually read the result they are all removed for consistency.
-        stacktrace = stacktrace.replaceAll("\\r?\\n|\\r", "");
         sb.append(buildFingerprint).append(SEPARATOR)
                 .append(module.getId()).append(SEPARATOR)
                 .append(testResult.getFullName()).append(SEPARATOR)
-                .append(testResult.getResultStatus().getValue()).append(SEPARATOR)
-                .append(stacktrace).append(SEPARATOR);
+                .append(testResult.getResultStatus().getValue()).append(SEPARATOR);
+        appendStackTrace(sb, testResult.getStackTrace());
+        sb.append(SEPARATOR);
         return sb.toString();
     }
 
@@ -295,11 +432,6 @@ public final class ChecksumReporter implements Serializable {
 
         String testId = buildTestId(suiteName, caseName, testName, abi);
         StringBuilder sb = new StringBuilder();
-
-        stacktrace = stacktrace == null ? "" : stacktrace.trim();
-        // Line endings for stacktraces are somewhat unpredictable and there is no need to
-        // actually read the result they are all removed for consistency.
-        stacktrace = stacktrace.replaceAll("\\r?\\n|\\r", "");
         sb.append(buildFingerprint)
                 .append(SEPARATOR)
                 .append(packageName)
@@ -307,12 +439,34 @@ public final class ChecksumReporter implements Serializable {
                 .append(testId)
                 .append(SEPARATOR)
                 .append(status)
-                .append(SEPARATOR)
-                .append(stacktrace)
                 .append(SEPARATOR);
+        appendStackTrace(sb, stacktrace);
+        sb.append(SEPARATOR);
         return sb.toString();
     }
 
+    /***
+     * Append the trimmed stack trace without its line breaks
+     */
+    private static void appendStackTrace(StringBuilder sb, String stacktrace) {
+        if (stacktrace == null) {
+            return;
+        }
+        stacktrace = stacktrace.trim();
+        // Line endings for stacktraces are somewhat unpredictable and there is no need to
+        // actually read the result they are all removed for consistency.
+        sb.ensureCapacity(sb.length() + stacktrace.length());
+        int start = 0;
+        for (int i = 0; i < stacktrace.length(); i++) {
+            char c = stacktrace.charAt(i);
+            if (c == '\r' || c == '\n') {
+                sb.append(stacktrace, start, i);
+                start = i + 1;
+            }
+        }
+        sb.append(stacktrace, start, stacktrace.length());
+    }
+
     private static String buildTestId(
             String suiteName, String caseName, String testName, String abi) {
         String name = Joiner.on(NAME_SEPARATOR).skipNulls().join(
@@ -347,13 +501,22 @@ public final class ChecksumReporter implements Serializable {
     static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
 
         try (FileInputStream fis = new FileInputStream(file);
-             InputStream inputStream = new BufferedInputStream(fis)) {
+             FileChannel channel = fis.getChannel()) {
             MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
-            int cnt;
-            int bufferSize = 8192;
-            byte [] buffer = new byte[bufferSize];
-            while ((cnt = inputStream.read(buffer)) != -1) {
-                hashSum.update(buffer, 0, cnt);
+            long size = channel.size();
+            if (size >= MMAP_THRESHOLD) {
+                // Large logs are hashed straight from the page cache, without copying.
+                for (long position = 0; position < size; position += MMAP_CHUNK_SIZE) {
+                    hashSum.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MMAP_CHUNK_SIZE, size - position)));
+                }
+            } else {
+                int cnt;
+                int bufferSize = 8192;
+                byte [] buffer = new byte[bufferSize];
+                while ((cnt = fis.read(buffer)) != -1) {
+                    hashSum.update(buffer, 0, cnt);
+                }
             }
 
             byte[] partialHash = new byte[32];
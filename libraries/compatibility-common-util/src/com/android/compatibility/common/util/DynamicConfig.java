@@ -22,19 +22,37 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * Load dynamic config for test cases
+ *
+ * <p>Configs loaded from a file are parsed once per process and shared, until the file changes.
+ * A config can also be compiled with {@link #compileConfig} next to its XML file, which is then
+ * loaded instead of parsing the XML while the XML has the length and checksum it was compiled
+ * from.
  */
 public class DynamicConfig {
 
@@ -48,11 +66,39 @@ public class DynamicConfig {
     public static final String REMOTE_CONFIG_REQUIRED_KEY = "remote_config_required";
     public static final String REMOTE_CONFIG_RETRIEVED_KEY = "remote_config_retrieved";
     public static final String CONFIG_FOLDER_ON_DEVICE = "/sdcard/dynamic-config-files/";
+    /** The suffix of a compiled config, appended to the name of its XML file. */
+    public static final String COMPILED_SUFFIX = ".bin";
+
+    private static final int COMPILED_MAGIC = 0x44434232; // "DCB2"
+
+    /** The parsed configs of this process, by absolute path of their file. */
+    private static final Map<String, CachedConfig> sConfigCache = new ConcurrentHashMap<>();
 
     protected Map<String, List<String>> mDynamicConfigMap = new HashMap<String, List<String>>();
 
+    /** A parsed config, with the modification time and length of the file it was parsed from. */
+    private static class CachedConfig {
+        final long mLastModified;
+        final long mLength;
+        final Map<String, List<String>> mConfigMap;
+
+        CachedConfig(long lastModified, long length, Map<String, List<String>> configMap) {
+            mLastModified = lastModified;
+            mLength = length;
+            mConfigMap = configMap;
+        }
+
+        boolean isCurrent(File file) {
+            return mLastModified == file.lastModified() && mLength == file.length();
+        }
+    }
+
+    /**
+     * Init from a config file. The map is shared with the other configs of the same file, and
+     * can't be modified.
+     */
     public void initializeConfig(File file) throws XmlPullParserException, IOException {
-        mDynamicConfigMap = createConfigMap(file);
+        mDynamicConfigMap = getConfigMap(file);
     }
 
     /** Init using directly a {@link FileInputStream} from the config file. */
@@ -71,6 +117,10 @@ public class DynamicConfig {
         return singleValue.get(0);
     }
 
+    /**
+     * Returns the values of a key. The list of a config initialized from a file is shared with
+     * the other configs of the same file, and can't be modified.
+     */
     public List<String> getValues(String key) {
         assertRemoteConfigRequirementMet();
         return mDynamicConfigMap.get(key);
@@ -113,6 +163,146 @@ public class DynamicConfig {
         return new File(configFolder, String.format("%s.dynamic", moduleName));
     }
 
+    /**
+     * Returns the config of a file, from the cache of the process if the file didn't change since
+     * it was parsed. The returned map and its lists can't be modified.
+     */
+    public static Map<String, List<String>> getConfigMap(File file)
+            throws XmlPullParserException, IOException {
+        String path = file.getAbsolutePath();
+        CachedConfig cached = sConfigCache.get(path);
+        if (cached != null && cached.isCurrent(file)) {
+            return cached.mConfigMap;
+        }
+        // Read the time and length before parsing, so that a change while parsing is detected.
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Map<String, List<String>> configMap = readCompiledConfig(file);
+        if (configMap == null) {
+            configMap = toImmutable(createConfigMap(file));
+        }
+        sConfigCache.put(path, new CachedConfig(lastModified, length, configMap));
+        return configMap;
+    }
+
+    /** Removes all the configs from the cache of the process. */
+    static void clearConfigCache() {
+        sConfigCache.clear();
+    }
+
+    /**
+     * Returns the compiled config of a config file, see {@link #compileConfig}.
+     */
+    public static File getCompiledConfigFile(File configFile) {
+        return new File(configFile.getPath() + COMPILED_SUFFIX);
+    }
+
+    /**
+     * Compiles a config file, for instance before pushing it to a device. The compiled config is
+     * written next to the config file with the length and CRC32 of the config file, and is used by
+     * {@link #getConfigMap} while the config file has the same length and CRC32. Unlike the
+     * modification time, they don't change when both files are copied.
+     *
+     * @return the compiled config
+     */
+    public static File compileConfig(File configFile) throws XmlPullParserException, IOException {
+        byte[] xml = Files.readAllBytes(configFile.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(xml);
+        Map<String, List<String>> configMap = createConfigMap(new ByteArrayInputStream(xml));
+        File compiled = getCompiledConfigFile(configFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(compiled)))) {
+            out.writeInt(COMPILED_MAGIC);
+            out.writeLong(xml.length);
+            out.writeLong(crc.getValue());
+            out.writeInt(configMap.size());
+            for (Map.Entry<String, List<String>> entry : configMap.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String value : entry.getValue()) {
+                    writeString(out, value);
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Reads the compiled config of a config file, if there is one compiled from the current
+     * content of the config file.
+     *
+     * @return the config, or null if there is no valid compiled config
+     */
+    static Map<String, List<String>> readCompiledConfig(File configFile) {
+        File compiled = getCompiledConfigFile(configFile);
+        if (!compiled.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(compiled)))) {
+            if (in.readInt() != COMPILED_MAGIC || in.readLong() != configFile.length()
+                    || in.readLong() != getCrc(configFile)) {
+                return null;
+            }
+            long limit = compiled.length();
+            int size = readCount(in, limit);
+            Map<String, List<String>> configMap = new HashMap<>(Math.max(size * 4 / 3 + 1, 16));
+            for (int i = 0; i < size; i++) {
+                String key = readString(in, limit);
+                String[] values = new String[readCount(in, limit)];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = readString(in, limit);
+                }
+                configMap.put(key, Collections.unmodifiableList(Arrays.asList(values)));
+            }
+            return Collections.unmodifiableMap(configMap);
+        } catch (IOException | RuntimeException e) {
+            // Parse the config file instead.
+            return null;
+        }
+    }
+
+    private static long getCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (FileInputStream stream = new FileInputStream(file)) {
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a count, which can't be more than the length of the file it is read from. */
+    private static int readCount(DataInputStream in, long limit) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in, long limit) throws IOException {
+        byte[] bytes = new byte[readCount(in, limit)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, List<String>> toImmutable(Map<String, List<String>> configMap) {
+        for (Map.Entry<String, List<String>> entry : configMap.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(configMap);
+    }
+
     public static Map<String, List<String>> createConfigMap(File file)
             throws XmlPullParserException, IOException {
         try (FileInputStream stream = new FileInputStream(file)) {
@@ -122,6 +312,11 @@ public class DynamicConfig {
 
     public static Map<String, List<String>> createConfigMap(FileInputStream fileStream)
             throws XmlPullParserException, IOException {
+        return createConfigMap((InputStream) fileStream);
+    }
+
+    private static Map<String, List<String>> createConfigMap(InputStream fileStream)
+            throws XmlPullParserException, IOException {
 
         Map<String, List<String>> dynamicConfigMap = new HashMap<String, List<String>>();
         XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
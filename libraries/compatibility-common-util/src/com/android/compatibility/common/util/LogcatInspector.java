@@ -6,10 +6,15 @@ import com.google.common.base.Joiner;
 import com.google.common.io.Closeables;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,6 +23,7 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class LogcatInspector {
     private static final int SMALL_LOGCAT_DELAY = 1000;
+    private static final int DEFAULT_SESSION_CAPACITY = 10000;
 
     /**
      * Should execute adb shell {@param command} and return an {@link InputStream} with the result.
@@ -91,6 +97,26 @@ public abstract class LogcatInspector {
         }
     }
 
+    /**
+     * Starts a {@link Session} reading logcat with the given filter spec, keeping the last
+     * 10000 lines.
+     *
+     * @throws IOException if error while executing command.
+     */
+    public Session startSession(String filterSpec) throws IOException {
+        return startSession(filterSpec, DEFAULT_SESSION_CAPACITY);
+    }
+
+    /**
+     * Starts a {@link Session} reading logcat with the given filter spec, keeping the last
+     * {@param capacity} lines.
+     *
+     * @throws IOException if error while executing command.
+     */
+    public Session startSession(String filterSpec, int capacity) throws IOException {
+        return new Session(filterSpec, capacity);
+    }
+
     private int numberOfLogcatStringsFound(
             String filterSpec, int timeInSeconds, String... logcatStrings)
             throws InterruptedException, IOException {
@@ -116,4 +142,291 @@ public abstract class LogcatInspector {
         }
         return stringIndex;
     }
+
+    /**
+     * A single logcat reader kept alive until closed, against which any number of {@link
+     * Expectation}s are evaluated as the lines arrive, instead of running logcat again for each
+     * assertion. The last lines read are kept in a bounded ring, so an expectation can also match
+     * lines read before it was added, as long as they are still in the ring.
+     *
+     * <p>Lines are numbered from 0 in the order they are read, and {@link #mark(String)} returns
+     * the number of the line following its marker.
+     */
+    public class Session implements Closeable {
+        private final Object mLock = new Object();
+        private final String[] mLines;
+        private final List<Expectation> mPending = new ArrayList<>();
+        private final InputStream mLogcatStream;
+        private final Thread mReader;
+        private long mLineCount;
+        private boolean mClosed;
+
+        private Session(String filterSpec, int capacity) throws IOException {
+            mLines = new String[capacity];
+            mLogcatStream = executeShellCommand("logcat -v brief " + filterSpec);
+            mReader = new Thread(this::readLines, "LogcatInspector.Session");
+            mReader.setDaemon(true);
+            mReader.start();
+        }
+
+        /** Returns the number of lines read so far, which is the number of the next line. */
+        public long getLineCount() {
+            synchronized (mLock) {
+                return mLineCount;
+            }
+        }
+
+        /**
+         * Returns the line with the given number, or null if it was not read yet or is no longer
+         * kept.
+         */
+        public String getLine(long line) {
+            synchronized (mLock) {
+                if (line < getFirstLine() || line >= mLineCount) {
+                    return null;
+                }
+                return mLines[(int) (line % mLines.length)];
+            }
+        }
+
+        /**
+         * Logs an unique string using tag {@param tag} and waits until the session reads it. The
+         * tag must be allowed by the filter spec of the session.
+         *
+         * @return the number of the line following the unique string.
+         * @throws IOException if error while executing command.
+         */
+        public long mark(String tag) throws IOException {
+            String uniqueString = ":::" + UUID.randomUUID().toString();
+            Expectation expectation = expectInOrder(getLineCount(), uniqueString);
+            StreamUtil.drainAndClose(new InputStreamReader(
+                    executeShellCommand("log -t " + tag + " " + uniqueString)));
+            expectation.assertFound(5);
+            return expectation.getLastMatchedLine() + 1;
+        }
+
+        /**
+         * Starts looking for the given strings in order, from the oldest line kept by the session.
+         */
+        public Expectation expectInOrder(String... logcatStrings) {
+            return expectInOrder(0, logcatStrings);
+        }
+
+        /**
+         * Starts looking for the given strings in order, from the given line, or from the oldest
+         * line kept if it is no longer available. The expectation is evaluated against the lines
+         * already read, then against each new line until it is found, cancelled or the session is
+         * closed.
+         */
+        public Expectation expectInOrder(long fromLine, String... logcatStrings) {
+            Expectation expectation = new Expectation(this, logcatStrings);
+            if (expectation.isFound()) {
+                return expectation;
+            }
+            synchronized (mLock) {
+                for (long line = Math.max(fromLine, getFirstLine()); line < mLineCount; line++) {
+                    if (expectation.match(line, mLines[(int) (line % mLines.length)])) {
+                        return expectation;
+                    }
+                }
+                if (mClosed) {
+                    expectation.finish();
+                } else {
+                    mPending.add(expectation);
+                }
+            }
+            return expectation;
+        }
+
+        /**
+         * Wait for up to {@param maxTimeoutInSeconds} for the given {@param logcatStrings} strings
+         * to appear in order from line {@param fromLine}.
+         *
+         * @throws AssertionError if the strings are not found in the given time.
+         */
+        public void assertLogcatContainsInOrder(
+                long fromLine, int maxTimeoutInSeconds, String... logcatStrings) {
+            expectInOrder(fromLine, logcatStrings).assertFound(maxTimeoutInSeconds);
+        }
+
+        /**
+         * Wait for up to {@param timeInSeconds}, if all the strings {@param logcatStrings} are
+         * found in order from line {@param fromLine} then the assertion fails, otherwise it
+         * succeeds.
+         *
+         * @throws AssertionError if all the strings are found in order in the given time.
+         */
+        public void assertLogcatDoesNotContainInOrder(
+                long fromLine, int timeInSeconds, String... logcatStrings) {
+            expectInOrder(fromLine, logcatStrings).assertNotFound(timeInSeconds);
+        }
+
+        /** Stops reading logcat. Pending expectations complete without being found. */
+        @Override
+        public void close() {
+            synchronized (mLock) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+            }
+            Closeables.closeQuietly(mLogcatStream);
+            mReader.interrupt();
+            finishPending();
+        }
+
+        private long getFirstLine() {
+            return Math.max(0, mLineCount - mLines.length);
+        }
+
+        private void readLines() {
+            BufferedReader logcat = new BufferedReader(new InputStreamReader(mLogcatStream));
+            try {
+                String line;
+                while ((line = logcat.readLine()) != null) {
+                    synchronized (mLock) {
+                        if (mClosed) {
+                            break;
+                        }
+                        long lineNumber = mLineCount++;
+                        mLines[(int) (lineNumber % mLines.length)] = line;
+                        Iterator<Expectation> pending = mPending.iterator();
+                        while (pending.hasNext()) {
+                            if (pending.next().match(lineNumber, line)) {
+                                pending.remove();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // The stream was closed or logcat died, the pending expectations can't complete.
+            } finally {
+                Closeables.closeQuietly(logcat);
+                synchronized (mLock) {
+                    mClosed = true;
+                }
+                finishPending();
+            }
+        }
+
+        private void finishPending() {
+            synchronized (mLock) {
+                for (Expectation expectation : mPending) {
+                    expectation.finish();
+                }
+                mPending.clear();
+            }
+        }
+
+        private void cancel(Expectation expectation) {
+            synchronized (mLock) {
+                mPending.remove(expectation);
+            }
+            expectation.finish();
+        }
+    }
+
+    /**
+     * Strings to find in order in the lines of a {@link Session}. It completes when all the strings
+     * are found, or when it is cancelled or its session is closed.
+     */
+    public static class Expectation {
+        private final Session mSession;
+        private final String[] mStrings;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile int mFound;
+        private volatile long mLastMatchedLine = -1;
+
+        private Expectation(Session session, String[] strings) {
+            mSession = session;
+            mStrings = strings;
+            if (strings.length == 0) {
+                finish();
+            }
+        }
+
+        /** Returns whether all the strings were found. */
+        public boolean isFound() {
+            return mFound == mStrings.length;
+        }
+
+        /** Returns the number of strings found so far. */
+        public int getFoundCount() {
+            return mFound;
+        }
+
+        /** Returns the number of the line where the last string found was, or -1. */
+        public long getLastMatchedLine() {
+            return mLastMatchedLine;
+        }
+
+        /**
+         * Waits until the expectation completes or the timeout expires.
+         *
+         * @return whether all the strings were found.
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            mDone.await(timeout, unit);
+            return isFound();
+        }
+
+        /** Stops looking for the strings. */
+        public void cancel() {
+            mSession.cancel(this);
+        }
+
+        /**
+         * Waits for up to {@param maxTimeoutInSeconds} for the strings to be found, then cancels
+         * the expectation.
+         *
+         * @throws AssertionError if the strings are not found in the given time.
+         */
+        public void assertFound(int maxTimeoutInSeconds) {
+            if (!awaitThenCancel(maxTimeoutInSeconds)) {
+                int found = mFound;
+                fail("Couldn't find " + mStrings[found]
+                        + (found > 0 ? " after " + mStrings[found - 1] : "")
+                        + " within " + maxTimeoutInSeconds + " seconds ");
+            }
+        }
+
+        /**
+         * Waits for up to {@param timeInSeconds}, then cancels the expectation.
+         *
+         * @throws AssertionError if all the strings are found in the given time.
+         */
+        public void assertNotFound(int timeInSeconds) {
+            if (awaitThenCancel(timeInSeconds)) {
+                fail("Found " + Joiner.on(", ").join(mStrings) + " that weren't expected");
+            }
+        }
+
+        private boolean awaitThenCancel(int timeInSeconds) {
+            try {
+                return await(timeInSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail("Thread interrupted unexpectedly: " + e.getMessage());
+                return false;
+            } finally {
+                cancel();
+            }
+        }
+
+        /** Matches the next line, returning whether the expectation completed. */
+        private boolean match(long line, String text) {
+            if (text.contains(mStrings[mFound])) {
+                mLastMatchedLine = line;
+                mFound++;
+                if (mFound == mStrings.length) {
+                    finish();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void finish() {
+            mDone.countDown();
+        }
+    }
 }
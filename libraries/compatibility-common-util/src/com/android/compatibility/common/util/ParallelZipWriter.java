@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip file whose entries are compressed concurrently.
+ *
+ * <p>Each file is deflated on a worker thread into a memory buffer, or a temporary file if it is
+ * large, and the entries are then written to the zip file in the order they were added. Files that
+ * are already compressed, or that don't get smaller, are stored. Since the size and checksum of an
+ * entry are known before it is written, the zip file is written sequentially, using the zip64
+ * extensions only for entries and archives that need them.
+ */
+final class ParallelZipWriter implements Closeable {
+
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "apk", "br", "bz2", "gz", "jar", "jpeg", "jpg", "mp4", "pb", "png", "tgz",
+            "webm", "webp", "xz", "zip", "zst"));
+    // Files larger than this are compressed into temporary files rather than in memory.
+    private static final long MEMORY_BUFFER_LIMIT = 8 << 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final ExecutorService mExecutor;
+    private final int mMaxPending;
+    private final ArrayDeque<Future<Entry>> mPending = new ArrayDeque<>();
+    private final List<Entry> mEntries = new ArrayList<>();
+    private long mOffset;
+
+    /**
+     * @param zipFile the zip file to create
+     * @param level the deflate compression level, from 0 to 9
+     * @param threads the number of threads compressing entries
+     */
+    ParallelZipWriter(File zipFile, int level, int threads) throws IOException {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        mLevel = level;
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, threads));
+        // Bounds the memory and temporary files used by entries waiting to be written.
+        mMaxPending = 2 * Math.max(1, threads);
+        mOut = new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE);
+    }
+
+    /**
+     * Adds a file, or a directory if {@code name} ends with a '/', as the next entry.
+     */
+    void add(File file, String name) throws IOException {
+        mPending.add(mExecutor.submit(() -> compress(file, name)));
+        if (mPending.size() > mMaxPending) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes the remaining entries and the central directory.
+     */
+    void finish() throws IOException {
+        while (!mPending.isEmpty()) {
+            writeNext();
+        }
+        long centralOffset = mOffset;
+        for (Entry entry : mEntries) {
+            writeCentralHeader(entry);
+        }
+        writeEnd(centralOffset, mOffset - centralOffset);
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mExecutor.shutdown();
+        try {
+            mOut.close();
+        } finally {
+            // Remove the temporary files of entries that were compressed but not written.
+            for (Future<Entry> future : mPending) {
+                try {
+                    future.get().deleteSpool();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ignored) {
+                }
+            }
+            mPending.clear();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Entry entry;
+        try {
+            entry = mPending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing zip entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress zip entry", e.getCause());
+        }
+        try {
+            entry.mOffset = mOffset;
+            writeLocalHeader(entry);
+            writeData(entry);
+        } finally {
+            entry.deleteSpool();
+        }
+        mEntries.add(entry);
+    }
+
+    private Entry compress(File file, String name) throws IOException {
+        Entry entry = new Entry(name, file.lastModified());
+        if (name.endsWith("/")) {
+            return entry;
+        }
+        entry.mSize = file.length();
+        if (mLevel == Deflater.NO_COMPRESSION || isCompressed(name)) {
+            store(entry, file);
+            return entry;
+        }
+
+        entry.mMethod = DEFLATED;
+        ByteArrayOutputStream buffer = null;
+        OutputStream spool;
+        if (entry.mSize <= MEMORY_BUFFER_LIMIT) {
+            buffer = new ByteArrayOutputStream((int) entry.mSize / 2 + 64);
+            spool = buffer;
+        } else {
+            entry.mSpool = File.createTempFile("zip-entry", ".tmp");
+            spool = new BufferedOutputStream(new FileOutputStream(entry.mSpool), BUFFER_SIZE);
+        }
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = new Deflater(mLevel, true);
+        try (InputStream in = new FileInputStream(file);
+                DeflaterOutputStream out = new DeflaterOutputStream(spool, deflater, BUFFER_SIZE)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                crc.update(buf, 0, count);
+                out.write(buf, 0, count);
+                size += count;
+            }
+            out.finish();
+            entry.mCompressedSize = deflater.getBytesWritten();
+        } catch (IOException | RuntimeException e) {
+            entry.deleteSpool();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        entry.mSize = size;
+        entry.mCrc = crc.getValue();
+
+        if (entry.mCompressedSize >= entry.mSize) {
+            // Incompressible data, store it instead.
+            entry.deleteSpool();
+            entry.mMethod = STORED;
+            entry.mCompressedSize = entry.mSize;
+            entry.mSource = file;
+        } else if (buffer != null) {
+            entry.mData = buffer.toByteArray();
+        }
+        return entry;
+    }
+
+    private static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0
+                && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /** Computes the checksum and size of a file to be stored without compression. */
+    private static void store(Entry entry, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                crc.update(buf, 0, count);
+                size += count;
+            }
+        }
+        entry.mCrc = crc.getValue();
+        entry.mSize = size;
+        entry.mCompressedSize = size;
+        entry.mSource = file;
+    }
+
+    private void writeData(Entry entry) throws IOException {
+        if (entry.mData != null) {
+            write(entry.mData, entry.mData.length);
+            return;
+        }
+        File source = entry.mSpool != null ? entry.mSpool : entry.mSource;
+        if (source == null) {
+            return;
+        }
+        // Copy exactly the size in the header, in case a stored file changed since its checksum.
+        long remaining = entry.mCompressedSize;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source), BUFFER_SIZE)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int count = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (count == -1) {
+                    throw new EOFException(source + " was truncated while being zipped");
+                }
+                write(buf, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        boolean zip64 = entry.mSize >= ZIP64_MAGIC || entry.mCompressedSize >= ZIP64_MAGIC;
+        byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = header(30 + name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION);
+        header.putShort(FLAG_UTF8);
+        header.putShort(entry.mMethod);
+        header.putInt(entry.mDosTime);
+        header.putInt((int) entry.mCrc);
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.mCompressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.mSize));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(entry.mSize);
+            header.putLong(entry.mCompressedSize);
+        }
+        write(header);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean largeSize = entry.mSize >= ZIP64_MAGIC;
+        boolean largeCompressedSize = entry.mCompressedSize >= ZIP64_MAGIC;
+        boolean largeOffset = entry.mOffset >= ZIP64_MAGIC;
+        int extraLength = (largeSize ? 8 : 0) + (largeCompressedSize ? 8 : 0)
+                + (largeOffset ? 8 : 0);
+        if (extraLength > 0) {
+            extraLength += 4;
+        }
+        short version = extraLength > 0 ? VERSION_ZIP64 : VERSION;
+        byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = header(46 + name.length + extraLength);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort(version);
+        header.putShort(version);
+        header.putShort(FLAG_UTF8);
+        header.putShort(entry.mMethod);
+        header.putInt(entry.mDosTime);
+        header.putInt((int) entry.mCrc);
+        header.putInt((int) (largeCompressedSize ? ZIP64_MAGIC : entry.mCompressedSize));
+        header.putInt((int) (largeSize ? ZIP64_MAGIC : entry.mSize));
+        header.putShort((short) name.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(entry.mName.endsWith("/") ? DIRECTORY_ATTRIBUTE : 0);
+        header.putInt((int) (largeOffset ? ZIP64_MAGIC : entry.mOffset));
+        header.put(name);
+        if (extraLength > 0) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort((short) (extraLength - 4));
+            if (largeSize) {
+                header.putLong(entry.mSize);
+            }
+            if (largeCompressedSize) {
+                header.putLong(entry.mCompressedSize);
+            }
+            if (largeOffset) {
+                header.putLong(entry.mOffset);
+            }
+        }
+        write(header);
+    }
+
+    private void writeEnd(long centralOffset, long centralSize) throws IOException {
+        int count = mEntries.size();
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC
+                || centralSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = mOffset;
+            ByteBuffer end = header(56 + 20);
+            end.putInt(ZIP64_END_SIGNATURE);
+            end.putLong(44); // size of the remaining record
+            end.putShort(VERSION_ZIP64);
+            end.putShort(VERSION_ZIP64);
+            end.putInt(0); // disk number
+            end.putInt(0); // disk of the central directory
+            end.putLong(count);
+            end.putLong(count);
+            end.putLong(centralSize);
+            end.putLong(centralOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE);
+            end.putInt(0); // disk of the zip64 end record
+            end.putLong(zip64EndOffset);
+            end.putInt(1); // number of disks
+            write(end);
+        }
+        ByteBuffer end = header(22);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0); // disk number
+        end.putShort((short) 0); // disk of the central directory
+        end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        end.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+        end.putInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+        end.putShort((short) 0); // comment length
+        write(end);
+    }
+
+    private static ByteBuffer header(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), buffer.position());
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        mOut.write(data, 0, length);
+        mOffset += length;
+    }
+
+    /** Converts a time to the MS-DOS format of zip entries, clamped to the range it supports. */
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (Math.min(year - 1980, 127) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static final class Entry {
+        final String mName;
+        final int mDosTime;
+        short mMethod = STORED;
+        long mCrc;
+        long mSize;
+        long mCompressedSize;
+        long mOffset;
+        // Where the data comes from: a memory buffer, a temporary file, or the stored file itself.
+        byte[] mData;
+        File mSpool;
+        File mSource;
+
+        Entry(String name, long time) {
+            mName = name;
+            mDosTime = toDosTime(time == 0 ? System.currentTimeMillis() : time);
+        }
+
+        void deleteSpool() {
+            if (mSpool != null) {
+                mSpool.delete();
+                mSpool = null;
+            }
+        }
+    }
+}
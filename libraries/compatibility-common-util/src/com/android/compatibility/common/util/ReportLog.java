@@ -23,10 +23,15 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 
 /**
@@ -47,6 +52,17 @@ public class ReportLog implements Serializable {
     private static final String VALUE_TAG = "Value";
     private static final String DEFAULT_NAME = "default";
 
+    // Binary constants
+    /** Prefix of a report encoded by {@link #serializeCompact}, which {@link #parse} accepts. */
+    public static final String COMPACT_PREFIX = "RLB1:";
+    private static final int BINARY_MAGIC = 0x524c4231; // "RLB1"
+    /* Encodings of the values of a metric */
+    private static final int VALUES_INTEGRAL_DELTA = 0;
+    private static final int VALUES_XOR_DELTA = 1;
+    private static final int VALUES_RAW = 2;
+    /* Largest magnitude of the integral values a double holds exactly */
+    private static final double MAX_EXACT_INTEGRAL = 1L << 53;
+
     protected Metric mSummary;
     protected String mReportLogName;
     protected String mStreamName;
@@ -160,6 +176,22 @@ public class ReportLog implements Serializable {
             parser.require(XmlPullParser.END_TAG, null, METRIC_TAG);
             return new Metric(source, message, values, type, unit);
         }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(getSource());
+            out.writeUTF(getMessage());
+            out.writeUTF(getType().toReportString());
+            out.writeUTF(getUnit().toReportString());
+            writeValues(out, getValues());
+        }
+
+        static Metric read(DataInput in) throws IOException {
+            String source = in.readUTF();
+            String message = in.readUTF();
+            ResultType type = ResultType.parseReportString(in.readUTF());
+            ResultUnit unit = ResultUnit.parseReportString(in.readUTF());
+            return new Metric(source, message, readValues(in), type, unit);
+        }
     }
 
     public ReportLog() {
@@ -332,7 +364,60 @@ public class ReportLog implements Serializable {
     }
 
     /**
-     * Parses a {@link ReportLog} from the given string.
+     * Serializes a given {@link ReportLog} to a compact binary form, which is much smaller than
+     * XML for metrics with many values. Arrays of integral values are delta encoded, and arrays
+     * of other values are encoded as the XOR of each value with the previous one when smaller.
+     * @throws IOException
+     */
+    public static byte[] serializeBinary(ReportLog reportLog) throws IOException {
+        if (reportLog == null) {
+            throw new IllegalArgumentException("Metrics reports was null");
+        }
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+        out.writeInt(BINARY_MAGIC);
+        writeNullableString(out, reportLog.mReportLogName);
+        writeNullableString(out, reportLog.mStreamName);
+        Metric summary = reportLog.getSummary();
+        out.writeBoolean(summary != null);
+        if (summary != null) {
+            summary.write(out);
+        }
+        out.flush();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Parses a {@link ReportLog} serialized by {@link #serializeBinary}.
+     * @throws IOException if the data isn't a valid binary report
+     */
+    public static ReportLog parseBinary(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a binary metrics report");
+        }
+        String reportLogName = readNullableString(in);
+        String streamName = readNullableString(in);
+        ReportLog report = new ReportLog(reportLogName, streamName);
+        if (in.readBoolean()) {
+            report.setSummary(Metric.read(in));
+        }
+        return report;
+    }
+
+    /**
+     * Serializes a given {@link ReportLog} to a string holding its binary form, to send it where
+     * a string is expected, such as in instrumentation status. {@link #parse(String)} accepts
+     * both this form and XML, so the XML only needs to be rendered for the final report.
+     * @throws IOException
+     */
+    public static String serializeCompact(ReportLog reportLog) throws IOException {
+        return COMPACT_PREFIX + Base64.getEncoder().encodeToString(serializeBinary(reportLog));
+    }
+
+    /**
+     * Parses a {@link ReportLog} from the given string, in XML or in the form of {@link
+     * #serializeCompact}.
      * @throws XmlPullParserException
      * @throws IOException
      */
@@ -340,6 +425,14 @@ public class ReportLog implements Serializable {
         if (result == null){
             throw new IllegalArgumentException("Metrics string was null");
         }
+        if (result.startsWith(COMPACT_PREFIX)) {
+            try {
+                return parseBinary(
+                        Base64.getDecoder().decode(result.substring(COMPACT_PREFIX.length())));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid compact metrics report", e);
+            }
+        }
         if (result.trim().isEmpty()) {
             // Empty report.
             return new ReportLog();
@@ -371,4 +464,112 @@ public class ReportLog implements Serializable {
         parser.require(XmlPullParser.END_TAG, null, SUMMARY_TAG);
         return report;
     }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Writes an array of values with the smallest of the value encodings. */
+    private static void writeValues(DataOutput out, double[] values) throws IOException {
+        writeVarint(out, values.length);
+        boolean integral = true;
+        long xorLength = 0;
+        long previousBits = 0;
+        for (double value : values) {
+            integral &= Math.abs(value) <= MAX_EXACT_INTEGRAL && value == Math.rint(value)
+                    && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+            long bits = Double.doubleToRawLongBits(value);
+            xorLength += varintLength(bits ^ previousBits);
+            previousBits = bits;
+        }
+        if (integral) {
+            out.writeByte(VALUES_INTEGRAL_DELTA);
+            long previous = 0;
+            for (double value : values) {
+                long current = (long) value;
+                long delta = current - previous;
+                // Zigzag encoding, so that small negative deltas are short.
+                writeVarint(out, (delta << 1) ^ (delta >> 63));
+                previous = current;
+            }
+        } else if (xorLength < 8L * values.length) {
+            out.writeByte(VALUES_XOR_DELTA);
+            previousBits = 0;
+            for (double value : values) {
+                long bits = Double.doubleToRawLongBits(value);
+                writeVarint(out, bits ^ previousBits);
+                previousBits = bits;
+            }
+        } else {
+            out.writeByte(VALUES_RAW);
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private static double[] readValues(DataInput in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid number of values: " + length);
+        }
+        int encoding = in.readUnsignedByte();
+        double[] values = new double[(int) length];
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            switch (encoding) {
+                case VALUES_INTEGRAL_DELTA:
+                    long zigzag = readVarint(in);
+                    previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                    values[i] = previous;
+                    break;
+                case VALUES_XOR_DELTA:
+                    previous ^= readVarint(in);
+                    values[i] = Double.longBitsToDouble(previous);
+                    break;
+                case VALUES_RAW:
+                    values[i] = in.readDouble();
+                    break;
+                default:
+                    throw new IOException("Unknown values encoding: " + encoding);
+            }
+        }
+        return values;
+    }
+
+    private static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
 }
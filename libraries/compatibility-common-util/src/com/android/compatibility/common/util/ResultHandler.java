@@ -67,6 +67,7 @@ public class ResultHandler {
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
     public static final String FAILURE_REPORT_NAME = "test_result_failures.html";
     private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
+    static final String INDENT_FEATURE = "http://xmlpull.org/v1/doc/features.html#indent-output";
 
     public static final String[] RESULT_RESOURCES = {
         "compatibility_result.css",
@@ -404,10 +405,46 @@ public class ResultHandler {
         int failed = result.countResults(TestStatus.FAIL);
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
         OutputStream stream = new FileOutputStream(resultFile);
-        XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
-        serializer.setOutput(stream, ENCODING);
+        XmlSerializer serializer = startResults(stream, suiteName, suiteVersion, suitePlan,
+                suiteBuild, result, startTime, endTime, referenceUrl, logUrl, commandLineArgs,
+                resultAttributes, passed, failed, result.getModuleCompleteCount(),
+                result.getModules().size());
+
+        // Results
+        for (IModuleResult module : result.getModules()) {
+            serializeModule(serializer, module);
+        }
+        serializer.endDocument();
+        createChecksum(resultDir, result);
+        ResultIndex.tryCreateIndex(resultDir, result);
+        return resultFile;
+    }
+
+    /**
+     * Starts the result document and writes everything up to and including the summary, leaving
+     * the {@code Result} tag open for the modules.
+     */
+    static XmlSerializer startResults(
+            OutputStream stream,
+            String suiteName,
+            String suiteVersion,
+            String suitePlan,
+            String suiteBuild,
+            IInvocationResult result,
+            long startTime,
+            long endTime,
+            String referenceUrl,
+            String logUrl,
+            String commandLineArgs,
+            Map<String, String> resultAttributes,
+            int passed,
+            int failed,
+            int modulesDone,
+            int modulesTotal)
+            throws IOException, XmlPullParserException {
+        XmlSerializer serializer = newSerializer(stream);
         serializer.startDocument(ENCODING, false);
-        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.setFeature(INDENT_FEATURE, true);
         serializer.processingInstruction(
                 "xml-stylesheet type=\"text/xsl\" href=\"compatibility_result.xsl\"");
         serializer.startTag(NS, RESULT_TAG);
@@ -493,87 +530,92 @@ public class ResultHandler {
         serializer.startTag(NS, SUMMARY_TAG);
         serializer.attribute(NS, PASS_ATTR, Integer.toString(passed));
         serializer.attribute(NS, FAILED_ATTR, Integer.toString(failed));
-        serializer.attribute(NS, MODULES_DONE_ATTR,
-                Integer.toString(result.getModuleCompleteCount()));
-        serializer.attribute(NS, MODULES_TOTAL_ATTR,
-                Integer.toString(result.getModules().size()));
+        serializer.attribute(NS, MODULES_DONE_ATTR, Integer.toString(modulesDone));
+        serializer.attribute(NS, MODULES_TOTAL_ATTR, Integer.toString(modulesTotal));
         serializer.endTag(NS, SUMMARY_TAG);
+        return serializer;
+    }
 
-        // Results
-        for (IModuleResult module : result.getModules()) {
-            serializer.startTag(NS, MODULE_TAG);
-            serializer.attribute(NS, NAME_ATTR, module.getName());
-            serializer.attribute(NS, ABI_ATTR, module.getAbi());
-            serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
-            serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
-            serializer.attribute(NS, PASS_ATTR,
-                    Integer.toString(module.countResults(TestStatus.PASS)));
-            for (ICaseResult cr : module.getResults()) {
-                serializer.startTag(NS, CASE_TAG);
-                serializer.attribute(NS, NAME_ATTR, cr.getName());
-                for (ITestResult r : cr.getResults()) {
-                    TestStatus status = r.getResultStatus();
-                    if (status == null) {
-                        continue; // test was not executed, don't report
-                    }
-                    serializer.startTag(NS, TEST_TAG);
-                    serializer.attribute(NS, RESULT_ATTR, status.getValue());
-                    serializer.attribute(NS, NAME_ATTR, r.getName());
-                    if (r.isSkipped()) {
-                        serializer.attribute(NS, SKIPPED_ATTR, Boolean.toString(true));
-                    }
-                    String message = r.getMessage();
-                    if (message != null) {
-                        serializer.startTag(NS, FAILURE_TAG);
-                        serializer.attribute(NS, MESSAGE_ATTR, message);
-                        String stackTrace = r.getStackTrace();
-                        if (stackTrace != null) {
-                            serializer.startTag(NS, STACK_TAG);
-                            serializer.text(stackTrace);
-                            serializer.endTag(NS, STACK_TAG);
-                        }
-                        serializer.endTag(NS, FAILURE_TAG);
-                    }
-                    String bugreport = r.getBugReport();
-                    if (bugreport != null) {
-                        serializer.startTag(NS, BUGREPORT_TAG);
-                        serializer.text(bugreport);
-                        serializer.endTag(NS, BUGREPORT_TAG);
-                    }
-                    String logcat = r.getLog();
-                    if (logcat != null) {
-                        serializer.startTag(NS, LOGCAT_TAG);
-                        serializer.text(logcat);
-                        serializer.endTag(NS, LOGCAT_TAG);
-                    }
-                    String screenshot = r.getScreenshot();
-                    if (screenshot != null) {
-                        serializer.startTag(NS, SCREENSHOT_TAG);
-                        serializer.text(screenshot);
-                        serializer.endTag(NS, SCREENSHOT_TAG);
-                    }
-                    ReportLog report = r.getReportLog();
-                    if (report != null) {
-                        ReportLog.serialize(serializer, report);
-                    }
+    /** Returns a serializer writing to {@code stream} in the encoding of the result file. */
+    static XmlSerializer newSerializer(OutputStream stream)
+            throws IOException, XmlPullParserException {
+        XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+        serializer.setOutput(stream, ENCODING);
+        return serializer;
+    }
 
-                    // Test result history contains a list of execution time for each test item.
-                    List<TestResultHistory> testResultHistories = r.getTestResultHistories();
-                    if (testResultHistories != null) {
-                        for (TestResultHistory resultHistory : testResultHistories) {
-                            TestResultHistory.serialize(serializer, resultHistory, r.getName());
-                        }
+    /** Writes the {@code Module} element of a module and all its executed tests. */
+    static void serializeModule(XmlSerializer serializer, IModuleResult module)
+            throws IOException {
+        serializer.startTag(NS, MODULE_TAG);
+        serializer.attribute(NS, NAME_ATTR, module.getName());
+        serializer.attribute(NS, ABI_ATTR, module.getAbi());
+        serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
+        serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
+        serializer.attribute(NS, PASS_ATTR,
+                Integer.toString(module.countResults(TestStatus.PASS)));
+        for (ICaseResult cr : module.getResults()) {
+            serializer.startTag(NS, CASE_TAG);
+            serializer.attribute(NS, NAME_ATTR, cr.getName());
+            for (ITestResult r : cr.getResults()) {
+                TestStatus status = r.getResultStatus();
+                if (status == null) {
+                    continue; // test was not executed, don't report
+                }
+                serializer.startTag(NS, TEST_TAG);
+                serializer.attribute(NS, RESULT_ATTR, status.getValue());
+                serializer.attribute(NS, NAME_ATTR, r.getName());
+                if (r.isSkipped()) {
+                    serializer.attribute(NS, SKIPPED_ATTR, Boolean.toString(true));
+                }
+                String message = r.getMessage();
+                if (message != null) {
+                    serializer.startTag(NS, FAILURE_TAG);
+                    serializer.attribute(NS, MESSAGE_ATTR, message);
+                    String stackTrace = r.getStackTrace();
+                    if (stackTrace != null) {
+                        serializer.startTag(NS, STACK_TAG);
+                        serializer.text(stackTrace);
+                        serializer.endTag(NS, STACK_TAG);
                     }
+                    serializer.endTag(NS, FAILURE_TAG);
+                }
+                String bugreport = r.getBugReport();
+                if (bugreport != null) {
+                    serializer.startTag(NS, BUGREPORT_TAG);
+                    serializer.text(bugreport);
+                    serializer.endTag(NS, BUGREPORT_TAG);
+                }
+                String logcat = r.getLog();
+                if (logcat != null) {
+                    serializer.startTag(NS, LOGCAT_TAG);
+                    serializer.text(logcat);
+                    serializer.endTag(NS, LOGCAT_TAG);
+                }
+                String screenshot = r.getScreenshot();
+                if (screenshot != null) {
+                    serializer.startTag(NS, SCREENSHOT_TAG);
+                    serializer.text(screenshot);
+                    serializer.endTag(NS, SCREENSHOT_TAG);
+                }
+                ReportLog report = r.getReportLog();
+                if (report != null) {
+                    ReportLog.serialize(serializer, report);
+                }
 
-                    serializer.endTag(NS, TEST_TAG);
+                // Test result history contains a list of execution time for each test item.
+                List<TestResultHistory> testResultHistories = r.getTestResultHistories();
+                if (testResultHistories != null) {
+                    for (TestResultHistory resultHistory : testResultHistories) {
+                        TestResultHistory.serialize(serializer, resultHistory, r.getName());
+                    }
                 }
-                serializer.endTag(NS, CASE_TAG);
+
+                serializer.endTag(NS, TEST_TAG);
             }
-            serializer.endTag(NS, MODULE_TAG);
+            serializer.endTag(NS, CASE_TAG);
         }
-        serializer.endDocument();
-        createChecksum(resultDir, result);
-        return resultFile;
+        serializer.endTag(NS, MODULE_TAG);
     }
 
     /**
@@ -592,7 +634,12 @@ public class ResultHandler {
         return failureReport;
     }
 
-    private static void createChecksum(File resultDir, IInvocationResult invocationResult) {
+    /**
+     * Creates the checksum of a result in its result directory, or copies the checksum of the
+     * retried session if it was invalid. Called by {@link #writeResults}, and by the callers of
+     * {@link StreamingResultWriter#finish} that need a checksum.
+     */
+    public static void createChecksum(File resultDir, IInvocationResult invocationResult) {
         RetryChecksumStatus retryStatus = invocationResult.getRetryChecksumStatus();
         switch (retryStatus) {
             case NotRetry: case RetryWithChecksum:
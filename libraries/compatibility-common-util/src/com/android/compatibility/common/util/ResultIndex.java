@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An on-disk index of the test results of a session, sorted by key, to look up the previous status
+ * of a test without loading the whole result, and to merge the results of two sessions.
+ *
+ * <p>The key of a test is its module id and its full name, see {@link #getKey}. A record holds the
+ * key, the status of the test and the hash of its stack trace, so that a retry can tell whether a
+ * test failed the same way. The file starts with {@link #MAGIC}, followed by the records in key
+ * order, the offsets of the records, the number of records and {@link #MAGIC} again. An index is
+ * mapped in memory when opened, and a key is found by a binary search over the offsets.
+ *
+ * <p>Keys are ordered by their UTF-8 bytes, so that they can be compared to the mapped file
+ * without decoding it.
+ */
+public class ResultIndex implements Closeable {
+
+    public static final String INDEX_FILE_NAME = "test_result.index";
+
+    static final int MAGIC = 0x43524931; // "CRI1"
+
+    private static final byte STATUS_NOT_EXECUTED = 0;
+    private static final byte STATUS_PASS = 1;
+    private static final byte STATUS_FAIL = 2;
+    private static final byte STATUS_SKIPPED = 3;
+
+    /** The size of the header, and of the trailer after the offsets. */
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 8;
+    /** The size of a record without its key: the key length, the status and the stack hash. */
+    private static final int RECORD_OVERHEAD = 9;
+
+    private final RandomAccessFile mFile;
+    private final ByteBuffer mBuffer;
+    private final int mSize;
+    private final int mOffsetsPosition;
+
+    /** The result of a test in an index. */
+    public static class Record {
+        private final byte[] mKey;
+        private final byte mStatus;
+        private final int mStackHash;
+
+        private Record(byte[] key, byte status, int stackHash) {
+            mKey = key;
+            mStatus = status;
+            mStackHash = stackHash;
+        }
+
+        public String getKey() {
+            return new String(mKey, StandardCharsets.UTF_8);
+        }
+
+        /** Returns the status of the test, or null if it wasn't executed. */
+        public TestStatus getResultStatus() {
+            return toResultStatus(mStatus);
+        }
+
+        public boolean isSkipped() {
+            return mStatus == STATUS_SKIPPED;
+        }
+
+        /** Returns the hash of the stack trace of the test, or 0 if it has none. */
+        public int getStackHash() {
+            return mStackHash;
+        }
+    }
+
+    /**
+     * Writes the records of an index, which must be added in key order. The records are streamed
+     * to a temporary file, only their offsets are kept until the index is closed. The temporary
+     * file replaces the index when it is closed, unless a record failed to be added or the index
+     * was aborted, so that an incomplete index is never left behind.
+     */
+    public static class Writer implements Closeable {
+        private final File mFile;
+        private final File mTmpFile;
+        private final DataOutputStream mOut;
+        private int[] mOffsets = new int[1024];
+        private int mSize;
+        private long mPosition = HEADER_SIZE;
+        private byte[] mLastKey;
+        private byte[] mCopyBuffer = new byte[256];
+        private boolean mFailed;
+
+        public Writer(File file) throws IOException {
+            mFile = file;
+            mTmpFile = File.createTempFile(
+                    file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(mTmpFile), 64 * 1024));
+                out.writeInt(MAGIC);
+            } catch (IOException | RuntimeException e) {
+                if (out != null) {
+                    out.close();
+                }
+                mTmpFile.delete();
+                throw e;
+            }
+            mOut = out;
+        }
+
+        /**
+         * Adds the result of a test.
+         *
+         * @throws IllegalArgumentException if the key isn't after the key of the previous record
+         */
+        public void add(String key, ITestResult result) throws IOException {
+            add(key.getBytes(StandardCharsets.UTF_8), getStatus(result),
+                    getStackHash(result.getStackTrace()));
+        }
+
+        /**
+         * Adds a record read from another index.
+         *
+         * @throws IllegalArgumentException if the key isn't after the key of the previous record
+         */
+        public void add(Record record) throws IOException {
+            add(record.mKey, record.mStatus, record.mStackHash);
+        }
+
+        private void add(byte[] key, byte status, int stackHash) throws IOException {
+            if (mLastKey != null && compare(mLastKey, key) >= 0) {
+                mFailed = true;
+                throw new IllegalArgumentException(String.format(
+                        "Key %s is not after %s", new String(key, StandardCharsets.UTF_8),
+                        new String(mLastKey, StandardCharsets.UTF_8)));
+            }
+            try {
+                addOffset();
+                mOut.writeInt(key.length);
+                mOut.write(key);
+                mOut.writeByte(status);
+                mOut.writeInt(stackHash);
+            } catch (IOException | RuntimeException e) {
+                mFailed = true;
+                throw e;
+            }
+            mPosition += RECORD_OVERHEAD + key.length;
+            mLastKey = key;
+        }
+
+        /**
+         * Copies a record of another index without decoding it. The caller must keep the records
+         * in key order, as they aren't compared to the previous one.
+         */
+        private void copy(ResultIndex index, int position) throws IOException {
+            int offset = index.getOffset(position);
+            int length = RECORD_OVERHEAD + index.mBuffer.getInt(offset);
+            if (mCopyBuffer.length < length) {
+                mCopyBuffer = new byte[Math.max(length, mCopyBuffer.length * 2)];
+            }
+            try {
+                ByteBuffer buffer = index.mBuffer.duplicate();
+                buffer.position(offset);
+                buffer.get(mCopyBuffer, 0, length);
+                addOffset();
+                mOut.write(mCopyBuffer, 0, length);
+            } catch (IOException | RuntimeException e) {
+                mFailed = true;
+                throw e;
+            }
+            mPosition += length;
+            mLastKey = null;
+        }
+
+        private void addOffset() throws IOException {
+            if (mPosition > Integer.MAX_VALUE) {
+                throw new IOException("Result index is too large");
+            }
+            if (mSize == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+            }
+            mOffsets[mSize++] = (int) mPosition;
+        }
+
+        /** Discards the index when it is closed, leaving the file it replaces unchanged. */
+        public void abort() {
+            mFailed = true;
+        }
+
+        /**
+         * Writes the offsets of the records and replaces the index with the temporary file. If a
+         * record failed to be added or the index was aborted, only deletes the temporary file.
+         */
+        @Override
+        public void close() throws IOException {
+            boolean replaced = false;
+            try {
+                if (!mFailed) {
+                    for (int i = 0; i < mSize; i++) {
+                        mOut.writeInt(mOffsets[i]);
+                    }
+                    mOut.writeInt(mSize);
+                    mOut.writeInt(MAGIC);
+                }
+                mOut.close();
+                if (!mFailed) {
+                    Files.move(mTmpFile.toPath(), mFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    replaced = true;
+                }
+            } finally {
+                if (!replaced) {
+                    mOut.close();
+                    mTmpFile.delete();
+                }
+            }
+        }
+    }
+
+    private ResultIndex(RandomAccessFile file) throws IOException {
+        mFile = file;
+        FileChannel channel = file.getChannel();
+        long length = channel.size();
+        if (length < HEADER_SIZE + TRAILER_SIZE || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid result index length " + length);
+        }
+        mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        int trailer = (int) length - TRAILER_SIZE;
+        mSize = mBuffer.getInt(trailer);
+        mOffsetsPosition = trailer - mSize * 4;
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(trailer + 4) != MAGIC
+                || mSize < 0 || mSize > (trailer - HEADER_SIZE) / 4) {
+            throw new IOException("Invalid result index");
+        }
+    }
+
+    /** Opens an index, mapping it in memory. */
+    public static ResultIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new ResultIndex(raf);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the index of a result directory. If the directory doesn't have one, the index is
+     * created from its result file first. The index only appears once completely written, so a
+     * failure or a concurrent call doesn't leave a partial index behind.
+     *
+     * @return the index, or null if the directory has no valid result
+     */
+    public static ResultIndex getIndex(File resultDir) throws IOException {
+        File file = new File(resultDir, INDEX_FILE_NAME);
+        if (!file.exists()) {
+            IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false);
+            if (result == null) {
+                return null;
+            }
+            write(result, file);
+        }
+        return open(file);
+    }
+
+    /**
+     * Writes the index of a result, replacing the file if it exists.
+     */
+    public static void write(IInvocationResult result, File file) throws IOException {
+        write(getRecords(result), file);
+    }
+
+    /** Writes the index of records in any order, replacing the file if it exists. */
+    static void write(List<Record> records, File file) throws IOException {
+        Collections.sort(records, (a, b) -> compare(a.mKey, b.mKey));
+        try (Writer writer = new Writer(file)) {
+            for (Record record : records) {
+                writer.add(record);
+            }
+        }
+    }
+
+    /**
+     * Writes the index of a result in a result directory. Errors are ignored, as the index can be
+     * created again from the result file.
+     *
+     * @return true if the index was written
+     */
+    public static boolean tryCreateIndex(File resultDir, IInvocationResult result) {
+        return tryCreateIndex(resultDir, getRecords(result));
+    }
+
+    /** Writes the index of records in any order in a result directory, ignoring errors. */
+    static boolean tryCreateIndex(File resultDir, List<Record> records) {
+        File file = new File(resultDir, INDEX_FILE_NAME);
+        try {
+            write(records, file);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns the records of the tests of a module. */
+    static List<Record> getRecords(IModuleResult module) {
+        List<Record> records = new ArrayList<>();
+        addRecords(module, records);
+        return records;
+    }
+
+    private static List<Record> getRecords(IInvocationResult result) {
+        List<Record> records = new ArrayList<>();
+        for (IModuleResult module : result.getModules()) {
+            addRecords(module, records);
+        }
+        return records;
+    }
+
+    private static void addRecords(IModuleResult module, List<Record> records) {
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult testResult : caseResult.getResults()) {
+                byte[] key = getKey(module.getId(), testResult.getFullName())
+                        .getBytes(StandardCharsets.UTF_8);
+                records.add(new Record(key, getStatus(testResult),
+                        getStackHash(testResult.getStackTrace())));
+            }
+        }
+    }
+
+    /** Writes records in the format of an index, without the header and the offsets. */
+    static void writeRecords(List<Record> records, DataOutputStream out) throws IOException {
+        for (Record record : records) {
+            out.writeInt(record.mKey.length);
+            out.write(record.mKey);
+            out.writeByte(record.mStatus);
+            out.writeInt(record.mStackHash);
+        }
+    }
+
+    /**
+     * Reads the records written by {@link #writeRecords}.
+     *
+     * @throws IOException if the records are truncated
+     */
+    static List<Record> readRecords(ByteBuffer buffer) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                records.add(new Record(key, buffer.get(), buffer.getInt()));
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Truncated result index records", e);
+        }
+        return records;
+    }
+
+    /**
+     * Merges two indexes in a single pass, like {@link IInvocationResult#mergeModuleResult}: the
+     * record of {@code override} is kept for a test that is in both.
+     */
+    public static void merge(ResultIndex base, ResultIndex override, File file)
+            throws IOException {
+        try (Writer writer = new Writer(file)) {
+            try {
+                merge(base, override, writer);
+            } catch (IOException | RuntimeException e) {
+                writer.abort();
+                throw e;
+            }
+        }
+    }
+
+    private static void merge(ResultIndex base, ResultIndex override, Writer writer)
+            throws IOException {
+        int i = 0;
+        int j = 0;
+        while (i < base.mSize || j < override.mSize) {
+            int comparison;
+            if (i == base.mSize) {
+                comparison = 1;
+            } else if (j == override.mSize) {
+                comparison = -1;
+            } else {
+                int offset = base.getOffset(i);
+                int otherOffset = override.getOffset(j);
+                comparison = compare(
+                        base.mBuffer, offset + 4, base.mBuffer.getInt(offset),
+                        override.mBuffer, otherOffset + 4,
+                        override.mBuffer.getInt(otherOffset));
+            }
+            if (comparison < 0) {
+                writer.copy(base, i++);
+            } else {
+                writer.copy(override, j++);
+                i += comparison == 0 ? 1 : 0;
+            }
+        }
+    }
+
+    /** Returns the key of a test, from its module id and its full name. */
+    public static String getKey(String moduleId, String testFullName) {
+        return moduleId + " " + testFullName;
+    }
+
+    /** Returns the number of records. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns the record at the given position, in key order. */
+    public Record get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        int offset = getOffset(position);
+        int keyLength = mBuffer.getInt(offset);
+        byte[] key = new byte[keyLength];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.get(key);
+        return new Record(key, buffer.get(), buffer.getInt());
+    }
+
+    /**
+     * Returns the position of a key, or {@code -(insertion point) - 1} if it isn't in the index,
+     * like {@link Arrays#binarySearch}.
+     */
+    public int find(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer keyBuffer = ByteBuffer.wrap(bytes);
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = getOffset(middle);
+            int comparison = compare(
+                    mBuffer, offset + 4, mBuffer.getInt(offset), keyBuffer, 0, bytes.length);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /** Returns the record of a test, or null if it isn't in the index. */
+    public Record getRecord(String moduleId, String testFullName) {
+        int position = find(getKey(moduleId, testFullName));
+        return position < 0 ? null : get(position);
+    }
+
+    /** Returns the status of a test, or null if it isn't in the index or wasn't executed. */
+    public TestStatus getResultStatus(String moduleId, String testFullName) {
+        int position = find(getKey(moduleId, testFullName));
+        if (position < 0) {
+            return null;
+        }
+        int offset = getOffset(position);
+        return toResultStatus(mBuffer.get(offset + 4 + mBuffer.getInt(offset)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private int getOffset(int position) {
+        return mBuffer.getInt(mOffsetsPosition + position * 4);
+    }
+
+    /**
+     * Compares two keys by their unsigned bytes, eight at a time. Buffers are big endian, so
+     * comparing longs as unsigned values orders them like their bytes.
+     */
+    private static int compare(
+            ByteBuffer a, int startA, int lengthA, ByteBuffer b, int startB, int lengthB) {
+        int common = Math.min(lengthA, lengthB);
+        int i = 0;
+        for (; i + 8 <= common; i += 8) {
+            long longA = a.getLong(startA + i);
+            long longB = b.getLong(startB + i);
+            if (longA != longB) {
+                return Long.compareUnsigned(longA, longB);
+            }
+        }
+        for (; i < common; i++) {
+            int comparison = (a.get(startA + i) & 0xff) - (b.get(startB + i) & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = (a[i] & 0xff) - (b[i] & 0xff);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static byte getStatus(ITestResult result) {
+        if (result.getResultStatus() == null) {
+            return STATUS_NOT_EXECUTED;
+        } else if (result.isSkipped()) {
+            return STATUS_SKIPPED;
+        }
+        return result.getResultStatus() == TestStatus.FAIL ? STATUS_FAIL : STATUS_PASS;
+    }
+
+    private static TestStatus toResultStatus(byte status) {
+        switch (status) {
+            case STATUS_PASS:
+            case STATUS_SKIPPED:
+                return TestStatus.PASS;
+            case STATUS_FAIL:
+                return TestStatus.FAIL;
+            default:
+                return null;
+        }
+    }
+
+    private static int getStackHash(String stackTrace) {
+        return stackTrace == null ? 0 : stackTrace.hashCode();
+    }
+}
@@ -58,28 +58,9 @@ public class Stat {
      * Calculate statistics properties likes average, min, max, and stddev for the given array
      */
     public static StatResult getStat(double[] data) {
-        double average = data[0];
-        double min = data[0];
-        double max = data[0];
-        for (int i = 1; i < data.length; i++) {
-            average += data[i];
-            if (data[i] > max) {
-                max = data[i];
-            }
-            if (data[i] < min) {
-                min = data[i];
-            }
-        }
-        average /= data.length;
-        double sumOfSquares = 0.0;
-        for (int i = 0; i < data.length; i++) {
-            double diff = average - data[i];
-            sumOfSquares += diff * diff;
-        }
-        double variance = sumOfSquares / (data.length - 1);
-        double stddev = Math.sqrt(variance);
-        double median = getMedian(data);
-        return new StatResult(average, min, max, stddev, median, data.length);
+        StatAccumulator accumulator = new StatAccumulator(data.length);
+        accumulator.addAll(data);
+        return accumulator.getStat();
     }
 
     /**
@@ -92,30 +73,21 @@ public class Stat {
         double thresholdMin = median * (1.0 - rejectionThreshold);
         double thresholdMax = median * (1.0 + rejectionThreshold);
 
-        double[] validData = new double[data.length];
-        int index = 0;
+        StatAccumulator accumulator = new StatAccumulator(data.length);
         for (int i = 0; i < data.length; i++) {
             if ((data[i] > thresholdMin) && (data[i] < thresholdMax)) {
-                validData[index] = data[i];
-                index++;
+                accumulator.add(data[i]);
             }
             // TODO report rejected data
         }
-        return getStat(Arrays.copyOf(validData, index));
+        return accumulator.getStat();
     }
 
     /** returns the median value of the passed array */
     private static double getMedian(double[] data) {
-        double[] dataCopied = Arrays.copyOf(data, data.length);
-        Arrays.sort(dataCopied);
-        int medianIndex = dataCopied.length / 2;
-        double median;
-        if (dataCopied.length % 2 == 1) {
-            median = dataCopied[medianIndex];
-        } else {
-            median = (dataCopied[medianIndex - 1] + dataCopied[medianIndex]) / 2.0;
-        }
-        return median;
+        StatAccumulator accumulator = new StatAccumulator(data.length);
+        accumulator.addAll(data);
+        return accumulator.getMedian();
     }
 
     /**
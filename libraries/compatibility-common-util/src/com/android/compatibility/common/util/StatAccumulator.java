@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates values to compute their statistics in a single pass.
+ *
+ * <p>The average and standard deviation are updated with each value using Welford's algorithm, and
+ * the median and percentiles are selected in linear time from the values kept by the accumulator,
+ * instead of sorting them. Primitive arrays are read directly, without converting them to a double
+ * array first. An accumulator can be {@link #reset} to compute the statistics of another set of
+ * values without allocating again.
+ */
+public class StatAccumulator {
+
+    private double[] mValues;
+    private int mCount;
+    private double mMean;
+    private double mSumOfSquares;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    public StatAccumulator() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of values the accumulator is expected to hold
+     */
+    public StatAccumulator(int capacity) {
+        mValues = new double[Math.max(capacity, 1)];
+    }
+
+    /** Removes all values, keeping the allocated storage. */
+    public void reset() {
+        mCount = 0;
+        mMean = 0;
+        mSumOfSquares = 0;
+        mMin = Double.NaN;
+        mMax = Double.NaN;
+    }
+
+    public void add(double value) {
+        if (mCount == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mCount * 2);
+        }
+        mValues[mCount++] = value;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mSumOfSquares += delta * (value - mMean);
+        if (mCount == 1) {
+            mMin = value;
+            mMax = value;
+        } else {
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+    }
+
+    public void addAll(double[] values) {
+        ensureCapacity(values.length);
+        for (double value : values) {
+            add(value);
+        }
+    }
+
+    public void addAll(float[] values) {
+        ensureCapacity(values.length);
+        for (float value : values) {
+            add(value);
+        }
+    }
+
+    public void addAll(int[] values) {
+        ensureCapacity(values.length);
+        for (int value : values) {
+            add(value);
+        }
+    }
+
+    public void addAll(long[] values) {
+        ensureCapacity(values.length);
+        for (long value : values) {
+            add(value);
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /** Returns the average of the values, or NaN if there are none. */
+    public double getAverage() {
+        return mCount == 0 ? Double.NaN : mMean;
+    }
+
+    /** Returns the sample standard deviation of the values, or NaN if there are less than two. */
+    public double getStddev() {
+        if (mCount < 2) {
+            return Double.NaN;
+        }
+        return Math.sqrt(mSumOfSquares / (mCount - 1));
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns the median of the values, the average of the two middle values for an even count.
+     */
+    public double getMedian() {
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        int medianIndex = mCount / 2;
+        double median = select(mValues, 0, mCount, medianIndex);
+        if (mCount % 2 == 0) {
+            // The lower middle value is the largest value before the median after selection.
+            double lower = mValues[0];
+            for (int i = 1; i < medianIndex; i++) {
+                if (Double.compare(mValues[i], lower) > 0) {
+                    lower = mValues[i];
+                }
+            }
+            median = (lower + median) / 2.0;
+        }
+        return median;
+    }
+
+    /**
+     * Returns the value of the given percentile using the nearest rank algorithm, like {@link
+     * Stat#get95PercentileValue}.
+     */
+    public double getPercentile(double percentile) {
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        return select(mValues, 0, mCount, percentileIndex(mCount, percentile));
+    }
+
+    public Stat.StatResult getStat() {
+        return new Stat.StatResult(
+                getAverage(), getMin(), getMax(), getStddev(), getMedian(), mCount);
+    }
+
+    /** Returns the zero-based index of a percentile in sorted values, by nearest rank. */
+    static int percentileIndex(int count, double percentile) {
+        int index = (int) Math.round(count * percentile / 100.0 + .5) - 1;
+        return Math.max(0, Math.min(count - 1, index));
+    }
+
+    /**
+     * Reorders {@code values[from, to)} so that the value at index {@code k} is the one it would
+     * have if the range was sorted, with no greater value before it and no smaller value after it.
+     * Values are ordered like {@link Arrays#sort(double[])}.
+     *
+     * @return the value at index {@code k}
+     */
+    static double select(double[] values, int from, int to, int k) {
+        int left = from;
+        int right = to - 1;
+        while (right > left) {
+            // Median of three, which also places sentinels at both ends of the range.
+            int middle = (left + right) >>> 1;
+            if (Double.compare(values[middle], values[left]) < 0) {
+                swap(values, middle, left);
+            }
+            if (Double.compare(values[right], values[left]) < 0) {
+                swap(values, right, left);
+            }
+            if (Double.compare(values[right], values[middle]) < 0) {
+                swap(values, right, middle);
+            }
+            double pivot = values[middle];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (Double.compare(values[i], pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(values[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private void ensureCapacity(int additional) {
+        if (mCount + additional > mValues.length) {
+            mValues = Arrays.copyOf(mValues, Math.max(mCount + additional, mValues.length * 2));
+        }
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the modules of a result file as they complete, so that the results of a session that
+ * doesn't finish are kept, and a long session doesn't serialize all its results at the end.
+ *
+ * <p>Each module is appended to {@link #MODULES_FILE_NAME} and the {@link ResultIndex} records of
+ * its tests to {@link #RECORDS_FILE_NAME}, then a line with the end offsets of both and the
+ * counters of the module is appended to {@link #INDEX_FILE_NAME}. {@link #open} resumes after the
+ * last module of the index, discarding anything written after it by a session that crashed.
+ * {@link #finish} writes {@link ResultHandler#TEST_RESULT_FILE_NAME} in the same format as {@link
+ * ResultHandler#writeResults}, with a summary computed from the running counters, and the
+ * {@link ResultIndex} from the records, without reading the modules again.
+ *
+ * <p>Unlike {@link ResultHandler#writeResults}, {@link #finish} doesn't create the checksum, since
+ * its Bloom filter is sized from the total test count, which is only known at the end. The caller
+ * creates it with {@link ResultHandler#createChecksum} if it needs one.
+ */
+public class StreamingResultWriter implements Closeable {
+
+    public static final String MODULES_FILE_NAME = "test_result.modules.xml";
+    public static final String RECORDS_FILE_NAME = "test_result.modules.records";
+    public static final String INDEX_FILE_NAME = "test_result.modules.idx";
+
+    private final File mResultDir;
+    private final FileOutputStream mModules;
+    private final FileOutputStream mRecords;
+    private final FileOutputStream mIndex;
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mRecordsBuffer = new ByteArrayOutputStream();
+    private long mLength;
+    private long mRecordsLength;
+    private int mPassed;
+    private int mFailed;
+    private int mModulesDone;
+    private int mModuleCount;
+
+    private StreamingResultWriter(File resultDir, long length, long recordsLength)
+            throws IOException {
+        mResultDir = resultDir;
+        mLength = length;
+        mRecordsLength = recordsLength;
+        mModules = new FileOutputStream(new File(resultDir, MODULES_FILE_NAME), true);
+        mRecords = new FileOutputStream(new File(resultDir, RECORDS_FILE_NAME), true);
+        mIndex = new FileOutputStream(new File(resultDir, INDEX_FILE_NAME), true);
+    }
+
+    /**
+     * Opens the writer of the result directory, resuming after the modules already written to it.
+     */
+    public static StreamingResultWriter open(File resultDir) throws IOException {
+        File modules = new File(resultDir, MODULES_FILE_NAME);
+        File records = new File(resultDir, RECORDS_FILE_NAME);
+        File index = new File(resultDir, INDEX_FILE_NAME);
+        List<String> entries = new ArrayList<>();
+        List<long[]> counters = new ArrayList<>();
+        long length = 0;
+        long recordsLength = 0;
+        if (index.exists() && modules.exists() && records.exists()) {
+            long available = modules.length();
+            long recordsAvailable = records.length();
+            for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+                long[] entry = parseIndexEntry(line);
+                // Stop at a line or module that wasn't completely written.
+                if (entry == null || entry[0] < length || entry[0] > available
+                        || entry[1] < recordsLength || entry[1] > recordsAvailable) {
+                    break;
+                }
+                length = entry[0];
+                recordsLength = entry[1];
+                entries.add(line);
+                counters.add(entry);
+            }
+        }
+        truncate(modules, length);
+        truncate(records, recordsLength);
+        Files.write(index.toPath(), entries, StandardCharsets.UTF_8);
+
+        StreamingResultWriter writer = new StreamingResultWriter(resultDir, length, recordsLength);
+        for (long[] entry : counters) {
+            writer.count((int) entry[2], (int) entry[3], entry[4] != 0);
+        }
+        return writer;
+    }
+
+    /**
+     * Appends a module and all its executed tests. Each module must be added once, after it
+     * completed.
+     */
+    public void addModule(IModuleResult module) throws IOException, XmlPullParserException {
+        mBuffer.reset();
+        XmlSerializer serializer = ResultHandler.newSerializer(mBuffer);
+        serializer.setFeature(ResultHandler.INDENT_FEATURE, true);
+        ResultHandler.serializeModule(serializer, module);
+        serializer.flush();
+
+        mRecordsBuffer.reset();
+        DataOutputStream records = new DataOutputStream(mRecordsBuffer);
+        ResultIndex.writeRecords(ResultIndex.getRecords(module), records);
+        records.flush();
+
+        int passed = module.countResults(TestStatus.PASS);
+        int failed = module.countResults(TestStatus.FAIL);
+        boolean done = module.isDone();
+        mBuffer.writeTo(mModules);
+        mModules.getFD().sync();
+        mLength += mBuffer.size();
+        mRecordsBuffer.writeTo(mRecords);
+        mRecords.getFD().sync();
+        mRecordsLength += mRecordsBuffer.size();
+        // The index entry is written last, so it is only present for a complete module.
+        String entry = String.format("%d %d %d %d %d\n", mLength, mRecordsLength, passed, failed,
+                done ? 1 : 0);
+        mIndex.write(entry.getBytes(StandardCharsets.UTF_8));
+        mIndex.getFD().sync();
+        count(passed, failed, done);
+    }
+
+    public int getPassedCount() {
+        return mPassed;
+    }
+
+    public int getFailedCount() {
+        return mFailed;
+    }
+
+    public int getModuleCompleteCount() {
+        return mModulesDone;
+    }
+
+    /**
+     * Returns the number of modules added so far. Unlike the {@code modules_total} of {@link
+     * ResultHandler#writeResults}, it doesn't include the modules that weren't run yet.
+     */
+    public int getModuleCount() {
+        return mModuleCount;
+    }
+
+    /**
+     * Writes the result file from the modules added so far and its {@link ResultIndex}, then
+     * removes the intermediate files. Errors writing the index are ignored, as it can be created
+     * again from the result file.
+     *
+     * @param result the invocation, for its build and device information. Its modules aren't used
+     *     and don't need to be kept after they were added.
+     * @param modulesTotal the total number of modules of the invocation, including the ones that
+     *     weren't run, written as {@code modules_total} like {@link ResultHandler#writeResults}
+     * @return The result file created.
+     * @see ResultHandler#writeResults
+     */
+    public File finish(
+            String suiteName,
+            String suiteVersion,
+            String suitePlan,
+            String suiteBuild,
+            IInvocationResult result,
+            int modulesTotal,
+            long startTime,
+            long endTime,
+            String referenceUrl,
+            String logUrl,
+            String commandLineArgs,
+            Map<String, String> resultAttributes)
+            throws IOException, XmlPullParserException {
+        close();
+        File modules = new File(mResultDir, MODULES_FILE_NAME);
+        File records = new File(mResultDir, RECORDS_FILE_NAME);
+        File resultFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        File tmpFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME + ".tmp");
+        try (OutputStream stream = new FileOutputStream(tmpFile)) {
+            XmlSerializer serializer = ResultHandler.startResults(stream, suiteName, suiteVersion,
+                    suitePlan, suiteBuild, result, startTime, endTime, referenceUrl, logUrl,
+                    commandLineArgs, resultAttributes, mPassed, mFailed, mModulesDone,
+                    Math.max(modulesTotal, mModuleCount));
+            serializer.flush();
+            Files.copy(modules.toPath(), stream);
+            serializer.endDocument();
+        }
+        Files.move(tmpFile.toPath(), resultFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        modules.delete();
+        try {
+            ResultIndex.tryCreateIndex(mResultDir,
+                    ResultIndex.readRecords(ByteBuffer.wrap(Files.readAllBytes(records.toPath()))));
+        } catch (IOException e) {
+            // The index is created again from the result file when it is needed.
+        }
+        records.delete();
+        new File(mResultDir, INDEX_FILE_NAME).delete();
+        return resultFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (FileOutputStream index = mIndex; FileOutputStream records = mRecords) {
+            mModules.close();
+        }
+    }
+
+    private void count(int passed, int failed, boolean done) {
+        mPassed += passed;
+        mFailed += failed;
+        mModulesDone += done ? 1 : 0;
+        mModuleCount++;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * Returns the end offsets of the module and of its records, and the passed, failed and done
+     * count of an index line, or null.
+     */
+    private static long[] parseIndexEntry(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length != 5) {
+            return null;
+        }
+        long[] entry = new long[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                entry[i] = Long.parseLong(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return entry;
+    }
+}
@@ -70,6 +70,55 @@ public class ZipUtil {
         }
     }
 
+    /**
+     * Utility method to create a zip file containing the given files and directories, compressing
+     * the files concurrently. Files that are already compressed, such as images and archives, are
+     * stored as they are.
+     *
+     * @param files list of files or directories to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param compressionLevel the deflate level, from 0 (store all files) to 9
+     * @param threads the number of threads compressing files
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(List<File> files, File zipFile, int compressionLevel,
+            int threads) throws IOException {
+        try (ParallelZipWriter out = new ParallelZipWriter(zipFile, compressionLevel, threads)) {
+            for (File file : files) {
+                addToZip(out, file, new ArrayList<>());
+            }
+            out.finish();
+        } catch (IOException | RuntimeException e) {
+            zipFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Recursively adds given file and its contents to a {@link ParallelZipWriter}, in the same
+     * order as {@link #addToZip(ZipOutputStream, File, List)}.
+     */
+    private static void addToZip(ParallelZipWriter out, File file, List<String> relativePathSegs)
+            throws IOException {
+        relativePathSegs.add(file.getName());
+        if (file.isDirectory()) {
+            relativePathSegs.add("/");
+        }
+        out.add(file, buildPath(relativePathSegs));
+        if (file.isDirectory()) {
+            File[] subFiles = file.listFiles();
+            if (subFiles == null) {
+                throw new IOException(String.format("Could not read directory %s",
+                        file.getAbsolutePath()));
+            }
+            for (File subFile : subFiles) {
+                addToZip(out, subFile, relativePathSegs);
+            }
+            relativePathSegs.remove(relativePathSegs.size()-1);
+        }
+        relativePathSegs.remove(relativePathSegs.size()-1);
+    }
+
     /**
      * Recursively adds given file and its contents to ZipOutputStream
      *
@@ -20,6 +20,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -32,6 +33,9 @@ import com.android.tradefed.util.FileUtil;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -40,6 +44,9 @@ import java.util.List;
 @RunWith(JUnit4.class)
 public class BusinessLogicTest {
 
+    private static final String CONDITIONS = Conditions.class.getName();
+    private static final String TEST_OBJECT = TestObject.class.getName();
+
     private static final String CORRECT_LOGIC =
             "{\n" +
             "  \"name\": \"businessLogic/suites/gts\",\n" +
@@ -231,6 +238,112 @@ public class BusinessLogicTest {
         }
     }
 
+    private static final String COMPILED_LOGIC =
+            "{\n" +
+            "  \"redactionRegexes\": [\"secret\", \"(x)\\\\1\"],\n" +
+            "  \"businessLogicRulesLists\": [\n" +
+            "    {\n" +
+            "      \"testName\": \"testCaseName1\",\n" +
+            "      \"businessLogicRules\": [\n" +
+            "        {\n" +
+            "          \"ruleConditions\": [\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + CONDITIONS + ".isPure\",\n" +
+            "              \"methodArgs\": [\"arg1\"]\n" +
+            "            },\n" +
+            "            {\n" +
+            "              \"methodName\": \"!" + CONDITIONS + ".isImpure\",\n" +
+            "              \"methodArgs\": [\"arg1\"]\n" +
+            "            },\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + TEST_OBJECT + "#isPureMember\"\n" +
+            "            }\n" +
+            "          ],\n" +
+            "          \"ruleActions\": [\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + CONDITIONS + ".record\",\n" +
+            "              \"methodArgs\": [\"arg1\"]\n" +
+            "            },\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + CONDITIONS + ".recordExecutor\"\n" +
+            "            }\n" +
+            "          ]\n" +
+            "        }\n" +
+            "      ]\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"testName\": \"testCaseName2\",\n" +
+            "      \"businessLogicRules\": [\n" +
+            "        {\n" +
+            "          \"ruleConditions\": [\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + CONDITIONS + ".isPure\",\n" +
+            "              \"methodArgs\": [\"arg1\"]\n" +
+            "            },\n" +
+            "            {\n" +
+            "              \"methodName\": \"!" + CONDITIONS + ".isImpure\",\n" +
+            "              \"methodArgs\": [\"arg1\"]\n" +
+            "            },\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + TEST_OBJECT + "#isPureMember\"\n" +
+            "            }\n" +
+            "          ],\n" +
+            "          \"ruleActions\": [\n" +
+            "            {\n" +
+            "              \"methodName\": \"" + CONDITIONS + ".record\",\n" +
+            "              \"methodArgs\": [\"arg2\"]\n" +
+            "            }\n" +
+            "          ]\n" +
+            "        }\n" +
+            "      ]\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}";
+
+    @Test
+    public void testCompiledLogic() throws Exception {
+        File file = createFileFromStr(COMPILED_LOGIC);
+        try {
+            BusinessLogic bl = BusinessLogicFactory.createFromFile(file);
+            Conditions.reset();
+            TestObject testObject = new TestObject();
+            TestExecutor executor = new TestExecutor(testObject, bl.getRedactionRegexes());
+            bl.applyLogicFor("testCaseName1", executor);
+            bl.applyLogicFor("testCaseName2", executor);
+            // Another test of the module, with a new test object and executor.
+            TestObject testObject2 = new TestObject();
+            TestExecutor executor2 = new TestExecutor(testObject2, bl.getRedactionRegexes());
+            bl.applyLogicFor("testCaseName1", executor2);
+
+            assertEquals("Pure condition should be evaluated once", 1, Conditions.sPureCalls);
+            assertEquals("Impure condition should be evaluated for each test", 3,
+                    Conditions.sImpureCalls);
+            assertEquals("Pure member condition should be evaluated once per test object", 1,
+                    testObject.mCalls);
+            assertEquals("Pure member condition should be evaluated once per test object", 1,
+                    testObject2.mCalls);
+            assertEquals(Arrays.asList("arg1", "arg2", "arg1"), Conditions.sRecorded);
+            assertEquals("Methods should be resolved once per executor class", 6,
+                    executor.mResolved);
+            assertEquals("Methods should be resolved once per executor class", 0,
+                    executor2.mResolved);
+            assertEquals("Injected arguments should come from the invoking executor",
+                    Arrays.asList(executor, executor2), Conditions.sExecutors);
+        } finally {
+            FileUtil.deleteFile(file);
+        }
+    }
+
+    @Test
+    public void testRedaction() throws Exception {
+        TestExecutor executor = new TestExecutor(null, Arrays.asList("secret", "(x)\\1"));
+        assertArrayEquals(new String[] {"[redacted]", "[redacted]", "x"},
+                executor.formatArgs(new String[] {"my secret", "xx", "x"}));
+        executor.mRedactionRegexes = Arrays.asList("^x$");
+        assertArrayEquals(new String[] {"my secret", "xx", "[redacted]"},
+                executor.formatArgs(new String[] {"my secret", "xx", "x"}));
+    }
+
     @Test(expected = RuntimeException.class)
     public void testLogicWithWrongNodeName() throws Exception {
         File file = createFileFromStr(CORRECT_LOGIC.replace("testName", "testNam3"));
@@ -241,6 +354,107 @@ public class BusinessLogicTest {
         }
     }
 
+    /** Business logic methods, counting their invocations */
+    public static class Conditions {
+        static int sPureCalls;
+        static int sImpureCalls;
+        static List<String> sRecorded = new ArrayList<>();
+        static List<BusinessLogicExecutor> sExecutors = new ArrayList<>();
+
+        static void reset() {
+            sPureCalls = 0;
+            sImpureCalls = 0;
+            sRecorded.clear();
+            sExecutors.clear();
+        }
+
+        @BusinessLogicExecutor.PureCondition
+        public boolean isPure(String arg) {
+            sPureCalls++;
+            return true;
+        }
+
+        public static boolean isImpure(String arg) {
+            sImpureCalls++;
+            return false;
+        }
+
+        public void record(String arg) {
+            sRecorded.add(arg);
+        }
+
+        public void recordExecutor(BusinessLogicExecutor executor) {
+            sExecutors.add(executor);
+        }
+    }
+
+    /** A test object with a business logic method */
+    public static class TestObject {
+        int mCalls;
+
+        @BusinessLogicExecutor.PureCondition
+        public boolean isPureMember() {
+            mCalls++;
+            return true;
+        }
+    }
+
+    /**
+     * An executor resolving methods that take the string arguments, preceded by the executor if
+     * the method has a parameter for it
+     */
+    private static class TestExecutor extends BusinessLogicExecutor {
+        private final Object mTestObject;
+        int mResolved;
+
+        TestExecutor(Object testObject, List<String> redactionRegexes) {
+            mTestObject = testObject;
+            mRedactionRegexes = redactionRegexes;
+        }
+
+        @Override
+        protected String formatExecutionString(String method, String... args) {
+            return String.format("%s(%s)", method, String.join(", ", formatArgs(args)));
+        }
+
+        @Override
+        public void logInfo(String format, Object... args) {}
+
+        @Override
+        public void logDebug(String format, Object... args) {}
+
+        @Override
+        protected Object getTestObject() {
+            return mTestObject;
+        }
+
+        @Override
+        protected Object getInjectedArg(Class<?> type) {
+            return type == BusinessLogicExecutor.class ? this : null;
+        }
+
+        @Override
+        protected ResolvedMethod getResolvedMethod(Class cls, String methodName,
+                String... args) {
+            mResolved++;
+            for (Method method : getMethodsWithName(cls, methodName)) {
+                Class<?>[] types = method.getParameterTypes();
+                boolean injected = types.length > 0 && types[0] == BusinessLogicExecutor.class;
+                if (types.length == args.length + (injected ? 1 : 0)) {
+                    ResolvedMethod rm = new ResolvedMethod(method);
+                    if (injected) {
+                        rm.addArg(this);
+                    }
+                    for (String arg : args) {
+                        rm.addArg(arg);
+                    }
+                    return rm;
+                }
+            }
+            throw new RuntimeException("No method " + methodName);
+        }
+    }
+
     private static File createFileFromStr(String blString) throws IOException {
         File file = File.createTempFile("test", "bl");
         FileOutputStream stream = new FileOutputStream(file);
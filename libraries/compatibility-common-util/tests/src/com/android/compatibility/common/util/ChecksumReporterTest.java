@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link ChecksumReporter}
+ */
+public class ChecksumReporterTest extends TestCase {
+
+    private static final String FINGERPRINT = "build/fingerprint";
+
+    private File mResultDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("result");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    /**
+     * Test that every file of nested directories is hashed, including mapped large files.
+     */
+    public void testAddDirectory() throws Exception {
+        File logs = new File(mResultDir, "logs");
+        File module = new File(logs, "module");
+        assertTrue(module.mkdirs());
+        File small = writeFile(new File(mResultDir, "test_result.xml"), 100);
+        File large = writeFile(new File(module, "logcat.txt"), (3 << 20) + 17);
+        File empty = writeFile(new File(logs, "empty.txt"), 0);
+
+        ChecksumReporter reporter = new ChecksumReporter(1, 0.05, (short) 1);
+        reporter.addDirectory(mResultDir);
+
+        String root = mResultDir.getName();
+        assertTrue(reporter.containsFile(small, root));
+        assertTrue(reporter.containsFile(large, root + "/logs/module"));
+        assertTrue(reporter.containsFile(empty, root + "/logs"));
+        assertFalse(reporter.containsFile(large, root + "/logs"));
+        assertTrue(Arrays.equals(
+                sha256(large), ChecksumReporter.calculateFileChecksum(large)));
+    }
+
+    /**
+     * Test that a file changed after being hashed is hashed again.
+     */
+    public void testAddDirectory_changedFile() throws Exception {
+        File file = writeFile(new File(mResultDir, "log.txt"), 100);
+        new ChecksumReporter(1, 0.05, (short) 1).addDirectory(mResultDir);
+
+        writeFile(file, 200);
+        ChecksumReporter reporter = new ChecksumReporter(1, 0.05, (short) 1);
+        reporter.addDirectory(mResultDir);
+        assertTrue(reporter.containsFile(file, mResultDir.getName()));
+    }
+
+    /**
+     * Test that a file rewritten with the same size is hashed again, as its modification time
+     * changed.
+     */
+    public void testAddDirectory_changedModificationTime() throws Exception {
+        File file = writeFile(new File(mResultDir, "log.txt"), 100);
+        Map<String, byte[]> cache =
+                new ChecksumReporter(1, 0.05, (short) 1).addDirectory(mResultDir, new HashMap<>());
+
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[100]);
+        }
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        ChecksumReporter reporter = new ChecksumReporter(1, 0.05, (short) 1);
+        reporter.addDirectory(mResultDir, cache);
+        assertTrue(reporter.containsFile(file, mResultDir.getName()));
+    }
+
+    /**
+     * Test that a retry takes the checksum of an unchanged file from the cache of the retried
+     * session.
+     */
+    public void testTryCreateChecksum_retryCacheHit() throws Exception {
+        File retryDir = FileUtil.createTempDir("retry");
+        try {
+            File previousFile = writeFile(new File(mResultDir, "log.txt"), 100);
+            InvocationResult previous = new InvocationResult();
+            assertTrue(ChecksumReporter.tryCreateChecksum(mResultDir, previous));
+            assertTrue(new File(mResultDir, ChecksumReporter.CACHE_NAME).exists());
+
+            // Replace the cached checksum, to tell whether the retry hashes the file again.
+            Map<String, byte[]> cache = new HashMap<>();
+            cache.put("/log.txt|100|" + previousFile.lastModified(), new byte[] {1, 2, 3});
+            ChecksumReporter.saveCache(mResultDir, cache);
+            File file = new File(retryDir, "log.txt");
+            Files.copy(previousFile.toPath(), file.toPath(),
+                    StandardCopyOption.COPY_ATTRIBUTES);
+            InvocationResult retry = new InvocationResult();
+            retry.setRetryDirectory(mResultDir);
+            assertTrue(ChecksumReporter.tryCreateChecksum(retryDir, retry));
+
+            ChecksumReporter reporter = ChecksumReporter.load(retryDir);
+            assertFalse("The cached checksum should be used",
+                    reporter.containsFile(file, retryDir.getName()));
+            file.setLastModified(file.lastModified() + 10000);
+            assertTrue(ChecksumReporter.tryCreateChecksum(retryDir, retry));
+            reporter = ChecksumReporter.load(retryDir);
+            assertTrue(reporter.containsFile(file, retryDir.getName()));
+        } finally {
+            FileUtil.recursiveDelete(retryDir);
+        }
+    }
+
+    /**
+     * Test that all line breaks of the stack trace are ignored by the result signature.
+     */
+    public void testGenerateTestResultSignature_lineBreaks() {
+        String expected = ChecksumReporter.generateTestResultSignature("package", "suite",
+                "case", "test", "abi", "fail", "at a()at b()at c()at d()", FINGERPRINT);
+        assertEquals(expected, ChecksumReporter.generateTestResultSignature("package", "suite",
+                "case", "test", "abi", "fail", " \nat a()\r\nat b()\rat c()\n\rat d()\n ",
+                FINGERPRINT));
+        assertEquals(
+                FINGERPRINT + "/package/suite.case.test@abi/pass//",
+                ChecksumReporter.generateTestResultSignature("package", "suite", "case", "test",
+                        "abi", "pass", null, FINGERPRINT));
+    }
+
+    private static File writeFile(File file, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] sha256(File file) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+    }
+}
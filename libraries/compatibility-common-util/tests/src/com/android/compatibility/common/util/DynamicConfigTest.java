@@ -114,12 +114,89 @@ public class DynamicConfigTest extends TestCase {
         }
     }
 
+    public void testCachedConfig() throws Exception {
+        DynamicConfig.clearConfigCache();
+        File file = createFileFromStr(CORRECT_CONFIG);
+        try {
+            DynamicConfig config = new DynamicConfig();
+            config.initializeConfig(file);
+            DynamicConfig other = new DynamicConfig();
+            other.initializeConfig(file);
+            assertSame(config.getValues("config-list"), other.getValues("config-list"));
+            try {
+                config.getValues("config-list").add("config5");
+                fail("Cached config should not be modifiable");
+            } catch (UnsupportedOperationException e) {
+                //expected
+            }
+
+            // A config file that changed is parsed again.
+            writeFileFromStr(file, CORRECT_CONFIG.replace("test config 1", "new config 1"));
+            assertTrue(file.setLastModified(file.lastModified() + 2000));
+            config.initializeConfig(file);
+            assertEquals("Wrong Config", "new config 1", config.getValue("test-config-1"));
+        } finally {
+            FileUtil.deleteFile(file);
+        }
+    }
+
+    public void testCompiledConfig() throws Exception {
+        DynamicConfig.clearConfigCache();
+        File file = createFileFromStr(CORRECT_CONFIG);
+        File compiled = DynamicConfig.getCompiledConfigFile(file);
+        try {
+            assertEquals(compiled, DynamicConfig.compileConfig(file));
+            // The compiled config is used while the config file has the same content, even if
+            // its modification time changed, like when both are copied.
+            assertTrue(file.setLastModified(compiled.lastModified() + 2000));
+            assertNotNull(DynamicConfig.readCompiledConfig(file));
+            DynamicConfig config = new DynamicConfig();
+            config.initializeConfig(file);
+            assertEquals("Wrong Config", "test config 1", config.getValue("test-config-1"));
+            assertEquals("Wrong Config List", 5, config.getValues("config-list").size());
+            assertEquals("Wrong Config List", "C", config.getValues("config-list-2").get(2));
+            assertNull(config.getValue("config-list"));
+
+            // A change of the same length and modification time isn't missed.
+            long lastModified = file.lastModified();
+            writeFileFromStr(file, CORRECT_CONFIG.replace("test config 1", "test config 9"));
+            assertTrue(file.setLastModified(lastModified));
+            assertNull(DynamicConfig.readCompiledConfig(file));
+            DynamicConfig.clearConfigCache();
+            config.initializeConfig(file);
+            assertEquals("Wrong Config", "test config 9", config.getValue("test-config-1"));
+        } finally {
+            FileUtil.deleteFile(file);
+            FileUtil.deleteFile(compiled);
+        }
+    }
+
+    public void testCompiledConfig_invalid() throws Exception {
+        DynamicConfig.clearConfigCache();
+        File file = createFileFromStr(CORRECT_CONFIG);
+        File compiled = DynamicConfig.getCompiledConfigFile(file);
+        try {
+            writeFileFromStr(compiled, "DCB2 is not a compiled config");
+            assertTrue(compiled.setLastModified(file.lastModified() + 2000));
+            DynamicConfig config = new DynamicConfig();
+            config.initializeConfig(file);
+            assertEquals("Wrong Config", "test config 1", config.getValue("test-config-1"));
+        } finally {
+            FileUtil.deleteFile(file);
+            FileUtil.deleteFile(compiled);
+        }
+    }
+
     private File createFileFromStr(String configStr) throws IOException {
         File file = File.createTempFile("test", "dynamic");
+        writeFileFromStr(file, configStr);
+        return file;
+    }
+
+    private void writeFileFromStr(File file, String str) throws IOException {
         FileOutputStream stream = new FileOutputStream(file);
-        stream.write(configStr.getBytes());
+        stream.write(str.getBytes());
         stream.flush();
         stream.close();
-        return file;
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link LogcatInspector}
+ */
+public class LogcatInspectorTest extends TestCase {
+
+    private FakeLogcatInspector mInspector;
+    private LogcatInspector.Session mSession;
+
+    @Override
+    protected void setUp() throws Exception {
+        mInspector = new FakeLogcatInspector();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSession != null) {
+            mSession.close();
+        }
+    }
+
+    /**
+     * Test that several expectations complete independently from a single logcat process.
+     */
+    public void testSession_concurrentExpectations() throws Exception {
+        mSession = mInspector.startSession("");
+        LogcatInspector.Expectation first = mSession.expectInOrder("a", "b");
+        LogcatInspector.Expectation second = mSession.expectInOrder("b", "c");
+        LogcatInspector.Expectation third = mSession.expectInOrder("c", "a");
+
+        mInspector.log("a", "b");
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertEquals(1, first.getLastMatchedLine());
+        assertFalse(second.isFound());
+        mInspector.log("c");
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertFalse(third.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, third.getFoundCount());
+        third.cancel();
+
+        assertEquals(1, mInspector.mCommands.size());
+    }
+
+    /**
+     * Test that an expectation matches the lines read before it was added, from a given line.
+     */
+    public void testSession_catchUp() throws Exception {
+        mSession = mInspector.startSession("", 3);
+        mInspector.log("a", "b", "c", "d");
+        mSession.expectInOrder("d").assertFound(5);
+        assertEquals(4, mSession.getLineCount());
+        assertNull(mSession.getLine(0));
+        assertEquals("I/Test( 1): b", mSession.getLine(1));
+
+        // "a" is no longer kept, and "b" is before the line to start from.
+        mSession.assertLogcatDoesNotContainInOrder(0, 0, "a");
+        mSession.assertLogcatDoesNotContainInOrder(2, 0, "b");
+        mSession.assertLogcatContainsInOrder(2, 0, "c", "d");
+    }
+
+    /**
+     * Test that a mark returns the line following the marker.
+     */
+    public void testSession_mark() throws Exception {
+        mSession = mInspector.startSession("");
+        mInspector.log("before");
+        long line = mSession.mark("Test");
+        mInspector.log("after");
+        assertEquals(2, line);
+        mSession.assertLogcatContainsInOrder(line, 5, "after");
+        mSession.assertLogcatDoesNotContainInOrder(line, 0, "before");
+        try {
+            mSession.assertLogcatContainsInOrder(line, 0, "after", "missing");
+            fail("An AssertionError should have been thrown.");
+        } catch (AssertionError expected) {
+            assertTrue(expected.getMessage().contains("Couldn't find missing after after"));
+        }
+    }
+
+    /**
+     * Test that closing the session completes the pending expectations.
+     */
+    public void testSession_close() throws Exception {
+        mSession = mInspector.startSession("");
+        LogcatInspector.Expectation expectation = mSession.expectInOrder("never");
+        mSession.close();
+        assertFalse(expectation.await(5, TimeUnit.SECONDS));
+        assertFalse(mSession.expectInOrder("never").await(5, TimeUnit.SECONDS));
+    }
+
+    /** Returns the lines written to a pipe for logcat, and writes the "log" commands to it. */
+    private static class FakeLogcatInspector extends LogcatInspector {
+        final List<String> mCommands = new ArrayList<>();
+        private PipedOutputStream mLogcat;
+
+        @Override
+        protected InputStream executeShellCommand(String command) throws IOException {
+            if (command.startsWith("log -t ")) {
+                String[] args = command.split(" ");
+                log(args[3]);
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            mCommands.add(command);
+            mLogcat = new PipedOutputStream();
+            return new PipedInputStream(mLogcat, 64 * 1024);
+        }
+
+        void log(String... messages) throws IOException {
+            for (String message : messages) {
+                mLogcat.write(("I/Test( 1): " + message + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            mLogcat.flush();
+        }
+    }
+}
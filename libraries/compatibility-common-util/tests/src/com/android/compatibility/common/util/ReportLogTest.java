@@ -106,6 +106,68 @@ public class ReportLogTest extends TestCase {
         assertEquals("Sample", report.getSummary().getMessage());
     }
 
+    public void testBinary_roundTrip() throws Exception {
+        double[][] valuesList = new double[][] {
+                {},
+                {1, 2, 3, -5, 1L << 53, -(1L << 53)},
+                VALUES,
+                {16.6, 16.7, 16.65, 33.3, 16.6},
+                {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, 1e300},
+        };
+        for (double[] values : valuesList) {
+            ReportLog reportLog = new ReportLog("name", "stream");
+            reportLog.setSummary(new Metric(SOURCE, MESSAGE, values, ResultType.LOWER_BETTER,
+                    ResultUnit.MS));
+            ReportLog report = ReportLog.parseBinary(ReportLog.serializeBinary(reportLog));
+            assertEquals("name", report.mReportLogName);
+            assertEquals("stream", report.mStreamName);
+            Metric summary = report.getSummary();
+            assertEquals(SOURCE, summary.getSource());
+            assertEquals(MESSAGE, summary.getMessage());
+            assertEquals(ResultType.LOWER_BETTER, summary.getType());
+            assertEquals(ResultUnit.MS, summary.getUnit());
+            assertEquals(values.length, summary.getValues().length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(Double.doubleToRawLongBits(values[i]),
+                        Double.doubleToRawLongBits(summary.getValues()[i]));
+            }
+        }
+    }
+
+    public void testBinary_noData() throws Exception {
+        ReportLog report = ReportLog.parseBinary(ReportLog.serializeBinary(mReportLog));
+        assertNull(report.getSummary());
+        assertEquals(mReportLog.mReportLogName, report.mReportLogName);
+        assertNull(report.mStreamName);
+    }
+
+    public void testBinary_invalid() throws Exception {
+        try {
+            ReportLog.parseBinary(ReportLog.serialize(mReportLog).getBytes("UTF-8"));
+            fail("Expected IOException when parsing XML as a binary report");
+        } catch (java.io.IOException e) {
+            // Expected
+        }
+    }
+
+    public void testParse_compact() throws Exception {
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 16000 + i % 7;
+        }
+        mReportLog.setSummary(new Metric(SOURCE, MESSAGE, values, ResultType.LOWER_BETTER,
+                ResultUnit.MS));
+        String compact = ReportLog.serializeCompact(mReportLog);
+        String xml = ReportLog.serialize(mReportLog);
+        assertTrue("Expected compact report to be smaller than XML",
+                compact.length() * 10 < xml.length());
+
+        ReportLog report = ReportLog.parse(compact);
+        assertTrue(Arrays.equals(values, report.getSummary().getValues()));
+        // The XML rendered from the compact report is the same as from the original.
+        assertEquals(xml, ReportLog.serialize(report));
+    }
+
     public void testLimits_source() throws Exception {
         // Should pass with a short source.
         Metric metric = new Metric(SOURCE, MESSAGE, 1.0, ResultType.HIGHER_BETTER, ResultUnit.BYTE);
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link ResultIndex}
+ */
+public class ResultIndexTest extends TestCase {
+
+    private static final String MODULE_A = "armeabi-v7a CtsExampleTestCases";
+    private static final String MODULE_B = "arm64-v8a CtsExampleTestCases";
+    private static final String CLASS = "android.example.ExampleTest";
+    private static final String STACK = "java.lang.AssertionError\n\tat ExampleTest.testFail";
+
+    private File mTempDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("index");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    /**
+     * Test that the tests of a result are found with their status.
+     */
+    public void testWriteAndLookup() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        addTest(result, MODULE_A, "testPass", TestStatus.PASS);
+        addTest(result, MODULE_A, "testFail", TestStatus.FAIL);
+        addTest(result, MODULE_B, "testPass", TestStatus.PASS);
+        result.getOrCreateModule(MODULE_B).getOrCreateResult(CLASS)
+                .getOrCreateResult("testSkipped").skipped();
+        result.getOrCreateModule(MODULE_B).getOrCreateResult(CLASS)
+                .getOrCreateResult("testNotExecuted");
+        File file = new File(mTempDir, ResultIndex.INDEX_FILE_NAME);
+        ResultIndex.write(result, file);
+
+        try (ResultIndex index = ResultIndex.open(file)) {
+            assertEquals(5, index.size());
+            assertEquals(TestStatus.PASS, index.getResultStatus(MODULE_A, CLASS + "#testPass"));
+            assertEquals(TestStatus.FAIL, index.getResultStatus(MODULE_A, CLASS + "#testFail"));
+            assertEquals(TestStatus.PASS, index.getResultStatus(MODULE_B, CLASS + "#testPass"));
+            assertNull(index.getResultStatus(MODULE_B, CLASS + "#testFail"));
+            assertNull(index.getResultStatus(MODULE_B, CLASS + "#testNotExecuted"));
+            assertNotNull(index.getRecord(MODULE_B, CLASS + "#testNotExecuted"));
+            assertTrue(index.getRecord(MODULE_B, CLASS + "#testSkipped").isSkipped());
+            assertEquals(STACK.hashCode(),
+                    index.getRecord(MODULE_A, CLASS + "#testFail").getStackHash());
+            assertEquals(0, index.getRecord(MODULE_A, CLASS + "#testPass").getStackHash());
+            // Records are in key order.
+            for (int i = 1; i < index.size(); i++) {
+                assertTrue(index.get(i - 1).getKey().compareTo(index.get(i).getKey()) < 0);
+            }
+            assertEquals(-1, index.find(""));
+            assertEquals(-6, index.find("\uffff"));
+        }
+    }
+
+    /**
+     * Test that merging indexes keeps the same results as merging the invocations.
+     */
+    public void testMerge() throws Exception {
+        IInvocationResult previous = new InvocationResult();
+        addTest(previous, MODULE_A, "testPass", TestStatus.PASS);
+        addTest(previous, MODULE_A, "testFail", TestStatus.FAIL);
+        addTest(previous, MODULE_B, "testFail", TestStatus.FAIL);
+        IInvocationResult retry = new InvocationResult();
+        addTest(retry, MODULE_A, "testFail", TestStatus.PASS);
+        addTest(retry, MODULE_B, "testFail", TestStatus.FAIL);
+        addTest(retry, MODULE_B, "testNew", TestStatus.PASS);
+        File previousFile = new File(mTempDir, "previous.index");
+        File retryFile = new File(mTempDir, "retry.index");
+        File mergedFile = new File(mTempDir, "merged.index");
+        File expectedFile = new File(mTempDir, "expected.index");
+        ResultIndex.write(previous, previousFile);
+        ResultIndex.write(retry, retryFile);
+        try (ResultIndex a = ResultIndex.open(previousFile);
+                ResultIndex b = ResultIndex.open(retryFile)) {
+            ResultIndex.merge(a, b, mergedFile);
+        }
+        for (IModuleResult module : retry.getModules()) {
+            previous.mergeModuleResult(module);
+        }
+        ResultIndex.write(previous, expectedFile);
+
+        try (ResultIndex merged = ResultIndex.open(mergedFile);
+                ResultIndex expected = ResultIndex.open(expectedFile)) {
+            assertEquals(4, merged.size());
+            assertEquals(expected.size(), merged.size());
+            for (int i = 0; i < merged.size(); i++) {
+                assertEquals(expected.get(i).getKey(), merged.get(i).getKey());
+                assertEquals(expected.get(i).getResultStatus(), merged.get(i).getResultStatus());
+                assertEquals(expected.get(i).getStackHash(), merged.get(i).getStackHash());
+            }
+            assertEquals(TestStatus.PASS, merged.getResultStatus(MODULE_A, CLASS + "#testFail"));
+        }
+    }
+
+    /**
+     * Test that the writer rejects keys that are not in order, and doesn't write an index after a
+     * rejected key.
+     */
+    public void testWriter_unordered() throws Exception {
+        ITestResult test = new TestResult(new CaseResult(CLASS), "testPass");
+        File file = new File(mTempDir, "unordered.index");
+        try (ResultIndex.Writer writer = new ResultIndex.Writer(file)) {
+            writer.add("b", test);
+            try {
+                writer.add("a", test);
+                fail("An exception should have been thrown.");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+            try {
+                writer.add("b", test);
+                fail("An exception should have been thrown.");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+        assertFalse(file.exists());
+        assertEquals(0, mTempDir.list().length);
+    }
+
+    /**
+     * Test that an aborted index leaves the index it would replace unchanged.
+     */
+    public void testWriter_abort() throws Exception {
+        ITestResult test = new TestResult(new CaseResult(CLASS), "testPass");
+        File file = new File(mTempDir, "aborted.index");
+        try (ResultIndex.Writer writer = new ResultIndex.Writer(file)) {
+            writer.add("a", test);
+        }
+        try (ResultIndex.Writer writer = new ResultIndex.Writer(file)) {
+            writer.add("b", test);
+            writer.abort();
+        }
+        try (ResultIndex index = ResultIndex.open(file)) {
+            assertEquals(1, index.size());
+            assertEquals("a", index.get(0).getKey());
+        }
+        assertEquals(1, mTempDir.list().length);
+    }
+
+    /**
+     * Test that a file that isn't an index is rejected.
+     */
+    public void testOpen_invalid() throws Exception {
+        File file = new File(mTempDir, "invalid.index");
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(new byte[] {'C', 'R', 'I', '1', 0, 0, 0, 1, 0, 0, 0, 0});
+        }
+        try {
+            ResultIndex.open(file).close();
+            fail("An exception should have been thrown.");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the index of a result directory is created from its result file.
+     */
+    public void testGetIndex() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        addTest(result, MODULE_A, "testFail", TestStatus.FAIL);
+        ResultHandler.writeResults("CTS", "1.0", "cts", "1", result, mTempDir, 0, 1, null, null,
+                "cts", null);
+        File file = new File(mTempDir, ResultIndex.INDEX_FILE_NAME);
+        assertTrue(file.delete());
+
+        try (ResultIndex index = ResultIndex.getIndex(mTempDir)) {
+            assertEquals(1, index.size());
+            assertEquals(TestStatus.FAIL, index.getResultStatus(MODULE_A, CLASS + "#testFail"));
+        }
+        assertTrue(file.exists());
+    }
+
+    /**
+     * Test that merging the indexes of two result directories gives the same statuses as merging
+     * their results.
+     */
+    public void testMerge_resultDirectories() throws Exception {
+        IInvocationResult previous = new InvocationResult();
+        IInvocationResult retry = new InvocationResult();
+        for (int m = 0; m < 5; m++) {
+            String moduleId = "arm64-v8a CtsModule" + m;
+            for (int t = 0; t < 20; t++) {
+                boolean failed = t % 4 == 0;
+                addTest(previous, moduleId, "test" + t, failed ? TestStatus.FAIL : TestStatus.PASS);
+                if (failed) {
+                    addTest(retry, moduleId, "test" + t, t % 8 == 0 ? TestStatus.PASS
+                            : TestStatus.FAIL);
+                }
+            }
+        }
+        File previousDir = new File(mTempDir, "previous");
+        File retryDir = new File(mTempDir, "retry");
+        assertTrue(previousDir.mkdir());
+        assertTrue(retryDir.mkdir());
+        ResultHandler.writeResults("CTS", "1.0", "cts", "1", previous, previousDir, 0, 1, null,
+                null, "cts", null);
+        ResultHandler.writeResults("CTS", "1.0", "cts", "1", retry, retryDir, 0, 1, null, null,
+                "cts", null);
+
+        File mergedFile = new File(mTempDir, "merged.index");
+        try (ResultIndex a = ResultIndex.getIndex(previousDir);
+                ResultIndex b = ResultIndex.getIndex(retryDir)) {
+            ResultIndex.merge(a, b, mergedFile);
+        }
+        IInvocationResult merged = ResultHandler.getResultFromDir(previousDir, false);
+        for (IModuleResult module : ResultHandler.getResultFromDir(retryDir, false).getModules()) {
+            merged.mergeModuleResult(module);
+        }
+
+        try (ResultIndex index = ResultIndex.open(mergedFile)) {
+            int count = 0;
+            for (IModuleResult module : merged.getModules()) {
+                for (ICaseResult caseResult : module.getResults()) {
+                    for (ITestResult test : caseResult.getResults()) {
+                        ResultIndex.Record record =
+                                index.getRecord(module.getId(), test.getFullName());
+                        assertNotNull(test.getFullName(), record);
+                        assertEquals(test.getFullName(), test.getResultStatus(),
+                                record.getResultStatus());
+                        count++;
+                    }
+                }
+            }
+            assertEquals(100, count);
+            assertEquals(count, index.size());
+        }
+    }
+
+    private static void addTest(
+            IInvocationResult result, String moduleId, String name, TestStatus status) {
+        ITestResult test = result.getOrCreateModule(moduleId).getOrCreateResult(CLASS)
+                .getOrCreateResult(name);
+        if (status == TestStatus.FAIL) {
+            test.failed(STACK);
+        } else {
+            test.passed(null);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for the {@link StatAccumulator} class.
+ */
+public class StatAccumulatorTest extends TestCase {
+
+    /**
+     * Test that the median and percentiles match the ones of the sorted values.
+     */
+    public void testSelect() {
+        Random random = new Random(0);
+        for (int length = 1; length < 200; length++) {
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                // Few distinct values, to have duplicates.
+                values[i] = random.nextInt(length / 4 + 1);
+            }
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            StatAccumulator accumulator = new StatAccumulator();
+            accumulator.addAll(values);
+
+            double median = length % 2 == 1 ? sorted[length / 2]
+                    : (sorted[length / 2 - 1] + sorted[length / 2]) / 2.0;
+            assertEquals(median, accumulator.getMedian(), 0.0);
+            for (int percentile = 0; percentile <= 100; percentile += 5) {
+                int index = StatAccumulator.percentileIndex(length, percentile);
+                assertEquals(sorted[index], accumulator.getPercentile(percentile), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Test that the statistics of primitive arrays match those of the same values as doubles.
+     */
+    public void testAddAll_primitiveArrays() {
+        int[] ints = new int[] {5, 1, 4, 2, 3};
+        long[] longs = new long[] {5, 1, 4, 2, 3};
+        float[] floats = new float[] {5, 1, 4, 2, 3};
+        Stat.StatResult expected = Stat.getStat(new double[] {5, 1, 4, 2, 3});
+
+        StatAccumulator accumulator = new StatAccumulator(1);
+        accumulator.addAll(ints);
+        assertStat(expected, accumulator.getStat());
+        accumulator.reset();
+        accumulator.addAll(longs);
+        assertStat(expected, accumulator.getStat());
+        accumulator.reset();
+        accumulator.addAll(floats);
+        assertStat(expected, accumulator.getStat());
+
+        assertEquals(3.0, expected.mAverage, 0.0);
+        assertEquals(3.0, expected.mMedian, 0.0);
+        assertEquals(1.0, expected.mMin, 0.0);
+        assertEquals(5.0, expected.mMax, 0.0);
+        assertEquals(Math.sqrt(2.5), expected.mStddev, 0.00001);
+    }
+
+    /**
+     * Test that outliers are excluded from the statistics.
+     */
+    public void testGetStatWithOutlierRejection() {
+        Stat.StatResult result =
+                Stat.getStatWithOutlierRejection(new double[] {10, 11, 9, 100, 10, 1}, 0.5);
+        assertEquals(4, result.mDataCount);
+        assertEquals(10.0, result.mAverage, 0.00001);
+        assertEquals(10.0, result.mMedian, 0.0);
+        assertEquals(9.0, result.mMin, 0.0);
+        assertEquals(11.0, result.mMax, 0.0);
+    }
+
+    /**
+     * Test that {@link Stat} computes the same statistics as sorting the values, and that
+     * {@link Stat#get95PercentileValue} still sorts the array it is given.
+     */
+    public void testGetStat_matchesSorted() {
+        Random random = new Random(0);
+        for (int length = 2; length < 100; length++) {
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = random.nextGaussian() * 10 + 100;
+            }
+            assertStat(getSortedStat(values), Stat.getStat(values));
+
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double[] copy = values.clone();
+            StatAccumulator accumulator = new StatAccumulator();
+            accumulator.addAll(values);
+            assertEquals(accumulator.getPercentile(95), Stat.get95PercentileValue(copy), 0.0);
+            assertTrue(Arrays.equals(sorted, copy));
+        }
+    }
+
+    /**
+     * Test the statistics of an accumulator without enough values.
+     */
+    public void testEmpty() {
+        StatAccumulator accumulator = new StatAccumulator();
+        assertTrue(Double.isNaN(accumulator.getAverage()));
+        assertTrue(Double.isNaN(accumulator.getStddev()));
+        assertTrue(Double.isNaN(accumulator.getMedian()));
+        accumulator.add(1);
+        assertEquals(1.0, accumulator.getAverage(), 0.0);
+        assertTrue(Double.isNaN(accumulator.getStddev()));
+    }
+
+    /** The statistics computed by sorting a copy of the values. */
+    private static Stat.StatResult getSortedStat(double[] data) {
+        double average = 0;
+        for (double value : data) {
+            average += value;
+        }
+        average /= data.length;
+        double sumOfSquares = 0.0;
+        for (double value : data) {
+            sumOfSquares += (average - value) * (average - value);
+        }
+        double[] sorted = Arrays.copyOf(data, data.length);
+        Arrays.sort(sorted);
+        int medianIndex = sorted.length / 2;
+        double median = sorted.length % 2 == 1 ? sorted[medianIndex]
+                : (sorted[medianIndex - 1] + sorted[medianIndex]) / 2.0;
+        return new Stat.StatResult(average, sorted[0], sorted[sorted.length - 1],
+                Math.sqrt(sumOfSquares / (data.length - 1)), median, data.length);
+    }
+
+    private static void assertStat(Stat.StatResult expected, Stat.StatResult actual) {
+        assertEquals(expected.mAverage, actual.mAverage, 0.00001);
+        assertEquals(expected.mStddev, actual.mStddev, 0.00001);
+        assertEquals(expected.mMedian, actual.mMedian, 0.0);
+        assertEquals(expected.mMin, actual.mMin, 0.0);
+        assertEquals(expected.mMax, actual.mMax, 0.0);
+        assertEquals(expected.mDataCount, actual.mDataCount);
+    }
+}
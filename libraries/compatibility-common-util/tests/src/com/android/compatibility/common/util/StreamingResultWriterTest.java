@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.AbiUtils;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for {@link StreamingResultWriter}
+ */
+public class StreamingResultWriterTest extends TestCase {
+
+    private static final String ABI = "arm64-v8a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS = "android.test.Foo";
+    private static final long START_MS = 1431586801000L;
+    private static final long END_MS = 1431673199000L;
+
+    private File mResultDir;
+    private IInvocationResult mResult;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("result");
+        mResult = new InvocationResult();
+        mResult.setStartTime(START_MS);
+        mResult.addDeviceSerial("device123");
+        mResult.addInvocationInfo("build_fingerprint", "example_build_fingerprint");
+        mResult.addInvocationInfo("build_id", "XYZ");
+        mResult.addInvocationInfo("build_product", "wolverine");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    /**
+     * Test that the streamed result file is read back like one written by {@link ResultHandler}.
+     */
+    public void testFinish() throws Exception {
+        IModuleResult moduleA = createModule(ID_A, true, TestStatus.PASS, TestStatus.FAIL);
+        IModuleResult moduleB = createModule(ID_B, false, TestStatus.PASS, TestStatus.PASS);
+
+        StreamingResultWriter writer = StreamingResultWriter.open(mResultDir);
+        writer.addModule(moduleA);
+        writer.addModule(moduleB);
+        assertEquals(3, writer.getPassedCount());
+        assertEquals(1, writer.getFailedCount());
+        assertEquals(1, writer.getModuleCompleteCount());
+        assertEquals(2, writer.getModuleCount());
+        File resultFile = finish(writer);
+
+        assertEquals(new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME), resultFile);
+        assertFalse(new File(mResultDir, StreamingResultWriter.MODULES_FILE_NAME).exists());
+        assertFalse(new File(mResultDir, StreamingResultWriter.RECORDS_FILE_NAME).exists());
+        assertFalse(new File(mResultDir, StreamingResultWriter.INDEX_FILE_NAME).exists());
+        String content = FileUtil.readStringFromFile(resultFile);
+        assertTrue(content.contains("pass=\"3\" failed=\"1\" modules_done=\"1\" "
+                + "modules_total=\"3\""));
+        checkResult(ResultHandler.getResultFromDir(mResultDir), 3, 1);
+        checkIndex(3, 1);
+    }
+
+    /**
+     * Test that a writer reopened after a crash keeps the complete modules and drops the rest.
+     */
+    public void testOpen_resumesAfterCrash() throws Exception {
+        StreamingResultWriter writer = StreamingResultWriter.open(mResultDir);
+        writer.addModule(createModule(ID_A, true, TestStatus.PASS, TestStatus.FAIL));
+        writer.close();
+        // A module and its index entry that were being written when the process died.
+        append(StreamingResultWriter.MODULES_FILE_NAME, "<Module name=\"ModuleB\" abi=");
+        append(StreamingResultWriter.RECORDS_FILE_NAME, "\0\0");
+        append(StreamingResultWriter.INDEX_FILE_NAME, "99999 1");
+
+        writer = StreamingResultWriter.open(mResultDir);
+        assertEquals(1, writer.getPassedCount());
+        assertEquals(1, writer.getModuleCount());
+        writer.addModule(createModule(ID_B, true, TestStatus.PASS));
+        finish(writer);
+
+        checkResult(ResultHandler.getResultFromDir(mResultDir), 2, 1);
+        checkIndex(2, 1);
+    }
+
+    private IModuleResult createModule(String id, boolean done, TestStatus... statuses) {
+        IModuleResult module = mResult.getOrCreateModule(id);
+        module.setDone(done);
+        module.addRuntime(100);
+        ICaseResult testCase = module.getOrCreateResult(CLASS);
+        for (int i = 0; i < statuses.length; i++) {
+            ITestResult test = testCase.getOrCreateResult("test" + i);
+            test.setResultStatus(statuses[i]);
+            if (statuses[i] == TestStatus.FAIL) {
+                test.setMessage("failed");
+                test.setStackTrace("failed\n at Foo.test(Foo.java:10)");
+            }
+        }
+        return module;
+    }
+
+    private File finish(StreamingResultWriter writer) throws Exception {
+        return writer.finish("CTS", "5.0", "cts", "12345", mResult, 3, START_MS, END_MS, null,
+                null, "cts", null);
+    }
+
+    private void append(String fileName, String content) throws Exception {
+        try (FileOutputStream stream = new FileOutputStream(new File(mResultDir, fileName), true)) {
+            stream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Checks that the index written from the records has the status of every test. */
+    private void checkIndex(int passed, int failed) throws Exception {
+        try (ResultIndex index =
+                ResultIndex.open(new File(mResultDir, ResultIndex.INDEX_FILE_NAME))) {
+            assertEquals(passed + failed, index.size());
+            assertEquals(TestStatus.FAIL, index.getResultStatus(ID_A, CLASS + "#test1"));
+            int passedRecords = 0;
+            for (int i = 0; i < index.size(); i++) {
+                passedRecords += index.get(i).getResultStatus() == TestStatus.PASS ? 1 : 0;
+            }
+            assertEquals(passed, passedRecords);
+        }
+    }
+
+    private static void checkResult(IInvocationResult result, int passed, int failed) {
+        assertNotNull(result);
+        assertEquals(2, result.getModules().size());
+        assertEquals(passed, result.countResults(TestStatus.PASS));
+        assertEquals(failed, result.countResults(TestStatus.FAIL));
+        assertTrue(result.getModules().get(0).isDone());
+    }
+}
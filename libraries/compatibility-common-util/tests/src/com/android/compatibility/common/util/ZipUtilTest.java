@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ZipUtil}
+ */
+public class ZipUtilTest extends TestCase {
+
+    private File mTempDir;
+    private File mResultDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("zip");
+        mResultDir = new File(mTempDir, "results");
+        File logs = new File(mResultDir, "logs");
+        assertTrue(logs.mkdirs());
+        assertTrue(new File(mResultDir, "empty").mkdir());
+        writeLog(new File(mResultDir, "test_result.xml"), 2000, 1);
+        writeLog(new File(logs, "logcat.txt"), 20000, 2);
+        writeRandom(new File(logs, "screenshot.png"), 50000, 3);
+        writeRandom(new File(logs, "random.bin"), 50000, 4);
+        writeRandom(new File(logs, "empty.txt"), 0, 5);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    /**
+     * Test that the parallel zip has the same entries, in the same order, as the sequential one.
+     */
+    public void testCreateZip_parallel() throws Exception {
+        File sequential = new File(mTempDir, "sequential.zip");
+        File parallel = new File(mTempDir, "parallel.zip");
+        ZipUtil.createZip(mResultDir, sequential);
+        ZipUtil.createZip(Collections.singletonList(mResultDir), parallel, 6, 4);
+
+        try (ZipFile expected = new ZipFile(sequential);
+                ZipFile actual = new ZipFile(parallel)) {
+            List<String> names = names(expected);
+            assertEquals(names, names(actual));
+            for (String name : names) {
+                assertTrue(name, Arrays.equals(read(expected, name), read(actual, name)));
+            }
+            assertEquals(ZipEntry.DEFLATED,
+                    actual.getEntry("results/logs/logcat.txt").getMethod());
+            assertEquals(ZipEntry.STORED,
+                    actual.getEntry("results/logs/screenshot.png").getMethod());
+            // Random data doesn't compress, so it is stored too.
+            assertEquals(ZipEntry.STORED, actual.getEntry("results/logs/random.bin").getMethod());
+            assertTrue(actual.getEntry("results/empty/").isDirectory());
+        }
+    }
+
+    /**
+     * Test that compression level 0 stores all files.
+     */
+    public void testCreateZip_noCompression() throws Exception {
+        File zip = new File(mTempDir, "stored.zip");
+        ZipUtil.createZip(Collections.singletonList(mResultDir), zip, 0, 2);
+
+        try (ZipFile actual = new ZipFile(zip)) {
+            ZipEntry entry = actual.getEntry("results/logs/logcat.txt");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(new File(mResultDir, "logs/logcat.txt").length(), entry.getSize());
+        }
+    }
+
+    /**
+     * Test that a zip that couldn't be written is deleted.
+     */
+    public void testCreateZip_missingFile() throws Exception {
+        File zip = new File(mTempDir, "missing.zip");
+        try {
+            ZipUtil.createZip(Collections.singletonList(new File(mTempDir, "missing")), zip, 6, 2);
+            fail("An exception should have been thrown.");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertFalse(zip.exists());
+    }
+
+    private static List<String> names(ZipFile zip) {
+        List<String> names = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            names.add(entries.nextElement().getName());
+        }
+        return names;
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtil.copyStreams(in, out);
+            return out.toByteArray();
+        }
+    }
+
+    /** Writes {@code lines} lines that look like a log, which compress like one. */
+    private static void writeLog(File file, int lines, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < lines; i++) {
+                writer.write(String.format("05-%02d 12:%02d:%02d.%03d %5d %5d I TestRunner: "
+                        + "run finished: %d tests, %d failed\n", random.nextInt(30),
+                        random.nextInt(60), random.nextInt(60), random.nextInt(1000),
+                        random.nextInt(30000), random.nextInt(30000), random.nextInt(100),
+                        random.nextInt(3)));
+            }
+        }
+    }
+
+    private static void writeRandom(File file, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.write(data);
+        }
+    }
+}
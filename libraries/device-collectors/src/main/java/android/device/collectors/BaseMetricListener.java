@@ -31,11 +31,20 @@ import org.junit.runner.Description;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -43,6 +52,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Base implementation of a device metric listener that will capture and output metrics for each
@@ -67,6 +77,8 @@ import java.util.Set;
 public class BaseMetricListener extends InstrumentationRunListener {
 
     public static final int BUFFER_SIZE = 1024;
+    // Size of the direct buffer used to stream command outputs without copying them in memory.
+    public static final int STREAM_BUFFER_SIZE = 256 * 1024;
     // Default collect iteration interval.
     private static final int DEFAULT_COLLECT_INTERVAL = 1;
 
@@ -340,6 +352,122 @@ public class BaseMetricListener extends InstrumentationRunListener {
         }
     }
 
+    /**
+     * Execute a shell command and stream its output to a file, without holding it in memory.
+     *
+     * <p>The output is moved with {@link FileChannel#transferFrom}, which reads the command pipe
+     * into a direct buffer and writes it at the given position of the file. The pipe is wrapped
+     * in a plain channel, since {@link FileChannel#transferFrom} seeks in a source that is a
+     * {@link FileChannel}, which fails for a pipe.
+     *
+     * @param command shell command to be executed.
+     * @param destination file the output is written to, replacing any existing content.
+     * @return number of bytes written, or -1 if the command output could not be written.
+     */
+    public long executeCommandToFile(String command, File destination) {
+        try (FileInputStream is =
+                        new ParcelFileDescriptor.AutoCloseInputStream(
+                                getInstrumentation()
+                                        .getUiAutomation()
+                                        .executeShellCommand(command));
+                FileOutputStream out = new FileOutputStream(destination)) {
+            ReadableByteChannel in = asReadableChannel(is.getChannel());
+            FileChannel file = out.getChannel();
+            long total = 0;
+            long count;
+            // transferFrom only returns 0 at the end of a blocking source.
+            while ((count = file.transferFrom(in, total, STREAM_BUFFER_SIZE)) > 0) {
+                total += count;
+            }
+            return total;
+        } catch (IOException e) {
+            Log.e(getTag(), "Error executing: " + command + " to " + destination, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Execute a shell command and stream its output to a channel. The channel is not closed.
+     *
+     * <p>The output is read from the channel of the command pipe into a direct buffer of {@link
+     * #STREAM_BUFFER_SIZE} bytes, which is reused for every write, without copying it through a
+     * heap array.
+     *
+     * @param command shell command to be executed.
+     * @param channel channel the output is written to.
+     * @return number of bytes written, or -1 if the command output could not be written.
+     */
+    public long executeCommandToChannel(String command, WritableByteChannel channel) {
+        try (FileInputStream is =
+                        new ParcelFileDescriptor.AutoCloseInputStream(
+                                getInstrumentation()
+                                        .getUiAutomation()
+                                        .executeShellCommand(command));
+                FileChannel in = is.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+            long total = 0;
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    total += channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            return total;
+        } catch (IOException e) {
+            Log.e(getTag(), "Error executing: " + command, e);
+            return -1;
+        }
+    }
+
+    /** Returns a channel reading from a pipe, that isn't a {@link FileChannel}. */
+    private static ReadableByteChannel asReadableChannel(FileChannel pipe) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return pipe.read(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return pipe.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                pipe.close();
+            }
+        };
+    }
+
+    /**
+     * Execute a shell command and pass each line of its output to a consumer as it is read, so that
+     * the output can be parsed incrementally.
+     *
+     * @param command shell command to be executed.
+     * @param lineConsumer called with every line of the output, without line terminators.
+     * @return true if the whole output was read, false otherwise.
+     */
+    public boolean executeCommandByLine(String command, Consumer<String> lineConsumer) {
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                new ParcelFileDescriptor.AutoCloseInputStream(
+                                        getInstrumentation()
+                                                .getUiAutomation()
+                                                .executeShellCommand(command)),
+                                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineConsumer.accept(line);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(getTag(), "Error executing: " + command, e);
+            return false;
+        }
+    }
+
     /**
      * Create a directory inside external storage, and optionally empty it.
      *
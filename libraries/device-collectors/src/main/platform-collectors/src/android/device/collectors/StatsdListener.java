@@ -51,6 +51,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -65,6 +69,18 @@ public class StatsdListener extends BaseMetricListener {
 
     static final String OPTION_CONFIGS_RUN_LEVEL = "statsd-configs-run-level";
     static final String OPTION_CONFIGS_TEST_LEVEL = "statsd-configs-test-level";
+    // Write the report bytes as returned by statsd instead of decoding them on the device. The file
+    // contents are the same serialized ConfigMetricsReportList either way, so decoding is left to
+    // the host.
+    static final String OPTION_RAW_REPORTS = "statsd-raw-reports";
+    // Number of threads decoding and writing the reports of different configs concurrently. Reports
+    // are saved one at a time by default. They are always pulled from statsd one at a time, since
+    // StatsManager serializes all its calls on a process-wide lock.
+    static final String OPTION_REPORT_PULL_THREADS = "statsd-report-pull-threads";
+    // Register the test-level configs once for the whole run instead of around every test. Tests
+    // are then only delimited by the AppBreadcrumbReported start and stop events, and a single
+    // report covering all tests is pulled at the end of the run.
+    static final String OPTION_REUSE_TEST_LEVEL_CONFIGS = "statsd-reuse-test-level-configs";
 
     // Sub-directory within the test APK's assets/ directory to look for configs.
     static final String CONFIG_SUB_DIRECTORY = "statsd-configs";
@@ -79,9 +95,15 @@ public class StatsdListener extends BaseMetricListener {
     static final String REPORT_PATH_TEST_LEVEL = "test-level";
     // Suffix template for test-level metric report files.
     static final String TEST_SUFFIX_TEMPLATE = "_%s-%d";
+    // Suffix for the single test-level report pulled when test-level configs are reused.
+    static final String REUSED_TEST_LEVEL_SUFFIX = "_all-tests";
 
     // Common prefix for the metric key pointing to the report path.
     static final String REPORT_KEY_PREFIX = "statsd-";
+    // Metric keys for the boundaries of each test, used to slice a reused test-level report. The
+    // values are in the elapsed realtime base used by the atom timestamps in the report.
+    static final String TEST_START_ELAPSED_NANOS_KEY = "statsd-test-start-elapsed-nanos";
+    static final String TEST_END_ELAPSED_NANOS_KEY = "statsd-test-end-elapsed-nanos";
     // Common prefix for the metric file.
     static final String REPORT_FILENAME_PREFIX = "statsd-";
     // Prefix for configs loaded from the device.
@@ -109,6 +131,13 @@ public class StatsdListener extends BaseMetricListener {
     // Cached stats manager instance.
     private StatsManager mStatsManager;
 
+    // Whether reports are written to disk without being decoded first.
+    private boolean mRawReports = false;
+    // Maximum number of reports decoded and written concurrently.
+    private int mReportPullThreads = 1;
+    // Whether test-level configs are registered once for the whole run.
+    private boolean mReuseTestLevelConfigs = false;
+
     /** Register the test run configs with {@link StatsManager} before the test run starts. */
     @Override
     public void onTestRunStart(DataRecord runData, Description description) {
@@ -116,8 +145,17 @@ public class StatsdListener extends BaseMetricListener {
         // registered when the constructor of this class is called.
         mRunLevelConfigs.putAll(getConfigsFromOption(OPTION_CONFIGS_RUN_LEVEL));
         mTestLevelConfigs.putAll(getConfigsFromOption(OPTION_CONFIGS_TEST_LEVEL));
+        Bundle args = getArguments();
+        mRawReports = Boolean.parseBoolean(args.getString(OPTION_RAW_REPORTS, "false"));
+        mReportPullThreads =
+                Math.max(1, Integer.parseInt(args.getString(OPTION_REPORT_PULL_THREADS, "1")));
+        mReuseTestLevelConfigs =
+                Boolean.parseBoolean(args.getString(OPTION_REUSE_TEST_LEVEL_CONFIGS, "false"));
 
         mRunLevelConfigIds = registerConfigsWithStatsManager(mRunLevelConfigs);
+        if (mReuseTestLevelConfigs) {
+            mTestLevelConfigIds = registerConfigsWithStatsManager(mTestLevelConfigs);
+        }
 
         if (!logStart(RUN_EVENT_LABEL)) {
             Log.w(LOG_TAG, "Failed to log a test run start event. Metrics might be incomplete.");
@@ -142,14 +180,37 @@ public class StatsdListener extends BaseMetricListener {
         for (String configName : configReports.keySet()) {
             runData.addFileMetric(REPORT_KEY_PREFIX + configName, configReports.get(configName));
         }
+
+        if (mReuseTestLevelConfigs) {
+            Map<String, File> testLevelReports =
+                    pullReportsAndRemoveConfigs(
+                            mTestLevelConfigIds,
+                            Paths.get(REPORT_PATH_ROOT, REPORT_PATH_TEST_LEVEL),
+                            REUSED_TEST_LEVEL_SUFFIX);
+            for (String configName : testLevelReports.keySet()) {
+                runData.addFileMetric(
+                        REPORT_KEY_PREFIX + configName + REUSED_TEST_LEVEL_SUFFIX,
+                        testLevelReports.get(configName));
+            }
+        }
     }
 
-    /** Register the test-level configs with {@link StatsManager} before each test starts. */
+    /**
+     * Register the test-level configs with {@link StatsManager} before each test starts.
+     *
+     * <p>When test-level configs are reused, only the test start event is logged.
+     */
     @Override
     public void onTestStart(DataRecord testData, Description description) {
         mTestIterations.computeIfPresent(description.getDisplayName(), (name, count) -> count + 1);
         mTestIterations.computeIfAbsent(description.getDisplayName(), name -> 1);
-        mTestLevelConfigIds = registerConfigsWithStatsManager(mTestLevelConfigs);
+        if (mReuseTestLevelConfigs) {
+            testData.addStringMetric(
+                    TEST_START_ELAPSED_NANOS_KEY,
+                    String.valueOf(SystemClock.elapsedRealtimeNanos()));
+        } else {
+            mTestLevelConfigIds = registerConfigsWithStatsManager(mTestLevelConfigs);
+        }
 
         if (!logStart(TEST_EVENT_LABEL)) {
             Log.w(LOG_TAG, "Failed to log a test start event. Metrics might be incomplete.");
@@ -159,13 +220,20 @@ public class StatsdListener extends BaseMetricListener {
     /**
      * Dump the test-level stats reports to the test-specific subdirectory after the test ends.
      *
-     * <p>Dumps the stats regardless of whether the test passes.
+     * <p>Dumps the stats regardless of whether the test passes. When test-level configs are reused
+     * nothing is dumped here, and the test boundaries are reported instead so that the report
+     * pulled at the end of the run can be sliced per test.
      */
     @Override
     public void onTestEnd(DataRecord testData, Description description) {
         if (!logStop(TEST_EVENT_LABEL)) {
             Log.w(LOG_TAG, "Failed to log a test end event. Metrics might be incomplete.");
         }
+        if (mReuseTestLevelConfigs) {
+            testData.addStringMetric(
+                    TEST_END_ELAPSED_NANOS_KEY, String.valueOf(SystemClock.elapsedRealtimeNanos()));
+            return;
+        }
         SystemClock.sleep(METRIC_PULL_DELAY);
 
         Map<String, File> configReports =
@@ -213,6 +281,11 @@ public class StatsdListener extends BaseMetricListener {
      * the config and dump the reports into the designated directory on the device's external
      * storage.
      *
+     * <p>Reports for different configs are decoded and written concurrently when {@link
+     * #OPTION_REPORT_PULL_THREADS} is greater than one. The reports are still pulled and the
+     * configs removed on the calling thread, as {@link StatsManager} holds a process-wide lock
+     * around each call, and calling it from several threads would only make them wait on it.
+     *
      * @param configIds Map of (config name, config Id)
      * @param directory relative directory on external storage to dump the report in. Each report
      *     will be named after its config.
@@ -229,18 +302,107 @@ public class StatsdListener extends BaseMetricListener {
         }
         Map<String, File> savedConfigFiles = new HashMap<String, File>();
         adoptShellPermissionIdentity();
-        for (String configName : configIds.keySet()) {
-            // Dump the metric report to external storage.
-            com.android.os.nano.StatsLog.ConfigMetricsReportList reportList;
+        if (mReportPullThreads > 1 && configIds.size() > 1) {
+            ExecutorService executor =
+                    Executors.newFixedThreadPool(Math.min(mReportPullThreads, configIds.size()));
             try {
+                Map<String, Future<File>> pendingReports = new HashMap<String, Future<File>>();
+                for (String configName : configIds.keySet()) {
+                    long configId = configIds.get(configName);
+                    byte[] serializedReports = pullReport(configName, configId);
+                    removeConfig(configName, configId);
+                    if (serializedReports != null) {
+                        pendingReports.put(
+                                configName,
+                                executor.submit(
+                                        () ->
+                                                saveReport(
+                                                        configName,
+                                                        serializedReports,
+                                                        saveDirectory,
+                                                        suffix)));
+                    }
+                }
+                for (String configName : pendingReports.keySet()) {
+                    try {
+                        File reportFile = pendingReports.get(configName).get();
+                        if (reportFile != null) {
+                            savedConfigFiles.put(configName, reportFile);
+                        }
+                    } catch (InterruptedException | ExecutionException e) {
+                        Log.e(
+                                LOG_TAG,
+                                String.format(
+                                        "Failed to save metrics for config %s due to %s.",
+                                        configName, e.toString()));
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            for (String configName : configIds.keySet()) {
+                long configId = configIds.get(configName);
+                byte[] serializedReports = pullReport(configName, configId);
+                File reportFile =
+                        serializedReports == null
+                                ? null
+                                : saveReport(configName, serializedReports, saveDirectory, suffix);
+                removeConfig(configName, configId);
+                if (reportFile != null) {
+                    savedConfigFiles.put(configName, reportFile);
+                }
+            }
+        }
+        dropShellPermissionIdentity();
+        return savedConfigFiles;
+    }
+
+    /**
+     * Retrieve the serialized reports for a single config from {@link StatsManager}.
+     *
+     * @return the serialized {@link com.android.os.nano.StatsLog.ConfigMetricsReportList}, or null
+     *     if it could not be retrieved.
+     */
+    private byte[] pullReport(String configName, long configId) {
+        try {
+            Log.i(
+                    LOG_TAG,
+                    String.format(
+                            "Pulling metrics for config %s with ID %d.", configName, configId));
+            return getStatsReports(configId);
+        } catch (StatsUnavailableException e) {
+            Log.e(
+                    LOG_TAG,
+                    String.format(
+                            "Failed to retrieve metrics for config %s due to %s.",
+                            configName, e.toString()));
+            return null;
+        }
+    }
+
+    /**
+     * Dump the reports of a single config into the save directory, decoding them first unless
+     * {@link #OPTION_RAW_REPORTS} is set.
+     *
+     * @return the report file, or null if the report could not be saved.
+     */
+    private File saveReport(
+            String configName, byte[] serializedReports, File saveDirectory, String suffix) {
+        try {
+            byte[] contents;
+            if (mRawReports) {
+                // The reports are written as returned, skipping the decode and re-encode.
                 Log.i(
                         LOG_TAG,
                         String.format(
-                                "Pulling metrics for config %s with ID %d.",
-                                configName, configIds.get(configName)));
-                reportList =
+                                "Found %d bytes of metric reports from config %s.",
+                                serializedReports.length, configName));
+                contents = serializedReports;
+            } else {
+                com.android.os.nano.StatsLog.ConfigMetricsReportList reportList =
                         com.android.os.nano.StatsLog.ConfigMetricsReportList.parseFrom(
-                                getStatsReports(configIds.get(configName)));
+                                serializedReports);
                 Log.i(
                         LOG_TAG,
                         String.format(
@@ -248,50 +410,42 @@ public class StatsdListener extends BaseMetricListener {
                                 reportList.reports.length,
                                 reportList.reports.length == 1 ? "report" : "reports",
                                 configName));
-                File reportFile =
-                        new File(
-                                saveDirectory,
-                                REPORT_FILENAME_PREFIX + configName + suffix + PROTO_EXTENSION);
-                writeToFile(reportFile, serialize(reportList));
-                savedConfigFiles.put(configName, reportFile);
-            } catch (StatsUnavailableException e) {
-                Log.e(
-                        LOG_TAG,
-                        String.format(
-                                "Failed to retrieve metrics for config %s due to %s.",
-                                configName, e.toString()));
-            } catch (InvalidProtocolBufferNanoException e) {
-                Log.e(
-                        LOG_TAG,
-                        String.format(
-                                "Unable to parse report for config %s. Details: %s.",
-                                configName, e.toString()));
-            } catch (IOException e) {
-                Log.e(
-                        LOG_TAG,
-                        String.format(
-                                "Failed to write metric report for config %s to device. "
-                                        + "Details: %s.",
-                                configName, e.toString()));
+                contents = serialize(reportList);
             }
+            File reportFile =
+                    new File(
+                            saveDirectory,
+                            REPORT_FILENAME_PREFIX + configName + suffix + PROTO_EXTENSION);
+            writeToFile(reportFile, contents);
+            return reportFile;
+        } catch (InvalidProtocolBufferNanoException e) {
+            Log.e(
+                    LOG_TAG,
+                    String.format(
+                            "Unable to parse report for config %s. Details: %s.",
+                            configName, e.toString()));
+        } catch (IOException e) {
+            Log.e(
+                    LOG_TAG,
+                    String.format(
+                            "Failed to write metric report for config %s to device. "
+                                    + "Details: %s.",
+                            configName, e.toString()));
+        }
+        return null;
+    }
 
-            // Remove the statsd config.
-            try {
-                Log.i(
-                        LOG_TAG,
-                        String.format(
-                                "Removing config %s with ID %d.",
-                                configName, configIds.get(configName)));
-                removeStatsConfig(configIds.get(configName));
-            } catch (StatsUnavailableException e) {
-                Log.e(
-                        LOG_TAG,
-                        String.format(
-                                "Unable to remove config %s due to %s.", configName, e.toString()));
-            }
+    /** Remove a single config from {@link StatsManager}. */
+    private void removeConfig(String configName, long configId) {
+        try {
+            Log.i(LOG_TAG, String.format("Removing config %s with ID %d.", configName, configId));
+            removeStatsConfig(configId);
+        } catch (StatsUnavailableException e) {
+            Log.e(
+                    LOG_TAG,
+                    String.format(
+                            "Unable to remove config %s due to %s.", configName, e.toString()));
         }
-        dropShellPermissionIdentity();
-        return savedConfigFiles;
     }
 
     /**
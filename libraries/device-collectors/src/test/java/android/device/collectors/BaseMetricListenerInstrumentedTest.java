@@ -21,6 +21,7 @@ import android.device.collectors.annotations.OptionClass;
 import android.device.collectors.util.SendToInstrumentation;
 import android.os.Bundle;
 
+import androidx.test.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
 
 import org.junit.Before;
@@ -31,7 +32,11 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.io.File;
 import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -755,4 +760,35 @@ public class BaseMetricListenerInstrumentedTest {
                         Mockito.eq(SendToInstrumentation.INST_STATUS_IN_PROGRESS),
                         Mockito.any(Bundle.class));
     }
+
+    /** Test that a command output is streamed to a file. */
+    @Test
+    public void testExecuteCommandToFile() throws Exception {
+        Mockito.doReturn(InstrumentationRegistry.getInstrumentation().getUiAutomation())
+                .when(mMockInstrumentation)
+                .getUiAutomation();
+        File destination = File.createTempFile("command", ".txt");
+        try {
+            long written = mListener.executeCommandToFile("echo streamed", destination);
+
+            String content =
+                    new String(Files.readAllBytes(destination.toPath()), StandardCharsets.UTF_8);
+            assertEquals("streamed\n", content);
+            assertEquals(destination.length(), written);
+        } finally {
+            destination.delete();
+        }
+    }
+
+    /** Test that a command output is passed to the consumer line by line. */
+    @Test
+    public void testExecuteCommandByLine() throws Exception {
+        Mockito.doReturn(InstrumentationRegistry.getInstrumentation().getUiAutomation())
+                .when(mMockInstrumentation)
+                .getUiAutomation();
+        List<String> lines = new ArrayList<>();
+
+        assertTrue(mListener.executeCommandByLine("printf first\\nsecond\\n", lines::add));
+        assertEquals(List.of("first", "second"), lines);
+    }
 }
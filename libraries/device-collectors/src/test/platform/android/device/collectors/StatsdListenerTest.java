@@ -469,6 +469,151 @@ public class StatsdListenerTest {
                                         + StatsdListener.PROTO_EXTENSION));
     }
 
+    /** Test that the collector writes the reports as returned by statsd in raw report mode. */
+    @Test
+    public void testRunLevelCollection_rawReports() throws Exception {
+        doReturn(CONFIG_MAP)
+                .when(mListener)
+                .getConfigsFromOption(eq(StatsdListener.OPTION_CONFIGS_RUN_LEVEL));
+        Bundle args = new Bundle();
+        args.putString(StatsdListener.OPTION_RAW_REPORTS, "true");
+        doReturn(args).when(mListener).getArguments();
+        byte[] rawReport = "not decoded on the device".getBytes();
+        doReturn(rawReport).when(mListener).getStatsReports(eq(CONFIG_ID_1));
+
+        DataRecord runData = mock(DataRecord.class);
+        Description description = Description.createSuiteDescription("TestRun");
+
+        mListener.onTestRunStart(runData, description);
+        mListener.onTestRunEnd(runData, new Result());
+
+        verify(mListener, times(1))
+                .writeToFile(
+                        getExactFileNameMatcher(
+                                Paths.get(
+                                                StatsdListener.REPORT_PATH_ROOT,
+                                                StatsdListener.REPORT_PATH_RUN_LEVEL)
+                                        .toString(),
+                                StatsdListener.REPORT_FILENAME_PREFIX
+                                        + CONFIG_NAME_1
+                                        + StatsdListener.PROTO_EXTENSION),
+                        eq(rawReport));
+        verify(runData, times(1))
+                .addFileMetric(eq(StatsdListener.REPORT_KEY_PREFIX + CONFIG_NAME_1), any());
+        verify(runData, times(1))
+                .addFileMetric(eq(StatsdListener.REPORT_KEY_PREFIX + CONFIG_NAME_2), any());
+    }
+
+    /**
+     * Test that the collector pulls and removes every config on the calling thread when saving the
+     * reports concurrently.
+     */
+    @Test
+    public void testTestLevelCollection_concurrentPulls() throws Exception {
+        doReturn(CONFIG_MAP)
+                .when(mListener)
+                .getConfigsFromOption(eq(StatsdListener.OPTION_CONFIGS_TEST_LEVEL));
+        Bundle args = new Bundle();
+        args.putString(StatsdListener.OPTION_REPORT_PULL_THREADS, "2");
+        doReturn(args).when(mListener).getArguments();
+        Thread testThread = Thread.currentThread();
+        doAnswer(
+                        invocation -> {
+                            Assert.assertSame(testThread, Thread.currentThread());
+                            long configId = invocation.getArgument(0);
+                            return serialize(configId == CONFIG_ID_1 ? REPORT_1 : REPORT_2);
+                        })
+                .when(mListener)
+                .getStatsReports(anyLong());
+        doAnswer(
+                        invocation -> {
+                            Assert.assertSame(testThread, Thread.currentThread());
+                            return null;
+                        })
+                .when(mListener)
+                .removeStatsConfig(anyLong());
+
+        mListener.onTestRunStart(
+                new DataRecord(), Description.createSuiteDescription("Placeholder"));
+
+        DataRecord testData = mock(DataRecord.class);
+        Description description = Description.createTestDescription(TEST_CLASS, TEST_METHOD_NAME_1);
+        mListener.onTestStart(testData, description);
+        mListener.onTestEnd(testData, description);
+
+        verify(mListener, times(1)).getStatsReports(eq(CONFIG_ID_1));
+        verify(mListener, times(1)).getStatsReports(eq(CONFIG_ID_2));
+        verify(mListener, times(1)).removeStatsConfig(eq(CONFIG_ID_1));
+        verify(mListener, times(1)).removeStatsConfig(eq(CONFIG_ID_2));
+        verify(testData, times(1))
+                .addFileMetric(eq(StatsdListener.REPORT_KEY_PREFIX + CONFIG_NAME_1), any());
+        verify(testData, times(1))
+                .addFileMetric(eq(StatsdListener.REPORT_KEY_PREFIX + CONFIG_NAME_2), any());
+
+        mListener.onTestRunEnd(new DataRecord(), new Result());
+    }
+
+    /** Test that test-level configs are registered once per run when they are reused. */
+    @Test
+    public void testTestLevelCollection_reusedConfigs() throws Exception {
+        doReturn(CONFIG_MAP)
+                .when(mListener)
+                .getConfigsFromOption(eq(StatsdListener.OPTION_CONFIGS_TEST_LEVEL));
+        Bundle args = new Bundle();
+        args.putString(StatsdListener.OPTION_REUSE_TEST_LEVEL_CONFIGS, "true");
+        doReturn(args).when(mListener).getArguments();
+
+        DataRecord runData = mock(DataRecord.class);
+        mListener.onTestRunStart(runData, Description.createSuiteDescription("TestRun"));
+        verify(mListener, times(1)).addStatsConfig(eq(CONFIG_ID_1), eq(serialize(CONFIG_1)));
+        verify(mListener, times(1)).addStatsConfig(eq(CONFIG_ID_2), eq(serialize(CONFIG_2)));
+
+        DataRecord testData1 = mock(DataRecord.class);
+        Description description1 =
+                Description.createTestDescription(TEST_CLASS, TEST_METHOD_NAME_1);
+        mListener.onTestStart(testData1, description1);
+        mListener.onTestEnd(testData1, description1);
+
+        DataRecord testData2 = mock(DataRecord.class);
+        Description description2 =
+                Description.createTestDescription(TEST_CLASS, TEST_METHOD_NAME_1);
+        mListener.onTestStart(testData2, description2);
+        mListener.onTestEnd(testData2, description2);
+
+        // Tests are only delimited by events and report their boundaries.
+        verify(mListener, times(2)).logStart(eq(StatsdListener.TEST_EVENT_LABEL));
+        verify(mListener, times(2)).logStop(eq(StatsdListener.TEST_EVENT_LABEL));
+        verify(mListener, times(2)).addStatsConfig(anyLong(), any());
+        verify(mListener, never()).getStatsReports(anyLong());
+        verify(mListener, never()).removeStatsConfig(anyLong());
+        verify(testData1, times(1))
+                .addStringMetric(eq(StatsdListener.TEST_START_ELAPSED_NANOS_KEY), any());
+        verify(testData1, times(1))
+                .addStringMetric(eq(StatsdListener.TEST_END_ELAPSED_NANOS_KEY), any());
+        verify(testData2, never()).addFileMetric(any(), any());
+
+        mListener.onTestRunEnd(runData, new Result());
+        verify(mListener, times(1)).getStatsReports(eq(CONFIG_ID_1));
+        verify(mListener, times(1)).getStatsReports(eq(CONFIG_ID_2));
+        verify(mListener, times(1)).removeStatsConfig(eq(CONFIG_ID_1));
+        verify(mListener, times(1)).removeStatsConfig(eq(CONFIG_ID_2));
+        verify(runData, times(1))
+                .addFileMetric(
+                        eq(
+                                StatsdListener.REPORT_KEY_PREFIX
+                                        + CONFIG_NAME_1
+                                        + StatsdListener.REUSED_TEST_LEVEL_SUFFIX),
+                        getExactFileNameMatcher(
+                                Paths.get(
+                                                StatsdListener.REPORT_PATH_ROOT,
+                                                StatsdListener.REPORT_PATH_TEST_LEVEL)
+                                        .toString(),
+                                StatsdListener.REPORT_FILENAME_PREFIX
+                                        + CONFIG_NAME_1
+                                        + StatsdListener.REUSED_TEST_LEVEL_SUFFIX
+                                        + StatsdListener.PROTO_EXTENSION));
+    }
+
     /** Test that the collector parses the configs from arguments correctly for valid configs. */
     @Test
     public void testParsingConfigFromArguments_byName_validConfig() throws Exception {
@@ -25,7 +25,6 @@ import com.android.server.wm.flicker.getDefaultFlickerOutputDir
 import com.android.server.wm.flicker.traces.layers.LayersTraceSubject
 import com.android.server.wm.traces.common.layers.LayersTrace
 import com.android.server.wm.traces.parser.layers.LayersTraceParser
-import java.nio.file.Files
 import java.nio.file.Path
 
 /**
@@ -64,8 +63,9 @@ open class LayersTraceMonitor @JvmOverloads constructor(
     override fun setResult(builder: FlickerRunResult.Builder) {
         builder.setLayersTrace(outputFile) {
             Log.v(FLICKER_TAG, "Parsing Layers trace")
-            val traceData = Files.readAllBytes(outputFile)
-            val layersTrace = LayersTraceParser.parseFromTrace(traceData)
+            // Map the trace instead of loading it, long transitions easily produce traces
+            // larger than the instrumentation heap
+            val layersTrace = LayersTraceParser.parseFromTraceFile(outputFile)
             LayersTraceSubject.assertThat(layersTrace)
         }
     }
@@ -25,6 +25,8 @@ import com.android.server.wm.traces.common.FlickerComponentName
 import com.android.server.wm.traces.common.layers.Layer
 import com.android.server.wm.traces.common.layers.BaseLayerTraceEntry
 import com.android.server.wm.traces.common.layers.LayersTrace
+import com.android.server.wm.traces.common.region.Region
+import com.android.server.wm.traces.common.region.RegionEngine
 import com.google.common.truth.ExpectFailure
 import com.google.common.truth.Fact
 import com.google.common.truth.FailureMetadata
@@ -106,6 +108,21 @@ class LayerTraceEntrySubject private constructor(
         vararg components: FlickerComponentName,
         useCompositionEngineRegionOnly: Boolean = true
     ): RegionSubject {
+        val region =
+            computeVisibleRegion(RegionEngine(), components, useCompositionEngineRegionOnly)
+        return RegionSubject.assertThat(region, this, timestamp)
+    }
+
+    /**
+     * Computes the region occupied by all visible layers with name containing [components] into
+     * [engine], which is reset first, so that [LayersTraceSubject] can reuse one engine for all
+     * entries of a trace.
+     */
+    internal fun computeVisibleRegion(
+        engine: RegionEngine,
+        components: Array<out FlickerComponentName>,
+        useCompositionEngineRegionOnly: Boolean
+    ): Region {
         val layerNames = components.map { it.toLayerName() }
         val selectedLayers = if (components.isEmpty()) {
             // No filters so use all subjects
@@ -127,14 +144,16 @@ class LayerTraceEntrySubject private constructor(
             )
         }
 
-        val visibleLayers = selectedLayers.filter { it.isVisible }
-        return if (useCompositionEngineRegionOnly) {
-            val visibleAreas = visibleLayers.mapNotNull { it.layer?.visibleRegion }.toTypedArray()
-            RegionSubject.assertThat(visibleAreas, this, timestamp)
-        } else {
-            val visibleAreas = visibleLayers.mapNotNull { it.layer?.screenBounds }.toTypedArray()
-            RegionSubject.assertThat(visibleAreas, this, timestamp)
+        engine.setEmpty()
+        selectedLayers.filter { it.isVisible }.forEach {
+            val layer = it.layer ?: return@forEach
+            if (useCompositionEngineRegionOnly) {
+                layer.visibleRegion?.let { region -> engine.union(region) }
+            } else {
+                engine.union(layer.screenBounds.toRect())
+            }
         }
+        return engine.toRegion()
     }
 
     /**
@@ -23,6 +23,8 @@ import com.android.server.wm.flicker.traces.region.RegionTraceSubject
 import com.android.server.wm.traces.common.FlickerComponentName
 import com.android.server.wm.traces.common.layers.Layer
 import com.android.server.wm.traces.common.layers.LayersTrace
+import com.android.server.wm.traces.common.region.RegionEngine
+import com.android.server.wm.traces.common.region.RegionEntry
 import com.android.server.wm.traces.common.region.RegionTrace
 import com.google.common.truth.FailureMetadata
 import com.google.common.truth.FailureStrategy
@@ -223,9 +225,10 @@ class LayersTraceSubject private constructor(
         vararg components: FlickerComponentName,
         useCompositionEngineRegionOnly: Boolean = true
     ): RegionTraceSubject {
+        val engine = RegionEngine()
         val regionTrace = RegionTrace(components, subjects.map {
-            it.visibleRegion(components = components, useCompositionEngineRegionOnly)
-                            .regionEntry
+            val region = it.computeVisibleRegion(engine, components, useCompositionEngineRegionOnly)
+            RegionEntry(region, it.timestamp.toString())
         }.toTypedArray())
         return RegionTraceSubject.assertThat(regionTrace, this)
     }
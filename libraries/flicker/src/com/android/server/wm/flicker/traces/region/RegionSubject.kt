@@ -22,6 +22,7 @@ import com.android.server.wm.flicker.traces.FlickerFailureStrategy
 import com.android.server.wm.traces.common.Rect
 import com.android.server.wm.traces.common.RectF
 import com.android.server.wm.traces.common.region.Region
+import com.android.server.wm.traces.common.region.RegionEngine
 import com.android.server.wm.traces.common.region.RegionEntry
 import com.google.common.truth.Fact
 import com.google.common.truth.FailureMetadata
@@ -426,13 +427,9 @@ class RegionSubject(
         const val MSG_ERROR_AREA = "Incorrect rect area"
 
         private fun mergeRegions(regions: Array<Region>): Region {
-            val result = Region.EMPTY
-            regions.forEach { region ->
-                region.rects.forEach { rect ->
-                    result.op(rect, Region.Op.UNION)
-                }
-            }
-            return result
+            val result = RegionEngine()
+            regions.forEach { region -> result.union(region) }
+            return result.toRegion()
         }
 
         /**
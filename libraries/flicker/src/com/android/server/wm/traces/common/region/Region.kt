@@ -102,6 +102,22 @@ class Region(rects: Array<Rect> = arrayOf()) {
         return !this.isEmpty && !this.isRect()
     }
 
+    /**
+     * Number of values in the run-length representation of a complex region, or 0 otherwise
+     */
+    val runCount: Int get() = if (this.isComplex()) fRunHead!!.fRunCount else 0
+
+    /**
+     * Copies the [runCount] values of the run-length representation of a complex region
+     * into [dst], see [RegionEngine]
+     */
+    fun copyRunsTo(dst: IntArray) {
+        val runs = fRunHead?.readonlyRuns ?: return
+        for (i in 0 until runCount) {
+            dst[i] = runs[i]
+        }
+    }
+
     fun contains(x: Int, y: Int): Boolean {
         if (!fBounds.contains(x, y)) {
             return false
@@ -1082,6 +1098,19 @@ class Region(rects: Array<Rect> = arrayOf()) {
 
         fun from(): Region = from(Rect.EMPTY)
 
+        /**
+         * Creates a region from [count] values of the run-length representation in [runs],
+         * starting at [start], see [RegionEngine]
+         */
+        fun fromRuns(runs: IntArray, start: Int, count: Int): Region {
+            val array = RunArray()
+            array.resizeToAtLeast(count)
+            for (i in 0 until count) {
+                array[i] = runs[start + i]
+            }
+            return Region().also { it.setRuns(array, count) }
+        }
+
         private fun SkRegionValueIsSentinel(value: Int): Boolean {
             return value == SkRegion_kRunTypeSentinel
         }
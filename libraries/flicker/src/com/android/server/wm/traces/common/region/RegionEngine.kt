@@ -0,0 +1,649 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.traces.common.region
+
+import com.android.server.wm.traces.common.Rect
+import com.android.server.wm.traces.common.region.Region.Companion.SkRegion_kRunTypeSentinel
+import com.android.server.wm.traces.common.region.Region.Companion.kRectRegionRuns
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Accumulates a sequence of [Region.Op]s into a single region without allocating intermediate
+ * regions, e.g. to union all visible layers of a trace entry.
+ *
+ * Uses the same run-length representation and algorithm as [Region] (SkRegion.cpp), but keeps
+ * the runs in [IntArray] buffers which are reused by every operation and only grow when a result
+ * doesn't fit. While the accumulated region is a single rectangle only its bounds are kept, and
+ * operations with rectangles that keep it a rectangle are computed directly from the bounds.
+ *
+ * This class is used by flicker and Winscope. It is not thread safe, but can be reused through
+ * [setEmpty] to avoid allocating new buffers.
+ */
+class RegionEngine {
+    private var state = STATE_EMPTY
+    private var left = 0
+    private var top = 0
+    private var right = 0
+    private var bottom = 0
+
+    // runs of the accumulated region while it is complex
+    private var runs = IntArray(INITIAL_RUNS_SIZE)
+    private var runsStart = 0
+    private var runsCount = 0
+
+    // destination of the running operation, swapped with [runs] once it completes
+    private var scratch = IntArray(INITIAL_RUNS_SIZE)
+
+    // operands of the running operation, when they are not the accumulated complex region
+    private val rectRunsA = IntArray(kRectRegionRuns)
+    private val rectRunsB = IntArray(kRectRegionRuns)
+    private var regionRuns = IntArray(INITIAL_RUNS_SIZE)
+
+    // state of the running operation, see RgnOper in SkRegion.cpp
+    private var opMin = 0
+    private var opMax = 0
+    private var operTop = 0
+    private var prevDst = 0
+    private var prevLen = 0
+
+    val isEmpty: Boolean get() = state == STATE_EMPTY
+    val isRect: Boolean get() = state == STATE_RECT
+
+    /** Bounds of the accumulated region */
+    val bounds: Rect get() = if (isEmpty) Rect.EMPTY else Rect(left, top, right, bottom)
+
+    /**
+     * Set the accumulated region to the empty region
+     */
+    fun setEmpty(): Boolean {
+        state = STATE_EMPTY
+        return false
+    }
+
+    /**
+     * Perform the specified Op on the accumulated region and the specified rect. Return
+     * true if the result of the op is not empty.
+     */
+    fun op(left: Int, top: Int, right: Int, bottom: Int, op: Region.Op): Boolean {
+        return if (isEmptyRect(left, top, right, bottom)) {
+            opWith(STATE_EMPTY, 0, 0, 0, 0, rectRunsB, 0, 0, op)
+        } else {
+            writeRectRuns(rectRunsB, left, top, right, bottom)
+            opWith(STATE_RECT, left, top, right, bottom, rectRunsB, 0, kRectRegionRuns, op)
+        }
+    }
+
+    /**
+     * Perform the specified Op on the accumulated region and the specified rect. Return
+     * true if the result of the op is not empty.
+     */
+    fun op(rect: Rect, op: Region.Op): Boolean =
+        op(rect.left, rect.top, rect.right, rect.bottom, op)
+
+    /**
+     * Perform the specified Op on the accumulated region and the specified region. Return
+     * true if the result of the op is not empty.
+     */
+    fun op(region: Region, op: Region.Op): Boolean {
+        val regionBounds = region.bounds
+        return when {
+            region.isEmpty -> opWith(STATE_EMPTY, 0, 0, 0, 0, rectRunsB, 0, 0, op)
+            region.isRect() -> op(regionBounds, op)
+            else -> {
+                val count = region.runCount
+                if (regionRuns.size < count) {
+                    regionRuns = IntArray(count)
+                }
+                region.copyRunsTo(regionRuns)
+                opWith(STATE_COMPLEX, regionBounds.left, regionBounds.top, regionBounds.right,
+                    regionBounds.bottom, regionRuns, 0, count, op)
+            }
+        }
+    }
+
+    fun union(r: Rect): Boolean = op(r, Region.Op.UNION)
+
+    fun union(region: Region): Boolean = op(region, Region.Op.UNION)
+
+    fun contains(x: Int, y: Int): Boolean {
+        if (isEmpty || x < left || x >= right || y < top || y >= bottom) {
+            return false
+        }
+        if (isRect) {
+            return true
+        }
+        // find the scanline containing y, skipping the top
+        var index = runsStart + 1
+        while (y >= runs[index]) {
+            index += runs[index + 1] * 2 + 3
+        }
+        // walk its intervals, the X-sentinel stops the search
+        index += 2
+        while (x >= runs[index]) {
+            if (x < runs[index + 1]) {
+                return true
+            }
+            index += 2
+        }
+        return false
+    }
+
+    /** Returns a new [Region] with the accumulated region */
+    fun toRegion(): Region = when (state) {
+        STATE_EMPTY -> Region.from()
+        STATE_RECT -> Region.from(left, top, right, bottom)
+        else -> Region.fromRuns(runs, runsStart, runsCount)
+    }
+
+    private fun opWith(
+        bState: Int,
+        bLeft: Int,
+        bTop: Int,
+        bRight: Int,
+        bBottom: Int,
+        bRuns: IntArray,
+        bStart: Int,
+        bCount: Int,
+        op: Region.Op
+    ): Boolean {
+        val disjoint = isEmpty || bState == STATE_EMPTY ||
+            left >= bRight || bLeft >= right || top >= bBottom || bTop >= bottom
+        // simple cases
+        when (op) {
+            Region.Op.REPLACE -> {
+                return setTo(bState, bLeft, bTop, bRight, bBottom, bRuns, bStart, bCount)
+            }
+            Region.Op.REVERSE_DIFFERENCE -> {
+                if (bState == STATE_EMPTY) {
+                    return setEmpty()
+                }
+                if (disjoint) {
+                    return setTo(bState, bLeft, bTop, bRight, bBottom, bRuns, bStart, bCount)
+                }
+                if (isRect &&
+                    rectContains(left, top, right, bottom, bLeft, bTop, bRight, bBottom)) {
+                    return setEmpty()
+                }
+                // collapse reverse-difference into difference with swapped operands
+                val aRuns = currentRuns()
+                val aStart = if (isRect) 0 else runsStart
+                return setRuns(operate(bRuns, bStart, aRuns, aStart, Region.Op.DIFFERENCE))
+            }
+            Region.Op.DIFFERENCE -> {
+                if (isEmpty) {
+                    return false
+                }
+                if (disjoint) {
+                    return true
+                }
+                if (bState == STATE_RECT &&
+                    rectContains(bLeft, bTop, bRight, bBottom, left, top, right, bottom)) {
+                    return setEmpty()
+                }
+            }
+            Region.Op.INTERSECT -> {
+                when {
+                    disjoint -> return setEmpty()
+                    isRect && bState == STATE_RECT -> return setRect(
+                        max(left, bLeft), max(top, bTop), min(right, bRight), min(bottom, bBottom))
+                    isRect &&
+                        rectContains(left, top, right, bottom, bLeft, bTop, bRight, bBottom) ->
+                        return setTo(bState, bLeft, bTop, bRight, bBottom, bRuns, bStart, bCount)
+                    bState == STATE_RECT &&
+                        rectContains(bLeft, bTop, bRight, bBottom, left, top, right, bottom) ->
+                        return true
+                }
+            }
+            Region.Op.UNION -> {
+                when {
+                    isEmpty ->
+                        return setTo(bState, bLeft, bTop, bRight, bBottom, bRuns, bStart, bCount)
+                    bState == STATE_EMPTY -> return true
+                    isRect &&
+                        rectContains(left, top, right, bottom, bLeft, bTop, bRight, bBottom) ->
+                        return true
+                    bState == STATE_RECT &&
+                        rectContains(bLeft, bTop, bRight, bBottom, left, top, right, bottom) ->
+                        return setRect(bLeft, bTop, bRight, bBottom)
+                    isRect && bState == STATE_RECT &&
+                        unionIsRect(bLeft, bTop, bRight, bBottom) -> return setRect(
+                        min(left, bLeft), min(top, bTop), max(right, bRight), max(bottom, bBottom))
+                }
+            }
+            Region.Op.XOR -> {
+                when {
+                    isEmpty ->
+                        return setTo(bState, bLeft, bTop, bRight, bBottom, bRuns, bStart, bCount)
+                    bState == STATE_EMPTY -> return true
+                }
+            }
+        }
+
+        val aRuns = currentRuns()
+        val aStart = if (isRect) 0 else runsStart
+        return setRuns(operate(aRuns, aStart, bRuns, bStart, op))
+    }
+
+    /** Returns the runs of the accumulated region, which must not be empty */
+    private fun currentRuns(): IntArray {
+        if (isRect) {
+            writeRectRuns(rectRunsA, left, top, right, bottom)
+            return rectRunsA
+        }
+        return runs
+    }
+
+    /**
+     * Whether the union of the accumulated rect and the specified rect is a rect, i.e. they
+     * overlap or touch along a full side
+     */
+    private fun unionIsRect(bLeft: Int, bTop: Int, bRight: Int, bBottom: Int): Boolean {
+        return (left == bLeft && right == bRight && top <= bBottom && bTop <= bottom) ||
+            (top == bTop && bottom == bBottom && left <= bRight && bLeft <= right)
+    }
+
+    private fun setTo(
+        bState: Int,
+        bLeft: Int,
+        bTop: Int,
+        bRight: Int,
+        bBottom: Int,
+        bRuns: IntArray,
+        bStart: Int,
+        bCount: Int
+    ): Boolean {
+        return when (bState) {
+            STATE_EMPTY -> setEmpty()
+            STATE_RECT -> setRect(bLeft, bTop, bRight, bBottom)
+            else -> {
+                if (runs.size < bCount) {
+                    runs = IntArray(bCount)
+                }
+                bRuns.copyInto(runs, 0, bStart, bStart + bCount)
+                runsStart = 0
+                runsCount = bCount
+                left = bLeft
+                top = bTop
+                right = bRight
+                bottom = bBottom
+                state = STATE_COMPLEX
+                true
+            }
+        }
+    }
+
+    private fun setRect(left: Int, top: Int, right: Int, bottom: Int): Boolean {
+        if (isEmptyRect(left, top, right, bottom)) {
+            return setEmpty()
+        }
+        this.left = left
+        this.top = top
+        this.right = right
+        this.bottom = bottom
+        state = STATE_RECT
+        return true
+    }
+
+    /**
+     * Makes the result of the last [operate], held by [scratch], the accumulated region
+     */
+    private fun setRuns(count: Int): Boolean {
+        val result = scratch
+        scratch = runs
+        runs = result
+
+        if (count <= 2) {
+            return setEmpty()
+        }
+
+        // trim off any empty spans from the top and bottom
+        var start = 0
+        var stop = count
+        if (count > kRectRegionRuns) {
+            if (runs[3] == SkRegion_kRunTypeSentinel) { // should be first left...
+                start = 3 // skip empty initial span
+                runs[start] = runs[1] // set new top to prev bottom
+            }
+            if (runs[stop - 5] == SkRegion_kRunTypeSentinel) {
+                // eek, stop[-4] was a bottom with no x-runs
+                runs[stop - 4] = SkRegion_kRunTypeSentinel // kill empty last span
+                stop -= 3
+            }
+        }
+
+        if (stop - start == kRectRegionRuns) {
+            return setRect(runs[start + 3], runs[start], runs[start + 4], runs[start + 1])
+        }
+
+        runsStart = start
+        runsCount = stop - start
+        state = STATE_COMPLEX
+        computeRunBounds()
+        return !isEmptyRect(left, top, right, bottom) || setEmpty()
+    }
+
+    private fun computeRunBounds() {
+        var index = runsStart
+        top = runs[index++]
+        var bot: Int
+        left = Int.MAX_VALUE
+        right = Int.MIN_VALUE
+        do {
+            bot = runs[index++]
+            val intervals = runs[index++]
+            if (intervals > 0) {
+                left = min(left, runs[index])
+                index += intervals * 2
+                right = max(right, runs[index - 1])
+            }
+            index++ // skip x-sentinel
+        } while (runs[index] < SkRegion_kRunTypeSentinel) // test Y-sentinel
+        bottom = bot
+    }
+
+    /**
+     * Writes the result of [op] between [aRuns] and [bRuns] into [scratch], returning the
+     * number of runs written
+     */
+    private fun operate(
+        aRuns: IntArray,
+        aStart: Int,
+        bRuns: IntArray,
+        bStart: Int,
+        op: Region.Op
+    ): Int {
+        var aIndex = aStart
+        var bIndex = bStart
+        var aTop = aRuns[aIndex++]
+        var aBot = aRuns[aIndex++]
+        var bTop = bRuns[bIndex++]
+        var bBot = bRuns[bIndex++]
+        aIndex++ // skip the intervalCount
+        bIndex++ // skip the intervalCount
+
+        val minMax = Region.gOpMinMax.getValue(op)
+        opMin = minMax.min
+        opMax = minMax.max
+        operTop = min(aTop, bTop)
+        prevDst = 1
+        prevLen = 0
+
+        var prevBot = SkRegion_kRunTypeSentinel // so we fail the first test
+        while (aBot < SkRegion_kRunTypeSentinel || bBot < SkRegion_kRunTypeSentinel) {
+            val top: Int
+            var bot = 0
+            var run0 = EMPTY_SCANLINE
+            var run0Index = SENTINEL_INDEX
+            var run1 = EMPTY_SCANLINE
+            var run1Index = SENTINEL_INDEX
+            var aFlush = false
+            var bFlush = false
+
+            if (aTop < bTop) {
+                top = aTop
+                run0 = aRuns
+                run0Index = aIndex
+                if (aBot <= bTop) { // [...] <...>
+                    bot = aBot
+                    aFlush = true
+                } else { // [...<..]...> or [...<...>...]
+                    aTop = bTop
+                    bot = bTop
+                }
+            } else if (bTop < aTop) {
+                top = bTop
+                run1 = bRuns
+                run1Index = bIndex
+                if (bBot <= aTop) { // [...] <...>
+                    bot = bBot
+                    bFlush = true
+                } else { // [...<..]...> or [...<...>...]
+                    bTop = aTop
+                    bot = aTop
+                }
+            } else { // aTop == bTop
+                top = aTop
+                run0 = aRuns
+                run0Index = aIndex
+                run1 = bRuns
+                run1Index = bIndex
+                if (aBot <= bBot) {
+                    bTop = aBot
+                    bot = aBot
+                    aFlush = true
+                }
+                if (bBot <= aBot) {
+                    aTop = bBot
+                    bot = bBot
+                    bFlush = true
+                }
+            }
+
+            if (top > prevBot) {
+                addSpan(top, EMPTY_SCANLINE, SENTINEL_INDEX, EMPTY_SCANLINE, SENTINEL_INDEX)
+            }
+            addSpan(bot, run0, run0Index, run1, run1Index)
+
+            if (aFlush) {
+                aIndex += aRuns[aIndex - 1] * 2 + 1 // skip intervals
+                aTop = aBot
+                aBot = aRuns[aIndex++]
+                aIndex++ // skip uninitialized intervalCount
+                if (aBot == SkRegion_kRunTypeSentinel) {
+                    aTop = aBot
+                }
+            }
+            if (bFlush) {
+                bIndex += bRuns[bIndex - 1] * 2 + 1 // skip intervals
+                bTop = bBot
+                bBot = bRuns[bIndex++]
+                bIndex++ // skip uninitialized intervalCount
+                if (bBot == SkRegion_kRunTypeSentinel) {
+                    bTop = bBot
+                }
+            }
+
+            prevBot = bot
+        }
+
+        // flush
+        scratch[0] = operTop
+        scratch[prevDst + prevLen] = SkRegion_kRunTypeSentinel
+        return prevDst + prevLen + 1
+    }
+
+    private fun addSpan(bottom: Int, aRuns: IntArray, aIndex: Int, bRuns: IntArray, bIndex: Int) {
+        // skip X values and slots for the next Y+intervalCount
+        val start = prevDst + prevLen + 2
+        // start points to beginning of dst interval
+        val stop = operateOnSpan(aRuns, aIndex, bRuns, bIndex, start)
+        val len = stop - start
+
+        if (prevLen == len && (len == 1 || sameIntervals(prevDst, start, len - 1))) {
+            // update Y value
+            scratch[prevDst - 2] = bottom
+        } else if (len == 1 && prevLen == 0) {
+            operTop = bottom // just update our bottom
+        } else { // accept the new span
+            scratch[start - 2] = bottom
+            scratch[start - 1] = len shr 1
+            prevDst = start
+            prevLen = len
+        }
+    }
+
+    private fun sameIntervals(first: Int, second: Int, count: Int): Boolean {
+        for (i in 0 until count) {
+            if (scratch[first + i] != scratch[second + i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun operateOnSpan(
+        aRuns: IntArray,
+        aIndex: Int,
+        bRuns: IntArray,
+        bIndex: Int,
+        dstOffset: Int
+    ): Int {
+        // This is a worst-case for this span plus two for TWO terminating sentinels.
+        ensureScratchCapacity(dstOffset + distanceToSentinel(aRuns, aIndex) +
+            distanceToSentinel(bRuns, bIndex) + 2)
+        var dst = dstOffset
+
+        var aLeft = aRuns[aIndex]
+        var aRight = aRuns[aIndex + 1]
+        var bLeft = bRuns[bIndex]
+        var bRight = bRuns[bIndex + 1]
+        var aNext = aIndex + 2
+        var bNext = bIndex + 2
+        var firstInterval = true
+
+        while (aLeft != SkRegion_kRunTypeSentinel || bLeft != SkRegion_kRunTypeSentinel) {
+            val inside: Int
+            val left: Int
+            var right = 0
+            var aFlush = false
+            var bFlush = false
+
+            if (aLeft < bLeft) {
+                inside = 1
+                left = aLeft
+                if (aRight <= bLeft) { // [...] <...>
+                    right = aRight
+                    aFlush = true
+                } else { // [...<..]...> or [...<...>...]
+                    aLeft = bLeft
+                    right = bLeft
+                }
+            } else if (bLeft < aLeft) {
+                inside = 2
+                left = bLeft
+                if (bRight <= aLeft) { // [...] <...>
+                    right = bRight
+                    bFlush = true
+                } else { // [...<..]...> or [...<...>...]
+                    bLeft = aLeft
+                    right = aLeft
+                }
+            } else { // aLeft == bLeft
+                inside = 3
+                left = aLeft
+                if (aRight <= bRight) {
+                    bLeft = aRight
+                    right = aRight
+                    aFlush = true
+                }
+                if (bRight <= aRight) {
+                    aLeft = bRight
+                    right = bRight
+                    bFlush = true
+                }
+            }
+
+            if (aFlush) {
+                aLeft = aRuns[aNext++]
+                aRight = aRuns[aNext++]
+            }
+            if (bFlush) {
+                bLeft = bRuns[bNext++]
+                bRight = bRuns[bNext++]
+            }
+
+            // add left,right to our dst buffer (checking for coincidence
+            if ((inside - opMin).toUInt() <= (opMax - opMin).toUInt() && left < right) {
+                if (firstInterval || scratch[dst - 1] < left) {
+                    scratch[dst++] = left
+                    scratch[dst++] = right
+                    firstInterval = false
+                } else {
+                    // update the right edge
+                    scratch[dst - 1] = right
+                }
+            }
+        }
+
+        scratch[dst++] = SkRegion_kRunTypeSentinel
+        return dst
+    }
+
+    private fun ensureScratchCapacity(size: Int) {
+        if (size > scratch.size) {
+            // leave at least 50% extra space for future growth.
+            scratch = scratch.copyOf(size + (size shr 1))
+        }
+    }
+
+    companion object {
+        private const val STATE_EMPTY = 0
+        private const val STATE_RECT = 1
+        private const val STATE_COMPLEX = 2
+
+        private const val INITIAL_RUNS_SIZE = 256
+
+        private val EMPTY_SCANLINE = intArrayOf(
+            0, // fake bottom value
+            0, // zero intervals
+            SkRegion_kRunTypeSentinel,
+            // just need a 2nd value, since the span reads 2 values, even though if the first
+            // value is the sentinel, it ignores the 2nd value.
+            0
+        )
+        private const val SENTINEL_INDEX = 2
+
+        private fun isEmptyRect(left: Int, top: Int, right: Int, bottom: Int): Boolean {
+            return left >= right || top >= bottom ||
+                right == SkRegion_kRunTypeSentinel || bottom == SkRegion_kRunTypeSentinel
+        }
+
+        /** Returns true iff the second rect is inside or equal to the first rect */
+        private fun rectContains(
+            left: Int,
+            top: Int,
+            right: Int,
+            bottom: Int,
+            otherLeft: Int,
+            otherTop: Int,
+            otherRight: Int,
+            otherBottom: Int
+        ): Boolean {
+            return left < right && top < bottom && left <= otherLeft && top <= otherTop &&
+                right >= otherRight && bottom >= otherBottom
+        }
+
+        private fun writeRectRuns(dst: IntArray, left: Int, top: Int, right: Int, bottom: Int) {
+            dst[0] = top
+            dst[1] = bottom
+            dst[2] = 1 // 1 interval for this scanline
+            dst[3] = left
+            dst[4] = right
+            dst[5] = SkRegion_kRunTypeSentinel
+            dst[6] = SkRegion_kRunTypeSentinel
+        }
+
+        private fun distanceToSentinel(runs: IntArray, startIndex: Int): Int {
+            var index = startIndex
+            while (runs[index] != SkRegion_kRunTypeSentinel) {
+                index += 2
+            }
+            return index - startIndex
+        }
+    }
+}
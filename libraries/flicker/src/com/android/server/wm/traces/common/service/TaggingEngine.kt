@@ -26,6 +26,7 @@ import com.android.server.wm.traces.common.service.processors.PipExitProcessor
 import com.android.server.wm.traces.common.service.processors.PipExpandProcessor
 import com.android.server.wm.traces.common.service.processors.PipResizeProcessor
 import com.android.server.wm.traces.common.service.processors.RotationProcessor
+import com.android.server.wm.traces.common.service.processors.TransitionProcessor
 import com.android.server.wm.traces.common.tags.TagState
 import com.android.server.wm.traces.common.tags.TagTrace
 import com.android.server.wm.traces.common.windowmanager.WindowManagerTrace
@@ -61,12 +62,18 @@ class TaggingEngine(
 
     /**
      * Generate tags denoting start and end points for all [transitions] within traces
+     *
+     * The traces are merged and walked a single time, feeding every device state to the
+     * FSMs of all [transitions] at once.
      */
     fun run(): TagTrace {
-        val allStates = transitions.flatMap {
-            logger.invoke("Generating tags for ${it::class.simpleName}")
-            it.generateTags(wmTrace, layersTrace).entries.asList()
+        val sessions = transitions.map { it.TaggingSession() }
+        val processorNames = transitions.joinToString { it::class.simpleName ?: "" }
+        logger.invoke("Generating tags for $processorNames")
+        TransitionProcessor.createDumpSequence(wmTrace, layersTrace).forEach { dump ->
+            sessions.forEach { it.process(dump) }
         }
+        val allStates = sessions.flatMap { it.finish().entries.asList() }
 
         /**
          * Ensure all tag states with the same timestamp are merged
@@ -61,7 +61,10 @@ abstract class FSMState(protected val tags: MutableMap<Long, MutableList<Tag>>)
         taskId: Int = 0,
         timestamp: Long = max(state.wmState.timestamp, state.layerState.timestamp)
     ) {
-        val endTag = Tag(id = lastTagId, transition, isStartTag = false, layerId = layerId,
+        // Close the open tag of this FSM, other processors may have started tags since
+        val tagId = tags.values.flatten().filter { it.isStartTag }.maxOfOrNull { it.id }
+            ?: lastTagId
+        val endTag = Tag(id = tagId, transition, isStartTag = false, layerId = layerId,
             windowToken = windowToken, taskId = taskId)
         if (!tags.containsKey(timestamp)) {
             tags[timestamp] = mutableListOf()
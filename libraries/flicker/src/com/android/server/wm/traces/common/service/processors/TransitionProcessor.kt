@@ -58,27 +58,45 @@ abstract class TransitionProcessor(internal val logger: (String) -> Unit) : ITag
         wmTrace: WindowManagerTrace,
         layersTrace: LayersTrace
     ): TagTrace {
-        val tags = mutableMapOf<Long, MutableList<Tag>>()
-        var currPosition: FSMState? = getInitialState(tags)
+        val session = TaggingSession()
+        createDumpSequence(wmTrace, layersTrace).forEach { session.process(it) }
+        return session.finish()
+    }
+
+    /**
+     * Runs the FSM of this processor over device state dumps received one at a time, so
+     * that several processors can share a single pass over the traces.
+     */
+    inner class TaggingSession {
+        private val tags = mutableMapOf<Long, MutableList<Tag>>()
+        private var currPosition: FSMState? = getInitialState(tags)
 
-        val dumpList = createDumpList(wmTrace, layersTrace)
-        val dumpIterator = dumpList.iterator()
+        // always keep a reference to previous and current states, the next state is the
+        // one being processed
+        private var previous: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>? = null
+        private var current: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>? = null
 
-        // always keep a reference to previous, current and next states
-        var previous: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>?
-        var current: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>? = null
-        var next: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>? =
-            dumpIterator.next()
-        while (currPosition != null) {
+        /**
+         * Advances the FSM with [next], the dump following all previously processed dumps
+         */
+        fun process(next: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>) {
+            advance(next)
             previous = current
             current = next
-            next = if (dumpIterator.hasNext()) dumpIterator.next() else null
-            requireNotNull(current) { "Current state shouldn't be null" }
-            val newPosition = currPosition.process(previous, current, next)
-            currPosition = newPosition
         }
 
-        return buildTagTrace(tags)
+        /**
+         * Processes the last dump and returns the tags generated by the session
+         */
+        fun finish(): TagTrace {
+            advance(next = null)
+            return buildTagTrace(tags)
+        }
+
+        private fun advance(next: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>?) {
+            val current = current ?: return
+            currPosition = currPosition?.process(previous, current, next)
+        }
     }
 
     private fun buildTagTrace(tags: MutableMap<Long, MutableList<Tag>>): TagTrace {
@@ -91,23 +109,45 @@ abstract class TransitionProcessor(internal val logger: (String) -> Unit) : ITag
     }
 
     companion object {
-        internal fun createDumpList(
+        /**
+         * Merges both traces into the sequence of distinct device states, one per timestamp at
+         * which either trace has an entry, holding the latest entry of each trace at that time.
+         *
+         * Both traces are sorted by timestamp, so they are merged in a single linear pass.
+         */
+        internal fun createDumpSequence(
             wmTrace: WindowManagerTrace,
             layersTrace: LayersTrace
-        ): List<DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>> {
-            val wmTimestamps = wmTrace.map { it.timestamp }.toTypedArray()
-            val layersTimestamps = layersTrace.map { it.timestamp }.toTypedArray()
-            val fullTimestamps = setOf(*wmTimestamps, *layersTimestamps).sorted()
-
-            return fullTimestamps.map { baseTimestamp ->
-                val wmState = wmTrace
-                    .lastOrNull { it.timestamp <= baseTimestamp }
-                    ?: wmTrace.first()
-                val layerState = layersTrace
-                    .lastOrNull { it.timestamp <= baseTimestamp }
-                    ?: layersTrace.first()
-                DeviceStateDump(wmState, layerState)
-            }.distinctBy { Pair(it.wmState.timestamp, it.layerState.timestamp) }
+        ): Sequence<DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>> = sequence {
+            val wmEntries = wmTrace.entries
+            val layersEntries = layersTrace.entries
+            // number of entries of each trace at or before the current timestamp
+            var wmCount = 0
+            var layersCount = 0
+            var lastDump: DeviceStateDump<WindowManagerState, BaseLayerTraceEntry>? = null
+            while (wmCount < wmEntries.size || layersCount < layersEntries.size) {
+                val baseTimestamp = minOf(
+                    wmEntries.getOrNull(wmCount)?.timestamp ?: Long.MAX_VALUE,
+                    layersEntries.getOrNull(layersCount)?.timestamp ?: Long.MAX_VALUE
+                )
+                while (wmCount < wmEntries.size &&
+                    wmEntries[wmCount].timestamp <= baseTimestamp) {
+                    wmCount++
+                }
+                while (layersCount < layersEntries.size &&
+                    layersEntries[layersCount].timestamp <= baseTimestamp) {
+                    layersCount++
+                }
+                val wmState = wmEntries.getOrNull(wmCount - 1) ?: wmEntries.first()
+                val layerState = layersEntries.getOrNull(layersCount - 1) ?: layersEntries.first()
+                if (lastDump == null ||
+                    lastDump.wmState.timestamp != wmState.timestamp ||
+                    lastDump.layerState.timestamp != layerState.timestamp) {
+                    val dump = DeviceStateDump(wmState, layerState)
+                    yield(dump)
+                    lastDump = dump
+                }
+            }
         }
     }
 }
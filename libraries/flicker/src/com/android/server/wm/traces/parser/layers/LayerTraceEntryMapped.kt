@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.traces.parser.layers
+
+import com.android.server.wm.traces.common.layers.BaseLayerTraceEntry
+import com.android.server.wm.traces.common.layers.Display
+import com.android.server.wm.traces.common.layers.Layer
+
+/**
+ * Trace entry backed by a [LayersTraceFileIndex].
+ *
+ * Only the timestamp is held in memory, the rest of the entry is decoded from the trace file
+ * when first accessed and may be evicted again once other entries are accessed.
+ */
+class LayerTraceEntryMapped(
+    private val index: LayersTraceFileIndex,
+    private val position: Int
+) : BaseLayerTraceEntry() {
+    override val timestamp: Long = index.getTimestamp(position)
+
+    private val entry: BaseLayerTraceEntry
+        get() = index.getEntry(position)
+
+    override val hwcBlob: String
+        get() = entry.hwcBlob
+
+    override val where: String
+        get() = entry.where
+
+    override val displays: Array<Display>
+        get() = entry.displays
+
+    override val flattenedLayers: Array<Layer>
+        get() = entry.flattenedLayers
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.traces.parser.layers
+
+import android.surfaceflinger.nano.Layerstrace
+import com.android.server.wm.traces.common.layers.BaseLayerTraceEntry
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Index over a memory-mapped layers trace file.
+ *
+ * The offset and timestamp of every entry are found in a single scan of the file, without
+ * decoding the entries themselves. Entries are only decoded when accessed through [getEntry],
+ * and at most [cacheSize] decoded entries are kept, least recently used first out.
+ */
+class LayersTraceFileIndex private constructor(
+    private val buffer: ByteBuffer,
+    private val offsets: IntArray,
+    private val lengths: IntArray,
+    private val timestamps: LongArray,
+    private val cacheSize: Int,
+    private val entryFactory: (Layerstrace.LayersTraceProto) -> BaseLayerTraceEntry
+) {
+    private val cache = object : LinkedHashMap<Int, BaseLayerTraceEntry>(
+        cacheSize, /* loadFactor */ 0.75f, /* accessOrder */ true
+    ) {
+        override fun removeEldestEntry(
+            eldest: MutableMap.MutableEntry<Int, BaseLayerTraceEntry>?
+        ): Boolean = size > cacheSize
+    }
+
+    /** Number of entries in the trace */
+    val size: Int get() = offsets.size
+
+    /** @return the timestamp of the entry at [index], without decoding it */
+    fun getTimestamp(index: Int): Long = timestamps[index]
+
+    /** @return the entry at [index], decoding it if it is not cached */
+    fun getEntry(index: Int): BaseLayerTraceEntry = synchronized(cache) {
+        cache.getOrPut(index) { decode(index) }
+    }
+
+    private fun decode(index: Int): BaseLayerTraceEntry {
+        val data = ByteArray(lengths[index])
+        buffer.duplicate().apply { position(offsets[index]) }.get(data)
+        return entryFactory(Layerstrace.LayersTraceProto.parseFrom(data))
+    }
+
+    companion object {
+        // Field numbers from layerstrace.proto
+        private const val FILE_PROTO_ENTRY_FIELD = 2
+        private const val ENTRY_ELAPSED_REALTIME_NANOS_FIELD = 1
+
+        private const val WIRETYPE_VARINT = 0
+        private const val WIRETYPE_FIXED64 = 1
+        private const val WIRETYPE_LENGTH_DELIMITED = 2
+        private const val WIRETYPE_FIXED32 = 5
+
+        /**
+         * Maps [traceFile] and indexes its entries.
+         *
+         * @param traceFile layers trace file, at most 2GB large
+         * @param cacheSize maximum number of decoded entries kept in memory
+         * @param entryFactory creates a trace entry from its decoded proto
+         */
+        @JvmStatic
+        fun create(
+            traceFile: Path,
+            cacheSize: Int,
+            entryFactory: (Layerstrace.LayersTraceProto) -> BaseLayerTraceEntry
+        ): LayersTraceFileIndex {
+            require(cacheSize > 0) { "Cache size must be positive" }
+            // The mapping remains valid after the channel is closed
+            val buffer = FileChannel.open(traceFile, StandardOpenOption.READ).use {
+                require(it.size() <= Int.MAX_VALUE) { "Trace file $traceFile is too large" }
+                it.map(FileChannel.MapMode.READ_ONLY, 0, it.size())
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+            val offsets = mutableListOf<Int>()
+            val lengths = mutableListOf<Int>()
+            val timestamps = mutableListOf<Long>()
+            while (buffer.hasRemaining()) {
+                val tag = buffer.readVarint().toInt()
+                val wireType = tag and 0x7
+                if (tag ushr 3 != FILE_PROTO_ENTRY_FIELD || wireType != WIRETYPE_LENGTH_DELIMITED) {
+                    buffer.skipField(wireType)
+                    continue
+                }
+                val length = buffer.readVarint().toInt()
+                val offset = buffer.position()
+                offsets.add(offset)
+                lengths.add(length)
+                timestamps.add(buffer.readTimestamp(offset + length))
+                buffer.position(offset + length)
+            }
+            return LayersTraceFileIndex(
+                buffer,
+                offsets.toIntArray(),
+                lengths.toIntArray(),
+                timestamps.toLongArray(),
+                cacheSize,
+                entryFactory
+            )
+        }
+
+        /** Reads the elapsed realtime of the entry ending at [end], or 0 if it is not set */
+        private fun ByteBuffer.readTimestamp(end: Int): Long {
+            while (position() < end) {
+                val tag = readVarint().toInt()
+                val wireType = tag and 0x7
+                if (tag ushr 3 == ENTRY_ELAPSED_REALTIME_NANOS_FIELD) {
+                    return when (wireType) {
+                        WIRETYPE_FIXED64 -> long
+                        WIRETYPE_VARINT -> readVarint()
+                        else -> error("Unexpected wire type $wireType for the entry timestamp")
+                    }
+                }
+                skipField(wireType)
+            }
+            return 0
+        }
+
+        private fun ByteBuffer.skipField(wireType: Int) {
+            when (wireType) {
+                WIRETYPE_VARINT -> readVarint()
+                WIRETYPE_FIXED64 -> position(position() + 8)
+                WIRETYPE_LENGTH_DELIMITED -> {
+                    val length = readVarint().toInt()
+                    position(position() + length)
+                }
+                WIRETYPE_FIXED32 -> position(position() + 4)
+                else -> error("Unsupported wire type $wireType")
+            }
+        }
+
+        private fun ByteBuffer.readVarint(): Long {
+            var result = 0L
+            var shift = 0
+            while (shift < 64) {
+                val byte = get().toInt()
+                result = result or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+            error("Malformed varint at position ${position()}")
+        }
+    }
+}
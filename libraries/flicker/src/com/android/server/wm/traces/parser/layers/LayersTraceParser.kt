@@ -24,6 +24,7 @@ import com.android.server.wm.traces.common.layers.BaseLayerTraceEntry
 import com.android.server.wm.traces.common.layers.LayersTrace
 import com.android.server.wm.traces.parser.LOG_TAG
 import com.google.protobuf.nano.InvalidProtocolBufferNanoException
+import java.nio.file.Path
 import kotlin.math.max
 import kotlin.system.measureTimeMillis
 
@@ -32,6 +33,8 @@ import kotlin.system.measureTimeMillis
  **/
 class LayersTraceParser {
     companion object {
+        private const val DEFAULT_CACHE_SIZE = 64
+
         /**
          * Parses [LayersTrace] from [data] and uses the proto to generates a list
          * of trace entries, storing the flattened layers into its hierarchical structure.
@@ -86,14 +89,10 @@ class LayersTraceParser {
             var traceParseTime = 0L
             for (traceProto: Layerstrace.LayersTraceProto in proto.entry) {
                 val entryParseTime = measureTimeMillis {
-                    val entry = LayerTraceEntryLazy(
-                        traceProto.elapsedRealtimeNanos,
-                        traceProto.hwcBlob,
-                        traceProto.where,
+                    val entry = newEntry(
+                        traceProto,
                         ignoreLayersStackMatchNoDisplay,
                         ignoreLayersInVirtualDisplay,
-                        traceProto.displays,
-                        traceProto.layers.layers,
                         orphanLayerCallback
                     )
                     entries.add(entry)
@@ -107,6 +106,62 @@ class LayersTraceParser {
             return LayersTrace(entries.toTypedArray())
         }
 
+        /**
+         * Parses [LayersTrace] from [traceFile] without loading the file in memory.
+         *
+         * The file is memory-mapped and only the timestamp of each entry is read upfront.
+         * Entries are decoded when their content is first accessed, e.g. by assertions on
+         * the subset of the trace they inspect, and at most [cacheSize] decoded entries are
+         * kept in memory at any time.
+         *
+         * @param traceFile path to the layers trace file, at most 2GB large
+         * @param orphanLayerCallback a callback to handle any unexpected orphan layers
+         * @param cacheSize maximum number of decoded entries kept in memory
+         */
+        @JvmOverloads
+        @JvmStatic
+        fun parseFromTraceFile(
+            traceFile: Path,
+            ignoreLayersStackMatchNoDisplay: Boolean = true,
+            ignoreLayersInVirtualDisplay: Boolean = true,
+            orphanLayerCallback: ((Layer) -> Boolean)? = null,
+            cacheSize: Int = DEFAULT_CACHE_SIZE
+        ): LayersTrace {
+            var index: LayersTraceFileIndex? = null
+            measureTimeMillis {
+                index = LayersTraceFileIndex.create(traceFile, cacheSize) {
+                    newEntry(
+                        it,
+                        ignoreLayersStackMatchNoDisplay,
+                        ignoreLayersInVirtualDisplay,
+                        orphanLayerCallback
+                    )
+                }
+            }.also {
+                Log.v(LOG_TAG, "Indexing trace file (Layers Trace): ${it}ms")
+            }
+            val traceIndex = index ?: error("Unable to read trace file")
+            return LayersTrace(
+                Array<BaseLayerTraceEntry>(traceIndex.size) { LayerTraceEntryMapped(traceIndex, it) }
+            )
+        }
+
+        private fun newEntry(
+            traceProto: Layerstrace.LayersTraceProto,
+            ignoreLayersStackMatchNoDisplay: Boolean,
+            ignoreLayersInVirtualDisplay: Boolean,
+            orphanLayerCallback: ((Layer) -> Boolean)?
+        ): BaseLayerTraceEntry = LayerTraceEntryLazy(
+            traceProto.elapsedRealtimeNanos,
+            traceProto.hwcBlob,
+            traceProto.where,
+            ignoreLayersStackMatchNoDisplay,
+            ignoreLayersInVirtualDisplay,
+            traceProto.displays,
+            traceProto.layers.layers,
+            orphanLayerCallback
+        )
+
         /**
          * Parses [LayersTrace] from [proto] and uses the proto to generates
          * a list of trace entries.
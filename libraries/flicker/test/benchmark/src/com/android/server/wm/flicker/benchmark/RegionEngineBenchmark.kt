@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.flicker.benchmark
+
+import android.platform.test.microbenchmark.Microbenchmark
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.server.wm.traces.common.region.Region
+import com.android.server.wm.traces.common.region.RegionEngine
+import com.android.server.wm.traces.parser.layers.LayersTraceParser
+import com.google.common.io.ByteStreams
+import org.junit.BeforeClass
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Compares the cost of merging the visible regions of every entry of a real trace, as done by
+ * [com.android.server.wm.flicker.traces.layers.LayersTraceSubject.visibleRegion], with
+ * [RegionEngine] and with [Region.op].
+ *
+ * Each iteration is a pass over the whole trace. The iteration times are reported as
+ * `iteration_time_ns_*` metrics by the [Microbenchmark] runner.
+ *
+ * To run this benchmark: `atest FlickerLibBenchmark`
+ */
+@RunWith(Microbenchmark::class)
+class RegionEngineBenchmark {
+    private val engine = RegionEngine()
+
+    @Test
+    fun unionWithRegionOp() {
+        visibleRegions.forEach { regions ->
+            val result = Region.from()
+            regions.forEach { region ->
+                region.rects.forEach { rect -> result.op(rect, Region.Op.UNION) }
+            }
+        }
+    }
+
+    @Test
+    fun unionWithRegionEngine() {
+        visibleRegions.forEach { regions ->
+            engine.setEmpty()
+            regions.forEach { engine.union(it) }
+            engine.toRegion()
+        }
+    }
+
+    companion object {
+        private const val TRACE_FILE = "testdata/layers_trace_openchrome.pb"
+        private const val WARMUP_PASSES = 10
+
+        /** Visible regions of the visible layers of each entry of the trace */
+        private lateinit var visibleRegions: List<List<Region>>
+
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            val context = InstrumentationRegistry.getInstrumentation().context
+            val data = context.assets.open(TRACE_FILE).use { ByteStreams.toByteArray(it) }
+            val trace = LayersTraceParser.parseFromTrace(
+                data,
+                ignoreLayersStackMatchNoDisplay = false,
+                ignoreLayersInVirtualDisplay = false
+            ) { true }
+            visibleRegions = trace.entries.map { entry ->
+                entry.visibleLayers.mapNotNull { it.visibleRegion }
+            }
+
+            // Discard the first passes, which are dominated by class loading and the JIT.
+            val benchmark = RegionEngineBenchmark()
+            repeat(WARMUP_PASSES) {
+                benchmark.unionWithRegionOp()
+                benchmark.unionWithRegionEngine()
+            }
+        }
+    }
+}
@@ -19,9 +19,12 @@ package com.android.server.wm.flicker.layers
 import com.android.server.wm.flicker.assertThatErrorContainsDebugInfo
 import com.android.server.wm.flicker.assertThrows
 import com.android.server.wm.flicker.readLayerTraceFromFile
+import com.android.server.wm.flicker.readTestFile
 import com.android.server.wm.flicker.traces.layers.LayersTraceSubject
 import com.android.server.wm.traces.common.layers.LayersTrace
+import com.android.server.wm.traces.parser.layers.LayersTraceParser
 import com.google.common.truth.Truth
+import java.nio.file.Files
 import org.junit.FixMethodOrder
 import org.junit.Test
 import org.junit.runners.MethodSorters
@@ -146,4 +149,35 @@ class LayersTraceTest {
 
         Truth.assertThat(splitLayersTrace).isEmpty()
     }
-}
\ No newline at end of file
+
+    @Test
+    fun canParseFromMappedTraceFile() {
+        val traceFile = Files.createTempFile("layers_trace", ".pb")
+        try {
+            Files.write(traceFile, readTestFile("layers_trace_openchrome.pb"))
+            val expected = readLayerTraceFromFile("layers_trace_openchrome.pb")
+            val trace = LayersTraceParser.parseFromTraceFile(
+                traceFile,
+                ignoreLayersStackMatchNoDisplay = false,
+                ignoreLayersInVirtualDisplay = false,
+                cacheSize = 2
+            )
+
+            Truth.assertThat(trace.entries.map { it.timestamp })
+                .containsExactlyElementsIn(expected.entries.map { it.timestamp })
+                .inOrder()
+            // Visit the entries twice so that evicted entries are decoded again
+            repeat(2) {
+                trace.entries.zip(expected.entries).forEach { (actual, expectedEntry) ->
+                    Truth.assertThat(actual.where).isEqualTo(expectedEntry.where)
+                    Truth.assertThat(actual.flattenedLayers.map { it.name })
+                        .containsExactlyElementsIn(expectedEntry.flattenedLayers.map { it.name })
+                    Truth.assertThat(actual.visibleLayers.map { it.name })
+                        .containsExactlyElementsIn(expectedEntry.visibleLayers.map { it.name })
+                }
+            }
+        } finally {
+            Files.deleteIfExists(traceFile)
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.flicker.region
+
+import com.android.server.wm.flicker.readLayerTraceFromFile
+import com.android.server.wm.traces.common.Rect
+import com.android.server.wm.traces.common.region.Region
+import com.android.server.wm.traces.common.region.RegionEngine
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.FixMethodOrder
+import org.junit.Test
+import org.junit.runners.MethodSorters
+import kotlin.random.Random
+
+/**
+ * Contains [RegionEngine] tests. To run this test:
+ * `atest FlickerLibTest:RegionEngineTest`
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+class RegionEngineTest {
+    private fun randomRect(random: Random): Rect {
+        val left = random.nextInt(GRID_SIZE)
+        val top = random.nextInt(GRID_SIZE)
+        return Rect(left, top, left + random.nextInt(GRID_SIZE / 2),
+            top + random.nextInt(GRID_SIZE / 2))
+    }
+
+    private fun Rect.containsPoint(x: Int, y: Int): Boolean =
+        x >= left && x < right && y >= top && y < bottom
+
+    private fun apply(op: Region.Op, inA: Boolean, inB: Boolean): Boolean = when (op) {
+        Region.Op.DIFFERENCE -> inA && !inB
+        Region.Op.INTERSECT -> inA && inB
+        Region.Op.UNION -> inA || inB
+        Region.Op.XOR -> inA != inB
+        Region.Op.REVERSE_DIFFERENCE -> !inA && inB
+        Region.Op.REPLACE -> inB
+    }
+
+    @Test
+    fun canStartEmpty() {
+        val engine = RegionEngine()
+        assertTrue(engine.isEmpty)
+        assertTrue(engine.toRegion().isEmpty)
+        assertFalse(engine.contains(0, 0))
+    }
+
+    @Test
+    fun keepsAdjacentRectsAsRect() {
+        val engine = RegionEngine()
+        engine.union(Rect(0, 0, 10, 10))
+        engine.union(Rect(0, 10, 10, 20))
+        engine.union(Rect(10, 0, 20, 20))
+        assertTrue(engine.isRect)
+        assertEquals(Rect(0, 0, 20, 20), engine.bounds)
+        assertEquals(Region.from(0, 0, 20, 20), engine.toRegion())
+    }
+
+    @Test
+    fun canUnionComplexRegions() {
+        val region = Region.from(0, 0, 10, 10)
+        region.op(Rect(20, 20, 30, 30), Region.Op.UNION)
+        val engine = RegionEngine()
+        engine.union(Rect(5, 5, 25, 25))
+        engine.union(region)
+        assertFalse(engine.isRect)
+        assertEquals(Rect(0, 0, 30, 30), engine.bounds)
+        assertTrue(engine.contains(0, 0))
+        assertTrue(engine.contains(29, 29))
+        assertFalse(engine.contains(29, 0))
+        assertFalse(engine.contains(0, 29))
+    }
+
+    @Test
+    fun matchesRegionUnion() {
+        val random = Random(0)
+        repeat(ITERATIONS) {
+            val expected = Region.from()
+            val engine = RegionEngine()
+            repeat(random.nextInt(1, 10)) {
+                val rect = randomRect(random)
+                expected.op(rect, Region.Op.UNION)
+                engine.union(rect)
+            }
+            assertEquals(expected.toString(), engine.toRegion().toString())
+            assertEquals(expected.bounds, engine.bounds)
+        }
+    }
+
+    @Test
+    fun matchesPointsForAllOps() {
+        val random = Random(0)
+        repeat(ITERATIONS) {
+            val rects = Array(random.nextInt(1, 6)) { randomRect(random) }
+            val ops = Array(rects.size) { Region.Op.values().random(random) }
+            val engine = RegionEngine()
+            rects.forEachIndexed { index, rect -> engine.op(rect, ops[index]) }
+
+            assertEquals(engine.bounds, engine.toRegion().bounds)
+            for (x in -1..GRID_SIZE * 3 / 2) {
+                for (y in -1..GRID_SIZE * 3 / 2) {
+                    var expected = false
+                    rects.forEachIndexed { index, rect ->
+                        expected = apply(ops[index], expected, rect.containsPoint(x, y))
+                    }
+                    assertEquals("($x, $y) after ${ops.joinToString()}",
+                        expected, engine.contains(x, y))
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that merging the visible regions of a real trace, as done by
+     * [com.android.server.wm.flicker.traces.region.RegionSubject], gives the same region with
+     * [RegionEngine] as with [Region.op]
+     */
+    @Test
+    fun canMergeVisibleRegionsOfTrace() {
+        val trace = readLayerTraceFromFile("layers_trace_openchrome.pb")
+        val engine = RegionEngine()
+        trace.entries.forEach { entry ->
+            val regions = entry.visibleLayers.mapNotNull { it.visibleRegion }
+            val expected = Region.from()
+            regions.forEach { region ->
+                region.rects.forEach { rect -> expected.op(rect, Region.Op.UNION) }
+            }
+            engine.setEmpty()
+            regions.forEach { engine.union(it) }
+            assertEquals(expected.toString(), engine.toRegion().toString())
+        }
+    }
+
+    companion object {
+        private const val GRID_SIZE = 40
+        private const val ITERATIONS = 200
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm.flicker.service
+
+import com.android.server.wm.flicker.readLayerTraceFromFile
+import com.android.server.wm.flicker.readWmTraceFromFile
+import com.android.server.wm.traces.common.service.TaggingEngine
+import com.android.server.wm.traces.common.service.processors.AppCloseProcessor
+import com.android.server.wm.traces.common.service.processors.AppLaunchProcessor
+import com.android.server.wm.traces.common.service.processors.ImeAppearProcessor
+import com.android.server.wm.traces.common.service.processors.ImeDisappearProcessor
+import com.android.server.wm.traces.common.service.processors.PipEnterProcessor
+import com.android.server.wm.traces.common.service.processors.PipExitProcessor
+import com.android.server.wm.traces.common.service.processors.PipExpandProcessor
+import com.android.server.wm.traces.common.service.processors.PipResizeProcessor
+import com.android.server.wm.traces.common.service.processors.RotationProcessor
+import com.android.server.wm.traces.common.tags.Tag
+import com.android.server.wm.traces.common.tags.TagTrace
+import com.android.server.wm.traces.common.tags.Transition
+import com.google.common.truth.Truth
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Contains [TaggingEngine] tests, checking that tagging all processors in a single pass over the
+ * traces generates the same tags as running each processor on its own.
+ *
+ * Tag ids come from a counter shared by all processors, so they differ between the two runs.
+ * Instead of the raw ids, the tests compare the start and end tags that each id pairs.
+ *
+ * To run this test: `atest FlickerLibTest:TaggingEngineTest`
+ */
+@RunWith(Parameterized::class)
+class TaggingEngineTest(private val traceDir: String) {
+    private val wmTrace by lazy {
+        readWmTraceFromFile("tagprocessors/$traceDir/WindowManagerTrace.winscope")
+    }
+    private val layersTrace by lazy {
+        readLayerTraceFromFile("tagprocessors/$traceDir/SurfaceFlingerTrace.winscope")
+    }
+
+    private val engineTags by lazy { TaggingEngine(wmTrace, layersTrace) { }.run() }
+
+    private val processorTags by lazy {
+        listOf(
+            RotationProcessor { },
+            AppLaunchProcessor { },
+            AppCloseProcessor { },
+            ImeAppearProcessor { },
+            ImeDisappearProcessor { },
+            PipEnterProcessor { },
+            PipResizeProcessor { },
+            PipExpandProcessor { },
+            PipExitProcessor { }
+        ).map { it.generateTags(wmTrace, layersTrace) }
+    }
+
+    @Test
+    fun generatesTags() {
+        Truth.assertWithMessage("Number of tags")
+            .that(engineTags.flatMap { it.tags.toList() })
+            .isNotEmpty()
+    }
+
+    @Test
+    fun generatesSameTagsAsProcessors() {
+        val expectedTags = processorTags.flatMap { trace ->
+            trace.flatMap { state -> state.tags.map { state.timestamp to it.copy(id = 0) } }
+        }
+        val actualTags = engineTags.flatMap { state ->
+            state.tags.map { state.timestamp to it.copy(id = 0) }
+        }
+        Truth.assertWithMessage("Tags without ids")
+            .that(actualTags)
+            .containsExactlyElementsIn(expectedTags)
+    }
+
+    @Test
+    fun pairsSameStartAndEndTagsAsProcessors() {
+        val expectedPairs = processorTags.flatMap { getTagPairs(it) }
+        Truth.assertWithMessage("Start and end tags paired by id")
+            .that(getTagPairs(engineTags))
+            .containsExactlyElementsIn(expectedPairs)
+    }
+
+    @Test
+    fun closesEachStartTagOnce() {
+        val tags = engineTags.flatMap { it.tags.toList() }
+        val startIds = tags.filter { it.isStartTag }.map { it.id }
+        val endIds = tags.filterNot { it.isStartTag }.map { it.id }
+        Truth.assertWithMessage("Start tag ids").that(startIds).containsNoDuplicates()
+        Truth.assertWithMessage("End tag ids").that(endIds).containsNoDuplicates()
+        Truth.assertWithMessage("Closed tag ids").that(startIds).containsAtLeastElementsIn(endIds)
+    }
+
+    /**
+     * Returns the transition, start and end timestamp of every start tag in [trace], pairing
+     * each start tag with the end tag of the same id. Open tags have no end timestamp.
+     */
+    private fun getTagPairs(trace: TagTrace): List<TagPair> {
+        val taggedStates = trace.flatMap { state -> state.tags.map { state.timestamp to it } }
+        val endTimestamps = taggedStates.filterNot { (_, tag) -> tag.isStartTag }
+            .associate { (timestamp, tag) -> tag.id to timestamp }
+        return taggedStates.filter { (_, tag) -> tag.isStartTag }
+            .map { (timestamp, tag) ->
+                TagPair(tag.transition, timestamp, endTimestamps[tag.id], tag.copy(id = 0))
+            }
+    }
+
+    private data class TagPair(
+        val transition: Transition,
+        val startTimestamp: Long,
+        val endTimestamp: Long?,
+        val startTag: Tag
+    )
+
+    companion object {
+        @Parameterized.Parameters(name = "{0}")
+        @JvmStatic
+        fun getParams(): Collection<String> = listOf(
+            "applaunch/withrot",
+            "appclose/rotated",
+            "rotation/regular",
+            "ime/appear/bygesture",
+            "pip/enter/rotation"
+        )
+    }
+}
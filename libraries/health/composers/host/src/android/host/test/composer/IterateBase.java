@@ -16,13 +16,14 @@
 package android.host.test.composer;
 
 import java.lang.AssertionError;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * A {@link Compose} function base class for repeating objects a configurable number of times.
+ *
+ * <p>The returned list is unmodifiable and computes its elements from their index, so it only
+ * holds the distinct input objects regardless of the number of iterations. A runner that copies
+ * its children still holds a reference per iteration, see {@link IterationSchedule}.
  */
 public abstract class IterateBase<T, U> implements Compose<T, U> {
     protected static final String ITERATIONS_OPTION_NAME = "iterations";
@@ -47,17 +48,15 @@ public abstract class IterateBase<T, U> implements Compose<T, U> {
     public List<U> apply(T args, List<U> input) {
         int iterations = getIterationsArgument(args);
         OrderOptions order = getOrdersArgument(args);
+        if (iterations < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Iterations cannot be negative: %d", iterations));
+        }
         switch (order) {
             case CYCLIC:
-                return Collections.nCopies(iterations, input)
-                        .stream()
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList());
+                return IterationSchedule.cyclic(input, iterations);
             case SEQUENTIAL:
-                return input.stream()
-                        .map(u -> Collections.nCopies(iterations, u))
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList());
+                return IterationSchedule.sequential(input, iterations);
         }
         // We should never get here as the switch statement should exhaust the order options.
         throw new AssertionError(
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.host.test.composer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable {@link List} of iterated objects that computes each element from its index.
+ *
+ * <p>Only the distinct input objects are held, so the memory used and the time to build a schedule
+ * don't depend on the number of iterations. A schedule can be shuffled with {@link #shuffle}, which
+ * applies a seeded permutation to the indices instead of moving elements.
+ *
+ * <p>This doesn't make a whole run O(1) in memory: a JUnit {@code ParentRunner} copies the list
+ * returned by {@code getChildren()}, so it still holds one reference per iteration. What is saved
+ * is the intermediate lists built by iterating, and moving every element when shuffling.
+ */
+final class IterationSchedule<U> extends AbstractList<U> implements RandomAccess {
+    private final List<U> mInput;
+    private final int mIterations;
+    private final boolean mSequential;
+    private final int mSize;
+    private final Permutation mPermutation;
+
+    private IterationSchedule(
+            List<U> input, int iterations, boolean sequential, Permutation permutation) {
+        mInput = input;
+        mIterations = iterations;
+        mSequential = sequential;
+        mSize = Math.multiplyExact(input.size(), iterations);
+        mPermutation = permutation;
+    }
+
+    /** Returns a schedule repeating the whole {@code input} {@code iterations} times. */
+    static <U> IterationSchedule<U> cyclic(List<U> input, int iterations) {
+        return new IterationSchedule<>(new ArrayList<>(input), iterations, false, null);
+    }
+
+    /** Returns a schedule repeating each of the {@code input} {@code iterations} times in turn. */
+    static <U> IterationSchedule<U> sequential(List<U> input, int iterations) {
+        return new IterationSchedule<>(new ArrayList<>(input), iterations, true, null);
+    }
+
+    /** Returns this schedule in an order determined by {@code seed}. */
+    IterationSchedule<U> shuffle(long seed) {
+        return new IterationSchedule<>(
+                mInput, mIterations, mSequential, new Permutation(mSize, seed, mPermutation));
+    }
+
+    @Override
+    public U get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Index %d is out of bounds for size %d", index, mSize));
+        }
+        int position = mPermutation == null ? index : mPermutation.apply(index);
+        return mSequential
+                ? mInput.get(position / mIterations)
+                : mInput.get(position % mInput.size());
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * A seeded bijection of [0, size), implemented as a balanced Feistel network on the smallest
+     * power of two domain that contains it, walking the cycle until the result is in range.
+     */
+    private static final class Permutation {
+        private static final int ROUNDS = 4;
+
+        private final int mSize;
+        private final int mHalfBits;
+        private final long mHalfMask;
+        private final int[] mKeys = new int[ROUNDS];
+        /** Permutation applied before this one, for shuffling a shuffled schedule. */
+        private final Permutation mPrevious;
+
+        Permutation(int size, long seed, Permutation previous) {
+            mSize = size;
+            // An even number of bits, so both halves have the same width.
+            int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(size - 1, 1)));
+            mHalfBits = (bits + 1) / 2;
+            mHalfMask = (1L << mHalfBits) - 1;
+            Random random = new Random(seed);
+            for (int i = 0; i < ROUNDS; i++) {
+                mKeys[i] = random.nextInt();
+            }
+            mPrevious = previous;
+        }
+
+        int apply(int index) {
+            long value = index;
+            do {
+                value = encrypt(value);
+            } while (value >= mSize);
+            return mPrevious == null ? (int) value : mPrevious.apply((int) value);
+        }
+
+        private long encrypt(long value) {
+            long left = value >>> mHalfBits;
+            long right = value & mHalfMask;
+            for (int key : mKeys) {
+                long next = left ^ (round((int) right, key) & mHalfMask);
+                left = right;
+                right = next;
+            }
+            return (left << mHalfBits) | right;
+        }
+
+        private static long round(int value, int key) {
+            int mixed = (value ^ key) * 0x9E3779B1;
+            mixed ^= mixed >>> 16;
+            mixed *= 0x85EBCA6B;
+            mixed ^= mixed >>> 13;
+            return Integer.toUnsignedLong(mixed);
+        }
+    }
+}
@@ -21,6 +21,9 @@ import java.util.Random;
 
 /**
  * A {@link Compose} function base class for shuffling all objects with an optional seed.
+ *
+ * <p>Lists returned by {@link IterateBase} are shuffled lazily by permuting their indices, and the
+ * same seed always produces the same order. Other lists are shuffled in place.
  */
 public abstract class ShuffleBase<T, U> implements Compose<T, U> {
     protected static final String SEED_OPTION_NAME = "seed";
@@ -42,6 +45,9 @@ public abstract class ShuffleBase<T, U> implements Compose<T, U> {
         boolean shuffle = getShuffleArgument(args);
         if (shuffle) {
             long seed = getSeedArgument(args);
+            if (input instanceof IterationSchedule) {
+                return ((IterationSchedule<U>) input).shuffle(seed);
+            }
             Collections.shuffle(input, new Random(seed));
         }
         return input;
@@ -46,6 +46,24 @@ public abstract class ShuffleTestBase<T> {
         assertThat(input).isEqualTo(output);
     }
 
+    /**
+     * Unit test that shuffling an iterated list with a specific seed is a repeatable permutation.
+     */
+    @Test
+    public void testShuffleIteratedSeedRespected() {
+        long seedValue = new Random().nextLong();
+        // Construct an iterated input list and shuffle it twice with the same seed.
+        List<Integer> input =
+                IterationSchedule.cyclic(
+                        IntStream.range(1, 10).boxed().collect(Collectors.toList()), 25);
+        List<Integer> output = getShuffle().apply(getArguments(true, seedValue), input);
+        List<Integer> repeated = getShuffle().apply(getArguments(true, seedValue), input);
+        assertThat(output).isEqualTo(repeated);
+        // The output should contain exactly the same elements as the input.
+        assertThat(output).containsExactlyElementsIn(input);
+        assertThat(output).isNotEqualTo(input);
+    }
+
     protected abstract ShuffleBase<T, Integer> getShuffle();
 
     protected abstract T getArguments(boolean shuffle, long seed);
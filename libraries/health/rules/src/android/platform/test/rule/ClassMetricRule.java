@@ -38,10 +38,10 @@ import androidx.test.InstrumentationRegistry;
  * <p>For {@code Microbenchmark}s, this rule can be dynamically injected either inside or outside
  * hardcoded rules (see {@code Microbenchmark})'s JavaDoc).
  *
- * <p>Note that metrics collected from this rule are reported as run metrics. Therefore, there is
- * the risk of metric key collision if a run contains multiple classes that report metrics under the
- * same key. At the moment, it's the responsibility of the metric collector to prevent collision
- * across test classes.
+ * <p>Note that metrics collected from this rule, including the time each collector took, are
+ * reported as run metrics. Therefore, there is the risk of metric key collision if a run contains
+ * multiple classes that report metrics under the same key. At the moment, it's the responsibility
+ * of the metric collector to prevent collision across test classes.
  *
  * <p>Exceptions from metric listeners are silently logged. This behavior is in accordance with the
  * approach taken by {@link BaseMetricListener}.
@@ -64,4 +64,9 @@ public class ClassMetricRule extends TestMetricRule {
             listener.setReportAsInstrumentationResults(true);
         }
     }
+
+    @Override
+    protected void reportDurations(Bundle durations) {
+        mInstrumentation.addResults(durations);
+    }
 }
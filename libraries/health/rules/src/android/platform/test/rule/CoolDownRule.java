@@ -15,10 +15,12 @@
  */
 package android.platform.test.rule;
 
+import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.VisibleForTesting;
+import androidx.test.InstrumentationRegistry;
 
 import com.android.helpers.ThermalHelper;
 
@@ -34,6 +36,14 @@ import org.junit.runner.Description;
  * "cooldown-device-temperature-name" to check temperature. The spaces in temperature name must be
  * replaced with '#' and '#' should be replaced with '##'. The rule unescapes argument value string
  * of temperature name accordingly.
+ *
+ * <p>With "cooldown-adaptive" set, the temperature is smoothed and its cooling rate estimated, and
+ * the next poll is scheduled from the predicted time to reach the target, between
+ * "cooldown-min-poll-interval" and "cooldown-poll-interval". The test starts as soon as both the
+ * measured and the smoothed temperatures are at or below the target, without the post idle wait,
+ * and the cool down time and the time saved compared to the fixed polling are reported as metrics.
+ * The smoothed temperature includes the extrapolated trend, which undershoots while the cooling
+ * slows down, so it only schedules the polls and never starts the test on its own.
  */
 public class CoolDownRule extends TestWatcher {
 
@@ -66,6 +76,24 @@ public class CoolDownRule extends TestWatcher {
 
     private int mTargetTemperature = 35;
 
+    // Whether to schedule polls from the predicted cooling time; defaults to false
+    @VisibleForTesting static final String ADAPTIVE_OPTION = "cooldown-adaptive";
+    private boolean mAdaptive = false;
+
+    // Minimum interval in seconds between polls in adaptive mode; defaults to 1s
+    @VisibleForTesting
+    static final String MIN_POLL_INTERVAL_OPTION = "cooldown-min-poll-interval";
+
+    private long mMinPollIntervalSecs = 1;
+
+    // Weight of the latest reading in the smoothed temperature and rate, in (0, 1]; defaults to 0.5
+    @VisibleForTesting static final String SMOOTHING_OPTION = "cooldown-smoothing";
+    private double mSmoothing = 0.5;
+
+    @VisibleForTesting static final String DURATION_METRIC = "cooldown_duration_ms";
+    @VisibleForTesting static final String SAVED_METRIC = "cooldown_saved_ms";
+    @VisibleForTesting static final int INST_STATUS_IN_PROGRESS = 2;
+
     private ThermalHelper mThermalHelper;
 
     @Override
@@ -90,6 +118,13 @@ public class CoolDownRule extends TestWatcher {
                             "Invalid target target temperature: %d degree Celsius",
                             mTargetTemperature));
         }
+        mAdaptive = Boolean.valueOf(getArguments().getString(ADAPTIVE_OPTION, "false"));
+        mMinPollIntervalSecs =
+                Long.valueOf(getArguments().getString(MIN_POLL_INTERVAL_OPTION, "1"));
+        mSmoothing = Double.valueOf(getArguments().getString(SMOOTHING_OPTION, "0.5"));
+        if (mSmoothing <= 0 || mSmoothing > 1) {
+            throw new IllegalArgumentException("Invalid smoothing factor: " + mSmoothing);
+        }
         mThermalHelper = initThermalHelper();
 
         try {
@@ -99,7 +134,11 @@ public class CoolDownRule extends TestWatcher {
                 getUiDevice().sleep();
             }
 
-            waitTemperature();
+            if (mAdaptive) {
+                waitTemperatureAdaptive(description);
+            } else {
+                waitTemperature();
+            }
 
             // Turn on the screen if necessary.
             if (screenOnOriginal && !getUiDevice().isScreenOn()) {
@@ -163,6 +202,88 @@ public class CoolDownRule extends TestWatcher {
                         (System.currentTimeMillis() - start) / 1000));
     }
 
+    private void waitTemperatureAdaptive(Description description) {
+        long start = System.currentTimeMillis();
+        long maxWaitMs = mMaxWaitSecs * 1000;
+        long maxIntervalMs = mPollIntervalSecs * 1000;
+        long minIntervalMs = Math.min(mMinPollIntervalSecs * 1000, maxIntervalMs);
+        TemperatureTrend trend = new TemperatureTrend(mSmoothing);
+        int deviceTemperature = getDeviceTemperature(mDeviceTemperatureName);
+        long elapsed = elapsedMs(start);
+        trend.add(elapsed, deviceTemperature);
+
+        while (!isCooledDown(deviceTemperature, trend) && elapsed < maxWaitMs) {
+            // Poll again halfway to the predicted time, so the estimate is refined on the way.
+            long predictedMs = trend.predictMsTo(mTargetTemperature);
+            long intervalMs = Math.max(minIntervalMs, Math.min(maxIntervalMs, predictedMs / 2));
+            Log.i(
+                    LOG_TAG,
+                    String.format(
+                            "Temperature is still high actual %d/smoothed %.1f/expected %d,"
+                                    + " predicted %ds to target",
+                            deviceTemperature,
+                            trend.getLevel(),
+                            mTargetTemperature,
+                            predictedMs == Long.MAX_VALUE ? -1 : predictedMs / 1000));
+            sleepMs(intervalMs);
+            deviceTemperature = getDeviceTemperature(mDeviceTemperatureName);
+            elapsed = elapsedMs(start);
+            trend.add(elapsed, deviceTemperature);
+        }
+
+        if (!isCooledDown(deviceTemperature, trend)) {
+            Log.w(
+                    LOG_TAG,
+                    String.format(
+                            "Temperature is still high, actual %d/expected %d; waiting after %ds",
+                            deviceTemperature, mTargetTemperature, elapsed / 1000));
+            if (mAbortOnTimeout) {
+                throw new IllegalStateException(
+                        String.format(
+                                "Temperature is still high after wait timeout; actual %d/expected"
+                                        + " %d",
+                                deviceTemperature, mTargetTemperature));
+            }
+            // The fixed polling would have waited as long, and then the post idle wait.
+            reportMetrics(description, elapsed, mPostIdleWaitSecs * 1000);
+            return;
+        }
+
+        // The fixed polling reaches the target at the first poll after this one, then idles.
+        long fixedMs =
+                (elapsed + maxIntervalMs - 1) / maxIntervalMs * maxIntervalMs
+                        + mPostIdleWaitSecs * 1000;
+        long savedMs = Math.max(0, fixedMs - elapsed);
+        Log.i(
+                LOG_TAG,
+                String.format(
+                        "Total time elapsed to get to %dc : %ds, saved %ds",
+                        mTargetTemperature, elapsed / 1000, savedMs / 1000));
+        reportMetrics(description, elapsed, savedMs);
+    }
+
+    /**
+     * Returns whether the test can start: the measured temperature must be at the target, and the
+     * smoothed one too, so that a single low reading doesn't start the test early.
+     */
+    private boolean isCooledDown(int deviceTemperature, TemperatureTrend trend) {
+        return Math.max(deviceTemperature, trend.getLevel()) <= mTargetTemperature;
+    }
+
+    private void reportMetrics(Description description, long durationMs, long savedMs) {
+        Bundle metrics = new Bundle();
+        String suffix =
+                String.format("_%s#%s", description.getClassName(), description.getMethodName());
+        metrics.putLong(DURATION_METRIC + suffix, durationMs);
+        metrics.putLong(SAVED_METRIC + suffix, savedMs);
+        sendMetrics(metrics);
+    }
+
+    @VisibleForTesting
+    void sendMetrics(Bundle metrics) {
+        InstrumentationRegistry.getInstrumentation().sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+    }
+
     @VisibleForTesting
     void sleepMs(long milliSeconds) {
         SystemClock.sleep(milliSeconds);
@@ -222,4 +343,53 @@ public class CoolDownRule extends TestWatcher {
         }
         return result.toString();
     }
+
+    /**
+     * Double exponential smoothing of the temperature readings, which tracks both the temperature
+     * and its rate of change, so that a single noisy reading neither starts the test early nor
+     * skews the prediction.
+     */
+    private static class TemperatureTrend {
+        private final double mAlpha;
+        private int mCount;
+        private long mLastMs;
+        private double mLevel;
+        // Degrees per millisecond, negative while cooling down.
+        private double mRate;
+
+        TemperatureTrend(double alpha) {
+            mAlpha = alpha;
+        }
+
+        void add(long timeMs, double temperature) {
+            if (mCount > 0 && timeMs <= mLastMs) return;
+            if (mCount == 0) {
+                mLevel = temperature;
+            } else if (mCount == 1) {
+                mRate = (temperature - mLevel) / (timeMs - mLastMs);
+                mLevel = temperature;
+            } else {
+                long deltaMs = timeMs - mLastMs;
+                double level = mAlpha * temperature + (1 - mAlpha) * (mLevel + mRate * deltaMs);
+                mRate = mAlpha * (level - mLevel) / deltaMs + (1 - mAlpha) * mRate;
+                mLevel = level;
+            }
+            mCount++;
+            mLastMs = timeMs;
+        }
+
+        double getLevel() {
+            return mLevel;
+        }
+
+        /**
+         * Returns the predicted time to cool down to {@code target}, 0 if the rate isn't known yet,
+         * or MAX_VALUE if the temperature isn't going down.
+         */
+        long predictMsTo(double target) {
+            if (mLevel <= target || mCount < 2) return 0;
+            if (mRate >= 0) return Long.MAX_VALUE;
+            return (long) ((mLevel - target) / -mRate);
+        }
+    }
 }
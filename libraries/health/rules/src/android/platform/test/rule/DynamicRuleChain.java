@@ -26,9 +26,12 @@ import org.junit.runners.model.Statement;
 import org.junit.runner.Description;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A rule that loads other ({@link TestRule}s) at runtime.
@@ -49,6 +52,10 @@ public class DynamicRuleChain implements TestRule {
 
     @VisibleForTesting static final String RULES_PACKAGE = "android.platform.test.rule";
 
+    /** Resolved rules for each value of a rules option, shared by all of the chains. */
+    private static final Map<String, List<RuleFactory>> sResolvedChains =
+            new ConcurrentHashMap<>();
+
     private String mRulesOptionName = DEFAULT_RULES_OPTION;
     private Bundle mArgs;
 
@@ -71,17 +78,33 @@ public class DynamicRuleChain implements TestRule {
 
     @Override
     public Statement apply(final Statement base, final Description description) {
-        List<String> ruleNames = Arrays.asList(mArgs.getString(mRulesOptionName, "").split(","));
-        // The inner rules need to be applied first, so reverse the class names first.
-        Collections.reverse(ruleNames);
+        String rules = mArgs.getString(mRulesOptionName, "");
+        // Rules are only resolved once for each option value, as the chain is typically applied
+        // to every test method and, in Microbenchmark, to every iteration.
+        List<RuleFactory> factories = sResolvedChains.get(rules);
+        if (factories == null) {
+            factories = resolveRules(rules);
+            sResolvedChains.put(rules, factories);
+        }
         // Instantiate rules and apply them one-by-one.
         // JUnit's RunRules is not used here because its ordering of rules is not clearly defined.
         Statement statement = base;
+        for (RuleFactory factory : factories) {
+            statement = factory.create().apply(statement, description);
+        }
+        return statement;
+    }
+
+    /** Returns the factories of the comma-separated {@code rules}, innermost rule first. */
+    private static List<RuleFactory> resolveRules(String rules) {
+        List<String> ruleNames = Arrays.asList(rules.split(","));
+        // The inner rules need to be applied first, so reverse the class names first.
+        Collections.reverse(ruleNames);
+        List<RuleFactory> factories = new ArrayList<>();
         for (String ruleName : ruleNames) {
             if (ruleName.isEmpty()) {
                 continue;
             }
-            TestRule rule = null;
             // We could use a regex here, but this is simpler and should work just as well.
             if (ruleName.contains(".")) {
                 Log.i(
@@ -90,7 +113,7 @@ public class DynamicRuleChain implements TestRule {
                                 "Attempting to dynamically load rule with fully qualified name %s.",
                                 ruleName));
                 try {
-                    rule = loadRuleByFullyQualifiedName(ruleName);
+                    factories.add(loadRuleByFullyQualifiedName(ruleName));
                 } catch (Exception e) {
                     throw new IllegalArgumentException(
                             String.format(
@@ -107,7 +130,7 @@ public class DynamicRuleChain implements TestRule {
                                         + " (fully qualified name: %s).",
                                 ruleName, fullName));
                 try {
-                    rule = loadRuleByFullyQualifiedName(fullName);
+                    factories.add(loadRuleByFullyQualifiedName(fullName));
                 } catch (Exception e) {
                     throw new IllegalArgumentException(
                             String.format(
@@ -116,12 +139,11 @@ public class DynamicRuleChain implements TestRule {
                             e);
                 }
             }
-            statement = rule.apply(statement, description);
         }
-        return statement;
+        return Collections.unmodifiableList(factories);
     }
 
-    private TestRule loadRuleByFullyQualifiedName(String name) throws Exception {
+    private static RuleFactory loadRuleByFullyQualifiedName(String name) throws Exception {
         // Load the rule class using reflection.
         Class<?> loadedClass = null;
         try {
@@ -136,11 +158,10 @@ public class DynamicRuleChain implements TestRule {
                     String.format("Class %s is not a TestRule.", loadedClass));
         }
 
-        // Use the default constructor to create a rule instance.
+        // Use the default constructor to create rule instances.
         try {
             Constructor<?> constructor = loadedClass.getConstructor();
-            // Cast is safe as we have vetted that loadedClass is a TestRule.
-            return (TestRule) constructor.newInstance();
+            return new RuleFactory(constructor);
         } catch (NoSuchMethodException e) {
             throw new IllegalArgumentException(
                     String.format(
@@ -149,4 +170,43 @@ public class DynamicRuleChain implements TestRule {
                     e);
         }
     }
+
+    /**
+     * Creates the instances of a rule, or reuses a single instance for a {@link StatelessRule}.
+     */
+    private static class RuleFactory {
+        private final Constructor<?> mConstructor;
+        private final boolean mStateless;
+        // The instance to return from the next call to create(), if any.
+        private TestRule mInstance;
+
+        RuleFactory(Constructor<?> constructor) throws ReflectiveOperationException {
+            mConstructor = constructor;
+            mStateless = constructor.getDeclaringClass().isAnnotationPresent(StatelessRule.class);
+            // Create the first instance now, so that failures are reported while loading.
+            mInstance = newInstance();
+        }
+
+        synchronized TestRule create() {
+            TestRule rule = mInstance;
+            if (rule == null) {
+                try {
+                    rule = newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "Failed to instantiate rule %s.",
+                                    mConstructor.getDeclaringClass()),
+                            e);
+                }
+            }
+            mInstance = mStateless ? rule : null;
+            return rule;
+        }
+
+        private TestRule newInstance() throws ReflectiveOperationException {
+            // Cast is safe as we have vetted that the class is a TestRule.
+            return (TestRule) mConstructor.newInstance();
+        }
+    }
 }
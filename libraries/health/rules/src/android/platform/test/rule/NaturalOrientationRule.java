@@ -22,6 +22,7 @@ import org.junit.runner.Description;
 /**
  * This rule will lock orientation before running a test class and unlock after.
  */
+@StatelessRule
 public class NaturalOrientationRule extends TestWatcher {
     @Override
     protected void starting(Description description) {
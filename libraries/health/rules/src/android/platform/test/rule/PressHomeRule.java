@@ -23,6 +23,7 @@ import org.junit.runner.Description;
  * This rule will navigate to home at the end of each test method.
  * TODO: Revisit this after b/132100677 is fixed.
  */
+@StatelessRule
 public class PressHomeRule extends TestWatcher {
 
     static final String GO_HOME = "press-home";
@@ -18,6 +18,8 @@ package android.platform.test.rule;
 import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 
@@ -34,12 +36,24 @@ import java.util.Date;
  * because the test execution took too long, and tests that ran for too long even without being
  * terminated. If the process was terminated or the test was long, the test leaves an artifact with
  * stack traces of all threads, every second. This will help understanding where we stuck.
+ *
+ * <p>With the {@value #FORMAT_OPTION} option set to {@value #FORMAT_COLLAPSED}, the rule instead
+ * profiles the test with a {@link StackSampler}, which keeps its file and writes deduplicated
+ * stacks in the collapsed format read by flame graph tools. The interval is set by {@value
+ * #INTERVAL_OPTION}, and {@value #THREADS_OPTION} set to {@value #THREADS_TEST} samples only the
+ * thread running the test, without pausing the other threads.
  */
 public class SamplerRule extends TestWatcher {
     private static final String TAG = SamplerRule.class.getSimpleName();
     private static final int TOO_LONG_TEST_MS = 60000;
     private static boolean sEnabled;
 
+    @VisibleForTesting static final String FORMAT_OPTION = "sampler-format";
+    @VisibleForTesting static final String FORMAT_COLLAPSED = "collapsed";
+    @VisibleForTesting static final String INTERVAL_OPTION = "sampler-interval-ms";
+    @VisibleForTesting static final String THREADS_OPTION = "sampler-threads";
+    @VisibleForTesting static final String THREADS_TEST = "test";
+
     public static void enable(boolean enabled) {
         // The rule need to be explicitly enabled to avoid slowing down performance tests.
         sEnabled = enabled;
@@ -110,6 +124,26 @@ public class SamplerRule extends TestWatcher {
         return thread;
     }
 
+    private Thread startSampler(Description description) {
+        final String strDate = new SimpleDateFormat("HH:mm:ss").format(new Date());
+        final File file =
+                ArtifactSaver.artifactFile(
+                        "ThreadStackSamples-"
+                                + strDate
+                                + "-"
+                                + description.getTestClass().getSimpleName()
+                                + ".collapsed");
+        final long intervalMs = Long.parseLong(getArguments().getString(INTERVAL_OPTION, "1000"));
+        final Thread target =
+                THREADS_TEST.equals(getArguments().getString(THREADS_OPTION))
+                        ? Thread.currentThread()
+                        : null;
+        Log.d(TAG, "Sampling stacks every " + intervalMs + " ms into " + file);
+        final Thread thread = new StackSampler(file, intervalMs, target);
+        thread.start();
+        return thread;
+    }
+
     @Override
     public Statement apply(Statement base, Description description) {
         if (!sEnabled) return base;
@@ -117,7 +151,10 @@ public class SamplerRule extends TestWatcher {
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
-                final Thread traceThread = startThread(description);
+                final Thread traceThread =
+                        FORMAT_COLLAPSED.equals(getArguments().getString(FORMAT_OPTION))
+                                ? startSampler(description)
+                                : startThread(description);
                 try {
                     SamplerRule.super.apply(base, description).evaluate();
                 } finally {
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.rule;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thread that samples stack traces at a fixed interval and aggregates them into a trie of frame
+ * ids, so that repeated stacks cost a counter increment instead of a copy of every frame.
+ *
+ * <p>The samples are written in the collapsed stack format, one line per distinct stack with the
+ * thread name as the root frame and the number of times it was seen, which flame graph tools read
+ * directly. The file is rewritten periodically, so it is usable even if the process is killed.
+ * Lines starting with '#' record the number of samples and the time the sampled threads were
+ * paused by the sampler, so that measurements taken at the same time can be corrected.
+ *
+ * <p>If taking a sample takes longer than {@link #MAX_OVERHEAD} of the interval, the interval is
+ * stretched, so that the sampler never pauses the sampled threads for more than that fraction of
+ * the time.
+ */
+class StackSampler extends Thread {
+    private static final String TAG = StackSampler.class.getSimpleName();
+
+    static final long MIN_INTERVAL_MS = 10;
+    static final double MAX_OVERHEAD = 0.1;
+    private static final long FLUSH_INTERVAL_MS = 5000;
+    private static final int ROOT = 0;
+
+    private final File mFile;
+    private final long mIntervalNanos;
+    /** The only thread to sample, or null to sample all threads. */
+    private final Thread mTarget;
+
+    // Frame names, deduplicated by id. Elements that differ only by line number share a name.
+    private final Map<StackTraceElement, Integer> mElementIds = new HashMap<>();
+    private final Map<String, Integer> mNameIds = new HashMap<>();
+    private final List<String> mNames = new ArrayList<>();
+
+    // Trie of the stacks, rooted at node 0. A node is a frame called from its parent node.
+    private final Map<Long, Integer> mChildren = new HashMap<>();
+    private int[] mParents = new int[256];
+    private int[] mFrames = new int[256];
+    private int[] mCounts = new int[256];
+    private int mNodeCount = 1;
+
+    private int mSampleCount;
+    private long mPauseNanos;
+    private long mMaxPauseNanos;
+
+    /**
+     * @param file collapsed stacks output file.
+     * @param intervalMs time between samples, at least {@link #MIN_INTERVAL_MS}.
+     * @param target the only thread to sample, or null to sample all threads.
+     */
+    StackSampler(File file, long intervalMs, Thread target) {
+        super(TAG);
+        mFile = file;
+        mIntervalNanos = Math.max(intervalMs, MIN_INTERVAL_MS) * 1_000_000;
+        mTarget = target;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime();
+        try {
+            while (!isInterrupted()) {
+                final long start = System.nanoTime();
+                if (mTarget != null) {
+                    StackTraceElement[] stack = mTarget.getStackTrace();
+                    recordPause(System.nanoTime() - start);
+                    addSample(mTarget.getName(), stack);
+                } else {
+                    Map<Thread, StackTraceElement[]> stacks = getAllStackTraces();
+                    recordPause(System.nanoTime() - start);
+                    for (Map.Entry<Thread, StackTraceElement[]> entry : stacks.entrySet()) {
+                        if (entry.getKey() != this) {
+                            addSample(entry.getKey().getName(), entry.getValue());
+                        }
+                    }
+                }
+
+                final long end = System.nanoTime();
+                if (end - lastFlush >= FLUSH_INTERVAL_MS * 1_000_000) {
+                    write();
+                    lastFlush = System.nanoTime();
+                }
+
+                // Keep the time spent sampling under MAX_OVERHEAD of the elapsed time.
+                final long pause = end - start;
+                final long minSleep = (long) (pause * (1 - MAX_OVERHEAD) / MAX_OVERHEAD);
+                final long sleep = Math.max(mIntervalNanos - (System.nanoTime() - start), minSleep);
+                if (sleep > 0) {
+                    sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                }
+            }
+        } catch (InterruptedException e) {
+            // The test finished.
+        }
+        write();
+    }
+
+    /** Adds a sample of {@code stack}, leaf frame first, taken on the thread {@code threadName}. */
+    void addSample(String threadName, StackTraceElement[] stack) {
+        int node = child(ROOT, nameId(threadName.replace(';', '_')));
+        for (int i = stack.length - 1; i >= 0; i--) {
+            node = child(node, frameId(stack[i]));
+        }
+        mCounts[node]++;
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    long getPauseNanos() {
+        return mPauseNanos;
+    }
+
+    /** Writes the header and one line per distinct stack to {@code writer}. */
+    void writeCollapsed(Writer writer) throws IOException {
+        writer.write(
+                String.format(
+                        "# samples=%d interval_ns=%d pause_ns=%d max_pause_ns=%d\n",
+                        mSampleCount, mIntervalNanos, mPauseNanos, mMaxPauseNanos));
+        final StringBuilder line = new StringBuilder();
+        final int[] path = new int[mNodeCount];
+        for (int node = 1; node < mNodeCount; node++) {
+            if (mCounts[node] == 0) continue;
+            int depth = 0;
+            for (int n = node; n != ROOT; n = mParents[n]) {
+                path[depth++] = mFrames[n];
+            }
+            line.setLength(0);
+            for (int i = depth - 1; i >= 0; i--) {
+                line.append(mNames.get(path[i])).append(i > 0 ? ';' : ' ');
+            }
+            line.append(mCounts[node]).append('\n');
+            writer.write(line.toString());
+        }
+    }
+
+    private void recordPause(long pauseNanos) {
+        mSampleCount++;
+        mPauseNanos += pauseNanos;
+        mMaxPauseNanos = Math.max(mMaxPauseNanos, pauseNanos);
+    }
+
+    private void write() {
+        // Write to a temporary file first, so that a killed process leaves the previous version.
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(tmp))) {
+            writeCollapsed(writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write stack samples to " + mFile, e);
+            return;
+        }
+        if (!tmp.renameTo(mFile)) {
+            Log.e(TAG, "Failed to rename " + tmp + " to " + mFile);
+        }
+    }
+
+    private int frameId(StackTraceElement element) {
+        Integer id = mElementIds.get(element);
+        if (id == null) {
+            id = nameId(element.getClassName() + "." + element.getMethodName());
+            mElementIds.put(element, id);
+        }
+        return id;
+    }
+
+    private int nameId(String name) {
+        Integer id = mNameIds.get(name);
+        if (id == null) {
+            id = mNames.size();
+            mNames.add(name);
+            mNameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int child(int parent, int frame) {
+        final long key = ((long) parent << 32) | frame;
+        Integer node = mChildren.get(key);
+        if (node == null) {
+            if (mNodeCount == mParents.length) {
+                mParents = Arrays.copyOf(mParents, mNodeCount * 2);
+                mFrames = Arrays.copyOf(mFrames, mNodeCount * 2);
+                mCounts = Arrays.copyOf(mCounts, mNodeCount * 2);
+            }
+            node = mNodeCount++;
+            mParents[node] = parent;
+            mFrames[node] = frame;
+            mChildren.put(key, node);
+        }
+        return node;
+    }
+}
@@ -18,6 +18,7 @@ package android.platform.test.rule;
 import android.app.Instrumentation;
 import android.device.collectors.BaseMetricListener;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 import androidx.test.InstrumentationRegistry;
@@ -29,6 +30,14 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A rule that collects test-level metrics using a supplied list of metric collectors.
@@ -44,6 +53,12 @@ import java.util.List;
  * evaluation order would be {@code Collector1#testStarted()}, {@code Collector2#testStarted()},
  * {@code @Test}, {@code Collector1#testFinished()}, {@code Collector1#testFinished()}.
  *
+ * <p>If the "test-metric-collectors-parallel" option is set to true, each collector is instead
+ * started on its own thread, and the test waits for all of them to be started. Collectors are
+ * likewise finished in parallel. The time each collector took is logged in both cases, and
+ * reported once the test finished as {@code collector_starting_ms_<collector class>} and {@code
+ * collector_finished_ms_<collector class>} metrics.
+ *
  * <p>For {@code Microbenchmark}s, this rule can be dynamically injected either inside or outside
  * hardcoded rules (see {@code Microbenchmark})'s JavaDoc).
  *
@@ -53,10 +68,27 @@ import java.util.List;
 public class TestMetricRule extends TestWatcher {
     @VisibleForTesting static final String METRIC_COLLECTORS_OPTION = "test-metric-collectors";
     @VisibleForTesting static final String METRIC_COLLECTORS_PACKAGE = "android.device.collectors";
+    // Suffix of the option, after the collectors option name, to start and finish in parallel.
+    @VisibleForTesting static final String PARALLEL_OPTION_SUFFIX = "-parallel";
+    // Metrics with the time each collector took in starting() and finished(), as
+    // <metric>_<collector class>.
+    @VisibleForTesting static final String STARTING_DURATION_METRIC = "collector_starting_ms";
+    @VisibleForTesting static final String FINISHED_DURATION_METRIC = "collector_finished_ms";
+    // Durations are reported under the "status in progress", as done by StopwatchRule.
+    @VisibleForTesting static final int INST_STATUS_IN_PROGRESS = 2;
+
+    /** Constructors of the collectors loaded so far, by fully qualified name. */
+    private static final Map<String, Constructor<?>> sListenerConstructors =
+            new ConcurrentHashMap<>();
 
     protected List<BaseMetricListener> mMetricListeners = new ArrayList<>();
 
+    protected final Instrumentation mInstrumentation;
     private final String mLogTag;
+    // Runs the listener callbacks if they are invoked in parallel, null otherwise.
+    private final ExecutorService mExecutor;
+    // Durations of the listener callbacks of the current test, reported once it finished.
+    private Bundle mDurations = new Bundle();
 
     public TestMetricRule() {
         this(InstrumentationRegistry.getArguments());
@@ -80,6 +112,7 @@ public class TestMetricRule extends TestWatcher {
             Instrumentation instrumentation,
             String collectorsOptionName,
             String logTag) {
+        mInstrumentation = instrumentation;
         mLogTag = logTag;
         List<String> listenerNames =
                 Arrays.asList(args.getString(collectorsOptionName, "").split(","));
@@ -131,46 +164,179 @@ public class TestMetricRule extends TestWatcher {
         for (BaseMetricListener listener : mMetricListeners) {
             listener.setInstrumentation(instrumentation);
         }
+        boolean parallel =
+                Boolean.parseBoolean(
+                        args.getString(collectorsOptionName + PARALLEL_OPTION_SUFFIX, "false"));
+        mExecutor =
+                parallel && mMetricListeners.size() > 1
+                        ? Executors.newCachedThreadPool(
+                                runnable -> {
+                                    Thread thread = new Thread(runnable, mLogTag);
+                                    thread.setDaemon(true);
+                                    return thread;
+                                })
+                        : null;
     }
 
     @Override
     protected void starting(Description description) {
-        for (BaseMetricListener listener : mMetricListeners) {
-            listener.setUp();
+        mDurations = new Bundle();
+        if (mExecutor != null) {
+            runInParallel(
+                    "starting()",
+                    STARTING_DURATION_METRIC,
+                    listener -> {
+                        listener.setUp();
+                        testStarted(listener, description);
+                    });
+            return;
         }
-        for (BaseMetricListener listener : mMetricListeners) {
-            try {
-                listener.testStarted(description);
-            } catch (Exception e) {
-                Log.e(
-                        mLogTag,
-                        String.format(
-                                "Exception from listener %s during starting().",
-                                listener.getClass().getCanonicalName()),
-                        e);
-            }
+        long[] durations = new long[mMetricListeners.size()];
+        for (int i = 0; i < mMetricListeners.size(); i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            mMetricListeners.get(i).setUp();
+            durations[i] = SystemClock.elapsedRealtimeNanos() - start;
         }
+        for (int i = 0; i < mMetricListeners.size(); i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            testStarted(mMetricListeners.get(i), description);
+            durations[i] += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        recordDurations("starting()", STARTING_DURATION_METRIC, durations);
     }
 
     @Override
     protected void finished(Description description) {
-        for (BaseMetricListener listener : mMetricListeners) {
-            try {
-                listener.testFinished(description);
-            } catch (Exception e) {
-                Log.e(
-                        mLogTag,
-                        String.format(
-                                "Exception from listener %s during finished().",
-                                listener.getClass().getCanonicalName()),
-                        e);
+        try {
+            if (mExecutor != null) {
+                runInParallel(
+                        "finished()",
+                        FINISHED_DURATION_METRIC,
+                        listener -> {
+                            testFinished(listener, description);
+                            listener.cleanUp();
+                        });
+                return;
+            }
+            long[] durations = new long[mMetricListeners.size()];
+            for (int i = 0; i < mMetricListeners.size(); i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                testFinished(mMetricListeners.get(i), description);
+                durations[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            for (int i = 0; i < mMetricListeners.size(); i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                mMetricListeners.get(i).cleanUp();
+                durations[i] += SystemClock.elapsedRealtimeNanos() - start;
+            }
+            recordDurations("finished()", FINISHED_DURATION_METRIC, durations);
+        } finally {
+            if (!mDurations.isEmpty()) {
+                reportDurations(mDurations);
             }
         }
-        for (BaseMetricListener listener : mMetricListeners) {
-            listener.cleanUp();
+    }
+
+    /**
+     * Reports the durations of the listener callbacks of a test once it finished.
+     *
+     * @param durations the duration in milliseconds of each stage of each listener.
+     */
+    protected void reportDurations(Bundle durations) {
+        mInstrumentation.sendStatus(INST_STATUS_IN_PROGRESS, durations);
+    }
+
+    private void testStarted(BaseMetricListener listener, Description description) {
+        try {
+            listener.testStarted(description);
+        } catch (Exception e) {
+            Log.e(
+                    mLogTag,
+                    String.format(
+                            "Exception from listener %s during starting().",
+                            listener.getClass().getCanonicalName()),
+                    e);
         }
     }
 
+    private void testFinished(BaseMetricListener listener, Description description) {
+        try {
+            listener.testFinished(description);
+        } catch (Exception e) {
+            Log.e(
+                    mLogTag,
+                    String.format(
+                            "Exception from listener %s during finished().",
+                            listener.getClass().getCanonicalName()),
+                    e);
+        }
+    }
+
+    /**
+     * Runs {@code callback} on every listener in parallel, and waits for all of them to complete.
+     * The first exception thrown by a callback is rethrown once all of them completed.
+     */
+    private void runInParallel(
+            String stage, String metric, Consumer<BaseMetricListener> callback) {
+        long[] durations = new long[mMetricListeners.size()];
+        List<Future<?>> futures = new ArrayList<>(mMetricListeners.size());
+        for (int i = 0; i < mMetricListeners.size(); i++) {
+            final int index = i;
+            final BaseMetricListener listener = mMetricListeners.get(i);
+            futures.add(
+                    mExecutor.submit(
+                            () -> {
+                                long start = SystemClock.elapsedRealtimeNanos();
+                                try {
+                                    callback.accept(listener);
+                                } finally {
+                                    durations[index] = SystemClock.elapsedRealtimeNanos() - start;
+                                }
+                            }));
+        }
+        RuntimeException exception = null;
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep waiting, so that no listener is still running once the test proceeds.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        exception =
+                                e.getCause() instanceof RuntimeException
+                                        ? (RuntimeException) e.getCause()
+                                        : new RuntimeException(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // Waiting on the futures guarantees that all of the durations are visible here.
+        recordDurations(stage, metric, durations);
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /** Logs the durations of a stage and keeps them to be reported once the test finished. */
+    private void recordDurations(String stage, String metric, long[] durations) {
+        StringBuilder message = new StringBuilder(String.format("Listener times in %s:", stage));
+        for (int i = 0; i < durations.length; i++) {
+            Class<?> listenerClass = mMetricListeners.get(i).getClass();
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(durations[i]);
+            message.append(String.format(" %s=%dms", listenerClass.getSimpleName(), durationMs));
+            mDurations.putLong(String.format("%s_%s", metric, listenerClass.getName()), durationMs);
+        }
+        Log.i(mLogTag, message.toString());
+    }
+
     @Override
     protected void failed(Throwable t, Description description) {
         Failure failure = new Failure(description, t);
@@ -189,6 +355,17 @@ public class TestMetricRule extends TestWatcher {
     }
 
     private BaseMetricListener loadListenerByFullyQualifiedName(String name) throws Exception {
+        // Collectors are instantiated for every rule, so keep the constructors found by name.
+        Constructor<?> constructor = sListenerConstructors.get(name);
+        if (constructor == null) {
+            constructor = findListenerConstructor(name);
+            sListenerConstructors.put(name, constructor);
+        }
+        // Cast is safe as we have vetted that the class is a BaseMetricListener.
+        return (BaseMetricListener) constructor.newInstance();
+    }
+
+    private static Constructor<?> findListenerConstructor(String name) {
         // Load the metric collector class using reflection.
         Class<?> loadedClass = null;
         try {
@@ -202,11 +379,9 @@ public class TestMetricRule extends TestWatcher {
             throw new IllegalArgumentException(
                     String.format("Class %s is not a BaseMetricListener.", loadedClass));
         }
-        // Use the default constructor to create a metric collector instance.
+        // Use the default constructor to create metric collector instances.
         try {
-            Constructor<?> constructor = loadedClass.getConstructor();
-            // Cast is safe as we have vetted that loadedClass is a BaseMetricListener.
-            return (BaseMetricListener) constructor.newInstance();
+            return loadedClass.getConstructor();
         } catch (NoSuchMethodException e) {
             throw new IllegalArgumentException(
                     String.format(
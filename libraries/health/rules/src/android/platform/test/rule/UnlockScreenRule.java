@@ -23,6 +23,7 @@ import androidx.test.uiautomator.BySelector;
 import org.junit.runner.Description;
 
 /** This rule will unlock phone screen before a test case. */
+@StatelessRule
 public class UnlockScreenRule extends TestWatcher {
 
     protected static final BySelector SCREEN_LOCK =
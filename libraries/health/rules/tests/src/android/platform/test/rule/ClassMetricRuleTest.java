@@ -72,8 +72,9 @@ public class ClassMetricRuleTest {
                         "android.platform.test.rule.ClassMetricRuleTest$TestableCollector1");
         rule.apply(TEST_STATEMENT, DESCRIPTION).evaluate();
 
-        // We have two metric collectors, hence results are reported two times.
-        verify(mMockInstrumentation, times(2)).addResults(addResultsCaptor.capture());
+        // We have two metric collectors, hence results are reported two times, followed by the
+        // durations of the collectors.
+        verify(mMockInstrumentation, times(3)).addResults(addResultsCaptor.capture());
         List<Bundle> results = addResultsCaptor.getAllValues();
         boolean hasCollector1 = false, hasCollector2 = false;
         for (Bundle result : results) {
@@ -94,13 +95,28 @@ public class ClassMetricRuleTest {
                         "android.platform.test.rule.ClassMetricRuleTest$TestableCollector1");
         rule.apply(TEST_STATEMENT, DESCRIPTION).evaluate();
 
-        // We have one metric collector, hence results are reported a single time.
-        verify(mMockInstrumentation, times(1)).addResults(addResultsCaptor.capture());
-        Bundle result = addResultsCaptor.getValue();
+        // We have one metric collector, hence results are reported a single time, followed by the
+        // duration of the collector.
+        verify(mMockInstrumentation, times(2)).addResults(addResultsCaptor.capture());
+        Bundle result = addResultsCaptor.getAllValues().get(0);
         assertTrue(result.containsKey("TestableCollector1-test"));
         assertFalse(result.containsKey("TestableCollector1-run"));
     }
 
+    @Test
+    public void testReportsCollectorDurationsAsRunMetrics() throws Throwable {
+        ClassMetricRule rule =
+                createWithMetricCollectorNames(
+                        "android.platform.test.rule.ClassMetricRuleTest$TestableCollector1");
+        rule.apply(TEST_STATEMENT, DESCRIPTION).evaluate();
+
+        verify(mMockInstrumentation, times(2)).addResults(addResultsCaptor.capture());
+        Bundle durations = addResultsCaptor.getAllValues().get(1);
+        String suffix = "_" + TestableCollector1.class.getName();
+        assertTrue(durations.containsKey(TestMetricRule.STARTING_DURATION_METRIC + suffix));
+        assertTrue(durations.containsKey(TestMetricRule.FINISHED_DURATION_METRIC + suffix));
+    }
+
     private ClassMetricRule createWithMetricCollectorNames(String... names) {
         Bundle args = new Bundle();
         args.putString(ClassMetricRule.METRIC_COLLECTORS_OPTION, String.join(",", names));
@@ -189,6 +189,115 @@ public class CoolDownRuleTest {
                         OPS_TEST)
                 .inOrder();
     }
+
+    /**
+     * Tests that the adaptive mode polls as soon as the cooling is predicted to be done, skips the
+     * post idle wait, and reports the time saved.
+     */
+    @Test
+    public void testCoolDownAdaptive() throws Throwable {
+        boolean screenOn = true;
+        boolean abortOnTimeout = false;
+        int maxWait = (OVERHEAT_COUNT * POLL_INTERVAL) + 5;
+        TestableRule rule = getDefaultRule(screenOn, maxWait, abortOnTimeout);
+        rule.addArg(CoolDownRule.ADAPTIVE_OPTION, "true");
+        rule.addArg(CoolDownRule.MIN_POLL_INTERVAL_OPTION, "10");
+
+        doAnswer(new TemperatureAnswer(TARGET_TEMPERATURE, OVERHEAT_COUNT))
+                .when(mThermalHelper)
+                .getTemperature(TEMPERATURE_NAME);
+        Description description = Description.createTestDescription("clzz", "mthd");
+        rule.apply(rule.getTestStatement(), description).evaluate();
+        assertThat(rule.getOperations())
+                .containsExactly(
+                        OPS_SCREEN_OFF,
+                        "get device temperature degree: 46",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 41",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 37",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 33",
+                        OPS_SCREEN_ON,
+                        OPS_TEST)
+                .inOrder();
+
+        // The fixed polling would have waited a full interval and the post idle wait.
+        Bundle metrics = rule.getMetrics();
+        long duration = metrics.getLong(CoolDownRule.DURATION_METRIC + "_clzz#mthd");
+        long saved = metrics.getLong(CoolDownRule.SAVED_METRIC + "_clzz#mthd");
+        assertThat(duration).isAtLeast(30000L);
+        assertThat(duration + saved).isEqualTo((POLL_INTERVAL + IDLE_WAIT) * 1000L);
+    }
+
+    /**
+     * Tests that the adaptive mode waits for the measured temperature to reach the target, when
+     * the cooling slows down and the smoothed temperature undershoots it.
+     */
+    @Test
+    public void testCoolDownAdaptiveDecelerating() throws Throwable {
+        boolean screenOn = true;
+        boolean abortOnTimeout = false;
+        int maxWait = (OVERHEAT_COUNT * POLL_INTERVAL) + 5;
+        TestableRule rule = getDefaultRule(screenOn, maxWait, abortOnTimeout);
+        rule.addArg(CoolDownRule.ADAPTIVE_OPTION, "true");
+        rule.addArg(CoolDownRule.MIN_POLL_INTERVAL_OPTION, "10");
+
+        // The smoothed temperature is about 33.9 after the reading of 36.
+        when(mThermalHelper.getTemperature(TEMPERATURE_NAME))
+                .thenReturn(46.0, 41.0, 37.0, 36.0, 34.0);
+        rule.apply(rule.getTestStatement(), Description.createTestDescription("clzz", "mthd"))
+                .evaluate();
+        assertThat(rule.getOperations())
+                .containsExactly(
+                        OPS_SCREEN_OFF,
+                        "get device temperature degree: 46",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 41",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 37",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 36",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 34",
+                        OPS_SCREEN_ON,
+                        OPS_TEST)
+                .inOrder();
+    }
+
+    /** Tests that the adaptive mode polls at the maximum interval while not cooling down. */
+    @Test
+    public void testCoolDownAdaptiveNotCooling() throws Throwable {
+        boolean screenOn = false;
+        boolean abortOnTimeout = true;
+        int maxWait = (2 * POLL_INTERVAL) - 5;
+        TestableRule rule = getDefaultRule(screenOn, maxWait, abortOnTimeout);
+        rule.addArg(CoolDownRule.ADAPTIVE_OPTION, "true");
+        rule.addArg(CoolDownRule.MIN_POLL_INTERVAL_OPTION, "10");
+
+        double cooldownOffset = -1.0; // heat up instead of cool down
+        doAnswer(new TemperatureAnswer(TARGET_TEMPERATURE, OVERHEAT_COUNT, cooldownOffset))
+                .when(mThermalHelper)
+                .getTemperature(TEMPERATURE_NAME);
+        assertThrows(
+                IllegalStateException.class,
+                () ->
+                        rule.apply(
+                                        rule.getTestStatement(),
+                                        Description.createTestDescription("clzz", "mthd"))
+                                .evaluate());
+        assertThat(rule.getOperations())
+                .containsExactly(
+                        "get device temperature degree: 37",
+                        "sleep 10000 milli seconds",
+                        "get device temperature degree: 38",
+                        OPS_SLEEP_INTERVAL,
+                        "get device temperature degree: 39",
+                        OPS_SLEEP_INTERVAL,
+                        "get device temperature degree: 40")
+                .inOrder();
+    }
+
     /** Tests to confirm option value strings will be escaped correctly. */
     @Test
     public void testEscapedOptionStrs() throws Throwable {
@@ -267,6 +376,7 @@ public class CoolDownRuleTest {
 
         private List<String> mOperations = new ArrayList<>();
         private Bundle mBundle = new Bundle();
+        private Bundle mMetrics = new Bundle();
         private boolean mIsScreenOn = true;
         private long mTotalSleepMs = 0;
         private final ThermalHelper mThermalHelper;
@@ -332,6 +442,15 @@ public class CoolDownRuleTest {
             return (mTotalSleepMs + ms);
         }
 
+        @Override
+        void sendMetrics(Bundle metrics) {
+            mMetrics.putAll(metrics);
+        }
+
+        public Bundle getMetrics() {
+            return mMetrics;
+        }
+
         public List<String> getOperations() {
             return mOperations;
         }
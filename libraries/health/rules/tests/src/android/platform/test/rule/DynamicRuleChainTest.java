@@ -206,6 +206,24 @@ public class DynamicRuleChainTest {
                         "android.platform.test.rule.DynamicRuleChainTest$Rule1");
     }
 
+    @Test
+    public void testReusesStatelessRuleInstances() throws Throwable {
+        for (int i = 0; i < 3; i++) {
+            createWithRuleNames(
+                            "DynamicRuleChainTest$StatelessRule1",
+                            "DynamicRuleChainTest$StatefulRule1")
+                    .apply(mStatement, DESCRIPTION);
+        }
+        // Each chain application uses its own StatefulRule1, while StatelessRule1 is only created
+        // once.
+        assertThat(sLogs)
+                .containsExactly(
+                        "StatelessRule1 created",
+                        "StatefulRule1 created",
+                        "StatefulRule1 created",
+                        "StatefulRule1 created");
+    }
+
     private DynamicRuleChain createWithRuleNames(String... ruleNames) {
         Bundle args = new Bundle();
         args.putString(DynamicRuleChain.DEFAULT_RULES_OPTION, String.join(",", ruleNames));
@@ -242,4 +260,17 @@ public class DynamicRuleChainTest {
             sLogs.add("Rule2 finished");
         }
     }
+
+    public static class StatefulRule1 extends TestWatcher {
+        public StatefulRule1() {
+            sLogs.add("StatefulRule1 created");
+        }
+    }
+
+    @StatelessRule
+    public static class StatelessRule1 extends TestWatcher {
+        public StatelessRule1() {
+            sLogs.add("StatelessRule1 created");
+        }
+    }
 }
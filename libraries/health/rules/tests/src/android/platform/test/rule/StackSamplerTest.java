@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.rule;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test the logic for {@link StackSampler} */
+@RunWith(JUnit4.class)
+public class StackSamplerTest {
+    private static final StackTraceElement MAIN = frame("Main", "main", 10);
+    private static final StackTraceElement RUN = frame("Test", "run", 20);
+    private static final StackTraceElement SLEEP = frame("Test", "sleep", 30);
+
+    /** Tests that identical stacks are merged and written root first. */
+    @Test
+    public void testCollapsesStacks() throws Exception {
+        StackSampler sampler = new StackSampler(null, 10, null);
+        sampler.addSample("main", new StackTraceElement[] {SLEEP, RUN, MAIN});
+        sampler.addSample("main", new StackTraceElement[] {SLEEP, RUN, MAIN});
+        sampler.addSample("main", new StackTraceElement[] {RUN, MAIN});
+        sampler.addSample("worker", new StackTraceElement[] {SLEEP, RUN, MAIN});
+
+        assertThat(stacks(sampler))
+                .containsExactly(
+                        "main;Main.main;Test.run;Test.sleep 2",
+                        "main;Main.main;Test.run 1",
+                        "worker;Main.main;Test.run;Test.sleep 1");
+    }
+
+    /** Tests that frames differing only by line number are merged. */
+    @Test
+    public void testIgnoresLineNumbers() throws Exception {
+        StackSampler sampler = new StackSampler(null, 10, null);
+        sampler.addSample("main", new StackTraceElement[] {RUN, MAIN});
+        sampler.addSample("main", new StackTraceElement[] {frame("Test", "run", 21), MAIN});
+
+        assertThat(stacks(sampler)).containsExactly("main;Main.main;Test.run 2");
+    }
+
+    /** Tests that sampling a thread writes its stacks and the pause time. */
+    @Test
+    public void testSamplesTargetThread() throws Exception {
+        File file = File.createTempFile("samples", ".collapsed");
+        StackSampler sampler = new StackSampler(file, 10, Thread.currentThread());
+        sampler.start();
+        Thread.sleep(200);
+        sampler.interrupt();
+        sampler.join();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(sampler.getSampleCount()).isGreaterThan(1);
+        assertThat(sampler.getPauseNanos()).isGreaterThan(0L);
+        assertThat(lines.get(0)).startsWith("# samples=" + sampler.getSampleCount() + " ");
+        assertThat(lines.get(1)).startsWith(Thread.currentThread().getName() + ";");
+        assertThat(lines.get(1)).contains("StackSamplerTest.testSamplesTargetThread");
+        file.delete();
+    }
+
+    private static List<String> stacks(StackSampler sampler) throws Exception {
+        StringWriter writer = new StringWriter();
+        sampler.writeCollapsed(writer);
+        List<String> lines = Arrays.asList(writer.toString().split("\n"));
+        assertThat(lines.get(0)).startsWith("#");
+        return lines.subList(1, lines.size());
+    }
+
+    private static StackTraceElement frame(String className, String method, int line) {
+        return new StackTraceElement(className, method, className + ".java", line);
+    }
+}
@@ -16,6 +16,9 @@
 package android.platform.test.rule;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import android.app.Instrumentation;
 import android.device.collectors.BaseMetricListener;
@@ -29,8 +32,10 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
 import org.junit.runners.model.Statement;
+import org.mockito.ArgumentCaptor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /** Tests for {@link TestMetricRule}. */
@@ -39,7 +44,7 @@ public class TestMetricRuleTest {
     // while being static and able to be created via an empty constructor. This route is taken as
     // the metric collectors themselves are not directly observable due to being created via
     // reflection fron TestMetricRule.
-    private static List<String> sLogs = new ArrayList<String>();
+    private static List<String> sLogs = Collections.synchronizedList(new ArrayList<String>());
 
     private static final Description DESCRIPTION =
             Description.createTestDescription("class", "method");
@@ -146,6 +151,61 @@ public class TestMetricRuleTest {
                 .inOrder();
     }
 
+    @Test
+    public void testMultipleListeners_parallel() throws Throwable {
+        Bundle args = new Bundle();
+        args.putString(
+                TestMetricRule.METRIC_COLLECTORS_OPTION,
+                "android.platform.test.rule.TestMetricRuleTest$TestableCollector1,"
+                        + "android.platform.test.rule.TestMetricRuleTest$TestableCollector2");
+        args.putString(
+                TestMetricRule.METRIC_COLLECTORS_OPTION + TestMetricRule.PARALLEL_OPTION_SUFFIX,
+                "true");
+        TestMetricRule rule = new TestMetricRule(args);
+        rule.apply(PASSING_STATEMENT, DESCRIPTION).evaluate();
+
+        // Each listener's callbacks stay in order, and all of them start before the test
+        // execution and finish after it, but the listeners can be interleaved.
+        int execution = sLogs.indexOf("Test execution");
+        for (String name : new String[] {"TestableCollector1", "TestableCollector2"}) {
+            int setUp = sLogs.indexOf(name + "#onSetUp");
+            int start = sLogs.indexOf(String.format("Test %s: %s#onTestStart", DESCRIPTION, name));
+            int end = sLogs.indexOf(String.format("Test %s: %s#onTestEnd", DESCRIPTION, name));
+            int cleanUp = sLogs.indexOf(name + "#onCleanUp");
+            assertThat(setUp).isAtLeast(0);
+            assertThat(start).isGreaterThan(setUp);
+            assertThat(execution).isGreaterThan(start);
+            assertThat(end).isGreaterThan(execution);
+            assertThat(cleanUp).isGreaterThan(end);
+        }
+    }
+
+    @Test
+    public void testReportsListenerDurations() throws Throwable {
+        Bundle args = new Bundle();
+        args.putString(
+                TestMetricRule.METRIC_COLLECTORS_OPTION,
+                "android.platform.test.rule.TestMetricRuleTest$TestableCollector1,"
+                        + "android.platform.test.rule.TestMetricRuleTest$TestableCollector2");
+        Instrumentation instrumentation = mock(Instrumentation.class);
+        TestMetricRule rule =
+                new TestMetricRule(
+                        args, instrumentation, TestMetricRule.METRIC_COLLECTORS_OPTION, "log tag");
+        rule.apply(PASSING_STATEMENT, DESCRIPTION).evaluate();
+
+        // The durations of all listeners and stages are reported once, as test metrics.
+        ArgumentCaptor<Bundle> durations = ArgumentCaptor.forClass(Bundle.class);
+        verify(instrumentation)
+                .sendStatus(eq(TestMetricRule.INST_STATUS_IN_PROGRESS), durations.capture());
+        List<String> expectedKeys = new ArrayList<>();
+        for (Class<?> collector :
+                new Class<?>[] {TestableCollector1.class, TestableCollector2.class}) {
+            expectedKeys.add(TestMetricRule.STARTING_DURATION_METRIC + "_" + collector.getName());
+            expectedKeys.add(TestMetricRule.FINISHED_DURATION_METRIC + "_" + collector.getName());
+        }
+        assertThat(durations.getValue().keySet()).containsExactlyElementsIn(expectedKeys);
+    }
+
     @Test
     public void testInvalidListenerNameThrows() {
         String invalidName = "not.a.Collector";
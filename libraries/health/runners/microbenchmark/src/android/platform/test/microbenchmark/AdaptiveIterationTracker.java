@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.microbenchmark;
+
+import java.util.Arrays;
+
+/**
+ * Decides how many times a {@link Microbenchmark} method runs from the durations measured so far.
+ *
+ * <p>Warm-up iterations are discarded using the marginal standard error rule (MSER), which picks
+ * the truncation point that minimizes the standard error of the remaining samples. Once a steady
+ * state is found, iterations continue until the 95% confidence interval of the mean duration is
+ * narrower than the target fraction of the mean, or until the time or iteration budget runs out.
+ */
+class AdaptiveIterationTracker {
+    /** Two-sided 95% quantiles of Student's t distribution, indexed by degrees of freedom. */
+    private static final double[] T_95 = {
+        Double.NaN, 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201,
+        2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064,
+        2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+    private static final double Z_95 = 1.960;
+
+    private final double mTargetRelativeWidth;
+    private final long mTimeBudgetNanos;
+    private final int mMinSamples;
+    private final int mMaxIterations;
+
+    private long[] mDurations = new long[64];
+    private int mCount;
+    private long mElapsedNanos;
+
+    // Statistics of the samples after the warm-up, updated by {@link #update()}.
+    private int mWarmupCount;
+    private double mMean;
+    private double mRelativeWidth = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param targetRelativeWidth width of the confidence interval, as a fraction of the mean, at
+     *     which the measurement is considered converged.
+     * @param timeBudgetNanos total duration of the iterations after which no more are run.
+     * @param minSamples minimum number of samples, excluding the warm-up, to compute an interval.
+     * @param maxIterations maximum number of iterations, including the warm-up.
+     */
+    AdaptiveIterationTracker(
+            double targetRelativeWidth, long timeBudgetNanos, int minSamples, int maxIterations) {
+        if (targetRelativeWidth <= 0) {
+            throw new IllegalArgumentException("The target width must be positive.");
+        }
+        mTargetRelativeWidth = targetRelativeWidth;
+        mTimeBudgetNanos = timeBudgetNanos;
+        mMinSamples = Math.max(2, minSamples);
+        mMaxIterations = maxIterations;
+    }
+
+    /** Records the duration of one more iteration. */
+    void addSample(long durationNanos) {
+        if (mCount == mDurations.length) {
+            mDurations = Arrays.copyOf(mDurations, mCount * 2);
+        }
+        mDurations[mCount++] = durationNanos;
+        mElapsedNanos += durationNanos;
+        update();
+    }
+
+    /** Returns whether another iteration should run. */
+    boolean shouldContinue() {
+        return !isConverged() && mElapsedNanos < mTimeBudgetNanos && mCount < mMaxIterations;
+    }
+
+    /** Returns whether the confidence interval reached the target width. */
+    boolean isConverged() {
+        return mRelativeWidth <= mTargetRelativeWidth;
+    }
+
+    int getIterations() {
+        return mCount;
+    }
+
+    int getWarmupIterations() {
+        return mWarmupCount;
+    }
+
+    /** Returns the mean duration of the samples after the warm-up, in nanoseconds. */
+    double getMeanNanos() {
+        return mMean;
+    }
+
+    /**
+     * Returns the width of the confidence interval of the mean as a fraction of the mean, or
+     * infinity if there are not enough samples after the warm-up.
+     */
+    double getRelativeWidth() {
+        return mRelativeWidth;
+    }
+
+    private void update() {
+        // MSER: the truncation point d minimizing the variance of the remaining samples divided by
+        // their count, i.e. their squared standard error. Only the first half is considered, so
+        // that a truncation near the middle means the steady state hasn't been reached yet.
+        // Sums are of the differences to the last sample, to limit the loss of precision.
+        double shift = mDurations[mCount - 1];
+        double sum = 0;
+        double sumOfSquares = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        int best = 0;
+        double bestSum = 0;
+        double bestSumOfSquares = 0;
+        for (int d = mCount - 1; d >= 0; d--) {
+            double value = mDurations[d] - shift;
+            sum += value;
+            sumOfSquares += value * value;
+            int remaining = mCount - d;
+            if (d <= mCount / 2 && remaining > 1) {
+                double squaredDeviations = Math.max(0, sumOfSquares - sum * sum / remaining);
+                double score = squaredDeviations / ((double) remaining * remaining);
+                if (score <= bestScore) {
+                    bestScore = score;
+                    best = d;
+                    bestSum = sum;
+                    bestSumOfSquares = sumOfSquares;
+                }
+            }
+        }
+
+        mWarmupCount = best;
+        int samples = mCount - best;
+        mMean = shift + bestSum / samples;
+        if (samples < mMinSamples || best >= mCount / 2) {
+            mRelativeWidth = Double.POSITIVE_INFINITY;
+            return;
+        }
+        double variance =
+                Math.max(0, bestSumOfSquares - bestSum * bestSum / samples) / (samples - 1);
+        double halfWidth = tQuantile(samples - 1) * Math.sqrt(variance / samples);
+        mRelativeWidth = mMean > 0 ? 2 * halfWidth / mMean : Double.POSITIVE_INFINITY;
+    }
+
+    private static double tQuantile(int degreesOfFreedom) {
+        return degreesOfFreedom < T_95.length ? T_95[degreesOfFreedom] : Z_95;
+    }
+}
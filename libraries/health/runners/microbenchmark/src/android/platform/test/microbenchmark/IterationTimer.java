@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.microbenchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records the duration of the iterations of a {@link Microbenchmark} method.
+ *
+ * <p>Samples are written into an array allocated up front, so recording doesn't allocate or
+ * report anything while the method runs. Very fast methods can be timed in batches of invocations,
+ * in which case each sample is the mean duration of the invocations of a batch.
+ */
+class IterationTimer {
+    private final long[] mSamples;
+    private final int mBatchSize;
+    private int mCount;
+    private boolean mSorted;
+
+    /**
+     * @param invocations total number of times the method will be invoked.
+     * @param batchSize number of consecutive invocations timed together.
+     */
+    IterationTimer(int invocations, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        mBatchSize = batchSize;
+        mSamples = new long[(invocations + batchSize - 1) / batchSize];
+    }
+
+    /** Returns the number of consecutive invocations to time together. */
+    int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /** Records that {@code invocations} consecutive invocations took {@code durationNanos}. */
+    void record(long durationNanos, int invocations) {
+        mSamples[mCount++] = durationNanos / invocations;
+        mSorted = false;
+    }
+
+    int getSampleCount() {
+        return mCount;
+    }
+
+    long getMin() {
+        return mCount == 0 ? 0 : sorted()[0];
+    }
+
+    long getMax() {
+        return mCount == 0 ? 0 : sorted()[mCount - 1];
+    }
+
+    /** Returns the {@code percentile}th sample using the nearest-rank method. */
+    long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * mCount);
+        return sorted()[Math.min(Math.max(rank, 1), mCount) - 1];
+    }
+
+    double getMean() {
+        if (mCount == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < mCount; i++) {
+            sum += mSamples[i];
+        }
+        return sum / mCount;
+    }
+
+    /** Returns the sample standard deviation. */
+    double getStandardDeviation() {
+        if (mCount < 2) {
+            return 0;
+        }
+        double mean = getMean();
+        double squaredDeviations = 0;
+        for (int i = 0; i < mCount; i++) {
+            double deviation = mSamples[i] - mean;
+            squaredDeviations += deviation * deviation;
+        }
+        return Math.sqrt(squaredDeviations / (mCount - 1));
+    }
+
+    /**
+     * Writes the samples in the order they were recorded to {@code file}, one per line.
+     *
+     * <p>Must be called before any of the statistics, which sort the samples.
+     */
+    void writeSamples(File file) throws IOException {
+        if (mSorted) {
+            throw new IllegalStateException("Samples were already sorted.");
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < mCount; i++) {
+                writer.write(Long.toString(mSamples[i]));
+                writer.newLine();
+            }
+        }
+    }
+
+    private long[] sorted() {
+        if (!mSorted) {
+            Arrays.sort(mSamples, 0, mCount);
+            mSorted = true;
+        }
+        return mSamples;
+    }
+}
@@ -19,6 +19,7 @@ import static android.content.Context.BATTERY_SERVICE;
 import static android.os.BatteryManager.BATTERY_PROPERTY_CAPACITY;
 import static android.os.BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER;
 
+import android.app.Instrumentation;
 import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.SystemClock;
@@ -29,6 +30,8 @@ import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 import androidx.test.InstrumentationRegistry;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -38,6 +41,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.internal.AssumptionViolatedException;
 import org.junit.internal.runners.model.EachTestNotifier;
@@ -105,6 +109,45 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
     private static final String ALIGN_WITH_CHARGE_COUNTER_OPTION = "align-with-charge-counter";
     private static final String COUNTER_DECREMENT_TIMEOUT_OPTION = "counter-decrement-timeout_ms";
 
+    // Repeat each test method until its duration converges instead of "method-iterations" times
+    // (if set to true). Warm-up iterations are discarded, then the method is repeated until the
+    // confidence interval of its mean duration is narrower than the target fraction of the mean,
+    // or until the time budget or the maximum number of iterations is reached. See
+    // AdaptiveIterationTracker for details.
+    @VisibleForTesting
+    static final String ADAPTIVE_ITERATIONS_OPTION = "adaptive-method-iterations";
+    @VisibleForTesting static final String ADAPTIVE_TARGET_WIDTH_OPTION = "adaptive-target-width";
+    @VisibleForTesting static final String ADAPTIVE_TIME_BUDGET_OPTION = "adaptive-time-budget_ms";
+    @VisibleForTesting static final String ADAPTIVE_MIN_SAMPLES_OPTION = "adaptive-min-samples";
+    @VisibleForTesting
+    static final String ADAPTIVE_MAX_ITERATIONS_OPTION = "adaptive-max-iterations";
+
+    // Metrics reported for each adaptively repeated method, as <metric>_<class>#<method>.
+    @VisibleForTesting static final String ADAPTIVE_ITERATIONS_METRIC = "adaptive_iterations";
+    @VisibleForTesting static final String ADAPTIVE_WARMUP_METRIC = "adaptive_warmup_iterations";
+    @VisibleForTesting static final String ADAPTIVE_MEAN_METRIC = "adaptive_mean_duration_ns";
+    @VisibleForTesting static final String ADAPTIVE_WIDTH_METRIC = "adaptive_ci_relative_width";
+    @VisibleForTesting static final String ADAPTIVE_CONVERGED_METRIC = "adaptive_converged";
+
+    // Time each of the "method-iterations" in-process and report statistics once per method (if
+    // set to true). Batches of this many consecutive invocations are timed together, which is
+    // useful when a single invocation is too fast to measure. Raw samples are written to a file
+    // in the output directory, if set. Can't be combined with "adaptive-method-iterations".
+    @VisibleForTesting static final String ITERATION_TIMER_OPTION = "iteration-timer";
+    @VisibleForTesting
+    static final String ITERATION_TIMER_BATCH_SIZE_OPTION = "iteration-timer-batch-size";
+    @VisibleForTesting
+    static final String ITERATION_TIMER_OUTPUT_DIR_OPTION = "iteration-timer-output-dir";
+
+    // Metrics reported for each timed method, as <metric>_<class>#<method>.
+    @VisibleForTesting static final String ITERATION_TIME_METRIC = "iteration_time_ns";
+    @VisibleForTesting static final String ITERATION_SAMPLES_METRIC = "iteration_time_samples";
+    @VisibleForTesting static final String ITERATION_SAMPLES_FILE_METRIC = "iteration_time_file";
+
+    private static final String METRIC_FORMAT = "%s_%s#%s";
+    // Metrics are reported under the "status in progress", as done by StopwatchRule.
+    private static final int INST_STATUS_IN_PROGRESS = 2;
+
     private final String mIterationSep;
     private final Bundle mArguments;
     private final boolean mRenameIterations;
@@ -113,6 +156,8 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
     private final int mCounterDecrementTimeoutMs;
     private final boolean mAlignWithChargeCounter;
     private final boolean mTerminateOnTestFailure;
+    private final boolean mAdaptiveIterations;
+    private final boolean mIterationTimer;
     private final Map<Description, Integer> mIterations = new HashMap<>();
     private int mStartBatteryLevel;
 
@@ -147,6 +192,18 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
         mTerminateOnTestFailure =
                 Boolean.parseBoolean(
                         arguments.getString(TERMINATE_ON_TEST_FAIL_OPTION, "false"));
+        mAdaptiveIterations =
+                Boolean.parseBoolean(arguments.getString(ADAPTIVE_ITERATIONS_OPTION, "false"));
+        mIterationTimer =
+                Boolean.parseBoolean(arguments.getString(ITERATION_TIMER_OPTION, "false"));
+        if (mAdaptiveIterations && mIterationTimer) {
+            // Each option decides how many times a method runs, so only one of them can apply.
+            throw new InitializationError(
+                    String.format(
+                            "The %s and %s options can't be used together. The adaptive "
+                                    + "iterations already report the mean duration.",
+                            ADAPTIVE_ITERATIONS_OPTION, ITERATION_TIMER_OPTION));
+        }
 
         // Get the battery manager for later use.
         mBatteryManager =
@@ -190,22 +247,14 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
      */
     @Override
     protected Statement methodInvoker(FrameworkMethod method, Object test) {
-        // Iterate on the test method multiple times for more data. If unset, defaults to 1.
-        Iterate<Statement> methodIterator = new Iterate<Statement>();
-        methodIterator.setOptionName("method-iterations");
-        final List<Statement> testMethodStatement =
-                methodIterator.apply(
-                        mArguments,
-                        Arrays.asList(new Statement[] {super.methodInvoker(method, test)}));
-        Statement start =
-                new Statement() {
-                    @Override
-                    public void evaluate() throws Throwable {
-                        for (Statement method : testMethodStatement) {
-                            method.evaluate();
-                        }
-                    }
-                };
+        Statement start;
+        if (mAdaptiveIterations) {
+            start = adaptiveMethodInvoker(method, test);
+        } else if (mIterationTimer) {
+            start = timedMethodInvoker(method, test);
+        } else {
+            start = iteratedMethodInvoker(method, test);
+        }
         // Wrap the multiple-iteration test method with trace points.
         start = getTracePointRule().apply(start, describeChild(method));
         // Invoke special @TightMethodRules that wrap @Test methods.
@@ -217,6 +266,151 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
         return start;
     }
 
+    /** Returns a {@link Statement} that invokes {@code method} "method-iterations" times. */
+    private Statement iteratedMethodInvoker(FrameworkMethod method, Object test) {
+        final List<Statement> testMethodStatement = iterateMethod(method, test);
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                for (Statement method : testMethodStatement) {
+                    method.evaluate();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link Statement} that invokes {@code method} "method-iterations" times, timing
+     * every iteration or batch of iterations, and then reports the duration statistics as metrics.
+     */
+    private Statement timedMethodInvoker(FrameworkMethod method, Object test) {
+        // All of the iterations are the same statement, so only the count is needed.
+        final int invocations = iterateMethod(method, test).size();
+        final Statement invoker = super.methodInvoker(method, test);
+        final Description description = describeChild(method);
+        final int batchSize =
+                Integer.parseInt(mArguments.getString(ITERATION_TIMER_BATCH_SIZE_OPTION, "1"));
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                IterationTimer timer = new IterationTimer(invocations, batchSize);
+                for (int done = 0; done < invocations; ) {
+                    int batch = Math.min(batchSize, invocations - done);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < batch; i++) {
+                        invoker.evaluate();
+                    }
+                    timer.record(System.nanoTime() - start, batch);
+                    done += batch;
+                }
+                reportTimerMetrics(timer, description);
+            }
+        };
+    }
+
+    /** Returns the test method statement repeated "method-iterations" times. */
+    private List<Statement> iterateMethod(FrameworkMethod method, Object test) {
+        // Iterate on the test method multiple times for more data. If unset, defaults to 1.
+        Iterate<Statement> methodIterator = new Iterate<Statement>();
+        methodIterator.setOptionName("method-iterations");
+        return methodIterator.apply(
+                mArguments, Arrays.asList(new Statement[] {super.methodInvoker(method, test)}));
+    }
+
+    /**
+     * Returns a {@link Statement} that invokes {@code method} until its duration converges, and
+     * then reports the achieved precision as metrics.
+     */
+    private Statement adaptiveMethodInvoker(FrameworkMethod method, Object test) {
+        final Statement invoker = super.methodInvoker(method, test);
+        final Description description = describeChild(method);
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                AdaptiveIterationTracker tracker = createAdaptiveIterationTracker();
+                do {
+                    long start = System.nanoTime();
+                    invoker.evaluate();
+                    tracker.addSample(System.nanoTime() - start);
+                } while (tracker.shouldContinue());
+                reportAdaptiveMetrics(tracker, description);
+            }
+        };
+    }
+
+    @VisibleForTesting
+    AdaptiveIterationTracker createAdaptiveIterationTracker() {
+        return new AdaptiveIterationTracker(
+                Double.parseDouble(mArguments.getString(ADAPTIVE_TARGET_WIDTH_OPTION, "0.05")),
+                TimeUnit.MILLISECONDS.toNanos(
+                        Long.parseLong(mArguments.getString(ADAPTIVE_TIME_BUDGET_OPTION, "60000"))),
+                Integer.parseInt(mArguments.getString(ADAPTIVE_MIN_SAMPLES_OPTION, "10")),
+                Integer.parseInt(mArguments.getString(ADAPTIVE_MAX_ITERATIONS_OPTION, "10000")));
+    }
+
+    private void reportAdaptiveMetrics(
+            AdaptiveIterationTracker tracker, Description description) {
+        Bundle metrics = new Bundle();
+        putMetric(metrics, ADAPTIVE_ITERATIONS_METRIC, description, tracker.getIterations());
+        putMetric(metrics, ADAPTIVE_WARMUP_METRIC, description, tracker.getWarmupIterations());
+        putMetric(metrics, ADAPTIVE_MEAN_METRIC, description, tracker.getMeanNanos());
+        putMetric(metrics, ADAPTIVE_WIDTH_METRIC, description, tracker.getRelativeWidth());
+        putMetric(metrics, ADAPTIVE_CONVERGED_METRIC, description, tracker.isConverged());
+        Log.d(LOG_TAG, String.format("Adaptive iterations of %s: %s", description, metrics));
+        getInstrumentation().sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+    }
+
+    private void reportTimerMetrics(IterationTimer timer, Description description) {
+        Bundle metrics = new Bundle();
+        // Write the raw samples first, as computing the statistics sorts them.
+        String outputDir = mArguments.getString(ITERATION_TIMER_OUTPUT_DIR_OPTION);
+        if (outputDir != null) {
+            File file =
+                    new File(
+                            outputDir,
+                            String.format(
+                                    "%s#%s_%s.txt",
+                                    description.getClassName(),
+                                    description.getMethodName(),
+                                    ITERATION_TIME_METRIC));
+            try {
+                timer.writeSamples(file);
+                putMetric(metrics, ITERATION_SAMPLES_FILE_METRIC, description, file.getPath());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, String.format("Failed to write iteration times to %s.", file), e);
+            }
+        }
+        putMetric(metrics, ITERATION_SAMPLES_METRIC, description, timer.getSampleCount());
+        putMetric(metrics, ITERATION_TIME_METRIC + "_min", description, timer.getMin());
+        putMetric(metrics, ITERATION_TIME_METRIC + "_median", description, timer.getPercentile(50));
+        putMetric(metrics, ITERATION_TIME_METRIC + "_p90", description, timer.getPercentile(90));
+        putMetric(metrics, ITERATION_TIME_METRIC + "_p99", description, timer.getPercentile(99));
+        putMetric(metrics, ITERATION_TIME_METRIC + "_max", description, timer.getMax());
+        putMetric(metrics, ITERATION_TIME_METRIC + "_mean", description, timer.getMean());
+        putMetric(
+                metrics,
+                ITERATION_TIME_METRIC + "_stddev",
+                description,
+                timer.getStandardDeviation());
+        getInstrumentation().sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+    }
+
+    private static void putMetric(
+            Bundle metrics, String metric, Description description, Object value) {
+        metrics.putString(
+                String.format(
+                        METRIC_FORMAT,
+                        metric,
+                        description.getClassName(),
+                        description.getMethodName()),
+                String.valueOf(value));
+    }
+
+    @VisibleForTesting
+    Instrumentation getInstrumentation() {
+        return InstrumentationRegistry.getInstrumentation();
+    }
+
     @VisibleForTesting
     protected TracePointRule getTracePointRule() {
         return new TracePointRule();
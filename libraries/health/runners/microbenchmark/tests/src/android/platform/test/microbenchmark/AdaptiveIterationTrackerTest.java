@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.microbenchmark;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AdaptiveIterationTracker}. */
+@RunWith(JUnit4.class)
+public final class AdaptiveIterationTrackerTest {
+    /** Test that slow warm-up iterations are discarded before the samples converge. */
+    @Test
+    public void testDiscardsWarmupAndConverges() {
+        AdaptiveIterationTracker tracker =
+                new AdaptiveIterationTracker(0.05, Long.MAX_VALUE, 10, 1000);
+        for (int i = 0; i < 5; i++) {
+            tracker.addSample(10_000);
+        }
+        int iteration = 0;
+        while (tracker.shouldContinue()) {
+            tracker.addSample(iteration++ % 2 == 0 ? 990 : 1010);
+        }
+        assertThat(tracker.isConverged()).isTrue();
+        assertThat(tracker.getWarmupIterations()).isEqualTo(5);
+        assertThat(tracker.getMeanNanos()).isWithin(10.0).of(1000.0);
+        assertThat(tracker.getRelativeWidth()).isAtMost(0.05);
+    }
+
+    /** Test that iterations stop when the time budget is spent, even if not converged. */
+    @Test
+    public void testStopsAtTimeBudget() {
+        AdaptiveIterationTracker tracker = new AdaptiveIterationTracker(1e-12, 10_000, 2, 1000);
+        int iteration = 0;
+        while (tracker.shouldContinue()) {
+            tracker.addSample(iteration++ % 2 == 0 ? 500 : 1500);
+        }
+        assertThat(tracker.isConverged()).isFalse();
+        assertThat(tracker.getIterations()).isEqualTo(10);
+    }
+
+    /** Test that no interval is computed until there are enough samples after the warm-up. */
+    @Test
+    public void testRequiresMinSamples() {
+        AdaptiveIterationTracker tracker =
+                new AdaptiveIterationTracker(0.05, Long.MAX_VALUE, 10, 1000);
+        for (int i = 0; i < 9; i++) {
+            tracker.addSample(1000);
+        }
+        assertThat(tracker.getRelativeWidth()).isPositiveInfinity();
+        assertThat(tracker.shouldContinue()).isTrue();
+        tracker.addSample(1000);
+        assertThat(tracker.isConverged()).isTrue();
+        assertThat(tracker.shouldContinue()).isFalse();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.microbenchmark;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/** Unit tests for {@link IterationTimer}. */
+@RunWith(JUnit4.class)
+public final class IterationTimerTest {
+    /** Test the statistics of the recorded samples. */
+    @Test
+    public void testStatistics() {
+        IterationTimer timer = new IterationTimer(100, 1);
+        for (int i = 100; i > 0; i--) {
+            timer.record(i, 1);
+        }
+        assertThat(timer.getSampleCount()).isEqualTo(100);
+        assertThat(timer.getMin()).isEqualTo(1);
+        assertThat(timer.getMax()).isEqualTo(100);
+        assertThat(timer.getPercentile(50)).isEqualTo(50);
+        assertThat(timer.getPercentile(90)).isEqualTo(90);
+        assertThat(timer.getPercentile(99)).isEqualTo(99);
+        assertThat(timer.getMean()).isWithin(1e-9).of(50.5);
+        assertThat(timer.getStandardDeviation()).isWithin(1e-3).of(29.011);
+    }
+
+    /** Test that batches record the mean duration of their invocations. */
+    @Test
+    public void testBatches() throws Exception {
+        IterationTimer timer = new IterationTimer(5, 2);
+        timer.record(20, 2);
+        timer.record(60, 2);
+        timer.record(15, 1);
+        assertThat(timer.getSampleCount()).isEqualTo(3);
+
+        File file = File.createTempFile("samples", ".txt");
+        try {
+            timer.writeSamples(file);
+            assertThat(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8))
+                    .isEqualTo("10\n30\n15\n");
+        } finally {
+            file.delete();
+        }
+        assertThat(timer.getMin()).isEqualTo(10);
+        assertThat(timer.getMax()).isEqualTo(30);
+    }
+}
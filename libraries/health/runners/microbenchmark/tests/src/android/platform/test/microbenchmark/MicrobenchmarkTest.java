@@ -16,12 +16,15 @@
 package android.platform.test.microbenchmark;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import android.app.Instrumentation;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.platform.test.microbenchmark.Microbenchmark.TerminateEarlyException;
@@ -243,6 +246,100 @@ public final class MicrobenchmarkTest {
                 .inOrder();
     }
 
+    /**
+     * Test adaptive method iterations repeat the inner-most test method until the iteration limit
+     * is reached when the target precision isn't, and report the achieved precision.
+     */
+    @Test
+    public void testAdaptiveMethodIterations() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString(Microbenchmark.ADAPTIVE_ITERATIONS_OPTION, "true");
+        args.putString(Microbenchmark.ADAPTIVE_TARGET_WIDTH_OPTION, "1e-12");
+        args.putString(Microbenchmark.ADAPTIVE_MIN_SAMPLES_OPTION, "2");
+        args.putString(Microbenchmark.ADAPTIVE_MAX_ITERATIONS_OPTION, "5");
+        LoggingMicrobenchmark loggingRunner = new LoggingMicrobenchmark(LoggingTest.class, args);
+        loggingRunner.setOperationLog(new ArrayList<String>());
+        LoggingMicrobenchmark runner = Mockito.spy(loggingRunner);
+        Instrumentation instrumentation = Mockito.mock(Instrumentation.class);
+        doReturn(instrumentation).when(runner).getInstrumentation();
+
+        Result result = new JUnitCore().run(runner);
+        assertThat(result.wasSuccessful()).isTrue();
+        assertThat(runner.getOperationLog())
+                .containsExactly(
+                        "before",
+                        "tight before",
+                        "begin: testMethod("
+                                + "android.platform.test.microbenchmark.MicrobenchmarkTest"
+                                + "$LoggingTest)",
+                        "test",
+                        "test",
+                        "test",
+                        "test",
+                        "test",
+                        "end",
+                        "tight after",
+                        "after")
+                .inOrder();
+
+        ArgumentCaptor<Bundle> metricsCaptor = ArgumentCaptor.forClass(Bundle.class);
+        verify(instrumentation).sendStatus(eq(2), metricsCaptor.capture());
+        String suffix = "_android.platform.test.microbenchmark.MicrobenchmarkTest$LoggingTest"
+                + "#testMethod";
+        Bundle metrics = metricsCaptor.getValue();
+        assertThat(metrics.getString(Microbenchmark.ADAPTIVE_ITERATIONS_METRIC + suffix))
+                .isEqualTo("5");
+        assertThat(metrics.getString(Microbenchmark.ADAPTIVE_CONVERGED_METRIC + suffix))
+                .isEqualTo("false");
+        assertThat(metrics.containsKey(Microbenchmark.ADAPTIVE_WIDTH_METRIC + suffix)).isTrue();
+    }
+
+    /**
+     * Test the iteration timer runs all method iterations in batches and reports their statistics
+     * once.
+     */
+    @Test
+    public void testIterationTimer() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString("method-iterations", "10");
+        args.putString(Microbenchmark.ITERATION_TIMER_OPTION, "true");
+        args.putString(Microbenchmark.ITERATION_TIMER_BATCH_SIZE_OPTION, "3");
+        LoggingMicrobenchmark loggingRunner = new LoggingMicrobenchmark(LoggingTest.class, args);
+        loggingRunner.setOperationLog(new ArrayList<String>());
+        LoggingMicrobenchmark runner = Mockito.spy(loggingRunner);
+        Instrumentation instrumentation = Mockito.mock(Instrumentation.class);
+        doReturn(instrumentation).when(runner).getInstrumentation();
+
+        Result result = new JUnitCore().run(runner);
+        assertThat(result.wasSuccessful()).isTrue();
+        assertThat(runner.getOperationLog().stream().filter("test"::equals).count())
+                .isEqualTo(10);
+
+        ArgumentCaptor<Bundle> metricsCaptor = ArgumentCaptor.forClass(Bundle.class);
+        verify(instrumentation).sendStatus(eq(2), metricsCaptor.capture());
+        String suffix = "_android.platform.test.microbenchmark.MicrobenchmarkTest$LoggingTest"
+                + "#testMethod";
+        Bundle metrics = metricsCaptor.getValue();
+        assertThat(metrics.getString(Microbenchmark.ITERATION_SAMPLES_METRIC + suffix))
+                .isEqualTo("4");
+        assertThat(metrics.containsKey(Microbenchmark.ITERATION_TIME_METRIC + "_p99" + suffix))
+                .isTrue();
+    }
+
+    /** Test that the adaptive iterations and the iteration timer can't be enabled together. */
+    @Test
+    public void testAdaptiveIterationsWithIterationTimer_fails() {
+        Bundle args = new Bundle();
+        args.putString(Microbenchmark.ADAPTIVE_ITERATIONS_OPTION, "true");
+        args.putString(Microbenchmark.ITERATION_TIMER_OPTION, "true");
+        InitializationError error =
+                assertThrows(
+                        InitializationError.class,
+                        () -> new LoggingMicrobenchmark(LoggingTest.class, args));
+        assertThat(error.getCauses().get(0).getMessage())
+                .contains(Microbenchmark.ITERATION_TIMER_OPTION);
+    }
+
     /** Test that the microbenchmark will terminate if the battery is too low. */
     @Test
     public void testStopsEarly_ifBatteryLevelIsBelowThreshold() throws InitializationError {
@@ -270,6 +367,20 @@ public final class MicrobenchmarkTest {
                 .matches("Terminating early.*battery level.*threshold.");
     }
 
+    /** Test that the adaptive iterations and the iteration timer can't be enabled together. */
+    @Test
+    public void testAdaptiveIterationsWithIterationTimer_fails() {
+        Bundle args = new Bundle();
+        args.putString(Microbenchmark.ADAPTIVE_ITERATIONS_OPTION, "true");
+        args.putString(Microbenchmark.ITERATION_TIMER_OPTION, "true");
+        InitializationError error =
+                assertThrows(
+                        InitializationError.class,
+                        () -> new LoggingMicrobenchmark(LoggingTest.class, args));
+        assertThat(error.getCauses().get(0).getMessage())
+                .contains(Microbenchmark.ITERATION_TIMER_OPTION);
+    }
+
     /** Test that the microbenchmark will terminate if the battery is too low. */
     @Test
     public void testStopsEarly_ifBatteryDrainIsAboveThreshold() throws InitializationError {
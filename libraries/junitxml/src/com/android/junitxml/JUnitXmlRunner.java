@@ -22,7 +22,6 @@ import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
@@ -32,7 +31,8 @@ import java.util.stream.Stream;
  * A JUnit runner that is intended to use as replacement of JUnitCore
  * which in addition to printing the test failures to stdout, will
  * write the results in XML format to the path specified in the env
- * variable XML_OUTPUT_FILE.
+ * variable XML_OUTPUT_FILE. When the env variable XML_OUTPUT_STREAMING
+ * is true, each test is written to the file as soon as it finishes.
  *
  * <p>To use this runner:
  *     {@code TEST_WORKSPACE=[...]
@@ -45,12 +45,14 @@ public class JUnitXmlRunner {
     private static XmlRunListener getRunListener() {
         String outputFile = System.getenv("XML_OUTPUT_FILE");
         String suiteName = System.getenv("TEST_WORKSPACE");
+        boolean streaming = Boolean.parseBoolean(System.getenv("XML_OUTPUT_STREAMING"));
         if (outputFile != null && outputFile.length() > 0) {
             try {
                 return new XmlRunListener(
                         new FileOutputStream(outputFile),
-                        suiteName != null ? suiteName : "Unknown test suite");
-            } catch (FileNotFoundException e) {
+                        suiteName != null ? suiteName : "Unknown test suite",
+                        streaming);
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import org.junit.runner.Description;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Writes a test suite in the format of {@link XmlRunListener} while the tests run, writing each
+ * {@code testcase} element as soon as the test finishes instead of building a document of the
+ * whole suite.
+ *
+ * <p>The counters and time of the {@code testsuite} element are only known at the end, so its
+ * start tag reserves a fixed number of bytes for them, which are overwritten when the suite ends.
+ */
+final class StreamingTestSuiteWriter implements XmlConstants {
+
+    private static final double ONE_SECOND = 1000.0;
+
+    private static final String TESTCASE_NAME_UNKNOWN = "unknown";
+
+    private static final String INDENT = "  ";
+
+    /** Bytes reserved in the testsuite start tag for its counters and time. */
+    private static final int SUMMARY_LENGTH = 128;
+
+    private final FileOutputStream mOutputStream;
+
+    private final Writer mWriter;
+
+    /** The tests that started and didn't finish yet. */
+    private final Map<Description, PendingTest> mPendingTests = new HashMap<>();
+
+    private final long mStartTime;
+
+    private final long mSummaryPosition;
+
+    private int mTests;
+
+    private int mFailures;
+
+    private int mErrors;
+
+    private int mSkipped;
+
+    /** A test that didn't finish, with the failure or skipped elements to write for it. */
+    private static class PendingTest {
+        final long mStartTime = System.currentTimeMillis();
+        final List<String[]> mChildren = new ArrayList<>();
+        final boolean mStarted;
+        boolean mFailed;
+        boolean mError;
+        boolean mSkipped;
+
+        PendingTest(boolean started) {
+            mStarted = started;
+        }
+    }
+
+    StreamingTestSuiteWriter(FileOutputStream out, String suiteName, String hostname,
+            Properties props) throws IOException {
+        mOutputStream = out;
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<" + ELEMENT_TESTSUITE);
+        writeAttribute(ATTR_TESTSUITE_NAME, suiteName);
+        writeAttribute(ATTR_TESTSUITE_HOSTNAME, hostname);
+        mWriter.write(' ');
+        mWriter.flush();
+        mSummaryPosition = out.getChannel().position();
+        mStartTime = System.currentTimeMillis();
+        mWriter.write(formatSummary(0));
+        mWriter.write(">\n" + INDENT + "<" + ELEMENT_PROPERTIES + ">\n");
+        if (props != null) {
+            for (Object name : props.keySet()) {
+                mWriter.write(INDENT + INDENT + "<" + ELEMENT_PROPERTY);
+                writeAttribute(ATTR_PROPERTY_NAME, (String) name);
+                writeAttribute(ATTR_PROPERTY_VALUE, props.getProperty((String) name));
+                mWriter.write("/>\n");
+            }
+        }
+        mWriter.write(INDENT + "</" + ELEMENT_PROPERTIES + ">\n");
+        mWriter.flush();
+    }
+
+    void testStarted(Description description) {
+        mPendingTests.put(description, new PendingTest(true));
+    }
+
+    /**
+     * Adds a failure or error to a test. The test is written right away if it wasn't started,
+     * e.g. for the failure of a whole class.
+     */
+    void testFailure(Description description, String type, String message, String trace)
+            throws IOException {
+        PendingTest test = getOrStart(description);
+        test.mChildren.add(new String[] {type, message, description.getClassName(), trace});
+        if (ELEMENT_FAILURE.equals(type)) {
+            test.mFailed = true;
+        } else {
+            test.mError = true;
+        }
+        finishIfNotStarted(description, test);
+    }
+
+    /**
+     * Marks a test as skipped. An ignored test isn't counted as skipped, and is written right
+     * away since it is never started.
+     */
+    void testSkipped(Description description, String message, boolean ignored)
+            throws IOException {
+        PendingTest test = getOrStart(description);
+        test.mChildren.add(new String[] {ELEMENT_SKIPPED, message, null, null});
+        test.mSkipped |= !ignored;
+        finishIfNotStarted(description, test);
+    }
+
+    /** Writes the testcase element of a finished test. */
+    void testFinished(Description description) throws IOException {
+        PendingTest test = mPendingTests.remove(description);
+        if (test == null) {
+            test = new PendingTest(false);
+        }
+        final String methodName = description.getMethodName();
+        mWriter.write(INDENT + "<" + ELEMENT_TESTCASE);
+        writeAttribute(
+                ATTR_TESTCASE_NAME, methodName == null ? TESTCASE_NAME_UNKNOWN : methodName);
+        writeAttribute(ATTR_TESTCASE_CLASSNAME, description.getClassName());
+        writeAttribute(ATTR_TESTCASE_TIME,
+                "" + ((System.currentTimeMillis() - test.mStartTime) / ONE_SECOND));
+        if (test.mChildren.isEmpty()) {
+            mWriter.write("/>\n");
+        } else {
+            mWriter.write(">\n");
+            for (String[] child : test.mChildren) {
+                writeChild(child[0], child[1], child[2], child[3]);
+            }
+            mWriter.write(INDENT + "</" + ELEMENT_TESTCASE + ">\n");
+        }
+        // Keep the finished tests if the process is killed before the suite ends.
+        mWriter.flush();
+
+        mTests++;
+        mFailures += test.mFailed ? 1 : 0;
+        mErrors += test.mError ? 1 : 0;
+        mSkipped += test.mSkipped ? 1 : 0;
+    }
+
+    /** Ends the document, then writes the final counters and time in the testsuite start tag. */
+    void endTestSuite() throws IOException {
+        long duration = System.currentTimeMillis() - mStartTime;
+        try {
+            mWriter.write("</" + ELEMENT_TESTSUITE + ">\n");
+            mWriter.flush();
+            FileChannel channel = mOutputStream.getChannel();
+            ByteBuffer summary = ByteBuffer.wrap(
+                    formatSummary(duration).getBytes(StandardCharsets.UTF_8));
+            long position = mSummaryPosition;
+            while (summary.hasRemaining()) {
+                position += channel.write(summary, position);
+            }
+        } finally {
+            mWriter.close();
+        }
+    }
+
+    private PendingTest getOrStart(Description description) {
+        PendingTest test = mPendingTests.get(description);
+        if (test == null) {
+            test = new PendingTest(false);
+            mPendingTests.put(description, test);
+        }
+        return test;
+    }
+
+    private void finishIfNotStarted(Description description, PendingTest test)
+            throws IOException {
+        if (!test.mStarted) {
+            testFinished(description);
+        }
+    }
+
+    /** Returns the counters and time attributes, padded to {@link #SUMMARY_LENGTH}. */
+    private String formatSummary(long duration) {
+        String summary = String.format("%s=\"%d\" %s=\"%d\" %s=\"%d\" %s=\"%d\" %s=\"%s\"",
+                ATTR_TESTSUITE_TESTS, mTests, ATTR_TESTSUITE_FAILURES, mFailures,
+                ATTR_TESTSUITE_ERRORS, mErrors, ATTR_TESTSUITE_SKIPPED, mSkipped,
+                ATTR_TESTSUITE_TIME, "" + (duration / ONE_SECOND));
+        char[] padding = new char[SUMMARY_LENGTH - summary.length()];
+        Arrays.fill(padding, ' ');
+        return summary + new String(padding);
+    }
+
+    private void writeChild(String type, String message, String className, String trace)
+            throws IOException {
+        mWriter.write(INDENT + INDENT + "<" + type);
+        if (message != null && (message.length() > 0 || ELEMENT_SKIPPED.equals(type))) {
+            writeAttribute(ATTR_FAILURE_MESSAGE, message);
+        }
+        if (className != null) {
+            writeAttribute(ATTR_FAILURE_TYPE, className);
+        }
+        if (trace == null) {
+            mWriter.write("/>\n");
+        } else {
+            mWriter.write(">");
+            writeEscaped(trace, false);
+            mWriter.write("</" + type + ">\n");
+        }
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        mWriter.write(' ');
+        mWriter.write(name);
+        mWriter.write("=\"");
+        writeEscaped(value, true);
+        mWriter.write('"');
+    }
+
+    /**
+     * Writes text escaped for XML. Characters that XML 1.0 doesn't allow are replaced, so that the
+     * file can be parsed even if a test printed control characters.
+     */
+    private void writeEscaped(String text, boolean attribute) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '"':
+                    mWriter.write(attribute ? "&quot;" : "\"");
+                    break;
+                case '\n':
+                    mWriter.write(attribute ? "&#10;" : "\n");
+                    break;
+                case '\r':
+                    mWriter.write("&#13;");
+                    break;
+                case '\t':
+                    mWriter.write(attribute ? "&#9;" : "\t");
+                    break;
+                default:
+                    mWriter.write(c < 0x20 || c == 0xfffe || c == 0xffff ? '\ufffd' : c);
+            }
+        }
+    }
+}
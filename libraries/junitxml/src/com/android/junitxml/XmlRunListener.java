@@ -25,6 +25,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Text;
 
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -78,6 +79,8 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     private long mStartTime;
 
+    private StreamingTestSuiteWriter mStreamingWriter;
+
     private static DocumentBuilder getDocumentBuilder() {
         try {
             return DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -93,6 +96,25 @@ public class XmlRunListener extends RunListener implements XmlConstants {
         startTestSuite(suiteName);
     }
 
+    /**
+     * Creates a listener that, when {@code streaming}, writes each test case to the file as soon as
+     * it finishes instead of keeping the whole suite in memory until {@link #endTestSuite}. The
+     * finished tests are then kept if the process dies, and memory doesn't grow with the number
+     * of tests.
+     */
+    public XmlRunListener(FileOutputStream out, String suiteName, boolean streaming)
+            throws IOException {
+        if (!streaming) {
+            mDocument = getDocumentBuilder().newDocument();
+            mRootElement = mDocument.createElement(ELEMENT_TESTSUITE);
+            mOutputStream = out;
+            startTestSuite(suiteName);
+            return;
+        }
+        mStreamingWriter = new StreamingTestSuiteWriter(
+                out, suiteName, getHostname(), System.getProperties());
+    }
+
     private void startTestSuite(String suiteName) {
         mRootElement.setAttribute(ATTR_TESTSUITE_NAME, suiteName);
 
@@ -130,6 +152,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     }
 
     public void endTestSuite() throws IOException {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.endTestSuite();
+            return;
+        }
         mRootElement.setAttribute(ATTR_TESTSUITE_TESTS, "" + mTestStarts.size());
         mRootElement.setAttribute(ATTR_TESTSUITE_FAILURES, "" + mFailedTests.size());
         mRootElement.setAttribute(ATTR_TESTSUITE_ERRORS, "" + mErrorTests.size());
@@ -172,6 +198,13 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     @Override
     public void testFailure(Failure failure) throws Exception {
         Description description = failure.getDescription();
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testFailure(description,
+                    failure.getException() instanceof AssertionError
+                            ? ELEMENT_FAILURE : ELEMENT_ERROR,
+                    failure.getMessage(), failure.getTrace());
+            return;
+        }
         testFinished(description);
 
         if (failure.getException() instanceof AssertionError) {
@@ -209,6 +242,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     @Override
     public void testFinished(Description description) throws Exception {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testFinished(description);
+            return;
+        }
         if (!mTestStarts.containsKey(description)) {
             testStarted(description);
         }
@@ -239,12 +276,21 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     @Override
     public void testStarted(Description description) throws Exception {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testStarted(description);
+            return;
+        }
         mTestStarts.put(description, System.currentTimeMillis());
     }
 
     @Override
     public void testIgnored(Description description) throws Exception {
         Ignore ignoreAnnotation = description.getAnnotation(Ignore.class);
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testSkipped(description,
+                    ignoreAnnotation != null ? ignoreAnnotation.value() : null, true);
+            return;
+        }
         formatSkip(description, ignoreAnnotation != null ? ignoreAnnotation.value() : null);
         mIgnoredTests.add(description);
     }
@@ -252,6 +298,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     @Override
     public void testAssumptionFailure(Failure failure) {
         try {
+            if (mStreamingWriter != null) {
+                mStreamingWriter.testSkipped(failure.getDescription(), failure.getMessage(), false);
+                return;
+            }
             formatSkip(failure.getDescription(), failure.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
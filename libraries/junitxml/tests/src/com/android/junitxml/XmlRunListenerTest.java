@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/** Unit tests for {@link XmlRunListener}, comparing its DOM and streaming modes. */
+@RunWith(JUnit4.class)
+public class XmlRunListenerTest {
+
+    private static final String SUITE_NAME = "XmlRunListenerTest";
+
+    private File mDomFile;
+    private File mStreamingFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDomFile = File.createTempFile("dom", ".xml");
+        mStreamingFile = File.createTempFile("streaming", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        mDomFile.delete();
+        mStreamingFile.delete();
+    }
+
+    /** Test that both modes write the same counters and test cases for the same events. */
+    @Test
+    public void testStreamingMatchesDom() throws Exception {
+        // Replayed from the same line so that the stack traces of the failures are the same.
+        for (boolean streaming : new boolean[] {false, true}) {
+            runEvents(streaming ? mStreamingFile : mDomFile, streaming);
+        }
+
+        Element domSuite = parse(mDomFile);
+        Element streamingSuite = parse(mStreamingFile);
+        for (String attribute :
+                new String[] {
+                    XmlConstants.ATTR_TESTSUITE_NAME,
+                    XmlConstants.ATTR_TESTSUITE_HOSTNAME,
+                    XmlConstants.ATTR_TESTSUITE_TESTS,
+                    XmlConstants.ATTR_TESTSUITE_FAILURES,
+                    XmlConstants.ATTR_TESTSUITE_ERRORS,
+                    XmlConstants.ATTR_TESTSUITE_SKIPPED
+                }) {
+            assertEquals(
+                    attribute,
+                    domSuite.getAttribute(attribute),
+                    streamingSuite.getAttribute(attribute));
+        }
+        assertEquals("7", streamingSuite.getAttribute(XmlConstants.ATTR_TESTSUITE_TESTS));
+        assertEquals("2", streamingSuite.getAttribute(XmlConstants.ATTR_TESTSUITE_FAILURES));
+        assertEquals("2", streamingSuite.getAttribute(XmlConstants.ATTR_TESTSUITE_ERRORS));
+        assertEquals("1", streamingSuite.getAttribute(XmlConstants.ATTR_TESTSUITE_SKIPPED));
+        assertEquals(getTestCases(domSuite), getTestCases(streamingSuite));
+    }
+
+    /** Test that characters XML 1.0 forbids don't make the streamed file unparseable. */
+    @Test
+    public void testStreamingReplacesInvalidCharacters() throws Exception {
+        XmlRunListener listener =
+                new XmlRunListener(new FileOutputStream(mStreamingFile), SUITE_NAME, true);
+        Description test = Description.createTestDescription(SampleTest.class, "testControl");
+        listener.testStarted(test);
+        listener.testFailure(new Failure(test, new AssertionError("bell\u0007")));
+        listener.testFinished(test);
+        listener.endTestSuite();
+
+        Element suite = parse(mStreamingFile);
+        Element failure =
+                (Element) suite.getElementsByTagName(XmlConstants.ELEMENT_FAILURE).item(0);
+        assertEquals("bell\ufffd", failure.getAttribute(XmlConstants.ATTR_FAILURE_MESSAGE));
+    }
+
+    /** Replays the events of a run with every kind of test result to a listener. */
+    private static void runEvents(File file, boolean streaming) throws Exception {
+        XmlRunListener listener =
+                new XmlRunListener(new FileOutputStream(file), SUITE_NAME, streaming);
+
+        Description passed = Description.createTestDescription(SampleTest.class, "testPassed");
+        listener.testStarted(passed);
+        listener.testFinished(passed);
+
+        Description failed = Description.createTestDescription(SampleTest.class, "testFailed");
+        listener.testStarted(failed);
+        listener.testFailure(
+                new Failure(failed, new AssertionError("expected:<1> but was:<\"2\" & 3>")));
+        listener.testFinished(failed);
+
+        Description error = Description.createTestDescription(SampleTest.class, "testError");
+        listener.testStarted(error);
+        listener.testFailure(new Failure(error, new IllegalStateException("broken\nstate")));
+        listener.testFinished(error);
+
+        Description noMessage = Description.createTestDescription(SampleTest.class, "testEmpty");
+        listener.testStarted(noMessage);
+        listener.testFailure(new Failure(noMessage, new AssertionError()));
+        listener.testFinished(noMessage);
+
+        Description assumption =
+                Description.createTestDescription(SampleTest.class, "testAssumption");
+        listener.testStarted(assumption);
+        listener.testAssumptionFailure(
+                new Failure(assumption, new RuntimeException("assumption failed")));
+        listener.testFinished(assumption);
+
+        Description ignored =
+                Description.createTestDescription(
+                        SampleTest.class,
+                        "testIgnored",
+                        SampleTest.class.getMethod("testIgnored").getAnnotation(Ignore.class));
+        listener.testIgnored(ignored);
+
+        // A failure of the whole class, e.g. in @BeforeClass, for a test that never started.
+        Description suite = Description.createSuiteDescription(SampleTest.class);
+        listener.testFailure(new Failure(suite, new RuntimeException("class failed")));
+
+        listener.endTestSuite();
+    }
+
+    private static Element parse(File file) throws Exception {
+        Document document =
+                DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        return document.getDocumentElement();
+    }
+
+    /**
+     * Returns a description of each test case of the suite with its children, leaving out the
+     * test times that differ between runs.
+     */
+    private static List<String> getTestCases(Element suite) {
+        List<String> testCases = new ArrayList<>();
+        NodeList testCaseElements = suite.getElementsByTagName(XmlConstants.ELEMENT_TESTCASE);
+        for (int i = 0; i < testCaseElements.getLength(); i++) {
+            Element testCase = (Element) testCaseElements.item(i);
+            StringBuilder builder = new StringBuilder();
+            builder.append(testCase.getAttribute(XmlConstants.ATTR_TESTCASE_CLASSNAME))
+                    .append('#')
+                    .append(testCase.getAttribute(XmlConstants.ATTR_TESTCASE_NAME));
+            NodeList children = testCase.getChildNodes();
+            for (int j = 0; j < children.getLength(); j++) {
+                if (!(children.item(j) instanceof Element)) {
+                    continue;
+                }
+                Element child = (Element) children.item(j);
+                builder.append(" <")
+                        .append(child.getTagName())
+                        .append(" message=")
+                        .append(child.hasAttribute(XmlConstants.ATTR_FAILURE_MESSAGE)
+                                ? child.getAttribute(XmlConstants.ATTR_FAILURE_MESSAGE)
+                                : null)
+                        .append(" type=")
+                        .append(child.getAttribute(XmlConstants.ATTR_FAILURE_TYPE))
+                        .append(" trace=")
+                        .append(child.getTextContent())
+                        .append('>');
+            }
+            testCases.add(builder.toString());
+        }
+        return testCases;
+    }
+
+    /** A test class used for the descriptions of the replayed events. */
+    public static class SampleTest {
+        @Ignore("not ready")
+        @Test
+        public void testIgnored() {}
+    }
+}